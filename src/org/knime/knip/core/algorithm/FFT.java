@@ -0,0 +1,323 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fast Fourier transform of complex sequences given as separate real and imaginary <code>double</code> arrays,
+ * transformed in-place. Powers of two are transformed by an iterative radix-2 Cooley-Tukey FFT, whose first two stages
+ * are fused into multiplication-free radix-4 butterflies. All other lengths are reduced to a power of two by
+ * Bluestein's chirp-z algorithm.
+ * 
+ * Twiddle factors (and Bluestein's chirps) are computed once per size, instances are immutable and can be used by
+ * several threads at the same time. The instances of the most recently used sizes are cached. Besides Bluestein's per-thread scratch buffers no memory is allocated by the
+ * transforms.
+ * 
+ * The forward transform computes X_k = sum_j x_j exp(-2 pi i jk / N), the inverse one is normalized by 1/N (as
+ * {@link InplaceFFT}).
+ */
+public final class FFT {
+
+    /** number of cached transforms */
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<Integer, FFT> CACHE = new LinkedHashMap<Integer, FFT>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, FFT> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param n the length of the sequences to be transformed
+     * @return the (possibly cached) transform for the given length
+     */
+    public static FFT forSize(final int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Length must be positive.");
+        }
+        synchronized (CACHE) {
+            FFT fft = CACHE.get(n);
+            if (fft == null) {
+                fft = new FFT(n);
+                CACHE.put(n, fft);
+            }
+            return fft;
+        }
+    }
+
+    private final int m_n;
+
+    /* power of two: twiddles exp(-2 pi i k / n), k < n / 2 */
+    private final double[] m_cos;
+
+    private final double[] m_sin;
+
+    /* Bluestein: chirp exp(-pi i k^2 / n) and the transformed conjugate chirp of the power of two transform */
+    private final FFT m_pow2;
+
+    private final double[] m_chirpRe;
+
+    private final double[] m_chirpIm;
+
+    private final double[] m_filterRe;
+
+    private final double[] m_filterIm;
+
+    private final ThreadLocal<double[][]> m_scratch;
+
+    private FFT(final int n) {
+        m_n = n;
+        if (Integer.highestOneBit(n) == n) {
+            m_cos = new double[n / 2];
+            m_sin = new double[n / 2];
+            for (int k = 0; k < (n / 2); k++) {
+                final double angle = (-2 * Math.PI * k) / n;
+                m_cos[k] = Math.cos(angle);
+                m_sin[k] = Math.sin(angle);
+            }
+            m_pow2 = null;
+            m_chirpRe = null;
+            m_chirpIm = null;
+            m_filterRe = null;
+            m_filterIm = null;
+            m_scratch = null;
+        } else {
+            m_cos = null;
+            m_sin = null;
+            final int m = Integer.highestOneBit((2 * n) - 1) << 1;
+            m_pow2 = forSize(m);
+
+            m_chirpRe = new double[n];
+            m_chirpIm = new double[n];
+            for (int k = 0; k < n; k++) {
+                // k^2 mod 2n keeps the angle small and hence accurate
+                final long kk = ((long)k * k) % (2L * n);
+                final double angle = (-Math.PI * kk) / n;
+                m_chirpRe[k] = Math.cos(angle);
+                m_chirpIm[k] = Math.sin(angle);
+            }
+
+            // conjugate chirp, wrapped around for negative indices
+            m_filterRe = new double[m];
+            m_filterIm = new double[m];
+            m_filterRe[0] = m_chirpRe[0];
+            m_filterIm[0] = -m_chirpIm[0];
+            for (int k = 1; k < n; k++) {
+                m_filterRe[k] = m_chirpRe[k];
+                m_filterIm[k] = -m_chirpIm[k];
+                m_filterRe[m - k] = m_chirpRe[k];
+                m_filterIm[m - k] = -m_chirpIm[k];
+            }
+            m_pow2.transform(m_filterRe, m_filterIm);
+
+            final int scratchSize = m;
+            m_scratch = new ThreadLocal<double[][]>() {
+                @Override
+                protected double[][] initialValue() {
+                    return new double[2][scratchSize];
+                }
+            };
+        }
+    }
+
+    /**
+     * @return the length of the transformed sequences
+     */
+    public int size() {
+        return m_n;
+    }
+
+    /**
+     * Forward transform, in-place.
+     * 
+     * @param re real parts, at least {@link #size()} long
+     * @param im imaginary parts, at least {@link #size()} long
+     */
+    public void transform(final double[] re, final double[] im) {
+        if ((re.length < m_n) || (im.length < m_n)) {
+            throw new IllegalArgumentException("Arrays shorter than the transform size " + m_n + ".");
+        }
+        if (m_pow2 == null) {
+            radix2(re, im);
+        } else {
+            bluestein(re, im);
+        }
+    }
+
+    /**
+     * Inverse transform normalized by 1/N, in-place.
+     * 
+     * @param re real parts, at least {@link #size()} long
+     * @param im imaginary parts, at least {@link #size()} long
+     */
+    public void inverse(final double[] re, final double[] im) {
+        // ifft(x) = conj(fft(conj(x))) / N
+        for (int i = 0; i < m_n; i++) {
+            im[i] = -im[i];
+        }
+        transform(re, im);
+        final double scale = 1.0 / m_n;
+        for (int i = 0; i < m_n; i++) {
+            re[i] *= scale;
+            im[i] *= -scale;
+        }
+    }
+
+    private void radix2(final double[] re, final double[] im) {
+        final int n = m_n;
+        if (n == 1) {
+            return;
+        }
+
+        // bit reversal permutation
+        final int shift = 1 + Integer.numberOfLeadingZeros(n);
+        for (int k = 0; k < n; k++) {
+            final int j = Integer.reverse(k) >>> shift;
+            if (j > k) {
+                double tmp = re[j];
+                re[j] = re[k];
+                re[k] = tmp;
+                tmp = im[j];
+                im[j] = im[k];
+                im[k] = tmp;
+            }
+        }
+
+        int len;
+        if (n >= 4) {
+            // first two stages at once, the twiddles are 1 and -i
+            for (int i = 0; i < n; i += 4) {
+                final double ar = re[i] + re[i + 1];
+                final double ai = im[i] + im[i + 1];
+                final double br = re[i] - re[i + 1];
+                final double bi = im[i] - im[i + 1];
+                final double cr = re[i + 2] + re[i + 3];
+                final double ci = im[i + 2] + im[i + 3];
+                final double dr = re[i + 2] - re[i + 3];
+                final double di = im[i + 2] - im[i + 3];
+                re[i] = ar + cr;
+                im[i] = ai + ci;
+                re[i + 2] = ar - cr;
+                im[i + 2] = ai - ci;
+                // (-i) * d = (di, -dr)
+                re[i + 1] = br + di;
+                im[i + 1] = bi - dr;
+                re[i + 3] = br - di;
+                im[i + 3] = bi + dr;
+            }
+            len = 8;
+        } else {
+            for (int i = 0; i < n; i += 2) {
+                final double tr = re[i + 1];
+                final double ti = im[i + 1];
+                re[i + 1] = re[i] - tr;
+                im[i + 1] = im[i] - ti;
+                re[i] += tr;
+                im[i] += ti;
+            }
+            len = 4;
+        }
+
+        // remaining radix-2 stages
+        for (; len <= n; len <<= 1) {
+            final int half = len >> 1;
+            final int step = n / len;
+            for (int k = 0; k < half; k++) {
+                final double wr = m_cos[k * step];
+                final double wi = m_sin[k * step];
+                for (int j = k; j < n; j += len) {
+                    final int l = j + half;
+                    final double tr = (wr * re[l]) - (wi * im[l]);
+                    final double ti = (wr * im[l]) + (wi * re[l]);
+                    re[l] = re[j] - tr;
+                    im[l] = im[j] - ti;
+                    re[j] += tr;
+                    im[j] += ti;
+                }
+            }
+        }
+    }
+
+    private void bluestein(final double[] re, final double[] im) {
+        final int n = m_n;
+        final int m = m_pow2.size();
+        final double[][] scratch = m_scratch.get();
+        final double[] ar = scratch[0];
+        final double[] ai = scratch[1];
+
+        // a_k = x_k * chirp_k, zero padded
+        for (int k = 0; k < n; k++) {
+            ar[k] = (re[k] * m_chirpRe[k]) - (im[k] * m_chirpIm[k]);
+            ai[k] = (re[k] * m_chirpIm[k]) + (im[k] * m_chirpRe[k]);
+        }
+        for (int k = n; k < m; k++) {
+            ar[k] = 0;
+            ai[k] = 0;
+        }
+
+        // convolution with the conjugate chirp
+        m_pow2.transform(ar, ai);
+        for (int k = 0; k < m; k++) {
+            final double r = (ar[k] * m_filterRe[k]) - (ai[k] * m_filterIm[k]);
+            ai[k] = (ar[k] * m_filterIm[k]) + (ai[k] * m_filterRe[k]);
+            ar[k] = r;
+        }
+        m_pow2.inverse(ar, ai);
+
+        // X_k = chirp_k * conv_k
+        for (int k = 0; k < n; k++) {
+            re[k] = (ar[k] * m_chirpRe[k]) - (ai[k] * m_chirpIm[k]);
+            im[k] = (ar[k] * m_chirpIm[k]) + (ai[k] * m_chirpRe[k]);
+        }
+    }
+}
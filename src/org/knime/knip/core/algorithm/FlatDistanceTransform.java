@@ -0,0 +1,523 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.meta.CalibratedSpace;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Exact Euclidean distance transform on flat arrays in linear time (Felzenszwalb and Huttenlocher, Distance Transforms
+ * of Sampled Functions). The squared distances are computed separably, dimension by dimension, as the lower envelope
+ * of parabolas along each line. Hence the result is exact for any number of dimensions and supports anisotropic pixel
+ * sizes. The lines of each dimension are distributed over the given executor.
+ * <p>
+ * As in the {@link net.imglib2.ops.operation.randomaccessibleinterval.unary.DistanceMap}, pixels outside of the image
+ * are not considered to be background. Pixels without any background pixel in the image get an infinite distance.
+ */
+public class FlatDistanceTransform {
+
+    /*
+     * number of lines processed together along the dimensions > 0, such that they are read from consecutive memory
+     */
+    private static final int LANES = 64;
+
+    private final int[] m_dims;
+
+    private final double[] m_weights;
+
+    private final ExecutorService m_executor;
+
+    private final int m_size;
+
+    /**
+     * @param interval the dimensions of the images to be processed
+     * @param calibration the size of a pixel in each dimension, may be <code>null</code> for unit sized pixels
+     * @param executor to distribute the lines, may be <code>null</code>
+     * @throws IllegalArgumentException if the interval doesn't {@link #fits(Interval) fit} into a flat array
+     */
+    public FlatDistanceTransform(final Interval interval, final double[] calibration, final ExecutorService executor) {
+        final int n = interval.numDimensions();
+        if ((calibration != null) && (calibration.length != n)) {
+            throw new IllegalArgumentException("Calibration must be given for " + n + " dimensions.");
+        }
+        m_dims = new int[n];
+        m_weights = new double[n];
+        m_executor = executor;
+
+        long size = 1;
+        for (int d = 0; d < n; d++) {
+            m_dims[d] = (int)interval.dimension(d);
+            size *= interval.dimension(d);
+            final double c = calibration == null ? 1 : calibration[d];
+            if (!(c > 0) || Double.isInfinite(c)) {
+                throw new IllegalArgumentException("Calibration must be positive.");
+            }
+            m_weights[d] = c * c;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large to be processed in a flat array.");
+        }
+        m_size = (int)size;
+    }
+
+    /**
+     * @param interval
+     * @return <code>true</code> if the given interval can be held in a flat array
+     */
+    public static boolean fits(final Interval interval) {
+        long size = 1;
+        for (int d = 0; d < interval.numDimensions(); d++) {
+            size *= interval.dimension(d);
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param space the image or labeling, its calibration is used if it is a {@link CalibratedSpace}
+     * @param numDims the number of dimensions
+     * @return the pixel sizes, 1 for each dimension without a valid calibration
+     */
+    public static double[] calibration(final Object space, final int numDims) {
+        final double[] res = new double[numDims];
+        Arrays.fill(res, 1);
+        if (space instanceof CalibratedSpace) {
+            final CalibratedSpace cs = (CalibratedSpace)space;
+            for (int d = 0; d < Math.min(numDims, cs.numDimensions()); d++) {
+                final double c = cs.calibration(d);
+                if ((c > 0) && !Double.isInfinite(c)) {
+                    res[d] = c;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of pixels
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * @param in the image, pixels not equal to zero are foreground
+     * @return the foreground mask in flat iteration order
+     */
+    public <T extends RealType<T>> boolean[] readMask(final RandomAccessibleInterval<T> in) {
+        final boolean[] mask = new boolean[m_size];
+        final Cursor<T> c = Views.flatIterable(in).cursor();
+        for (int i = 0; i < m_size; i++) {
+            mask[i] = c.next().getRealDouble() != 0;
+        }
+        return mask;
+    }
+
+    /**
+     * @param labeling
+     * @return the mask of all labeled pixels in flat iteration order
+     */
+    public <L extends Comparable<L>> boolean[] readMask(final Labeling<L> labeling) {
+        final boolean[] mask = new boolean[m_size];
+        final Cursor<LabelingType<L>> c = Views.flatIterable(labeling).cursor();
+        for (int i = 0; i < m_size; i++) {
+            mask[i] = !c.next().getLabeling().isEmpty();
+        }
+        return mask;
+    }
+
+    /**
+     * @param labeling
+     * @return for each pixel in flat iteration order a positive region index, one per distinct list of labels, or 0
+     *         for unlabeled pixels
+     */
+    public <L extends Comparable<L>> int[] readLabels(final Labeling<L> labeling) {
+        final int[] labels = new int[m_size];
+        final Cursor<LabelingType<L>> c = Views.flatIterable(labeling).cursor();
+        for (int i = 0; i < m_size; i++) {
+            final LabelingType<L> type = c.next();
+            labels[i] = type.getLabeling().isEmpty() ? 0 : type.getIndex().getInteger() + 1;
+        }
+        return labels;
+    }
+
+    /**
+     * @param mask the foreground in flat iteration order
+     * @return for each foreground pixel the distance to the nearest background pixel, 0 for background pixels
+     */
+    public double[] distances(final boolean[] mask) {
+        checkSize(mask.length);
+        final double[] res = new double[m_size];
+        for (int i = 0; i < m_size; i++) {
+            res[i] = mask[i] ? Double.POSITIVE_INFINITY : 0;
+        }
+        transform(res, m_dims, m_executor);
+        sqrt(res);
+        return res;
+    }
+
+    /**
+     * @param mask the foreground in flat iteration order
+     * @return for each foreground pixel the (positive) distance to the nearest background pixel and for each
+     *         background pixel the negative distance to the nearest foreground pixel
+     */
+    public double[] signedDistances(final boolean[] mask) {
+        checkSize(mask.length);
+        final double[] inside = new double[m_size];
+        final double[] outside = new double[m_size];
+        for (int i = 0; i < m_size; i++) {
+            inside[i] = mask[i] ? Double.POSITIVE_INFINITY : 0;
+            outside[i] = mask[i] ? 0 : Double.POSITIVE_INFINITY;
+        }
+        transform(inside, m_dims, m_executor);
+        transform(outside, m_dims, m_executor);
+        for (int i = 0; i < m_size; i++) {
+            inside[i] = mask[i] ? Math.sqrt(inside[i]) : -Math.sqrt(outside[i]);
+        }
+        return inside;
+    }
+
+    /**
+     * Distances within each region, i.e. touching regions are separated from each other as if there was background in
+     * between. Each region is transformed on its bounding box enlarged by one pixel, which is exact as any pixel beyond
+     * can't be closer than the border of the enlarged box.
+     *
+     * @param labels the region index of each pixel in flat iteration order, 0 for background, see
+     *            {@link #readLabels(Labeling)}
+     * @return for each pixel of a region the distance to the nearest pixel not in this region, 0 for background pixels
+     */
+    public double[] labelDistances(final int[] labels) {
+        checkSize(labels.length);
+        final int n = m_dims.length;
+
+        // bounding boxes of the regions
+        int maxLabel = 0;
+        for (int i = 0; i < m_size; i++) {
+            if (labels[i] < 0) {
+                throw new IllegalArgumentException("Region indices must not be negative.");
+            }
+            maxLabel = Math.max(maxLabel, labels[i]);
+        }
+        final int[][] min = new int[maxLabel + 1][];
+        final int[][] max = new int[maxLabel + 1][];
+        final int[] pos = new int[n];
+        for (int i = 0; i < m_size; i++) {
+            final int l = labels[i];
+            if (l != 0) {
+                if (min[l] == null) {
+                    min[l] = pos.clone();
+                    max[l] = pos.clone();
+                } else {
+                    for (int d = 0; d < n; d++) {
+                        min[l][d] = Math.min(min[l][d], pos[d]);
+                        max[l][d] = Math.max(max[l][d], pos[d]);
+                    }
+                }
+            }
+            for (int d = 0; d < n; d++) {
+                if (++pos[d] < m_dims[d]) {
+                    break;
+                }
+                pos[d] = 0;
+            }
+        }
+
+        // large regions are transformed one after another with parallel lines, the small ones in parallel
+        final double[] res = new double[m_size];
+        final List<Integer> small = new ArrayList<Integer>();
+        final long largeSize = m_size / Math.max(1, ParallelTools.numProcessors());
+        for (int l = 1; l <= maxLabel; l++) {
+            if (min[l] == null) {
+                continue;
+            }
+            long boxSize = 1;
+            for (int d = 0; d < n; d++) {
+                boxSize *= (Math.min(m_dims[d] - 1, max[l][d] + 1) - Math.max(0, min[l][d] - 1)) + 1;
+            }
+            if ((m_executor != null) && (boxSize >= largeSize)) {
+                transformRegion(labels, res, l, min[l], max[l], m_executor);
+            } else {
+                small.add(l);
+            }
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(small.size(), m_executor, 1)) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    for (int k = start; k < end; k++) {
+                        final int l = small.get(k);
+                        transformRegion(labels, res, l, min[l], max[l], null);
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+        return res;
+    }
+
+    /**
+     * Writes the results to the output in flat iteration order.
+     *
+     * @param res the distances
+     * @param out
+     */
+    public <O extends RealType<O>> void write(final double[] res, final RandomAccessibleInterval<O> out) {
+        final Cursor<O> c = Views.flatIterable(out).cursor();
+        for (int i = 0; i < res.length; i++) {
+            c.next().setReal(res[i]);
+        }
+    }
+
+    /*
+     * transforms the bounding box of one region, enlarged by one pixel, and writes the distances of its pixels
+     */
+    private void transformRegion(final int[] labels, final double[] res, final int label, final int[] min,
+                                 final int[] max, final ExecutorService executor) {
+        final int n = m_dims.length;
+        final int[] boxMin = new int[n];
+        final int[] boxDims = new int[n];
+        final int[] strides = new int[n];
+        int boxSize = 1;
+        for (int d = 0; d < n; d++) {
+            boxMin[d] = Math.max(0, min[d] - 1);
+            boxDims[d] = (Math.min(m_dims[d] - 1, max[d] + 1) - boxMin[d]) + 1;
+            strides[d] = d == 0 ? 1 : strides[d - 1] * m_dims[d - 1];
+            boxSize *= boxDims[d];
+        }
+
+        final double[] box = new double[boxSize];
+        final int rowLength = boxDims[0];
+        final int numRows = boxSize / rowLength;
+        for (int r = 0; r < numRows; r++) {
+            int idx = rowStart(r, boxMin, boxDims, strides);
+            for (int x = r * rowLength; x < ((r + 1) * rowLength); x++) {
+                box[x] = labels[idx++] == label ? Double.POSITIVE_INFINITY : 0;
+            }
+        }
+
+        transform(box, boxDims, executor);
+
+        for (int r = 0; r < numRows; r++) {
+            int idx = rowStart(r, boxMin, boxDims, strides);
+            for (int x = r * rowLength; x < ((r + 1) * rowLength); x++) {
+                if (labels[idx] == label) {
+                    res[idx] = Math.sqrt(box[x]);
+                }
+                idx++;
+            }
+        }
+    }
+
+    /*
+     * index in the whole image of the first pixel of the given row of a box
+     */
+    private static int rowStart(final int row, final int[] boxMin, final int[] boxDims, final int[] strides) {
+        int idx = boxMin[0];
+        int tmp = row;
+        for (int d = 1; d < boxDims.length; d++) {
+            idx += ((tmp % boxDims[d]) + boxMin[d]) * strides[d];
+            tmp /= boxDims[d];
+        }
+        return idx;
+    }
+
+    /*
+     * squared distance transform of the given buffer in place, 0 marks the background, infinity everything else
+     */
+    private void transform(final double[] buf, final int[] dims, final ExecutorService executor) {
+        int stride = 1;
+        for (int d = 0; d < dims.length; d++) {
+            final int len = dims[d];
+            final int lineStride = stride;
+            final int numLines = buf.length / len;
+            final double weight = m_weights[d];
+            final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Chunk chunk : ParallelTools.divideIntoChunks(numLines, executor,
+                                                                    Math.max(1, 4096 / Math.max(1, len)))) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        final int start = (int)chunk.getStartPosition();
+                        final int end = start + (int)chunk.getLoopSize();
+                        final int lanes = Math.min(LANES, lineStride);
+                        final double[] f = new double[len * lanes];
+                        final int[] v = new int[len];
+                        final double[] z = new double[len + 1];
+                        final double[] roots = new double[len];
+
+                        int line = start;
+                        while (line < end) {
+                            final int block = line / lineStride;
+                            final int from = line - (block * lineStride);
+                            final int to = Math.min(Math.min(lineStride, from + lanes), from + (end - line));
+                            final int num = to - from;
+                            final int offset = (block * lineStride * len) + from;
+                            // neighboring lines are copied together, such that the buffer is read consecutively
+                            for (int q = 0; q < len; q++) {
+                                final int idx = offset + (q * lineStride);
+                                for (int l = 0; l < num; l++) {
+                                    f[(l * len) + q] = buf[idx + l];
+                                }
+                            }
+                            boolean changed = false;
+                            for (int l = 0; l < num; l++) {
+                                changed |= transformLine(f, l * len, v, z, roots, len, weight);
+                            }
+                            if (changed) {
+                                for (int q = 0; q < len; q++) {
+                                    final int idx = offset + (q * lineStride);
+                                    for (int l = 0; l < num; l++) {
+                                        buf[idx + l] = f[(l * len) + q];
+                                    }
+                                }
+                            }
+                            line += num;
+                        }
+                        return null;
+                    }
+                });
+            }
+            ParallelTools.invokeAll(tasks, executor);
+            stride *= len;
+        }
+    }
+
+    /*
+     * lower envelope of the parabolas weight * (q - v)^2 + f(v) rooted at all finite samples of the line starting at off
+     * in f, evaluated in place. v holds the roots of the parabolas of the envelope, z the boundaries between them. As
+     * z[0] is minus infinity, the first parabola is never removed. Returns false if the line contains no finite sample,
+     * i.e. it is left untouched.
+     */
+    private static boolean transformLine(final double[] f, final int off, final int[] v, final double[] z,
+                                         final double[] roots, final int len, final double weight) {
+        int k = -1;
+        for (int q = 0; q < len; q++) {
+            final double fq = f[off + q];
+            if (fq == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Double.NEGATIVE_INFINITY;
+                z[1] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            final double hq = fq + (weight * q * q);
+            double s = intersection(f, off, v[k], q, hq, weight);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, off, v[k], q, hq, weight);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            return false;
+        }
+
+        // f is overwritten while evaluating, hence the values at the roots are copied first
+        for (int j = 0; j <= k; j++) {
+            roots[j] = f[off + v[j]];
+        }
+        int j = 0;
+        for (int q = 0; q < len; q++) {
+            while (z[j + 1] < q) {
+                j++;
+            }
+            final double dq = q - v[j];
+            f[off + q] = (weight * dq * dq) + roots[j];
+        }
+        return true;
+    }
+
+    /*
+     * position where the parabolas rooted at p and q intersect, hq being the value of f(q) + weight * q^2
+     */
+    private static double intersection(final double[] f, final int off, final int p, final int q, final double hq,
+                                       final double weight) {
+        return (hq - (f[off + p] + (weight * p * p))) / (2 * weight * (q - p));
+    }
+
+    private static void sqrt(final double[] buf) {
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = Math.sqrt(buf[i]);
+        }
+    }
+
+    private void checkSize(final int size) {
+        if (size != m_size) {
+            throw new IllegalArgumentException("Buffer of size " + size + " doesn't match the image size " + m_size
+                    + ".");
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Minimum and maximum over rectangular windows on flat <code>double</code> arrays, computed separably along each
+ * dimension with the van Herk/Gil-Werman algorithm, i.e. with a constant number of comparisons per pixel regardless
+ * of the window size. The input is read once from an extended source, including a margin of the window radius (span)
+ * in each dimension, such that any out of bounds strategy is supported. The lines of each dimension are distributed
+ * over the given executor.
+ */
+public class FlatMinMaxFilter {
+
+    /*
+     * number of lines processed together along the dimensions > 0, such that the inner loops run over consecutive
+     * memory
+     */
+    private static final int LANES = 64;
+
+    private final long[] m_min;
+
+    private final int[] m_dims;
+
+    private final int[] m_spans;
+
+    private final ExecutorService m_executor;
+
+    private final int m_size;
+
+    private final int m_paddedSize;
+
+    /**
+     * @param interval the interval to be filtered
+     * @param spans the radius of the window in each dimension, i.e. the window has a size of 2 * span + 1
+     * @param executor to distribute the lines, may be <code>null</code>
+     * @throws IllegalArgumentException if the padded interval doesn't {@link #fits(Interval, int[]) fit} into a flat
+     *             array, callers are expected to check this and fall back to scanning the neighborhoods
+     */
+    public FlatMinMaxFilter(final Interval interval, final int[] spans, final ExecutorService executor) {
+        final int n = interval.numDimensions();
+        if (spans.length != n) {
+            throw new IllegalArgumentException("Spans must be given for " + n + " dimensions.");
+        }
+        m_min = new long[n];
+        interval.min(m_min);
+        m_dims = new int[n];
+        m_spans = spans.clone();
+        m_executor = executor;
+
+        long size = 1;
+        long paddedSize = 1;
+        for (int d = 0; d < n; d++) {
+            if (spans[d] < 0) {
+                throw new IllegalArgumentException("Span must not be negative.");
+            }
+            m_dims[d] = (int)interval.dimension(d);
+            size *= interval.dimension(d);
+            paddedSize *= interval.dimension(d) + (2L * spans[d]);
+        }
+        if (paddedSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large to be processed in a flat array.");
+        }
+        m_size = (int)size;
+        m_paddedSize = (int)paddedSize;
+    }
+
+    /**
+     * @param interval
+     * @param spans
+     * @return <code>true</code> if the interval, padded by the spans, can be processed in a flat array
+     */
+    public static boolean fits(final Interval interval, final int[] spans) {
+        long paddedSize = 1;
+        for (int d = 0; d < interval.numDimensions(); d++) {
+            paddedSize *= interval.dimension(d) + (2L * spans[d]);
+            if (paddedSize > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of pixels of the filtered interval
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Reads the interval, padded by the spans, in flat iteration order.
+     *
+     * @param extended the source, extended beyond the interval by some out of bounds strategy
+     * @return the padded buffer
+     */
+    public <T extends RealType<T>> double[] read(final RandomAccessible<T> extended) {
+        final int n = m_dims.length;
+        final long[] min = new long[n];
+        final long[] max = new long[n];
+        for (int d = 0; d < n; d++) {
+            min[d] = m_min[d] - m_spans[d];
+            max[d] = (m_min[d] + m_dims[d] + m_spans[d]) - 1;
+        }
+
+        final double[] buf = new double[m_paddedSize];
+        final Cursor<T> c = Views.flatIterable(Views.interval(extended, new FinalInterval(min, max))).cursor();
+        for (int i = 0; i < m_paddedSize; i++) {
+            buf[i] = c.next().getRealDouble();
+        }
+        return buf;
+    }
+
+    /**
+     * @param padded the padded buffer, see {@link #read(RandomAccessible)}, not altered
+     * @param max if <code>true</code> the maximum is computed, else the minimum
+     * @return the extremum of the window around each pixel of the interval in flat iteration order (not padded)
+     */
+    public double[] filter(final double[] padded, final boolean max) {
+        if (padded.length != m_paddedSize) {
+            throw new IllegalArgumentException("Buffer of size " + padded.length + " doesn't match the padded size "
+                    + m_paddedSize + ".");
+        }
+
+        // dimension by dimension the padding is removed
+        final int[] cur = new int[m_dims.length];
+        for (int d = 0; d < m_dims.length; d++) {
+            cur[d] = m_dims[d] + (2 * m_spans[d]);
+        }
+        double[] src = padded;
+        for (int d = 0; d < m_dims.length; d++) {
+            final int stride = stride(cur, d);
+            final int lenIn = cur[d];
+            cur[d] = m_dims[d];
+            final int numBlocks = stride(cur, cur.length) / (stride * m_dims[d]);
+            final double[] dst = new double[stride(cur, cur.length)];
+            filterDimension(src, dst, stride, lenIn, m_dims[d], numBlocks, 2 * m_spans[d] + 1, max);
+            src = dst;
+        }
+        return src == padded ? padded.clone() : src;
+    }
+
+    private void filterDimension(final double[] src, final double[] dst, final int stride, final int lenIn,
+                                 final int lenOut, final int numBlocks, final int window, final boolean max) {
+        final int numLines = numBlocks * stride;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numLines, m_executor,
+                                                                Math.max(1, 4096 / Math.max(1, lenIn)))) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    final int lanes = Math.min(LANES, stride);
+                    final double[] g = new double[lenIn * lanes];
+                    final double[] h = new double[lenIn * lanes];
+
+                    int line = start;
+                    while (line < end) {
+                        final int block = line / stride;
+                        final int from = line - (block * stride);
+                        final int to = Math.min(Math.min(stride, from + lanes), from + (end - line));
+                        filterLines(src, dst, g, h, (block * stride * lenIn) + from,
+                                    (block * stride * lenOut) + from, stride, to - from, lenIn, lenOut, window,
+                                    max);
+                        line += to - from;
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+    }
+
+    /*
+     * van Herk/Gil-Werman on a group of neighboring lines: g holds the running extremum from the start of each
+     * segment of window size, h the running extremum from its end. The window starting at i spans at most two
+     * segments, hence its extremum is the one of h[i] and g[i + window - 1].
+     */
+    private static void filterLines(final double[] src, final double[] dst, final double[] g, final double[] h,
+                                    final int srcStart, final int dstStart, final int stride, final int lanes,
+                                    final int lenIn, final int lenOut, final int window, final boolean max) {
+        if (lanes == 1) {
+            filterLine(src, dst, g, h, srcStart, dstStart, stride, lenIn, lenOut, window, max);
+            return;
+        }
+        for (int k = 0; k < lenIn; k++) {
+            final int in = srcStart + (k * stride);
+            final int buf = k * lanes;
+            if ((k % window) == 0) {
+                for (int l = 0; l < lanes; l++) {
+                    g[buf + l] = src[in + l];
+                }
+            } else {
+                for (int l = 0; l < lanes; l++) {
+                    g[buf + l] = extremum(max, g[(buf - lanes) + l], src[in + l]);
+                }
+            }
+        }
+        for (int k = lenIn - 1; k >= 0; k--) {
+            final int in = srcStart + (k * stride);
+            final int buf = k * lanes;
+            if ((k == (lenIn - 1)) || ((k % window) == (window - 1))) {
+                for (int l = 0; l < lanes; l++) {
+                    h[buf + l] = src[in + l];
+                }
+            } else {
+                for (int l = 0; l < lanes; l++) {
+                    h[buf + l] = extremum(max, h[buf + lanes + l], src[in + l]);
+                }
+            }
+        }
+        for (int i = 0; i < lenOut; i++) {
+            final int out = dstStart + (i * stride);
+            final int left = i * lanes;
+            final int right = (i + window - 1) * lanes;
+            for (int l = 0; l < lanes; l++) {
+                dst[out + l] = extremum(max, h[left + l], g[right + l]);
+            }
+        }
+    }
+
+    /*
+     * the same for a single line, e.g. along the first dimension
+     */
+    private static void filterLine(final double[] src, final double[] dst, final double[] g, final double[] h,
+                                   final int srcStart, final int dstStart, final int stride, final int lenIn,
+                                   final int lenOut, final int window, final boolean max) {
+        for (int segment = 0; segment < lenIn; segment += window) {
+            final int end = Math.min(lenIn, segment + window);
+            double ext = src[srcStart + (segment * stride)];
+            g[segment] = ext;
+            for (int k = segment + 1; k < end; k++) {
+                ext = extremum(max, ext, src[srcStart + (k * stride)]);
+                g[k] = ext;
+            }
+            ext = src[srcStart + ((end - 1) * stride)];
+            h[end - 1] = ext;
+            for (int k = end - 2; k >= segment; k--) {
+                ext = extremum(max, ext, src[srcStart + (k * stride)]);
+                h[k] = ext;
+            }
+        }
+        for (int i = 0; i < lenOut; i++) {
+            dst[dstStart + (i * stride)] = extremum(max, h[i], g[(i + window) - 1]);
+        }
+    }
+
+    private static double extremum(final boolean max, final double a, final double b) {
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    /*
+     * product of the first d dimensions
+     */
+    private static int stride(final int[] dims, final int d) {
+        int stride = 1;
+        for (int e = 0; e < d; e++) {
+            stride *= dims[e];
+        }
+        return stride;
+    }
+}
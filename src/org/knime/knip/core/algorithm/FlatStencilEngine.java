@@ -0,0 +1,344 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Evaluates stencils with a radius of one pixel (3x3 in 2D, 3^n in nD) on flat <code>double</code> arrays. The input
+ * is copied once into a buffer padded by a one pixel wide halo, which is filled according to the {@link Border}
+ * strategy. Hence the {@link StencilKernel}s can access all neighbors by constant offsets without any bounds checks.
+ * The rows of the output are distributed over the given executor.
+ */
+public class FlatStencilEngine {
+
+    /**
+     * How the halo around the image is filled.
+     */
+    public enum Border {
+        /**
+         * all pixels outside are zero
+         */
+        ZERO,
+        /**
+         * mirrored without duplicating the border pixel (-1 -> 1)
+         */
+        MIRROR_SINGLE,
+        /**
+         * mirrored duplicating the border pixel (-1 -> 0)
+         */
+        MIRROR_DOUBLE;
+    }
+
+    /**
+     * A stencil evaluated for each pixel.
+     */
+    public interface StencilKernel {
+        /**
+         * @param src the padded source buffer
+         * @param center index of the center pixel in the padded buffer, all neighbors are accessible by the offsets
+         *            computed by {@link FlatStencilEngine#offset(int...)}
+         * @return the result for the center pixel
+         */
+        double compute(double[] src, int center);
+    }
+
+    private final int[] m_dims;
+
+    private final int[] m_paddedDims;
+
+    private final int[] m_paddedStrides;
+
+    private final int m_size;
+
+    private final int m_paddedSize;
+
+    private final Border m_border;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param interval the dimensions of the images to be processed, see {@link #fits(Interval)}
+     * @param border the border strategy
+     * @param executor to distribute the rows, may be <code>null</code>
+     */
+    public FlatStencilEngine(final Interval interval, final Border border, final ExecutorService executor) {
+        final int n = interval.numDimensions();
+        m_border = border;
+        m_executor = executor;
+        m_dims = new int[n];
+        m_paddedDims = new int[n];
+        m_paddedStrides = new int[n];
+
+        long size = 1;
+        long paddedSize = 1;
+        for (int d = 0; d < n; d++) {
+            m_dims[d] = (int)interval.dimension(d);
+            m_paddedDims[d] = m_dims[d] + 2;
+            m_paddedStrides[d] = (int)paddedSize;
+            size *= interval.dimension(d);
+            paddedSize *= interval.dimension(d) + 2;
+        }
+        if (paddedSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large to be processed in a flat array.");
+        }
+        m_size = (int)size;
+        m_paddedSize = (int)paddedSize;
+    }
+
+    /**
+     * @param interval
+     * @return <code>true</code> if the interval, padded by the halo, can be processed in a flat array. Otherwise the
+     *         engine can't be created and callers have to fall back to a generic implementation.
+     */
+    public static boolean fits(final Interval interval) {
+        long paddedSize = 1;
+        for (int d = 0; d < interval.numDimensions(); d++) {
+            paddedSize *= interval.dimension(d) + 2;
+            if (paddedSize > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of dimensions
+     */
+    public int numDimensions() {
+        return m_dims.length;
+    }
+
+    /**
+     * @param relPos position relative to the center pixel, each entry in [-1,1]
+     * @return the offset of the given position in the padded buffer
+     */
+    public int offset(final int... relPos) {
+        int offset = 0;
+        for (int d = 0; d < relPos.length; d++) {
+            offset += relPos[d] * m_paddedStrides[d];
+        }
+        return offset;
+    }
+
+    /**
+     * @param d the dimension
+     * @return the offset of the next pixel along dimension d
+     */
+    public int stride(final int d) {
+        return m_paddedStrides[d];
+    }
+
+    /**
+     * @param diagonals if <code>false</code> only the 2n face neighbors are returned (4-neighborhood in 2D), else all
+     *            3^n - 1 neighbors (8-neighborhood in 2D)
+     * @return the offsets of the neighbors in the padded buffer
+     */
+    public int[] neighborOffsets(final boolean diagonals) {
+        final int n = m_dims.length;
+        if (!diagonals) {
+            final int[] res = new int[2 * n];
+            for (int d = 0; d < n; d++) {
+                res[2 * d] = -m_paddedStrides[d];
+                res[(2 * d) + 1] = m_paddedStrides[d];
+            }
+            return res;
+        }
+
+        int num = 1;
+        for (int d = 0; d < n; d++) {
+            num *= 3;
+        }
+        final int[] res = new int[num - 1];
+        final int[] pos = new int[n];
+        int k = 0;
+        for (int i = 0; i < num; i++) {
+            int tmp = i;
+            boolean center = true;
+            for (int d = 0; d < n; d++) {
+                pos[d] = (tmp % 3) - 1;
+                tmp /= 3;
+                center &= pos[d] == 0;
+            }
+            if (!center) {
+                res[k++] = offset(pos);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Copies the input into a new padded buffer and fills the halo.
+     *
+     * @param in must have the dimensions the engine was created with
+     * @return the padded buffer
+     */
+    public <T extends RealType<T>> double[] read(final RandomAccessibleInterval<T> in) {
+        final double[] buf = new double[m_paddedSize];
+        final Cursor<T> c = Views.flatIterable(in).cursor();
+        final int rowLength = m_dims[0];
+        final int numRows = m_size / Math.max(1, rowLength);
+        for (int r = 0; r < numRows; r++) {
+            int idx = paddedRowStart(r);
+            for (int x = 0; x < rowLength; x++) {
+                buf[idx++] = c.next().getRealDouble();
+            }
+        }
+        fillHalo(buf);
+        return buf;
+    }
+
+    /**
+     * Fills the halo of the padded buffer according to the border strategy.
+     *
+     * @param buf the padded buffer
+     */
+    public void fillHalo(final double[] buf) {
+        if (m_border == Border.ZERO) {
+            return;
+        }
+        // dimension by dimension, such that also the corners are filled correctly
+        for (int d = 0; d < m_dims.length; d++) {
+            final int stride = m_paddedStrides[d];
+            final int pdim = m_paddedDims[d];
+            final int lineStride = stride * pdim;
+            final int numOuter = m_paddedSize / lineStride;
+
+            final int lowSrc;
+            final int highSrc;
+            if ((m_border == Border.MIRROR_DOUBLE) || (m_dims[d] == 1)) {
+                lowSrc = 1;
+                highSrc = pdim - 2;
+            } else {
+                lowSrc = 2;
+                highSrc = pdim - 3;
+            }
+
+            for (int o = 0; o < numOuter; o++) {
+                for (int s = 0; s < stride; s++) {
+                    final int base = (o * lineStride) + s;
+                    buf[base] = buf[base + (lowSrc * stride)];
+                    buf[base + ((pdim - 1) * stride)] = buf[base + (highSrc * stride)];
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the kernel for each pixel.
+     *
+     * @param src the padded buffer, see {@link #read(RandomAccessibleInterval)}
+     * @param kernel
+     * @return the results in flat iteration order (not padded)
+     */
+    public double[] apply(final double[] src, final StencilKernel kernel) {
+        final double[] res = new double[m_size];
+        final int rowLength = m_dims[0];
+        final int numRows = m_size / Math.max(1, rowLength);
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numRows, m_executor,
+                                                                Math.max(1, 4096 / Math.max(1, rowLength)))) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    for (int r = start; r < end; r++) {
+                        int center = paddedRowStart(r);
+                        int out = r * rowLength;
+                        for (int x = 0; x < rowLength; x++) {
+                            res[out++] = kernel.compute(src, center++);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+        return res;
+    }
+
+    /**
+     * Writes the results to the output in flat iteration order.
+     *
+     * @param res the results as returned by {@link #apply(double[], StencilKernel)}
+     * @param out
+     */
+    public <O extends RealType<O>> void write(final double[] res, final RandomAccessibleInterval<O> out) {
+        final Cursor<O> c = Views.flatIterable(out).cursor();
+        for (int i = 0; i < res.length; i++) {
+            c.next().setReal(res[i]);
+        }
+    }
+
+    /*
+     * index of the first (non halo) pixel of the given row in the padded buffer
+     */
+    private int paddedRowStart(final int row) {
+        int idx = m_paddedStrides[0];
+        int tmp = row;
+        for (int d = 1; d < m_dims.length; d++) {
+            idx += ((tmp % m_dims[d]) + 1) * m_paddedStrides[d];
+            tmp /= m_dims[d];
+        }
+        return idx;
+    }
+}
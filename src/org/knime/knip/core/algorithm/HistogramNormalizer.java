@@ -0,0 +1,443 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Histogram based normalization. The interval is split into chunks, each chunk computes its partial histogram and
+ * min/max in one pass, the partial results are merged to derive the saturation bounds. The normalization itself is a
+ * single fused scale-and-clip pass. No global lock is involved, hence instances can be used concurrently.
+ *
+ * For integer types with at most {@link #MAX_BINS} distinct values the histogram is indexed by the raw value (exactly
+ * as {@link net.imglib2.ops.operation.iterableinterval.unary.MinMax} does), for all other types the histogram is
+ * spanned over the actual value range, which requires one additional min/max pass. The raw values of 8, 12 and 16 bit
+ * images in array or planar storage are counted by the {@link IntegerHistogramBuilder}.
+ */
+public class HistogramNormalizer {
+
+    /**
+     * Maximum number of histogram bins.
+     */
+    public static final int MAX_BINS = 65536;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * Single threaded normalizer.
+     */
+    public HistogramNormalizer() {
+        this(null);
+    }
+
+    /**
+     * @param executor the executor to distribute the work, if <code>null</code> everything is done in the calling
+     *            thread
+     */
+    public HistogramNormalizer(final ExecutorService executor) {
+        m_executor = executor;
+    }
+
+    /**
+     * Result of the analysis of an interval.
+     */
+    public static class Statistics {
+
+        private final double m_min;
+
+        private final double m_max;
+
+        private final double m_saturatedMin;
+
+        private final double m_saturatedMax;
+
+        private final long[] m_histogram;
+
+        private final double m_binMin;
+
+        private final double m_binWidth;
+
+        Statistics(final double min, final double max, final double saturatedMin, final double saturatedMax,
+                   final long[] histogram, final double binMin, final double binWidth) {
+            m_min = min;
+            m_max = max;
+            m_saturatedMin = saturatedMin;
+            m_saturatedMax = saturatedMax;
+            m_histogram = histogram;
+            m_binMin = binMin;
+            m_binWidth = binWidth;
+        }
+
+        /**
+         * @return the minimum value of the interval
+         */
+        public double min() {
+            return m_min;
+        }
+
+        /**
+         * @return the maximum value of the interval
+         */
+        public double max() {
+            return m_max;
+        }
+
+        /**
+         * @return the lower bound after ignoring the saturated pixels
+         */
+        public double saturatedMin() {
+            return m_saturatedMin;
+        }
+
+        /**
+         * @return the upper bound after ignoring the saturated pixels
+         */
+        public double saturatedMax() {
+            return m_saturatedMax;
+        }
+
+        /**
+         * @return the merged histogram, <code>null</code> if no histogram was computed
+         */
+        public long[] histogram() {
+            return m_histogram;
+        }
+
+        /**
+         * @return the value represented by the lower border of the first bin
+         */
+        public double binMin() {
+            return m_binMin;
+        }
+
+        /**
+         * @return the width of one bin
+         */
+        public double binWidth() {
+            return m_binWidth;
+        }
+
+        /**
+         * @param targetMin
+         * @param targetMax
+         * @return with the normalization factor mapping the saturated range onto the target range at position 0, the
+         *         saturated minimum at position 1 (see
+         *         {@link org.knime.knip.core.util.NormalizationUtils#getNormalizationProperties})
+         */
+        public double[] normalizationProperties(final double targetMin, final double targetMax) {
+            return new double[]{factor(m_saturatedMin, m_saturatedMax, targetMin, targetMax), m_saturatedMin};
+        }
+    }
+
+    /**
+     * Computes min, max and, if the saturation is larger than zero, the histogram and the saturation bounds.
+     *
+     * @param interval
+     * @param saturation the percentage of pixels in the lower and upper domain to be ignored
+     * @return the statistics
+     */
+    public <T extends RealType<T>> Statistics analyze(final IterableInterval<T> interval, final double saturation) {
+        return analyze(interval, saturation, saturation != 0);
+    }
+
+    /**
+     * @param interval
+     * @param saturation the percentage of pixels in the lower and upper domain to be ignored
+     * @param computeHistogram if <code>true</code> the histogram is computed even if not needed for the saturation
+     * @return the statistics
+     */
+    public <T extends RealType<T>> Statistics analyze(final IterableInterval<T> interval, final double saturation,
+                                                      final boolean computeHistogram) {
+
+        final T type = interval.firstElement();
+        final boolean needsHistogram = computeHistogram || (saturation != 0);
+
+        final double binMin;
+        final double binWidth;
+        final int numBins;
+        double[] minMax = null;
+
+        if (IntegerHistogramBuilder.isDirect(interval)) {
+            // counting the raw values is as cheap as the min/max pass, min and max are derived from the histogram
+            final long[] hist = new IntegerHistogramBuilder(m_executor).rawHistogram(interval);
+            final double typeMin = type.getMinValue();
+            minMax = new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (int i = 0; i < hist.length; i++) {
+                if (hist[i] != 0) {
+                    minMax[0] = typeMin + i;
+                    break;
+                }
+            }
+            for (int i = hist.length - 1; i >= 0; i--) {
+                if (hist[i] != 0) {
+                    minMax[1] = typeMin + i;
+                    break;
+                }
+            }
+            if (!needsHistogram) {
+                return statistics(interval.size(), saturation, minMax, null, 0, 0);
+            }
+            return statistics(interval.size(), saturation, minMax, hist, typeMin, 1);
+        }
+
+        final List<Chunk> chunks = ParallelTools.divideIntoChunks(interval.size(), m_executor);
+
+        if (!needsHistogram) {
+            binMin = 0;
+            binWidth = 0;
+            numBins = 0;
+        } else if ((type instanceof IntegerType) && ((type.getMaxValue() - type.getMinValue()) < MAX_BINS)) {
+            binMin = type.getMinValue();
+            binWidth = 1;
+            numBins = (int)(type.getMaxValue() - type.getMinValue()) + 1;
+        } else {
+            minMax = merge(ParallelTools.invokeAll(createTasks(interval, chunks, 0, 0, 0), m_executor), null);
+            binMin = minMax[0];
+            binWidth = minMax[1] > minMax[0] ? (minMax[1] - minMax[0]) / MAX_BINS : 1;
+            numBins = MAX_BINS;
+        }
+
+        final long[] hist = numBins > 0 ? new long[numBins] : null;
+        if ((minMax == null) || (hist != null)) {
+            minMax =
+                    merge(ParallelTools.invokeAll(createTasks(interval, chunks, numBins, binMin, binWidth), m_executor),
+                          hist);
+        }
+
+        return statistics(interval.size(), saturation, minMax, hist, binMin, binWidth);
+    }
+
+    private static Statistics statistics(final long size, final double saturation, final double[] minMax,
+                                         final long[] hist, final double binMin, final double binWidth) {
+        double satMin = minMax[0];
+        double satMax = minMax[1];
+        if ((saturation != 0) && (hist != null)) {
+            final long threshold = (long)((size * saturation) / 200.0);
+
+            long count = 0;
+            for (int i = 0; i < hist.length; i++) {
+                count += hist[i];
+                if (count > threshold) {
+                    satMin = binMin + (i * binWidth);
+                    break;
+                }
+            }
+
+            count = 0;
+            for (int i = hist.length - 1; i >= 0; i--) {
+                count += hist[i];
+                if (count > threshold) {
+                    satMax = binMin + (i * binWidth);
+                    break;
+                }
+            }
+        }
+
+        return new Statistics(minMax[0], minMax[1], satMin, satMax, hist, binMin, binWidth);
+    }
+
+    /**
+     * Fused scale-and-clip: linearly maps [sourceMin, sourceMax] onto [targetMin, targetMax] and clips all values to
+     * the target range.
+     *
+     * @param in
+     * @param out must have the same dimensions as the input
+     * @param sourceMin
+     * @param sourceMax
+     * @param targetMin
+     * @param targetMax
+     */
+    public <T extends RealType<T>, O extends RealType<O>> void normalize(final IterableInterval<T> in,
+                                                                       final RandomAccessibleInterval<O> out,
+                                                                       final double sourceMin,
+                                                                       final double sourceMax,
+                                                                       final double targetMin,
+                                                                       final double targetMax) {
+        final double factor = factor(sourceMin, sourceMax, targetMin, targetMax);
+        final double lower = Math.min(targetMin, targetMax);
+        final double upper = Math.max(targetMin, targetMax);
+
+        final boolean sameIterationOrder =
+                (out instanceof IterableInterval)
+                        && in.iterationOrder().equals(((IterableInterval<?>)out).iterationOrder());
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(in.size(), m_executor)) {
+            tasks.add(new Callable<Void>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public Void call() {
+                    if (sameIterationOrder) {
+                        final Cursor<T> inCursor = in.cursor();
+                        final Cursor<O> outCursor = ((IterableInterval<O>)out).cursor();
+                        inCursor.jumpFwd(chunk.getStartPosition());
+                        outCursor.jumpFwd(chunk.getStartPosition());
+                        for (long i = 0; i < chunk.getLoopSize(); i++) {
+                            outCursor.next().setReal(scale(inCursor.next().getRealDouble(), sourceMin, factor,
+                                                           targetMin, lower, upper));
+                        }
+                    } else {
+                        final Cursor<T> inCursor = in.localizingCursor();
+                        final RandomAccess<O> outAccess = out.randomAccess();
+                        inCursor.jumpFwd(chunk.getStartPosition());
+                        for (long i = 0; i < chunk.getLoopSize(); i++) {
+                            inCursor.fwd();
+                            outAccess.setPosition(inCursor);
+                            outAccess.get().setReal(scale(inCursor.get().getRealDouble(), sourceMin, factor,
+                                                          targetMin, lower, upper));
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+    }
+
+    private static double scale(final double val, final double sourceMin, final double factor,
+                                final double targetMin, final double lower, final double upper) {
+        final double res = ((val - sourceMin) * factor) + targetMin;
+        return res < lower ? lower : (res > upper ? upper : res);
+    }
+
+    private static double factor(final double sourceMin, final double sourceMax, final double targetMin,
+                                 final double targetMax) {
+        if (sourceMax == sourceMin) {
+            return 0;
+        }
+        return (1 / (sourceMax - sourceMin)) * (targetMax - targetMin);
+    }
+
+    /*
+     * min, max and optionally the partial histogram of one chunk
+     */
+    private static class PartialResult {
+        private double m_min = Double.MAX_VALUE;
+
+        private double m_max = -Double.MAX_VALUE;
+
+        private long[] m_hist;
+    }
+
+    private <T extends RealType<T>> List<Callable<PartialResult>> createTasks(final IterableInterval<T> interval,
+                                                                              final List<Chunk> chunks,
+                                                                              final int numBins, final double binMin,
+                                                                              final double binWidth) {
+        final List<Callable<PartialResult>> tasks = new ArrayList<Callable<PartialResult>>(chunks.size());
+        for (final Chunk chunk : chunks) {
+            tasks.add(new Callable<PartialResult>() {
+                @Override
+                public PartialResult call() {
+                    final PartialResult res = new PartialResult();
+                    final Cursor<T> c = interval.cursor();
+                    c.jumpFwd(chunk.getStartPosition());
+
+                    double min = res.m_min;
+                    double max = res.m_max;
+                    if (numBins == 0) {
+                        for (long i = 0; i < chunk.getLoopSize(); i++) {
+                            final double val = c.next().getRealDouble();
+                            if (val < min) {
+                                min = val;
+                            }
+                            if (val > max) {
+                                max = val;
+                            }
+                        }
+                    } else {
+                        final long[] hist = new long[numBins];
+                        final int lastBin = numBins - 1;
+                        for (long i = 0; i < chunk.getLoopSize(); i++) {
+                            final double val = c.next().getRealDouble();
+                            if (val < min) {
+                                min = val;
+                            }
+                            if (val > max) {
+                                max = val;
+                            }
+                            final int bin = (int)((val - binMin) / binWidth);
+                            hist[bin < 0 ? 0 : (bin > lastBin ? lastBin : bin)]++;
+                        }
+                        res.m_hist = hist;
+                    }
+                    res.m_min = min;
+                    res.m_max = max;
+                    return res;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private static double[] merge(final List<PartialResult> partials, final long[] hist) {
+        final double[] minMax = new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (final PartialResult p : partials) {
+            minMax[0] = Math.min(minMax[0], p.m_min);
+            minMax[1] = Math.max(minMax[1], p.m_max);
+            if ((hist != null) && (p.m_hist != null)) {
+                for (int i = 0; i < hist.length; i++) {
+                    hist[i] += p.m_hist[i];
+                }
+            }
+        }
+        return minMax;
+    }
+}
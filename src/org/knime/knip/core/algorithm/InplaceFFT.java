@@ -23,12 +23,19 @@ import org.knime.knip.core.data.algebra.Complex;
  * 
  * Limitations ----------- - assumes N is a power of 2
  * 
+ * Delegates to {@link FFT} now, which should be used directly.
  * 
  *************************************************************************/
 
+@Deprecated
 public class InplaceFFT {
 
-    // compute the FFT of x[], assuming its length is a power of 2
+    /**
+     * compute the FFT of x[], assuming its length is a power of 2
+     * 
+     * @deprecated use {@link FFT}, which works on primitive arrays
+     */
+    @Deprecated
     public static Complex[] fft(final Complex[] x) {
 
         // check that length is a power of 2
@@ -37,53 +44,41 @@ public class InplaceFFT {
             throw new RuntimeException("N is not a power of 2");
         }
 
-        // bit reversal permutation
-        final int shift = 1 + Integer.numberOfLeadingZeros(N);
-        for (int k = 0; k < N; k++) {
-            final int j = Integer.reverse(k) >>> shift;
-            if (j > k) {
-                final Complex temp = x[j];
-                x[j] = x[k];
-                x[k] = temp;
-            }
+        final double[] re = new double[N];
+        final double[] im = new double[N];
+        for (int i = 0; i < N; i++) {
+            re[i] = x[i].re();
+            im[i] = x[i].im();
         }
-
-        // butterfly updates
-        for (int L = 2; L <= N; L = L + L) {
-            for (int k = 0; k < (L / 2); k++) {
-                final double kth = (-2 * k * Math.PI) / L;
-                final Complex w = new Complex(Math.cos(kth), Math.sin(kth));
-                for (int j = 0; j < (N / L); j++) {
-                    final Complex tao = w.times(x[(j * L) + k + (L / 2)]);
-                    x[(j * L) + k + (L / 2)] = x[(j * L) + k].minus(tao);
-                    x[(j * L) + k] = x[(j * L) + k].plus(tao);
-                }
-            }
+        FFT.forSize(N).transform(re, im);
+        for (int i = 0; i < N; i++) {
+            x[i] = new Complex(re[i], im[i]);
         }
 
         return x;
     }
 
-    // compute the inverse FFT of x[], assuming its length is a power of 2
+    /**
+     * compute the inverse FFT of x[], assuming its length is a power of 2
+     * 
+     * @deprecated use {@link FFT}, which works on primitive arrays
+     */
+    @Deprecated
     public static Complex[] ifft(final Complex[] x) {
         final int N = x.length;
-
-        // take conjugate
-        for (int i = 0; i < N; i++) {
-            x[i] = x[i].conjugate();
+        if (Integer.highestOneBit(N) != N) {
+            throw new RuntimeException("N is not a power of 2");
         }
 
-        // compute forward FFT
-        fft(x);
-
-        // take conjugate again
+        final double[] re = new double[N];
+        final double[] im = new double[N];
         for (int i = 0; i < N; i++) {
-            x[i] = x[i].conjugate();
+            re[i] = x[i].re();
+            im[i] = x[i].im();
         }
-
-        // divide by N
+        FFT.forSize(N).inverse(re, im);
         for (int i = 0; i < N; i++) {
-            x[i] = x[i].times(1.0 / N);
+            x[i] = new Complex(re[i], im[i]);
         }
 
         return x;
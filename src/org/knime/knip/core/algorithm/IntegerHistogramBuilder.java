@@ -0,0 +1,488 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.histogram.Real1dBinMapper;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.Unsigned12BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Builds histograms of integer images. For {@link UnsignedByteType}, {@link UnsignedShortType} and
+ * {@link Unsigned12BitType} stored in an {@link ArrayImg} or a {@link PlanarImg} (or an interval view on them, as
+ * created by {@link net.imglib2.ops.operation.SubsetOperations#subsetview}) the raw values are counted directly from
+ * the primitive arrays. Each task counts into its own partial histogram, the partial histograms are merged at the end.
+ * All other images are counted by a cursor, chunk-wise in parallel as well.
+ *
+ * The histograms returned by {@link #histogram(IterableInterval, int)} are identical to the ones computed by
+ * {@link net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram}.
+ */
+public class IntegerHistogramBuilder {
+
+    /**
+     * Default number of bins, as used by {@link net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram}.
+     */
+    public static final int DEFAULT_BINS = 256;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * Single threaded builder.
+     */
+    public IntegerHistogramBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param executor the executor to distribute the counting, if <code>null</code> everything is done in the calling
+     *            thread
+     */
+    public IntegerHistogramBuilder(final ExecutorService executor) {
+        m_executor = executor;
+    }
+
+    /**
+     * @param interval
+     * @return <code>true</code> if the raw values of the given interval can be counted directly from the underlying
+     *         primitive arrays
+     */
+    public static boolean isDirect(final IterableInterval<?> interval) {
+        return runs(interval) != null;
+    }
+
+    /**
+     * Counts the values of an integer image by their raw value, i.e. bin <code>i</code> holds the number of pixels
+     * with value <code>type.getMinValue() + i</code>.
+     *
+     * @param interval an interval of an integer type with at most {@link HistogramNormalizer#MAX_BINS} distinct values
+     * @return the histogram with one bin per possible value
+     */
+    public <T extends RealType<T>> long[] rawHistogram(final IterableInterval<T> interval) {
+        final T type = interval.firstElement().createVariable();
+        if (!(type instanceof IntegerType) || ((type.getMaxValue() - type.getMinValue()) >= HistogramNormalizer.MAX_BINS)) {
+            throw new IllegalArgumentException("Raw histograms are only supported for integer types with at most "
+                    + HistogramNormalizer.MAX_BINS + " values.");
+        }
+        final int numBins = (int)(type.getMaxValue() - type.getMinValue()) + 1;
+
+        final List<Run> runs = runs(interval);
+        if (runs != null) {
+            return countRuns(runs, numBins);
+        }
+
+        final double typeMin = type.getMinValue();
+        final List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(interval.size(), m_executor)) {
+            tasks.add(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    final long[] hist = new long[numBins];
+                    final Cursor<T> c = interval.cursor();
+                    c.jumpFwd(chunk.getStartPosition());
+                    for (long i = 0; i < chunk.getLoopSize(); i++) {
+                        hist[(int)(c.next().getRealDouble() - typeMin)]++;
+                    }
+                    return hist;
+                }
+            });
+        }
+        return merge(ParallelTools.invokeAll(tasks, m_executor), numBins);
+    }
+
+    /**
+     * The histogram spanned over the value range of the type, bin mapping as done by
+     * <code>new Real1dBinMapper(type.getMinValue(), type.getMaxValue(), numBins, false)</code>.
+     *
+     * @param interval
+     * @param numBins the number of bins
+     * @return the histogram
+     */
+    public <T extends RealType<T>> long[] histogram(final IterableInterval<T> interval, final int numBins) {
+        return histogram(interval, new long[numBins]);
+    }
+
+    /**
+     * As {@link #histogram(IterableInterval, int)}, but counts into the given array, e.g. to reuse it for many
+     * intervals.
+     *
+     * @param interval
+     * @param hist the histogram to be filled, its length is the number of bins, it is cleared first
+     * @return hist
+     */
+    public <T extends RealType<T>> long[] histogram(final IterableInterval<T> interval, final long[] hist) {
+        final int numBins = hist.length;
+        final T type = interval.firstElement().createVariable();
+        final Real1dBinMapper<T> mapper = createBinMapper(type, numBins);
+        Arrays.fill(hist, 0);
+
+        final List<Run> runs = runs(interval);
+        if (runs != null) {
+            // count the raw values and fold them into the bins
+            final long[] raw = countRuns(runs, (int)type.getMaxValue() + 1);
+            for (int v = 0; v < raw.length; v++) {
+                if (raw[v] != 0) {
+                    type.setReal(v);
+                    final long bin = mapper.map(type);
+                    if ((bin >= 0) && (bin < numBins)) {
+                        hist[(int)bin] += raw[v];
+                    }
+                }
+            }
+            return hist;
+        }
+
+        final List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(interval.size(), m_executor)) {
+            tasks.add(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    final Real1dBinMapper<T> taskMapper = mapper.copy();
+                    final long[] partial = new long[numBins];
+                    final Cursor<T> c = interval.cursor();
+                    c.jumpFwd(chunk.getStartPosition());
+                    for (long i = 0; i < chunk.getLoopSize(); i++) {
+                        final long bin = taskMapper.map(c.next());
+                        if ((bin >= 0) && (bin < numBins)) {
+                            partial[(int)bin]++;
+                        }
+                    }
+                    return partial;
+                }
+            });
+        }
+        for (final long[] partial : ParallelTools.invokeAll(tasks, m_executor)) {
+            for (int i = 0; i < numBins; i++) {
+                hist[i] += partial[i];
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * @param type
+     * @param numBins
+     * @return the bin mapper used by {@link #histogram(IterableInterval, int)}, e.g. to determine the value represented
+     *         by a bin
+     */
+    public static <T extends RealType<T>> Real1dBinMapper<T> createBinMapper(final T type, final int numBins) {
+        return new Real1dBinMapper<T>(type.getMinValue(), type.getMaxValue(), numBins, false);
+    }
+
+    /*
+     * a contiguous range of pixels in one primitive array
+     */
+    private static class Run {
+        private final Object m_data;
+
+        private final int m_start;
+
+        private int m_length;
+
+        Run(final Object data, final int start, final int length) {
+            m_data = data;
+            m_start = start;
+            m_length = length;
+        }
+    }
+
+    private long[] countRuns(final List<Run> runs, final int numBins) {
+        long size = 0;
+        for (final Run run : runs) {
+            size += run.m_length;
+        }
+
+        // split long runs such that the work can be distributed evenly
+        final int maxLength =
+                (int)Math.max(4096, (size + ParallelTools.numProcessors() - 1) / ParallelTools.numProcessors());
+        final List<Run> pieces = new ArrayList<Run>();
+        for (final Run run : runs) {
+            for (int start = 0; start < run.m_length; start += maxLength) {
+                pieces.add(new Run(run.m_data, run.m_start + start, Math.min(maxLength, run.m_length - start)));
+            }
+        }
+
+        final List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(pieces.size(), m_executor, 1)) {
+            tasks.add(new Callable<long[]>() {
+                @Override
+                public long[] call() {
+                    final long[] hist = new long[numBins];
+                    final int end = (int)(chunk.getStartPosition() + chunk.getLoopSize());
+                    for (int p = (int)chunk.getStartPosition(); p < end; p++) {
+                        count(pieces.get(p), hist);
+                    }
+                    return hist;
+                }
+            });
+        }
+        return merge(ParallelTools.invokeAll(tasks, m_executor), numBins);
+    }
+
+    private static void count(final Run run, final long[] hist) {
+        final int end = run.m_start + run.m_length;
+        if (run.m_data instanceof byte[]) {
+            final byte[] data = (byte[])run.m_data;
+            for (int i = run.m_start; i < end; i++) {
+                hist[data[i] & 0xff]++;
+            }
+        } else if (run.m_data instanceof short[]) {
+            final short[] data = (short[])run.m_data;
+            for (int i = run.m_start; i < end; i++) {
+                hist[data[i] & 0xffff]++;
+            }
+        } else {
+            // 12 bit values, packed least significant bit first into the bits of consecutive ints
+            final int[] data = (int[])run.m_data;
+            for (int i = run.m_start; i < end; i++) {
+                final int bit = i * 12;
+                final int word = bit >>> 5;
+                long bits = data[word] & 0xffffffffL;
+                if (word + 1 < data.length) {
+                    bits |= ((long)data[word + 1]) << 32;
+                }
+                hist[(int)((bits >>> (bit & 31)) & 0xfff)]++;
+            }
+        }
+    }
+
+    private static long[] merge(final List<long[]> partials, final int numBins) {
+        final long[] hist = partials.size() == 1 ? partials.get(0) : new long[numBins];
+        if (partials.size() > 1) {
+            for (final long[] partial : partials) {
+                for (int i = 0; i < numBins; i++) {
+                    hist[i] += partial[i];
+                }
+            }
+        }
+        return hist;
+    }
+
+    /*
+     * the primitive arrays covered by the interval, each row of the interval is one run (adjacent runs are joined).
+     * null if the raw values can't be accessed directly.
+     */
+    private static List<Run> runs(final IterableInterval<?> interval) {
+        final Object type = interval.firstElement();
+        if (!(type instanceof UnsignedByteType) && !(type instanceof UnsignedShortType)
+                && !(type instanceof Unsigned12BitType)) {
+            return null;
+        }
+
+        // unwrap the views, the transformations map from the interval to the image coordinates
+        final List<MixedTransform> transforms = new ArrayList<MixedTransform>();
+        final List<Integer> transformDims = new ArrayList<Integer>();
+        Object src = interval;
+        while (true) {
+            if (src instanceof IntervalView) {
+                src = ((IntervalView<?>)src).getSource();
+            } else if (src instanceof MixedTransformView) {
+                final MixedTransformView<?> view = (MixedTransformView<?>)src;
+                transforms.add(view.getTransformToSource());
+                transformDims.add(view.getSource().numDimensions());
+                src = view.getSource();
+            } else {
+                break;
+            }
+        }
+
+        final Object firstData;
+        if (src instanceof ArrayImg) {
+            firstData = ((ArrayImg<?, ?>)src).update(null);
+        } else if (src instanceof PlanarImg) {
+            firstData = ((PlanarImg<?, ?>)src).getPlane(0);
+        } else {
+            return null;
+        }
+        if (!((type instanceof UnsignedByteType) && (firstData instanceof ByteArray))
+                && !((type instanceof UnsignedShortType) && (firstData instanceof ShortArray))
+                && !((type instanceof Unsigned12BitType) && (firstData instanceof BitArray))) {
+            return null;
+        }
+
+        final IterableInterval<?> img = (IterableInterval<?>)src;
+        final int n = interval.numDimensions();
+        final int imgDims = img.numDimensions();
+        final long[] imgDimensions = new long[imgDims];
+        img.dimensions(imgDimensions);
+
+        // the corners of the interval must be inside of the image
+        final long[] pos = new long[n];
+        final long[] imgPos = new long[imgDims];
+        interval.min(pos);
+        toImg(pos, transforms, transformDims, imgPos);
+        final long[] rowStart = imgPos.clone();
+        if (!inside(imgPos, imgDimensions)) {
+            return null;
+        }
+        interval.max(pos);
+        toImg(pos, transforms, transformDims, imgPos);
+        if (!inside(imgPos, imgDimensions)) {
+            return null;
+        }
+
+        // a row of the interval must be a row of the image
+        final int rowLength = n == 0 ? 1 : (int)interval.dimension(0);
+        if (rowLength > 1) {
+            interval.min(pos);
+            pos[0]++;
+            toImg(pos, transforms, transformDims, imgPos);
+            for (int d = 0; d < imgDims; d++) {
+                if (imgPos[d] != (rowStart[d] + (d == 0 ? 1 : 0))) {
+                    return null;
+                }
+            }
+        }
+
+        final List<Run> runs = new ArrayList<Run>();
+        if (interval.size() == 0) {
+            return runs;
+        }
+
+        final boolean planar = src instanceof PlanarImg;
+        final long[] strides = new long[imgDims];
+        long stride = 1;
+        for (int d = planar ? Math.min(2, imgDims) : 0; d < imgDims; d++) {
+            strides[d] = stride;
+            stride *= imgDimensions[d];
+        }
+
+        final long numRows = interval.size() / rowLength;
+        interval.min(pos);
+        Run last = null;
+        for (long r = 0; r < numRows; r++) {
+            toImg(pos, transforms, transformDims, imgPos);
+
+            final Object data;
+            final int start;
+            if (planar) {
+                long plane = 0;
+                for (int d = 2; d < imgDims; d++) {
+                    plane += imgPos[d] * strides[d];
+                }
+                data = ((PlanarImg<?, ?>)src).getPlane((int)plane);
+                start = (int)(imgPos[0] + (imgDims > 1 ? imgPos[1] * imgDimensions[0] : 0));
+            } else {
+                data = firstData;
+                long idx = 0;
+                for (int d = 0; d < imgDims; d++) {
+                    idx += imgPos[d] * strides[d];
+                }
+                start = (int)idx;
+            }
+
+            final Object array = storageArray(data);
+            if ((last != null) && (last.m_data == array) && ((last.m_start + last.m_length) == start)) {
+                last.m_length += rowLength;
+            } else {
+                last = new Run(array, start, rowLength);
+                runs.add(last);
+            }
+
+            // next row
+            for (int d = 1; d < n; d++) {
+                if (pos[d] < interval.max(d)) {
+                    pos[d]++;
+                    break;
+                }
+                pos[d] = interval.min(d);
+            }
+        }
+        return runs;
+    }
+
+    private static Object storageArray(final Object access) {
+        if (access instanceof ByteArray) {
+            return ((ByteArray)access).getCurrentStorageArray();
+        } else if (access instanceof ShortArray) {
+            return ((ShortArray)access).getCurrentStorageArray();
+        } else {
+            return ((BitArray)access).getCurrentStorageArray();
+        }
+    }
+
+    private static void toImg(final long[] pos, final List<MixedTransform> transforms,
+                              final List<Integer> transformDims, final long[] imgPos) {
+        long[] current = pos;
+        for (int t = 0; t < transforms.size(); t++) {
+            final long[] next = new long[transformDims.get(t)];
+            transforms.get(t).apply(current, next);
+            current = next;
+        }
+        System.arraycopy(current, 0, imgPos, 0, imgPos.length);
+    }
+
+    private static boolean inside(final long[] pos, final long[] dims) {
+        for (int d = 0; d < pos.length; d++) {
+            if ((pos[d] < 0) || (pos[d] >= dims[d])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
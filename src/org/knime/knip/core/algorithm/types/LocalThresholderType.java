@@ -1,5 +1,5 @@
 package org.knime.knip.core.algorithm.types;
 
 public enum LocalThresholderType {
-    MEAN, MIDGREY, NIBLACK, SIMNACHER;
+    MEAN, MIDGREY, NIBLACK, SIMNACHER, SAUVOLA, PHANSALKAR, CONTRAST, BERNSEN;
 }
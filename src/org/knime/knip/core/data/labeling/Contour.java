@@ -0,0 +1,263 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.data.labeling;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * The outer contour of a two dimensional binary region, traced once by a Moore-neighbor trace (8-connected, stopping
+ * as soon as the start pixel would be left in the same direction a second time). The trace starts at the first pixel of the region in raster order and walks clockwise
+ * (with the y-axis pointing downwards). If the region consists of several components, only the component containing
+ * the start pixel is traced.
+ */
+public class Contour {
+
+    /* Moore neighborhood, clockwise starting east */
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final long[] m_min;
+
+    private final int[] m_xs;
+
+    private final int[] m_ys;
+
+    private final byte[] m_chainCode;
+
+    private final double m_length;
+
+    /**
+     * Traces the contour of the (true) pixels of the given interval.
+     * 
+     * @param ii a two dimensional region, i.e. at most two dimensions with a size larger than one
+     * @param dimX
+     * @param dimY
+     */
+    public Contour(final IterableInterval<BitType> ii, final int dimX, final int dimY) {
+        m_min = new long[]{ii.min(dimX), ii.min(dimY)};
+        final int width = (int)ii.dimension(dimX);
+        final int height = (int)ii.dimension(dimY);
+
+        // mask padded by one pixel, such that no bounds checks are needed
+        final int stride = width + 2;
+        final boolean[] mask = new boolean[stride * (height + 2)];
+        int start = Integer.MAX_VALUE;
+        long numPixels = 0;
+        final Cursor<BitType> c = ii.localizingCursor();
+        while (c.hasNext()) {
+            if (c.next().get()) {
+                final int idx =
+                        (int)((((c.getLongPosition(dimY) - m_min[1]) + 1) * stride) + (c.getLongPosition(dimX) - m_min[0]))
+                                + 1;
+                mask[idx] = true;
+                start = Math.min(start, idx);
+                numPixels++;
+            }
+        }
+        if (start == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Empty region has no contour.");
+        }
+
+        final int[] offsets = new int[8];
+        for (int d = 0; d < 8; d++) {
+            offsets[d] = (DY[d] * stride) + DX[d];
+        }
+
+        int capacity = 64;
+        int[] path = new int[capacity];
+        byte[] codes = new byte[capacity];
+        int num = 0;
+
+        // the west neighbor of the first pixel in raster order is background
+        int current = start;
+        int back = 4;
+        int firstDir = -1;
+        path[num] = start;
+        // each pixel is visited at most four times
+        final long maxSteps = (4 * numPixels) + 4;
+        while (num < maxSteps) {
+            int dir = -1;
+            for (int i = 1; i < 8; i++) {
+                final int d = (back + i) & 7;
+                if (mask[current + offsets[d]]) {
+                    dir = d;
+                    break;
+                }
+            }
+            if (dir < 0) {
+                // isolated pixel
+                break;
+            }
+            if (current == start) {
+                // the trace only depends on the pixel and the direction taken, hence leaving the start pixel in the
+                // same direction again would repeat the contour
+                if (dir == firstDir) {
+                    break;
+                } else if (firstDir < 0) {
+                    firstDir = dir;
+                }
+            }
+            final int next = current + offsets[dir];
+            // the last background pixel checked becomes the backtrack pixel of the next one
+            final int prevDir = (dir + 7) & 7;
+            final int bx = (DX[prevDir] - DX[dir]);
+            final int by = (DY[prevDir] - DY[dir]);
+            for (int d = 0; d < 8; d++) {
+                if ((DX[d] == bx) && (DY[d] == by)) {
+                    back = d;
+                    break;
+                }
+            }
+            if ((num + 1) == capacity) {
+                capacity *= 2;
+                final int[] tmpPath = new int[capacity];
+                System.arraycopy(path, 0, tmpPath, 0, num + 1);
+                path = tmpPath;
+                final byte[] tmpCodes = new byte[capacity];
+                System.arraycopy(codes, 0, tmpCodes, 0, num);
+                codes = tmpCodes;
+            }
+            codes[num] = (byte)dir;
+            path[++num] = next;
+            current = next;
+        }
+
+        // num steps lead back to the start, hence num distinct points (at least one)
+        final int numPoints = Math.max(1, num);
+        m_xs = new int[numPoints];
+        m_ys = new int[numPoints];
+        m_chainCode = new byte[num];
+        System.arraycopy(codes, 0, m_chainCode, 0, num);
+        double length = 0;
+        for (int i = 0; i < numPoints; i++) {
+            m_xs[i] = (path[i] % stride) - 1;
+            m_ys[i] = (path[i] / stride) - 1;
+        }
+        for (int i = 0; i < num; i++) {
+            length += (m_chainCode[i] & 1) == 0 ? 1 : Math.sqrt(2);
+        }
+        m_length = length;
+    }
+
+    /**
+     * @return number of contour points
+     */
+    public int size() {
+        return m_xs.length;
+    }
+
+    /**
+     * @param i
+     * @return x-coordinate of the i-th contour point
+     */
+    public long getX(final int i) {
+        return m_xs[i] + m_min[0];
+    }
+
+    /**
+     * @param i
+     * @return y-coordinate of the i-th contour point
+     */
+    public long getY(final int i) {
+        return m_ys[i] + m_min[1];
+    }
+
+    /**
+     * @return the Freeman chain code, the i-th code leads from point i to point i+1 (0 = east, clockwise)
+     */
+    public byte[] chainCode() {
+        return m_chainCode.clone();
+    }
+
+    /**
+     * @return the length of the closed contour polygon, i.e. the number of horizontal and vertical steps plus sqrt(2)
+     *         times the number of diagonal steps
+     */
+    public double length() {
+        return m_length;
+    }
+
+    /**
+     * Samples the closed contour polygon at equidistant arc length positions.
+     * 
+     * @param numSamples
+     * @return the (linearly interpolated) x- and y-coordinates, each of length numSamples
+     */
+    public double[][] resample(final int numSamples) {
+        final double[][] res = new double[2][numSamples];
+        final int num = m_chainCode.length;
+        if (num == 0) {
+            for (int i = 0; i < numSamples; i++) {
+                res[0][i] = getX(0);
+                res[1][i] = getY(0);
+            }
+            return res;
+        }
+
+        final double step = m_length / numSamples;
+        int seg = 0;
+        double segStart = 0;
+        double segLength = (m_chainCode[0] & 1) == 0 ? 1 : Math.sqrt(2);
+        for (int i = 0; i < numSamples; i++) {
+            final double pos = i * step;
+            while (((segStart + segLength) <= pos) && (seg < (num - 1))) {
+                segStart += segLength;
+                seg++;
+                segLength = (m_chainCode[seg] & 1) == 0 ? 1 : Math.sqrt(2);
+            }
+            final double t = Math.min(1, (pos - segStart) / segLength);
+            final int code = m_chainCode[seg];
+            res[0][i] = getX(seg) + (t * DX[code]);
+            res[1][i] = getY(seg) + (t * DY[code]);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.data.labeling;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.labeling.LabelingMapping;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+/**
+ * Size, centroid, bounding box and perimeter of all labels of a {@link Labeling}, collected in a single scan. The
+ * moments are accumulated per index of the {@link LabelingMapping} (i.e. per distinct list of labels) in primitive
+ * arrays and folded into the per label results afterwards. Hence the costs are O(N + #labels) instead of one pass over
+ * the region of each label. For a {@link NativeImgLabeling} the storage image is scanned directly.
+ * 
+ * The perimeter is the number of pixel faces between the label and pixels not carrying the label (including the
+ * outside of the labeling), i.e. the crack length in 2D and the surface in 3D.
+ * @param <L>
+ */
+public class LabelStatistics<L extends Comparable<L>> {
+
+    private final int m_numDims;
+
+    private final Map<L, Integer> m_labelIndices = new HashMap<L, Integer>();
+
+    private final long[] m_sizes;
+
+    private final long[] m_sums;
+
+    private final long[] m_mins;
+
+    private final long[] m_maxs;
+
+    private final long[] m_perimeters;
+
+    /* per mapping index */
+    private long[] m_indexSizes;
+
+    private long[] m_indexSums;
+
+    private long[] m_indexMins;
+
+    private long[] m_indexMaxs;
+
+    /* number of faces between two different mapping indices, key (smaller << 32) | larger */
+    private final Map<Long, long[]> m_faces = new HashMap<Long, long[]>();
+
+    /**
+     * Scans the labeling and computes the statistics of all labels.
+     * 
+     * @param labeling
+     */
+    public LabelStatistics(final Labeling<L> labeling) {
+        m_numDims = labeling.numDimensions();
+        final LabelingMapping<L> mapping = labeling.firstElement().getMapping();
+        final int emptyIndex = mapping.indexOf(mapping.emptyList());
+
+        allocateIndices(mapping.numLists());
+        if (labeling instanceof NativeImgLabeling) {
+            scan(Views.flatIterable(((NativeImgLabeling<L, ?>)labeling).getStorageImg()).cursor(), true, labeling,
+                 emptyIndex);
+        } else {
+            scan(Views.flatIterable(labeling).cursor(), false, labeling, emptyIndex);
+        }
+
+        // fold the indices into the labels
+        for (int i = 0; i < m_indexSizes.length; i++) {
+            if ((m_indexSizes[i] > 0) && (i < mapping.numLists())) {
+                for (final L label : mapping.listAtIndex(i)) {
+                    if (!m_labelIndices.containsKey(label)) {
+                        m_labelIndices.put(label, m_labelIndices.size());
+                    }
+                }
+            }
+        }
+
+        final int numLabels = m_labelIndices.size();
+        m_sizes = new long[numLabels];
+        m_sums = new long[numLabels * m_numDims];
+        m_mins = new long[numLabels * m_numDims];
+        m_maxs = new long[numLabels * m_numDims];
+        m_perimeters = new long[numLabels];
+        Arrays.fill(m_mins, Long.MAX_VALUE);
+        Arrays.fill(m_maxs, Long.MIN_VALUE);
+
+        for (int i = 0; i < m_indexSizes.length; i++) {
+            if ((m_indexSizes[i] == 0) || (i >= mapping.numLists())) {
+                continue;
+            }
+            for (final L label : mapping.listAtIndex(i)) {
+                final int l = m_labelIndices.get(label);
+                m_sizes[l] += m_indexSizes[i];
+                for (int d = 0; d < m_numDims; d++) {
+                    final int li = (l * m_numDims) + d;
+                    final int ii = (i * m_numDims) + d;
+                    m_sums[li] += m_indexSums[ii];
+                    m_mins[li] = Math.min(m_mins[li], m_indexMins[ii]);
+                    m_maxs[li] = Math.max(m_maxs[li], m_indexMaxs[ii]);
+                }
+            }
+        }
+
+        for (final Map.Entry<Long, long[]> entry : m_faces.entrySet()) {
+            final List<L> a = listAt(mapping, (int)(entry.getKey() >>> 32));
+            final List<L> b = listAt(mapping, (int)(entry.getKey() & 0xffffffffL));
+            final long count = entry.getValue()[0];
+            for (final L label : a) {
+                if (!b.contains(label)) {
+                    m_perimeters[m_labelIndices.get(label)] += count;
+                }
+            }
+            for (final L label : b) {
+                if (!a.contains(label)) {
+                    m_perimeters[m_labelIndices.get(label)] += count;
+                }
+            }
+        }
+
+        m_indexSizes = null;
+        m_indexSums = null;
+        m_indexMins = null;
+        m_indexMaxs = null;
+        m_faces.clear();
+    }
+
+    private List<L> listAt(final LabelingMapping<L> mapping, final int index) {
+        return index < mapping.numLists() ? mapping.listAtIndex(index) : Collections.<L> emptyList();
+    }
+
+    private void allocateIndices(final int numIndices) {
+        final int old = m_indexSizes == null ? 0 : m_indexSizes.length;
+        if (old == 0) {
+            m_indexSizes = new long[numIndices];
+            m_indexSums = new long[numIndices * m_numDims];
+            m_indexMins = new long[numIndices * m_numDims];
+            m_indexMaxs = new long[numIndices * m_numDims];
+        } else {
+            m_indexSizes = Arrays.copyOf(m_indexSizes, numIndices);
+            m_indexSums = Arrays.copyOf(m_indexSums, numIndices * m_numDims);
+            m_indexMins = Arrays.copyOf(m_indexMins, numIndices * m_numDims);
+            m_indexMaxs = Arrays.copyOf(m_indexMaxs, numIndices * m_numDims);
+        }
+        Arrays.fill(m_indexMins, old * m_numDims, m_indexMins.length, Long.MAX_VALUE);
+        Arrays.fill(m_indexMaxs, old * m_numDims, m_indexMaxs.length, Long.MIN_VALUE);
+    }
+
+    /*
+     * one pass in flat iteration order, the indices of the last slice are kept to compare each pixel with its
+     * predecessors in all dimensions
+     */
+    private void scan(final Cursor<?> c, final boolean storage, final Labeling<L> labeling, final int emptyIndex) {
+        final int n = m_numDims;
+        final long[] dims = new long[n];
+        labeling.dimensions(dims);
+        final long[] min = new long[n];
+        labeling.min(min);
+
+        final int[] strides = new int[n];
+        long sliceSize = 1;
+        for (int d = 0; d < n; d++) {
+            strides[d] = (int)sliceSize;
+            if (d < (n - 1)) {
+                sliceSize *= dims[d];
+            }
+        }
+        if (sliceSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Labeling too large to compute label statistics.");
+        }
+        final int ringSize = (int)sliceSize;
+        final int[] ring = new int[ringSize];
+        int ringPos = 0;
+
+        final long[] pos = new long[n];
+        while (c.hasNext()) {
+            final int index =
+                    storage ? ((IntegerType<?>)c.next()).getInteger() : ((LabelingType<?>)c.next()).getIndex()
+                            .getInteger();
+            if (index >= m_indexSizes.length) {
+                allocateIndices(Math.max(index + 1, 2 * m_indexSizes.length));
+            }
+
+            if (index != emptyIndex) {
+                m_indexSizes[index]++;
+                for (int d = 0; d < n; d++) {
+                    final int ii = (index * n) + d;
+                    final long p = pos[d] + min[d];
+                    m_indexSums[ii] += p;
+                    if (p < m_indexMins[ii]) {
+                        m_indexMins[ii] = p;
+                    }
+                    if (p > m_indexMaxs[ii]) {
+                        m_indexMaxs[ii] = p;
+                    }
+                }
+            }
+
+            for (int d = 0; d < n; d++) {
+                if (pos[d] == 0) {
+                    addFace(index, emptyIndex);
+                } else {
+                    final int prev = ringPos - strides[d];
+                    addFace(index, ring[prev < 0 ? prev + ringSize : prev]);
+                }
+                if (pos[d] == (dims[d] - 1)) {
+                    addFace(index, emptyIndex);
+                }
+            }
+
+            ring[ringPos] = index;
+            if (++ringPos == ringSize) {
+                ringPos = 0;
+            }
+
+            for (int d = 0; d < n; d++) {
+                if (++pos[d] < dims[d]) {
+                    break;
+                }
+                pos[d] = 0;
+            }
+        }
+    }
+
+    private void addFace(final int a, final int b) {
+        if (a == b) {
+            return;
+        }
+        final Long key = a < b ? (((long)a << 32) | b) : (((long)b << 32) | a);
+        final long[] count = m_faces.get(key);
+        if (count == null) {
+            m_faces.put(key, new long[]{1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * @return all labels occurring in the labeling
+     */
+    public Collection<L> getLabels() {
+        return Collections.unmodifiableSet(m_labelIndices.keySet());
+    }
+
+    /**
+     * @param label
+     * @return true, if the label occurs in the labeling
+     */
+    public boolean contains(final L label) {
+        return m_labelIndices.containsKey(label);
+    }
+
+    /**
+     * @param label
+     * @return the number of pixels of the label
+     */
+    public long size(final L label) {
+        return m_sizes[index(label)];
+    }
+
+    /**
+     * @param label
+     * @return the mean position of the pixels of the label
+     */
+    public double[] centroid(final L label) {
+        final int l = index(label);
+        final double[] res = new double[m_numDims];
+        for (int d = 0; d < m_numDims; d++) {
+            res[d] = m_sums[(l * m_numDims) + d] / (double)m_sizes[l];
+        }
+        return res;
+    }
+
+    /**
+     * @param label
+     * @return the minimum of the bounding box of the label
+     */
+    public long[] min(final L label) {
+        final int l = index(label);
+        return Arrays.copyOfRange(m_mins, l * m_numDims, (l + 1) * m_numDims);
+    }
+
+    /**
+     * @param label
+     * @return the maximum of the bounding box of the label
+     */
+    public long[] max(final L label) {
+        final int l = index(label);
+        return Arrays.copyOfRange(m_maxs, l * m_numDims, (l + 1) * m_numDims);
+    }
+
+    /**
+     * @param label
+     * @return the bounding box of the label
+     */
+    public FinalInterval boundingBox(final L label) {
+        return new FinalInterval(min(label), max(label));
+    }
+
+    /**
+     * @param label
+     * @return the number of pixel faces between the label and pixels not carrying the label
+     */
+    public long perimeter(final L label) {
+        return m_perimeters[index(label)];
+    }
+
+    private int index(final L label) {
+        final Integer l = m_labelIndices.get(label);
+        if (l == null) {
+            throw new IllegalArgumentException("Label " + label + " doesn't occur in the labeling.");
+        }
+        return l;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.data.labeling;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.knime.knip.core.features.CalculatePerimeter;
+import org.knime.knip.core.features.seg.ExtractOutlineImg;
+
+/**
+ * A two dimensional binary region stored as horizontal runs, sorted by row and start position. The runs of a region
+ * (e.g. an {@link net.imglib2.roi.IterableRegionOfInterest} of a labeling) are collected in one pass over its cursor,
+ * without materializing a mask of the bounding box. Everything outside of the runs is background.
+ * 
+ * The runs of row y are {@link #firstRun(long)} (inclusive) to {@link #firstRun(long)} of y+1 (exclusive), their
+ * pixels range from {@link #runStart(int)} to {@link #runEnd(int)} (both inclusive).
+ */
+public class RunLengthMask {
+
+    private final long m_minX;
+
+    private final long m_minY;
+
+    private final long m_maxX;
+
+    private final long m_maxY;
+
+    /* index of the first run of each row, length height + 1 */
+    private final int[] m_rowStart;
+
+    private final long[] m_runStart;
+
+    private final long[] m_runEnd;
+
+    private final long m_area;
+
+    private double m_perimeter = -1;
+
+    /**
+     * Collects the runs of all positions of the given interval. If the interval has more than two dimensions, the
+     * positions are projected onto the plane spanned by dimX and dimY.
+     * 
+     * @param ii the region, all of its positions are foreground
+     * @param dimX the dimension of the runs
+     * @param dimY the dimension of the rows
+     */
+    public RunLengthMask(final IterableInterval<?> ii, final int dimX, final int dimY) {
+        this(collect(ii, dimX, dimY));
+    }
+
+    private RunLengthMask(final Builder builder) {
+        final int num = builder.m_num;
+        if (num == 0) {
+            throw new IllegalArgumentException("Empty region can't be run length encoded.");
+        }
+        final long[] ys = builder.m_ys;
+        m_runStart = Arrays.copyOf(builder.m_starts, num);
+        m_runEnd = Arrays.copyOf(builder.m_ends, num);
+        m_minY = ys[0];
+        m_maxY = ys[num - 1];
+        if (((m_maxY - m_minY) + 1) >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Region too large to be run length encoded.");
+        }
+
+        long minX = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        long area = 0;
+        m_rowStart = new int[(int)((m_maxY - m_minY) + 2)];
+        int run = 0;
+        for (int r = 0; r < (m_rowStart.length - 1); r++) {
+            m_rowStart[r] = run;
+            while ((run < num) && (ys[run] == (m_minY + r))) {
+                minX = Math.min(minX, m_runStart[run]);
+                maxX = Math.max(maxX, m_runEnd[run]);
+                area += (m_runEnd[run] - m_runStart[run]) + 1;
+                run++;
+            }
+        }
+        m_rowStart[m_rowStart.length - 1] = num;
+        m_minX = minX;
+        m_maxX = maxX;
+        m_area = area;
+    }
+
+    private static Builder collect(final IterableInterval<?> ii, final int dimX, final int dimY) {
+        final Builder builder = new Builder();
+        final Cursor<?> c = ii.localizingCursor();
+        while (c.hasNext()) {
+            c.fwd();
+            final long x = c.getLongPosition(dimX);
+            builder.add(c.getLongPosition(dimY), x, x);
+        }
+        return builder.sorted();
+    }
+
+    /**
+     * @return the number of foreground pixels
+     */
+    public long area() {
+        return m_area;
+    }
+
+    /**
+     * @return the smallest x position
+     */
+    public long minX() {
+        return m_minX;
+    }
+
+    /**
+     * @return the largest x position
+     */
+    public long maxX() {
+        return m_maxX;
+    }
+
+    /**
+     * @return the smallest y position (row)
+     */
+    public long minY() {
+        return m_minY;
+    }
+
+    /**
+     * @return the largest y position (row)
+     */
+    public long maxY() {
+        return m_maxY;
+    }
+
+    /**
+     * @return the width of the bounding box
+     */
+    public long width() {
+        return (m_maxX - m_minX) + 1;
+    }
+
+    /**
+     * @return the height of the bounding box
+     */
+    public long height() {
+        return (m_maxY - m_minY) + 1;
+    }
+
+    /**
+     * @return the total number of runs
+     */
+    public int numRuns() {
+        return m_runStart.length;
+    }
+
+    /**
+     * @param y the row, may be outside of the bounding box
+     * @return the index of the first run of the row, the runs of the row end at the first run of row y + 1
+     */
+    public int firstRun(final long y) {
+        if (y < m_minY) {
+            return 0;
+        }
+        if (y > m_maxY) {
+            return m_runStart.length;
+        }
+        return m_rowStart[(int)(y - m_minY)];
+    }
+
+    /**
+     * @param run the index of the run
+     * @return the first x position of the run
+     */
+    public long runStart(final int run) {
+        return m_runStart[run];
+    }
+
+    /**
+     * @param run the index of the run
+     * @return the last x position of the run (inclusive)
+     */
+    public long runEnd(final int run) {
+        return m_runEnd[run];
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return true, if the given position is foreground
+     */
+    public boolean contains(final long x, final long y) {
+        final int end = firstRun(y + 1);
+        for (int run = firstRun(y); run < end; run++) {
+            if (x < m_runStart[run]) {
+                return false;
+            }
+            if (x <= m_runEnd[run]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes one row of the mask into a buffer. Positions of the buffer outside of the bounding box are set to false.
+     * 
+     * @param y the row, may be outside of the bounding box
+     * @param row the buffer
+     * @param x0 the x position of the first entry of the buffer
+     */
+    public void fillRow(final long y, final boolean[] row, final long x0) {
+        Arrays.fill(row, false);
+        final int end = firstRun(y + 1);
+        for (int run = firstRun(y); run < end; run++) {
+            final int from = (int)Math.max(0, m_runStart[run] - x0);
+            final int to = (int)Math.min(row.length, (m_runEnd[run] - x0) + 1);
+            if (from < to) {
+                Arrays.fill(row, from, to, true);
+            }
+        }
+    }
+
+    /**
+     * Estimates the perimeter from the outline outside of the region, see {@link CalculatePerimeter}. The result is
+     * computed once.
+     * 
+     * @return the perimeter
+     */
+    public double perimeter() {
+        if (m_perimeter < 0) {
+            m_perimeter =
+                    new CalculatePerimeter().compute(new ExtractOutlineImg(false).compute(this), new DoubleType())
+                            .get();
+        }
+        return m_perimeter;
+    }
+
+    /**
+     * @param border number of background pixels added on each side of the bounding box
+     * @return a dense mask of the bounding box, the pixel (minX, minY) is at position (border, border)
+     */
+    public Img<BitType> toImg(final int border) {
+        final Img<BitType> img =
+                new ArrayImgFactory<BitType>().create(new long[]{width() + (2 * border), height() + (2 * border)},
+                                                      new BitType());
+        final RandomAccess<BitType> ra = img.randomAccess();
+        for (long y = m_minY; y <= m_maxY; y++) {
+            ra.setPosition((y - m_minY) + border, 1);
+            final int end = firstRun(y + 1);
+            for (int run = firstRun(y); run < end; run++) {
+                ra.setPosition((m_runStart[run] - m_minX) + border, 0);
+                for (long x = m_runStart[run]; x <= m_runEnd[run]; x++) {
+                    ra.get().set(true);
+                    ra.fwd(0);
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Collects runs row by row, e.g. to create a mask from row buffers.
+     */
+    public static class Builder {
+
+        private long[] m_ys = new long[64];
+
+        private long[] m_starts = new long[64];
+
+        private long[] m_ends = new long[64];
+
+        private int m_num = 0;
+
+        private boolean m_sorted = true;
+
+        /**
+         * Adds a run. Runs adjacent to the previous one in the same row are merged.
+         * 
+         * @param y the row
+         * @param start the first x position
+         * @param end the last x position (inclusive)
+         */
+        public void add(final long y, final long start, final long end) {
+            if (m_num > 0) {
+                final int last = m_num - 1;
+                if (y == m_ys[last]) {
+                    if (start == (m_ends[last] + 1)) {
+                        m_ends[last] = end;
+                        return;
+                    }
+                    m_sorted &= start > m_ends[last];
+                } else {
+                    m_sorted &= y > m_ys[last];
+                }
+            }
+            if (m_num == m_ys.length) {
+                final int capacity = 2 * m_num;
+                m_ys = Arrays.copyOf(m_ys, capacity);
+                m_starts = Arrays.copyOf(m_starts, capacity);
+                m_ends = Arrays.copyOf(m_ends, capacity);
+            }
+            m_ys[m_num] = y;
+            m_starts[m_num] = start;
+            m_ends[m_num] = end;
+            m_num++;
+        }
+
+        /**
+         * Adds the runs of a row buffer.
+         * 
+         * @param y the row
+         * @param row the buffer
+         * @param x0 the x position of the first entry of the buffer
+         */
+        public void addRow(final long y, final boolean[] row, final long x0) {
+            int x = 0;
+            while (x < row.length) {
+                if (row[x]) {
+                    final int start = x;
+                    while ((x < row.length) && row[x]) {
+                        x++;
+                    }
+                    add(y, start + x0, (x - 1) + x0);
+                } else {
+                    x++;
+                }
+            }
+        }
+
+        /**
+         * @return the mask of all runs added so far
+         */
+        public RunLengthMask build() {
+            return new RunLengthMask(sorted());
+        }
+
+        /*
+         * sorts the runs by row and start and merges overlapping runs, if they weren't added in this order
+         */
+        private Builder sorted() {
+            if (m_sorted) {
+                return this;
+            }
+            final Integer[] order = new Integer[m_num];
+            for (int i = 0; i < m_num; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    if (m_ys[a] != m_ys[b]) {
+                        return m_ys[a] < m_ys[b] ? -1 : 1;
+                    }
+                    return m_starts[a] < m_starts[b] ? -1 : (m_starts[a] == m_starts[b] ? 0 : 1);
+                }
+            });
+            final Builder res = new Builder();
+            for (final int i : order) {
+                final int last = res.m_num - 1;
+                if ((last >= 0) && (res.m_ys[last] == m_ys[i]) && (m_starts[i] <= (res.m_ends[last] + 1))) {
+                    res.m_ends[last] = Math.max(res.m_ends[last], m_ends[i]);
+                } else {
+                    res.add(m_ys[i], m_starts[i], m_ends[i]);
+                }
+            }
+            return res;
+        }
+    }
+}
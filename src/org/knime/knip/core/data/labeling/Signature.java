@@ -27,8 +27,7 @@ import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
-import org.knime.knip.core.algorithm.InplaceFFT;
-import org.knime.knip.core.data.algebra.Complex;
+import org.knime.knip.core.algorithm.FFT;
 import org.knime.knip.core.data.algebra.ExtendedPolygon;
 import org.slf4j.LoggerFactory;
 
@@ -95,8 +94,9 @@ public class Signature {
      * @param signatureLength
      * @param maxVariance
      * 
+     * @deprecated samples rays pixel by pixel, use {@link #Signature(Contour, double[], int)}
      */
-
+    @Deprecated
     public Signature(final Img<BitType> mask, final long[] maskPosition, final int signatureLength) {
 
         int tmpx, tmpy, pos;
@@ -167,8 +167,9 @@ public class Signature {
      * @param signatureLength
      * @param maxVariance
      * 
+     * @deprecated samples rays pixel by pixel, use {@link #Signature(Contour, double[], int)}
      */
-
+    @Deprecated
     public Signature(final IterableRegionOfInterest roi, final long[] maskPosition, final int signatureLength) {
 
         int tmpx, tmpy, pos;
@@ -231,6 +232,29 @@ public class Signature {
         m_center = new long[]{maskPosition[0] + (int)centerX, maskPosition[1] + (int)centerY};
     }
 
+    /**
+     * Builds the central distance signature of a traced contour. The contour is sampled at signatureLength equidistant
+     * arc length positions, the signature holds the (rounded) distances of the samples to the centre.
+     * 
+     * @param contour the contour
+     * @param center the centre, usually the centroid of the region
+     * @param signatureLength
+     */
+    public Signature(final Contour contour, final double[] center, final int signatureLength) {
+        m_length = signatureLength;
+        m_sign = new int[signatureLength];
+        final double[][] samples = contour.resample(signatureLength);
+        int max = 0;
+        for (int i = 0; i < signatureLength; i++) {
+            final double dx = samples[0][i] - center[0];
+            final double dy = samples[1][i] - center[1];
+            m_sign[i] = (int)Math.round(Math.sqrt((dx * dx) + (dy * dy)));
+            max = Math.max(max, m_sign[i]);
+        }
+        m_width = max + 1;
+        m_center = new long[]{Math.round(center[0]), Math.round(center[1])};
+    }
+
     /**
      * Creates a new signature.
      * 
@@ -523,27 +547,32 @@ public class Signature {
     // --//
 
     /**
-     * Smoothes the signature by cutting the desired frequencies. This operation requires the signature to have a length
-     * of power of 2! If not, an exception will be thrown.
+     * Smoothes the signature by cutting the desired frequencies.
      * 
      * @param cutoff the frequencies which should be kept
      */
     public void lowPassFilter(final int cutoff) {
 
-        final Complex[] g = Complex.makeComplexVector(m_sign);
-        final int N = g.length;
+        final int N = m_sign.length;
+        final double[] re = new double[N];
+        final double[] im = new double[N];
+        for (int i = 0; i < N; i++) {
+            re[i] = m_sign[i];
+        }
 
         // fast fourier transform
-        final Complex[] G = InplaceFFT.fft(g);
+        final FFT fft = FFT.forSize(N);
+        fft.transform(re, im);
 
         // delete frequencies
         for (int i = cutoff; i < (N - cutoff); i++) {
-            G[i] = new Complex(0, 0);
+            re[i] = 0;
+            im[i] = 0;
         }
         // inverse fast fourier transformation
-        final Complex[] res = InplaceFFT.ifft(G);
-        for (int i = 0; i < res.length; i++) {
-            m_sign[i] = (int)Math.round(res[i].re());
+        fft.inverse(re, im);
+        for (int i = 0; i < N; i++) {
+            m_sign[i] = (int)Math.round(re[i]);
         }
     }
 
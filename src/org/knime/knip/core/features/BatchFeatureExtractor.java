@@ -0,0 +1,256 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.meta.CalibratedSpace;
+import net.imglib2.roi.IterableRegionOfInterest;
+import net.imglib2.sampler.special.ConstantRandomAccessible;
+import net.imglib2.type.Type;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Computes the features of all segments of a {@link Labeling} in parallel. Each worker owns its own
+ * {@link FeatureFactory} (and hence its own feature sets and {@link ObjectCalcAndCache}), created by the given
+ * {@link FeatureFactoryProvider}. The labels are handed out to the workers one by one, such that large segments do not
+ * stall the others.
+ */
+public class BatchFeatureExtractor {
+
+    /**
+     * Creates the feature factories for the workers.
+     */
+    public interface FeatureFactoryProvider {
+
+        /**
+         * @return a new, already initialized, feature factory whose feature sets are not shared with any other factory
+         *         created by this provider. All factories must calculate the same features.
+         */
+        FeatureFactory createFeatureFactory();
+    }
+
+    /**
+     * Notified as soon as the features of a segment are available.
+     * 
+     * @param <L>
+     */
+    public interface ResultListener<L> {
+
+        /**
+         * Called from the worker threads, hence implementations must be thread-safe.
+         * 
+         * @param labelIdx the index of the label in {@link Result#labels()}
+         * @param label
+         * @param values the feature values, only valid during the call (the buffer is reused) and must not be
+         *            modified
+         */
+        void featuresComputed(int labelIdx, L label, double[] values);
+    }
+
+    /**
+     * The features of all segments, one row per label.
+     * 
+     * @param <L>
+     */
+    public static class Result<L> {
+
+        private final List<L> m_labels;
+
+        private final FeatureTable<L> m_table;
+
+        Result(final List<L> labels, final FeatureTable<L> table) {
+            m_labels = labels;
+            m_table = table;
+        }
+
+        /**
+         * @return the feature values stored column-wise, the rows are in the order of the labels
+         */
+        public FeatureTable<L> table() {
+            return m_table;
+        }
+
+        /**
+         * @return the labels, the row index of the values
+         */
+        public List<L> labels() {
+            return m_labels;
+        }
+
+        /**
+         * @return the names of the features, the column index of the values
+         */
+        public String[] featureNames() {
+            return m_table.featureNames();
+        }
+
+        /**
+         * @return a copy of the feature values, [label index][feature index]
+         */
+        public double[][] values() {
+            final double[][] res = new double[m_table.numRows()][];
+            for (int row = 0; row < res.length; row++) {
+                res[row] = m_table.getRow(row, null);
+            }
+            return res;
+        }
+    }
+
+    private final FeatureFactoryProvider m_provider;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param provider creates one feature factory per worker
+     * @param executor the executor running the workers, if <code>null</code> all segments are processed in the
+     *            calling thread
+     */
+    public BatchFeatureExtractor(final FeatureFactoryProvider provider, final ExecutorService executor) {
+        m_provider = provider;
+        m_executor = executor;
+    }
+
+    /**
+     * Computes the features of all segments on the binary masks only (e.g. for the segment or Fourier descriptor
+     * feature sets).
+     * 
+     * @param labeling
+     * @param cs the calibrated space passed to the feature factories, may be <code>null</code>
+     * @param listener notified for each segment, may be <code>null</code>
+     * @return the features
+     */
+    public <L extends Comparable<L>> Result<L> compute(final Labeling<L> labeling, final CalibratedSpace cs,
+                                                       final ResultListener<L> listener) {
+        return compute(labeling, new ConstantRandomAccessible<BitType>(new BitType(true), labeling.numDimensions()),
+                       cs, listener);
+    }
+
+    /**
+     * Computes the features of all segments on the intensities of the given image (e.g. for the first order,
+     * Haralick or Tamura feature sets).
+     * 
+     * @param labeling
+     * @param img the intensity image, must have the same dimensions as the labeling
+     * @param cs the calibrated space passed to the feature factories, may be <code>null</code>
+     * @param listener notified for each segment, may be <code>null</code>
+     * @return the features
+     */
+    public <L extends Comparable<L>, T extends RealType<T>> Result<L> compute(final Labeling<L> labeling,
+                                                                             final Img<T> img,
+                                                                             final CalibratedSpace cs,
+                                                                             final ResultListener<L> listener) {
+        if (img.numDimensions() != labeling.numDimensions()) {
+            throw new IllegalArgumentException("Labeling and image must have the same number of dimensions.");
+        }
+        return compute(labeling, (RandomAccessible<T>)img, cs, listener);
+    }
+
+    private <L extends Comparable<L>, T extends Type<T>> Result<L> compute(final Labeling<L> labeling,
+                                                                           final RandomAccessible<T> source,
+                                                                           final CalibratedSpace cs,
+                                                                           final ResultListener<L> listener) {
+
+        final List<L> labels = new ArrayList<L>(labeling.getLabels());
+        Collections.sort(labels);
+
+        // the labeling caches the regions lazily, hence they are retrieved in the calling thread
+        final List<IterableRegionOfInterest> rois = new ArrayList<IterableRegionOfInterest>(labels.size());
+        for (final L label : labels) {
+            rois.add(labeling.getIterableRegionOfInterest(label));
+        }
+
+        final FeatureFactory first = m_provider.createFeatureFactory();
+        final FeatureTable<L> table = first.createFeatureTable(labels.size());
+        // the rows are filled by the workers, each one writing distinct rows
+        table.appendRows(labels);
+
+        final int numWorkers =
+                m_executor == null ? 1 : Math.max(1, Math.min(ParallelTools.numProcessors(), labels.size()));
+        final AtomicInteger nextLabel = new AtomicInteger();
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numWorkers);
+        for (int w = 0; w < numWorkers; w++) {
+            final FeatureFactory factory = w == 0 ? first : m_provider.createFeatureFactory();
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (cs != null) {
+                        factory.updateFeatureTarget(cs);
+                    }
+                    final double[] values = new double[table.numFeatures()];
+                    int idx;
+                    while ((idx = nextLabel.getAndIncrement()) < labels.size()) {
+                        final IterableInterval<T> ii = rois.get(idx).getIterableIntervalOverROI(source);
+                        factory.updateFeatureTarget(ii);
+                        table.setRow(idx, factory.getFeatureValues(values));
+                        if (listener != null) {
+                            listener.featuresComputed(idx, labels.get(idx), values);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return new Result<L>(labels, table);
+    }
+}
@@ -15,21 +15,54 @@ import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.algorithm.FlatStencilEngine;
+import org.knime.knip.core.algorithm.FlatStencilEngine.Border;
+import org.knime.knip.core.algorithm.FlatStencilEngine.StencilKernel;
 import org.knime.knip.core.algorithm.convolvers.DirectConvolver;
+import org.knime.knip.core.data.labeling.RunLengthMask;
 import org.knime.knip.core.features.seg.ExtractOutlineImg;
 
 /**
  * Input: Outline Image {@link ExtractOutlineImg}
  * 
+ * Each outline pixel is coded by the weights 1 (center), 2 (4-neighbors) and 10 (diagonal neighbors) of its set 3x3
+ * neighborhood. The code is mapped to its perimeter category by a lookup table.
+ * 
  * @author dietzc, schoenenbergerf
  * 
  */
 public class CalculatePerimeter implements UnaryOutputOperation<Img<BitType>, DoubleType> {
 
+    private static final int CAT_NONE = 0;
+
+    private static final int CAT_A = 1;
+
+    private static final int CAT_B = 2;
+
+    private static final int CAT_C = 3;
+
+    /*
+     * code (1 + 4 * 2 + 4 * 10 at most) -> category
+     */
+    private static final int[] CATEGORIES = createCategories();
+
+    private static int[] createCategories() {
+        final int[] lut = new int[50];
+        for (final int code : new int[]{15, 7, 25, 5, 17, 27}) {
+            lut[code] = CAT_A;
+        }
+        for (final int code : new int[]{21, 33}) {
+            lut[code] = CAT_B;
+        }
+        for (final int code : new int[]{13, 23}) {
+            lut[code] = CAT_C;
+        }
+        return lut;
+    }
+
     private final DirectConvolver<BitType, UnsignedShortType, UnsignedShortType> m_convolve;
 
     public CalculatePerimeter() {
-
         m_convolve = new DirectConvolver<BitType, UnsignedShortType, UnsignedShortType>();
     }
 
@@ -56,6 +89,64 @@ public class CalculatePerimeter implements UnaryOutputOperation<Img<BitType>, Do
 
     @Override
     public DoubleType compute(final Img<BitType> op, final DoubleType r) {
+        if (op.numDimensions() != 2) {
+            throw new IllegalArgumentException("Perimeter can only be calculated on two dimensional outlines");
+        }
+
+        if (!FlatStencilEngine.fits(op)) {
+            return computeConvolved(op, r);
+        }
+
+        final FlatStencilEngine engine = new FlatStencilEngine(op, Border.MIRROR_SINGLE, null);
+        final int[] faces = engine.neighborOffsets(false);
+        final int[] diagonals =
+                new int[]{engine.offset(-1, -1), engine.offset(1, -1), engine.offset(-1, 1), engine.offset(1, 1)};
+
+        final double[] categories = engine.apply(engine.read(op), new StencilKernel() {
+            @Override
+            public double compute(final double[] src, final int center) {
+                if (src[center] == 0) {
+                    return CAT_NONE;
+                }
+                int code = 1;
+                for (final int offset : faces) {
+                    code += src[center + offset] == 0 ? 0 : 2;
+                }
+                for (final int offset : diagonals) {
+                    code += src[center + offset] == 0 ? 0 : 10;
+                }
+                return CATEGORIES[code];
+            }
+        });
+
+        int catA = 0;
+        int catB = 0;
+        int catC = 0;
+
+        for (final double cat : categories) {
+            switch ((int)cat) {
+                case CAT_A:
+                    catA++;
+                    break;
+                case CAT_B:
+                    catB++;
+                    break;
+                case CAT_C:
+                    catC++;
+                    break;
+            }
+        }
+
+        r.set(catA + (catB * Math.sqrt(2)) + (catC * ((1d + Math.sqrt(2)) / 2d)));
+
+        return r;
+    }
+
+    /*
+     * codes all pixels by a convolution into an image, for outlines too large for a flat buffer
+     */
+    @SuppressWarnings("unchecked")
+    private DoubleType computeConvolved(final Img<BitType> op, final DoubleType r) {
         Img<UnsignedShortType> img = null;
         try {
             img =
@@ -74,32 +165,73 @@ public class CalculatePerimeter implements UnaryOutputOperation<Img<BitType>, Do
         int catC = 0;
 
         while (c.hasNext()) {
-            c.fwd();
-            final int curr = c.get().get();
-
-            switch (curr) {
-                case 15:
-                case 7:
-                case 25:
-                case 5:
-                case 17:
-                case 27:
+            switch (CATEGORIES[c.next().get()]) {
+                case CAT_A:
                     catA++;
                     break;
-                case 21:
-                case 33:
+                case CAT_B:
                     catB++;
                     break;
-                case 13:
-                case 23:
+                case CAT_C:
                     catC++;
                     break;
             }
-
         }
 
         r.set(catA + (catB * Math.sqrt(2)) + (catC * ((1d + Math.sqrt(2)) / 2d)));
+        return r;
+    }
+
+    /**
+     * Calculates the perimeter from a run length encoded outline row by row, only three rows of the outline are
+     * expanded at a time. Everything outside of the outline is background.
+     * 
+     * @param outline the outline, see {@link ExtractOutlineImg#compute(RunLengthMask)}
+     * @param r
+     * @return r
+     */
+    public DoubleType compute(final RunLengthMask outline, final DoubleType r) {
+        final long x0 = outline.minX() - 1;
+        final int width = (int)outline.width() + 2;
+        boolean[] above = new boolean[width];
+        boolean[] row = new boolean[width];
+        boolean[] below = new boolean[width];
+        outline.fillRow(outline.minY(), row, x0);
+
+        int catA = 0;
+        int catB = 0;
+        int catC = 0;
+        for (long y = outline.minY(); y <= outline.maxY(); y++) {
+            outline.fillRow(y + 1, below, x0);
+            for (int x = 1; x < (width - 1); x++) {
+                if (!row[x]) {
+                    continue;
+                }
+                int code = 1;
+                code += (above[x] ? 2 : 0) + (below[x] ? 2 : 0) + (row[x - 1] ? 2 : 0) + (row[x + 1] ? 2 : 0);
+                code +=
+                        (above[x - 1] ? 10 : 0) + (above[x + 1] ? 10 : 0) + (below[x - 1] ? 10 : 0)
+                                + (below[x + 1] ? 10 : 0);
+                switch (CATEGORIES[code]) {
+                    case CAT_A:
+                        catA++;
+                        break;
+                    case CAT_B:
+                        catB++;
+                        break;
+                    case CAT_C:
+                        catC++;
+                        break;
+                }
+            }
 
+            final boolean[] tmp = above;
+            above = row;
+            row = below;
+            below = tmp;
+        }
+
+        r.set(catA + (catB * Math.sqrt(2)) + (catC * ((1d + Math.sqrt(2)) / 2d)));
         return r;
     }
 
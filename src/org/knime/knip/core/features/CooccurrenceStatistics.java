@@ -0,0 +1,630 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.ops.data.CooccurrenceMatrix.MatrixOrientation;
+import net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix.HaralickFeature;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Gray level co-occurrence statistics and the Haralick features of an {@link IterableInterval} for all directions at
+ * once. The values are quantized once into a flat <code>short</code> buffer, then a single scan over the buffer counts
+ * the pairs of all directions (4 in 2D, 13 in 3D). The counts are kept in dense matrices or, if there are more gray
+ * levels than pixels, in sparse hash tables. All features of a direction are derived from its non-zero entries and the
+ * marginal distributions shared by them.
+ * 
+ * Quantization, symmetric counting and the feature definitions follow
+ * {@link net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix}, the features are indexed by
+ * {@link HaralickFeature}. Optionally, the textbook definitions of three features are used instead, which differ from
+ * the ones of MakeCooccurrenceMatrix: DifferenceVariance squares the deviation from the mean, ClusterShade and
+ * ClusterProminence are centered on the mean instead of the standard deviation.
+ * 
+ * Instances are not thread-safe, but can be reused for many intervals.
+ */
+public class CooccurrenceStatistics {
+
+    private static final double EPSILON = 0.00000001f;
+
+    /* dense matrices are used up to this number of entries (over all directions) */
+    private static final long MAX_DENSE_SIZE = 1 << 24;
+
+    private final int m_nrGrayLevels;
+
+    private final int m_distance;
+
+    private final boolean m_textbookDefinitions;
+
+    private int[][] m_directions = new int[0][];
+
+    /* per direction, either dense or sparse */
+    private int[][] m_dense;
+
+    private PairCounts[] m_sparse;
+
+    private long[] m_numPairs;
+
+    /* the directions counted by the last computation */
+    private boolean[] m_counted;
+
+    private double[][] m_features;
+
+    private short[] m_buffer = new short[0];
+
+    /**
+     * Features as defined by {@link net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix}.
+     * 
+     * @param nrGrayLevels number of gray levels to quantize to, at most {@link Short#MAX_VALUE}
+     * @param distance distance of the pixel pairs
+     */
+    public CooccurrenceStatistics(final int nrGrayLevels, final int distance) {
+        this(nrGrayLevels, distance, false);
+    }
+
+    /**
+     * @param nrGrayLevels number of gray levels to quantize to, at most {@link Short#MAX_VALUE}
+     * @param distance distance of the pixel pairs
+     * @param textbookDefinitions if <code>true</code> the textbook definitions of DifferenceVariance, ClusterShade and
+     *            ClusterProminence are used, else the ones of MakeCooccurrenceMatrix (see class description)
+     */
+    public CooccurrenceStatistics(final int nrGrayLevels, final int distance, final boolean textbookDefinitions) {
+        if ((nrGrayLevels < 1) || (nrGrayLevels > Short.MAX_VALUE)) {
+            throw new IllegalArgumentException("Number of gray levels must be in [1," + Short.MAX_VALUE + "].");
+        }
+        if (distance < 1) {
+            throw new IllegalArgumentException("Distance must be positive.");
+        }
+        m_nrGrayLevels = nrGrayLevels;
+        m_distance = distance;
+        m_textbookDefinitions = textbookDefinitions;
+    }
+
+    /**
+     * @return number of gray levels
+     */
+    public int nrGrayLevels() {
+        return m_nrGrayLevels;
+    }
+
+    /**
+     * @return distance of the pixel pairs
+     */
+    public int distance() {
+        return m_distance;
+    }
+
+    /**
+     * The unique directions in the given number of dimensions: each pair of opposite directions is represented once, as
+     * the pairs are counted symmetrically. The first four are the (in-plane) directions of {@link MatrixOrientation} in
+     * declaration order.
+     * 
+     * @param numDims 2 or 3
+     * @return the directions, each of length numDims
+     */
+    public static int[][] directions(final int numDims) {
+        if ((numDims != 2) && (numDims != 3)) {
+            throw new IllegalArgumentException("Only two and three dimensional co-occurrences are supported.");
+        }
+        final MatrixOrientation[] orientations = MatrixOrientation.values();
+        final int[][] res = new int[numDims == 2 ? orientations.length : 13][];
+        for (int i = 0; i < orientations.length; i++) {
+            res[i] = numDims == 2 ? new int[]{orientations[i].dx, orientations[i].dy} : new int[]{
+                    orientations[i].dx, orientations[i].dy, 0};
+        }
+        if (numDims == 3) {
+            // the in-plane directions followed by all nine pointing to the next plane
+            int k = orientations.length;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    res[k++] = new int[]{dx, dy, 1};
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param orientation
+     * @return the index of the direction in {@link #directions(int)}, for two and three dimensions
+     */
+    public static int directionIndex(final MatrixOrientation orientation) {
+        return orientation.ordinal();
+    }
+
+    /**
+     * Quantizes the interval and counts the pixel pairs of all directions.
+     * 
+     * @param ii the interval
+     * @param dims the two or three dimensions spanning the co-occurrences, all other dimensions of the interval must
+     *            have size one
+     */
+    public <T extends RealType<T>> void compute(final IterableInterval<T> ii, final int... dims) {
+        count(ii, -1, dims);
+    }
+
+    /**
+     * Quantizes the interval and counts the pixel pairs of one direction only, the features of the other directions
+     * are not available afterwards.
+     * 
+     * @param ii the interval
+     * @param direction index of the direction in {@link #directions(int)}
+     * @param dims the two or three dimensions spanning the co-occurrences, all other dimensions of the interval must
+     *            have size one
+     */
+    public <T extends RealType<T>> void computeDirection(final IterableInterval<T> ii, final int direction,
+                                                         final int... dims) {
+        if ((direction < 0) || (direction >= directions(dims.length).length)) {
+            throw new IllegalArgumentException("Direction " + direction + " doesn't exist in " + dims.length + "D.");
+        }
+        count(ii, direction, dims);
+    }
+
+    /*
+     * counts the given direction, or all if negative
+     */
+    private <T extends RealType<T>> void count(final IterableInterval<T> ii, final int direction, final int... dims) {
+        m_directions = directions(dims.length);
+        final int numDirs = m_directions.length;
+        final int kFrom = direction < 0 ? 0 : direction;
+        final int kTo = direction < 0 ? numDirs : direction + 1;
+        m_counted = new boolean[numDirs];
+        Arrays.fill(m_counted, kFrom, kTo, true);
+
+        // quantize into a flat buffer, -1 marks pixels outside of the interval
+        final int[] extent = new int[dims.length];
+        final int[] stride = new int[dims.length];
+        final long[] min = new long[dims.length];
+        long size = 1;
+        for (int d = 0; d < dims.length; d++) {
+            extent[d] = (int)ii.dimension(dims[d]);
+            min[d] = ii.min(dims[d]);
+            stride[d] = (int)size;
+            size *= extent[d];
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Interval too large.");
+        }
+        if (m_buffer.length < size) {
+            m_buffer = new short[(int)size];
+        }
+        final short[] buf = m_buffer;
+        Arrays.fill(buf, 0, (int)size, (short)-1);
+
+        final T type = ii.firstElement();
+        double minVal = type.getMaxValue();
+        double maxVal = type.getMinValue();
+        Cursor<T> c = ii.cursor();
+        while (c.hasNext()) {
+            final double val = c.next().getRealDouble();
+            minVal = Math.min(minVal, val);
+            maxVal = Math.max(maxVal, val);
+        }
+        final double scale = m_nrGrayLevels / ((maxVal - minVal) + 1);
+
+        c = ii.localizingCursor();
+        while (c.hasNext()) {
+            c.fwd();
+            int idx = 0;
+            for (int d = 0; d < dims.length; d++) {
+                idx += (int)(c.getLongPosition(dims[d]) - min[d]) * stride[d];
+            }
+            buf[idx] = (short)((c.get().getRealDouble() - minVal) * scale);
+        }
+
+        // count the pairs of all directions in one scan
+        final long numPixels = ii.size();
+        final boolean sparse =
+                (m_nrGrayLevels > numPixels)
+                        || (((long)m_nrGrayLevels * m_nrGrayLevels * (kTo - kFrom)) > MAX_DENSE_SIZE);
+        final int matrixSize = m_nrGrayLevels * m_nrGrayLevels;
+        if (sparse) {
+            m_dense = null;
+            m_sparse = new PairCounts[numDirs];
+            for (int k = kFrom; k < kTo; k++) {
+                m_sparse[k] = new PairCounts((int)Math.min(numPixels * 2, matrixSize));
+            }
+        } else {
+            m_sparse = null;
+            if ((m_dense == null) || (m_dense.length != numDirs)) {
+                m_dense = new int[numDirs][];
+            }
+            for (int k = 0; k < numDirs; k++) {
+                if ((k < kFrom) || (k >= kTo)) {
+                    // keep the buffer for later computations
+                    continue;
+                }
+                if ((m_dense[k] == null) || (m_dense[k].length != matrixSize)) {
+                    m_dense[k] = new int[matrixSize];
+                } else {
+                    Arrays.fill(m_dense[k], 0);
+                }
+            }
+        }
+        m_numPairs = new long[numDirs];
+        m_features = new double[numDirs][];
+
+        final int[][] offsets = new int[numDirs][dims.length];
+        final int[] flatOffsets = new int[numDirs];
+        for (int k = 0; k < numDirs; k++) {
+            for (int d = 0; d < dims.length; d++) {
+                offsets[k][d] = m_directions[k][d] * m_distance;
+                flatOffsets[k] += offsets[k][d] * stride[d];
+            }
+        }
+
+        final int[] pos = new int[dims.length];
+        for (int idx = 0; idx < size; idx++) {
+            final int a = buf[idx];
+            if (a >= 0) {
+                for (int k = kFrom; k < kTo; k++) {
+                    boolean inside = true;
+                    for (int d = 0; d < dims.length; d++) {
+                        final int p = pos[d] + offsets[k][d];
+                        if ((p < 0) || (p >= extent[d])) {
+                            inside = false;
+                            break;
+                        }
+                    }
+                    if (!inside) {
+                        continue;
+                    }
+                    final int b = buf[idx + flatOffsets[k]];
+                    if (b < 0) {
+                        continue;
+                    }
+                    if (sparse) {
+                        m_sparse[k].inc((a * m_nrGrayLevels) + b);
+                        m_sparse[k].inc((b * m_nrGrayLevels) + a);
+                    } else {
+                        m_dense[k][(a * m_nrGrayLevels) + b]++;
+                        m_dense[k][(b * m_nrGrayLevels) + a]++;
+                    }
+                    m_numPairs[k] += 2;
+                }
+            }
+            for (int d = 0; d < dims.length; d++) {
+                if (++pos[d] < extent[d]) {
+                    break;
+                }
+                pos[d] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the number of directions of the last computation
+     */
+    public int numDirections() {
+        return m_directions.length;
+    }
+
+    /**
+     * @param direction index of the direction
+     * @return the direction
+     */
+    public int[] direction(final int direction) {
+        return m_directions[direction].clone();
+    }
+
+    /**
+     * @param direction index of the direction
+     * @param i gray level of the first pixel
+     * @param j gray level of the second pixel
+     * @return the relative frequency of the pair
+     */
+    public double probability(final int direction, final int i, final int j) {
+        checkCounted(direction);
+        if (m_numPairs[direction] == 0) {
+            return 0;
+        }
+        final int key = (i * m_nrGrayLevels) + j;
+        final int count = m_dense != null ? m_dense[direction][key] : m_sparse[direction].get(key);
+        return count / (double)m_numPairs[direction];
+    }
+
+    /**
+     * @param direction index of the direction
+     * @return all features of the direction, indexed by {@link HaralickFeature}
+     */
+    public double[] features(final int direction) {
+        checkCounted(direction);
+        if (m_features[direction] == null) {
+            m_features[direction] = computeFeatures(direction);
+        }
+        return m_features[direction];
+    }
+
+    /**
+     * @return all features averaged over all directions, indexed by {@link HaralickFeature}
+     */
+    public double[] averageFeatures() {
+        final double[] res = new double[HaralickFeature.values().length];
+        for (int k = 0; k < m_directions.length; k++) {
+            final double[] features = features(k);
+            for (int f = 0; f < res.length; f++) {
+                res[f] += features[f] / m_directions.length;
+            }
+        }
+        return res;
+    }
+
+    private void checkCounted(final int direction) {
+        if (!m_counted[direction]) {
+            throw new IllegalStateException("The pairs of direction " + direction + " were not counted.");
+        }
+    }
+
+    /*
+     * all features from the non-zero entries and the marginals of one direction
+     */
+    private double[] computeFeatures(final int direction) {
+        final int numLevels = m_nrGrayLevels;
+        final double numPairs = Math.max(1, m_numPairs[direction]);
+
+        // non-zero entries
+        final int[] keys;
+        final int[] counts;
+        if (m_dense != null) {
+            final int[] dense = m_dense[direction];
+            int num = 0;
+            for (int key = 0; key < dense.length; key++) {
+                if (dense[key] != 0) {
+                    num++;
+                }
+            }
+            keys = new int[num];
+            counts = new int[num];
+            int e = 0;
+            for (int key = 0; key < dense.length; key++) {
+                if (dense[key] != 0) {
+                    keys[e] = key;
+                    counts[e++] = dense[key];
+                }
+            }
+        } else {
+            keys = m_sparse[direction].keys();
+            counts = m_sparse[direction].counts();
+        }
+
+        // marginals (the matrix is symmetric, hence px == py)
+        final double[] px = new double[numLevels];
+        final double[] pxPlusY = new double[(2 * numLevels) + 1];
+        final double[] pxMinusY = new double[numLevels];
+        for (int e = 0; e < keys.length; e++) {
+            final int i = keys[e] / numLevels;
+            final int j = keys[e] % numLevels;
+            final double p = counts[e] / numPairs;
+            px[i] += p;
+            pxPlusY[i + j + 2] += p;
+            pxMinusY[Math.abs(i - j)] += p;
+        }
+
+        double mean = 0;
+        for (int i = 0; i < numLevels; i++) {
+            mean += i * px[i];
+        }
+        double var = 0;
+        double hx = 0;
+        for (int i = 0; i < numLevels; i++) {
+            var += (i - mean) * (i - mean) * px[i];
+            hx -= px[i] * Math.log(px[i] + EPSILON);
+        }
+        final double std = Math.sqrt(var);
+        final double clusterCenter = 2 * (m_textbookDefinitions ? mean : std);
+
+        double asm = 0;
+        double corr = 0;
+        double ifdm = 0;
+        double entropy = 0;
+        double hxy1 = 0;
+        double shade = 0;
+        double prominence = 0;
+        for (int e = 0; e < keys.length; e++) {
+            final int i = keys[e] / numLevels;
+            final int j = keys[e] % numLevels;
+            final double p = counts[e] / numPairs;
+            asm += p * p;
+            corr += ((i - mean) * (j - mean) * p) / (std * std);
+            ifdm += p / (1 + ((i - j) * (i - j)));
+            entropy -= p * Math.log(p + EPSILON);
+            hxy1 -= p * Math.log((px[i] * px[j]) + EPSILON);
+            final double cluster = (i + j) - clusterCenter;
+            shade += cluster * cluster * cluster * p;
+            prominence += cluster * cluster * cluster * cluster * p;
+        }
+
+        // only levels that occur contribute to HXY2
+        final double[] occurring = new double[numLevels];
+        int numOccurring = 0;
+        for (int i = 0; i < numLevels; i++) {
+            if (px[i] != 0) {
+                occurring[numOccurring++] = px[i];
+            }
+        }
+        double hxy2 = 0;
+        for (int i = 0; i < numOccurring; i++) {
+            for (int j = 0; j < numOccurring; j++) {
+                final double pp = occurring[i] * occurring[j];
+                hxy2 -= pp * Math.log(pp + EPSILON);
+            }
+        }
+
+        double contrast = 0;
+        double diffMean = 0;
+        double diffEntropy = 0;
+        for (int k = 0; k < numLevels; k++) {
+            contrast += k * k * pxMinusY[k];
+            diffMean += k * pxMinusY[k];
+            diffEntropy -= pxMinusY[k] * Math.log(pxMinusY[k] + EPSILON);
+        }
+        double diffVar = 0;
+        for (int k = 0; k < numLevels; k++) {
+            // MakeCooccurrenceMatrix doesn't square the deviation
+            diffVar += (m_textbookDefinitions ? (k - diffMean) * (k - diffMean) : k - diffMean) * pxMinusY[k];
+        }
+
+        double sumAvg = 0;
+        double sumEntropy = 0;
+        for (int k = 2; k <= (2 * numLevels); k++) {
+            sumAvg += k * pxPlusY[k];
+            sumEntropy -= pxPlusY[k] * Math.log(pxPlusY[k] + EPSILON);
+        }
+        double sumVar = 0;
+        for (int k = 2; k <= (2 * numLevels); k++) {
+            sumVar += (k - sumAvg) * (k - sumAvg) * pxPlusY[k];
+        }
+
+        final double[] res = new double[HaralickFeature.values().length];
+        res[HaralickFeature.ASM.ordinal()] = asm;
+        res[HaralickFeature.Contrast.ordinal()] = contrast;
+        res[HaralickFeature.Correlation.ordinal()] = Double.isNaN(corr) ? 0 : corr;
+        res[HaralickFeature.Variance.ordinal()] = var;
+        res[HaralickFeature.IFDM.ordinal()] = ifdm;
+        res[HaralickFeature.SumAverage.ordinal()] = sumAvg;
+        res[HaralickFeature.SumVariance.ordinal()] = sumVar;
+        res[HaralickFeature.SumEntropy.ordinal()] = sumEntropy;
+        res[HaralickFeature.Entropy.ordinal()] = entropy;
+        res[HaralickFeature.DifferenceVariance.ordinal()] = diffVar;
+        res[HaralickFeature.DifferenceEntropy.ordinal()] = diffEntropy;
+        res[HaralickFeature.ICM1.ordinal()] = (entropy - hxy1) / hx;
+        res[HaralickFeature.ICM2.ordinal()] = Math.sqrt(1 - Math.exp(-2 * (hxy2 - entropy)));
+        res[HaralickFeature.ClusterShade.ordinal()] = shade;
+        res[HaralickFeature.ClusterProminence.ordinal()] = prominence;
+        return res;
+    }
+
+    /**
+     * Open addressing hash table counting int keys.
+     */
+    private static final class PairCounts {
+
+        private int[] m_keys;
+
+        private int[] m_counts;
+
+        private int m_size;
+
+        PairCounts(final int expected) {
+            int capacity = 16;
+            while (capacity < (expected * 2)) {
+                capacity <<= 1;
+            }
+            m_keys = new int[capacity];
+            Arrays.fill(m_keys, -1);
+            m_counts = new int[capacity];
+        }
+
+        void inc(final int key) {
+            int slot = slot(m_keys, key);
+            if (m_keys[slot] < 0) {
+                if ((m_size + 1) > (m_keys.length / 2)) {
+                    grow();
+                    slot = slot(m_keys, key);
+                }
+                m_keys[slot] = key;
+                m_size++;
+            }
+            m_counts[slot]++;
+        }
+
+        int get(final int key) {
+            final int slot = slot(m_keys, key);
+            return m_keys[slot] < 0 ? 0 : m_counts[slot];
+        }
+
+        int[] keys() {
+            final int[] res = new int[m_size];
+            int k = 0;
+            for (int s = 0; s < m_keys.length; s++) {
+                if (m_keys[s] >= 0) {
+                    res[k++] = m_keys[s];
+                }
+            }
+            return res;
+        }
+
+        int[] counts() {
+            final int[] res = new int[m_size];
+            int k = 0;
+            for (int s = 0; s < m_keys.length; s++) {
+                if (m_keys[s] >= 0) {
+                    res[k++] = m_counts[s];
+                }
+            }
+            return res;
+        }
+
+        private static int slot(final int[] keys, final int key) {
+            final int mask = keys.length - 1;
+            final int hash = key * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while ((keys[slot] >= 0) && (keys[slot] != key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            final int[] oldKeys = m_keys;
+            final int[] oldCounts = m_counts;
+            m_keys = new int[oldKeys.length * 2];
+            Arrays.fill(m_keys, -1);
+            m_counts = new int[m_keys.length];
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldKeys[s] >= 0) {
+                    final int slot = slot(m_keys, oldKeys[s]);
+                    m_keys[slot] = oldKeys[s];
+                    m_counts[slot] = oldCounts[s];
+                }
+            }
+        }
+    }
+}
@@ -56,9 +56,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,15 +82,25 @@ public class FeatureFactory {
     private final Map<Class<?>, List<FeatureTargetUpdater>> m_targetListeners =
             new HashMap<Class<?>, List<FeatureFactory.FeatureTargetUpdater>>();
 
+    /* concrete target class -> all updaters to be notified, see getFeatureTargetUpdaters */
+    private final Map<Class<?>, FeatureTargetUpdater[]> m_dispatchTable =
+            new HashMap<Class<?>, FeatureFactory.FeatureTargetUpdater[]>();
+
     private final Map<Class<?>, Object> m_sharedObjects = new HashMap<Class<?>, Object>();
 
-    private final List<FeatureSet> m_featureSetList = new ArrayList<FeatureSet>();
+    /* feature set, offset of the feature set and name per feature (enabled or not) */
+    private final FeatureSet[] m_featureSetList;
+
+    private final int[] m_featureSetIdOffset;
 
-    private final List<Integer> m_featureSetIdOffset = new ArrayList<Integer>();
+    private final String[] m_featNames;
 
-    private final List<String> m_featNames = new ArrayList<String>();
+    /* feature set, id in the feature set and name per enabled feature */
+    private FeatureSet[] m_enabledSets;
 
-    private int[] m_featIdxMap;
+    private int[] m_enabledIds;
+
+    private String[] m_enabledNames;
 
     /* the enabled features */
     private BitSet m_enabled = null;
@@ -107,6 +122,14 @@ public class FeatureFactory {
      * @param fsets
      */
     public FeatureFactory(final boolean enableAll, final FeatureSet... fsets) {
+        int numFeatures = 0;
+        for (final FeatureSet fset : fsets) {
+            numFeatures += fset.numFeatures();
+        }
+        m_featureSetList = new FeatureSet[numFeatures];
+        m_featureSetIdOffset = new int[numFeatures];
+        m_featNames = new String[numFeatures];
+
         int currentOffset = 0;
         for (final FeatureSet fset : fsets) {
             // look for FeatureTargetListener annotations and add
@@ -136,9 +159,9 @@ public class FeatureFactory {
             }
 
             for (int i = 0; i < fset.numFeatures(); i++) {
-                m_featNames.add(fset.name(i));
-                m_featureSetList.add(fset);
-                m_featureSetIdOffset.add(currentOffset);
+                m_featNames[currentOffset + i] = fset.name(i);
+                m_featureSetList[currentOffset + i] = fset;
+                m_featureSetIdOffset[currentOffset + i] = currentOffset;
             }
 
             currentOffset += fset.numFeatures();
@@ -156,19 +179,63 @@ public class FeatureFactory {
 
         if (enabledFeatures == null) {
             m_enabled = new BitSet();
-            m_enabled.set(0, m_featNames.size());
+            m_enabled.set(0, m_featNames.length);
         } else {
-            m_enabled = enabledFeatures.get(0, m_featNames.size());
+            m_enabled = enabledFeatures.get(0, m_featNames.length);
         }
-        m_featIdxMap = new int[m_enabled.cardinality()];
+        final int numEnabled = m_enabled.cardinality();
+        m_enabledSets = new FeatureSet[numEnabled];
+        m_enabledIds = new int[numEnabled];
+        m_enabledNames = new String[numEnabled];
         int featIdx = 0;
-        for (int i = 0; i < m_featNames.size(); i++) {
-            if (m_enabled.get(i)) {
-                m_featIdxMap[featIdx] = i;
-                featIdx++;
-                m_featureSetList.get(i).enable(i - m_featureSetIdOffset.get(i));
+        for (int i = m_enabled.nextSetBit(0); i >= 0; i = m_enabled.nextSetBit(i + 1)) {
+            m_enabledSets[featIdx] = m_featureSetList[i];
+            m_enabledIds[featIdx] = i - m_featureSetIdOffset[i];
+            m_enabledNames[featIdx] = m_featNames[i];
+            m_enabledSets[featIdx].enable(m_enabledIds[featIdx]);
+            featIdx++;
+        }
+
+        planIntermediates();
+    }
+
+    /*
+     * Tells the shared objects which intermediates the enabled features need and unsubscribes the feature sets
+     * without any enabled feature from the feature targets.
+     */
+    private void planIntermediates() {
+        final EnumSet<Intermediate> required = EnumSet.noneOf(Intermediate.class);
+        final Set<Object> active = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (int i = 0; i < m_enabledSets.length; i++) {
+            active.add(m_enabledSets[i]);
+            if (m_enabledSets[i] instanceof DeclaresIntermediates) {
+                required.addAll(((DeclaresIntermediates)m_enabledSets[i]).getIntermediates(m_enabledIds[i]));
+            } else {
+                required.addAll(EnumSet.allOf(Intermediate.class));
+            }
+        }
+
+        for (final Object obj : m_sharedObjects.values()) {
+            if (obj instanceof PlansIntermediates) {
+                ((PlansIntermediates)obj).planIntermediates(required);
             }
+        }
 
+        final Set<Object> inactive = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (final FeatureSet fset : m_featureSetList) {
+            if (!active.contains(fset)) {
+                inactive.add(fset);
+            }
+        }
+        if (!inactive.isEmpty()) {
+            for (final List<FeatureTargetUpdater> ftus : m_targetListeners.values()) {
+                for (final Iterator<FeatureTargetUpdater> it = ftus.iterator(); it.hasNext();) {
+                    if (inactive.contains(it.next().m_listener)) {
+                        it.remove();
+                    }
+                }
+            }
+            m_dispatchTable.clear();
         }
     }
 
@@ -202,7 +269,10 @@ public class FeatureFactory {
                         listeners = new ArrayList<FeatureFactory.FeatureTargetUpdater>();
                         m_targetListeners.put(types[0], listeners);
                     }
-                    listeners.add(new FeatureTargetUpdater(listener, method));
+                    final FeatureTargetUpdater ftu = new FeatureTargetUpdater(listener, method);
+                    if (!listeners.contains(ftu)) {
+                        listeners.add(ftu);
+                    }
                 }
 
             }
@@ -222,42 +292,52 @@ public class FeatureFactory {
      * @param obj
      */
     public void updateFeatureTarget(final Object obj) {
-        updateFeatureTargetRecursively(obj, obj.getClass());
+        for (final FeatureTargetUpdater ftu : getFeatureTargetUpdaters(obj.getClass())) {
+            try {
+                ftu.updateFeatureTarget(obj);
+            } catch (final IllegalArgumentException e) {
+                LOG.debug("Error thrown: " + e.getMessage() + ". Class " + obj.getClass().getSimpleName() + "!");
+            } catch (final RuntimeException e) {
+                LOG.error("Error while updating feature target of class " + obj.getClass().getSimpleName() + ".", e);
+            }
+        }
+    }
+
+    /**
+     * The updaters to be notified for objects of the given concrete class. They are determined once per class by
+     * walking the class hierarchy (the class itself, or, if no listener was registered for it, its super class and
+     * interfaces recursively).
+     * 
+     * @param clazz
+     * @return the updaters, never <code>null</code>
+     */
+    private FeatureTargetUpdater[] getFeatureTargetUpdaters(final Class<?> clazz) {
+        FeatureTargetUpdater[] ftus = m_dispatchTable.get(clazz);
+        if (ftus == null) {
+            final List<FeatureTargetUpdater> res = new ArrayList<FeatureTargetUpdater>();
+            collectFeatureTargetUpdatersRecursively(clazz, res);
+            ftus = res.toArray(new FeatureTargetUpdater[res.size()]);
+            m_dispatchTable.put(clazz, ftus);
+        }
+        return ftus;
     }
 
-    private void updateFeatureTargetRecursively(final Object obj, final Class<?> clazz) {
+    private void collectFeatureTargetUpdatersRecursively(final Class<?> clazz, final List<FeatureTargetUpdater> res) {
         if (clazz == null) {
             return;
         }
 
-        try {
-            final List<FeatureTargetUpdater> ftus = m_targetListeners.get(clazz);
-            if (ftus != null) {
-                for (final FeatureTargetUpdater ftu : ftus) {
-                    ftu.updateFeatureTarget(obj);
-                }
-                return;
-            } else {
-                updateFeatureTargetRecursively(obj, clazz.getSuperclass());
-                final Class<?>[] interfaces = clazz.getInterfaces();
-                for (final Class<?> interfaze : interfaces) {
-                    updateFeatureTargetRecursively(obj, interfaze);
+        final List<FeatureTargetUpdater> ftus = m_targetListeners.get(clazz);
+        if (ftus != null) {
+            for (final FeatureTargetUpdater ftu : ftus) {
+                if (!res.contains(ftu)) {
+                    res.add(ftu);
                 }
-
             }
-        } catch (final IllegalArgumentException e) {
-            LOG.debug("Error thrown: " + e.getMessage() + ". Class " + obj.getClass().getSimpleName() + "!");
-        } catch (final Exception e) {
-            Throwable t = e.getCause();
-
-            while (t instanceof InvocationTargetException) {
-                t = t.getCause();
-            }
-
-            if (t instanceof IllegalArgumentException) {
-                LOG.debug("Error thrown: " + t.getMessage() + ". Class " + obj.getClass().getSimpleName() + "!");
-            } else {
-                t.printStackTrace();
+        } else {
+            collectFeatureTargetUpdatersRecursively(clazz.getSuperclass(), res);
+            for (final Class<?> interfaze : clazz.getInterfaces()) {
+                collectFeatureTargetUpdatersRecursively(interfaze, res);
             }
         }
     }
@@ -269,7 +349,7 @@ public class FeatureFactory {
      *         were added
      */
     public double getFeatureValue(final int featID) {
-        return m_featureSetList.get(m_featIdxMap[featID]).value(getFeatureSetFeatureID(featID));
+        return m_enabledSets[featID].value(m_enabledIds[featID]);
     }
 
     /**
@@ -277,7 +357,7 @@ public class FeatureFactory {
      * @return the feature id in the feature set, where featID points to
      */
     protected int getFeatureSetFeatureID(final int featID) {
-        return m_featIdxMap[featID] - m_featureSetIdOffset.get(m_featIdxMap[featID]);
+        return m_enabledIds[featID];
     }
 
     /**
@@ -291,13 +371,40 @@ public class FeatureFactory {
      * @return the feature values of all enabled features
      */
     public double[] getFeatureValues(final double[] vec) {
-        int i = 0;
-        for (int feat = m_enabled.nextSetBit(0); feat >= 0; feat = m_enabled.nextSetBit(feat + 1)) {
-            vec[i++] = m_featureSetList.get(feat).value(feat - m_featureSetIdOffset.get(feat));
+        for (int i = 0; i < m_enabledSets.length; i++) {
+            vec[i] = m_enabledSets[i].value(m_enabledIds[i]);
         }
         return vec;
     }
 
+    /**
+     * Appends the feature values of all enabled features as a new row to the given table.
+     * 
+     * @param table a table with one column per enabled feature, see {@link #createFeatureTable(int)}
+     * @param label the label of the new row
+     * @return the index of the new row
+     */
+    public <L> int appendFeatureValues(final FeatureTable<L> table, final L label) {
+        if (table.numFeatures() != m_enabledSets.length) {
+            throw new IllegalArgumentException("The table has " + table.numFeatures() + " columns, but "
+                    + m_enabledSets.length + " features are enabled.");
+        }
+        final int row = table.appendRow(label);
+        for (int i = 0; i < m_enabledSets.length; i++) {
+            table.column(i)[row] = m_enabledSets[i].value(m_enabledIds[i]);
+        }
+        return row;
+    }
+
+    /**
+     * @param initialCapacity the number of rows space is allocated for
+     * @return an empty table with one column per enabled feature
+     */
+    public <L> FeatureTable<L> createFeatureTable(final int initialCapacity) {
+        isInitialized();
+        return new FeatureTable<L>(m_enabledNames, initialCapacity);
+    }
+
     /**
      * The total number of enabled features.
      * 
@@ -305,7 +412,7 @@ public class FeatureFactory {
      */
     public int getNumFeatures() {
         isInitialized();
-        return m_enabled.cardinality();
+        return m_enabledSets.length;
     }
 
     /**
@@ -315,13 +422,7 @@ public class FeatureFactory {
      */
     public String[] getFeatureNames() {
         isInitialized();
-        final String[] res = new String[getNumFeatures()];
-
-        int i = 0;
-        for (int feat = m_enabled.nextSetBit(0); feat >= 0; feat = m_enabled.nextSetBit(feat + 1)) {
-            res[i++] = m_featNames.get(feat);
-        }
-        return res;
+        return m_enabledNames.clone();
     }
 
     /**
@@ -329,7 +430,7 @@ public class FeatureFactory {
      * @return
      */
     public boolean isFeatureTargetRequired(final Object obj) {
-        return m_targetListeners.get(obj.getClass()) != null;
+        return getFeatureTargetUpdaters(obj.getClass()).length > 0;
     }
 
     /**
@@ -346,7 +447,7 @@ public class FeatureFactory {
      * @return the feature set used to calculate the feature of the given index
      */
     protected FeatureSet getFeatureSetForFeatureIdx(final int featIdx) {
-        return m_featureSetList.get(m_featIdxMap[featIdx]);
+        return m_enabledSets[featIdx];
     }
 
     private void isInitialized() {
@@ -364,17 +465,41 @@ public class FeatureFactory {
         public FeatureTargetUpdater(final Object listener, final Method method) {
             m_method = method;
             m_listener = listener;
+            try {
+                // skips the access checks on each invocation
+                m_method.setAccessible(true);
+            } catch (final SecurityException e) {
+                LOG.debug("Can not suppress access checks for " + method + ".");
+            }
         }
 
         public void updateFeatureTarget(final Object target) {
             try {
                 m_method.invoke(m_listener, target);
-            } catch (final Exception e) {
-                throw new RuntimeException(
-                        "InvocationTargetException when invoking annotated method from FeatureTarget Update. Data: "
+            } catch (final InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw new RuntimeException("Exception when invoking annotated method from FeatureTarget Update. Data: "
+                        + target.toString() + ", subscriber:" + m_listener, e.getCause());
+            } catch (final IllegalAccessException e) {
+                throw new RuntimeException("Can not access annotated method " + m_method + " of subscriber "
+                        + m_listener, e);
+            }
+        }
 
-                        + target.toString() + ", subscriber:" + m_listener, e);
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof FeatureTargetUpdater)) {
+                return false;
             }
+            final FeatureTargetUpdater other = (FeatureTargetUpdater)obj;
+            return (other.m_listener == m_listener) && other.m_method.equals(m_method);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(m_listener)) + m_method.hashCode();
         }
 
     }
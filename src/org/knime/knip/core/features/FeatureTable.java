@@ -0,0 +1,323 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Feature values of many objects stored column-wise, i.e. one growable <code>double[]</code> per feature plus a label
+ * column. Rows are appended by {@link FeatureFactory#appendFeatureValues(FeatureTable, Object)} or set directly, e.g.
+ * by several workers writing distinct rows. The rows can be visited with a reused buffer or written to a binary
+ * stream, both without allocating objects per cell.
+ * @param <L> the type of the labels
+ */
+public class FeatureTable<L> {
+
+    /* "KFT" + version */
+    private static final int MAGIC = 0x4b465401;
+
+    /**
+     * Visits the rows of a table.
+     * 
+     * @param <L>
+     */
+    public interface RowVisitor<L> {
+
+        /**
+         * @param row the row index
+         * @param label the label of the row
+         * @param values the feature values of the row, the buffer is reused for all rows
+         */
+        void visit(int row, L label, double[] values);
+    }
+
+    private final String[] m_featureNames;
+
+    private double[][] m_columns;
+
+    private Object[] m_labels;
+
+    private int m_numRows = 0;
+
+    /**
+     * @param featureNames the names of the columns
+     * @param initialCapacity the number of rows space is allocated for
+     */
+    public FeatureTable(final String[] featureNames, final int initialCapacity) {
+        m_featureNames = featureNames.clone();
+        final int capacity = Math.max(1, initialCapacity);
+        m_columns = new double[featureNames.length][capacity];
+        m_labels = new Object[capacity];
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int numRows() {
+        return m_numRows;
+    }
+
+    /**
+     * @return the number of features (columns)
+     */
+    public int numFeatures() {
+        return m_featureNames.length;
+    }
+
+    /**
+     * @param feature
+     * @return the name of the given column
+     */
+    public String featureName(final int feature) {
+        return m_featureNames[feature];
+    }
+
+    /**
+     * @return the names of all columns
+     */
+    public String[] featureNames() {
+        return m_featureNames.clone();
+    }
+
+    /**
+     * Appends an empty row.
+     * 
+     * @param label the label of the new row
+     * @return the index of the new row
+     */
+    public int appendRow(final L label) {
+        ensureCapacity(m_numRows + 1);
+        m_labels[m_numRows] = label;
+        return m_numRows++;
+    }
+
+    /**
+     * Appends a row.
+     * 
+     * @param label
+     * @param values the values of all features
+     * @return the index of the new row
+     */
+    public int appendRow(final L label, final double[] values) {
+        final int row = appendRow(label);
+        setRow(row, values);
+        return row;
+    }
+
+    /**
+     * Appends empty rows, e.g. to be filled by several threads with {@link #setRow(int, double[])}.
+     * 
+     * @param labels the labels of the new rows
+     * @return the index of the first new row
+     */
+    public int appendRows(final Collection<? extends L> labels) {
+        ensureCapacity(m_numRows + labels.size());
+        final int first = m_numRows;
+        for (final L label : labels) {
+            m_labels[m_numRows++] = label;
+        }
+        return first;
+    }
+
+    /**
+     * @param row
+     * @param feature
+     * @param value
+     */
+    public void set(final int row, final int feature, final double value) {
+        m_columns[feature][checkRow(row)] = value;
+    }
+
+    /**
+     * @param row
+     * @param values the values of all features
+     */
+    public void setRow(final int row, final double[] values) {
+        checkRow(row);
+        for (int f = 0; f < m_columns.length; f++) {
+            m_columns[f][row] = values[f];
+        }
+    }
+
+    /**
+     * @param row
+     * @param feature
+     * @return the value
+     */
+    public double get(final int row, final int feature) {
+        return m_columns[feature][checkRow(row)];
+    }
+
+    /**
+     * @param row
+     * @param buf the buffer to write the values to, a new one is created if <code>null</code>
+     * @return the values of all features of the row
+     */
+    public double[] getRow(final int row, final double[] buf) {
+        checkRow(row);
+        final double[] res = buf == null ? new double[m_columns.length] : buf;
+        for (int f = 0; f < m_columns.length; f++) {
+            res[f] = m_columns[f][row];
+        }
+        return res;
+    }
+
+    /**
+     * @param row
+     * @return the label of the row
+     */
+    @SuppressWarnings("unchecked")
+    public L label(final int row) {
+        return (L)m_labels[checkRow(row)];
+    }
+
+    /**
+     * @param feature
+     * @return the backing array of the column, only the first {@link #numRows()} entries are valid. It becomes stale as
+     *         soon as the table grows.
+     */
+    public double[] column(final int feature) {
+        return m_columns[feature];
+    }
+
+    /**
+     * Visits all rows in order, the values are passed in one reused buffer.
+     * 
+     * @param visitor
+     */
+    @SuppressWarnings("unchecked")
+    public void visitRows(final RowVisitor<? super L> visitor) {
+        final double[] buf = new double[m_columns.length];
+        for (int row = 0; row < m_numRows; row++) {
+            visitor.visit(row, (L)m_labels[row], getRow(row, buf));
+        }
+    }
+
+    /**
+     * Writes the table in a binary format: the feature names, the labels (as strings) and the columns one after the
+     * other. The stream is not closed.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void write(final OutputStream out) throws IOException {
+        final DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        dout.writeInt(MAGIC);
+        dout.writeInt(m_featureNames.length);
+        dout.writeInt(m_numRows);
+        for (final String name : m_featureNames) {
+            dout.writeUTF(name);
+        }
+        for (int row = 0; row < m_numRows; row++) {
+            dout.writeUTF(String.valueOf(m_labels[row]));
+        }
+        for (final double[] column : m_columns) {
+            for (int row = 0; row < m_numRows; row++) {
+                dout.writeDouble(column[row]);
+            }
+        }
+        dout.flush();
+    }
+
+    /**
+     * Reads a table written by {@link #write(OutputStream)}. Exactly the bytes of the table are read, the stream is
+     * not closed and can be read on afterwards. The columns are read in blocks, the header and labels value by value,
+     * hence a buffered stream is recommended for tables with many rows.
+     * 
+     * @param in
+     * @return the table, the labels are the strings written
+     * @throws IOException
+     */
+    public static FeatureTable<String> read(final InputStream in) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        if (din.readInt() != MAGIC) {
+            throw new IOException("Not a feature table.");
+        }
+        final String[] names = new String[din.readInt()];
+        final int numRows = din.readInt();
+        for (int f = 0; f < names.length; f++) {
+            names[f] = din.readUTF();
+        }
+        final FeatureTable<String> res = new FeatureTable<String>(names, numRows);
+        for (int row = 0; row < numRows; row++) {
+            res.appendRow(din.readUTF());
+        }
+        // big endian as written by DataOutput
+        final byte[] bytes = new byte[numRows * 8];
+        for (final double[] column : res.m_columns) {
+            din.readFully(bytes);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(column, 0, numRows);
+        }
+        return res;
+    }
+
+    private void ensureCapacity(final int numRows) {
+        if (numRows > m_labels.length) {
+            final int capacity = Math.max(numRows, m_labels.length + (m_labels.length >> 1));
+            m_labels = Arrays.copyOf(m_labels, capacity);
+            for (int f = 0; f < m_columns.length; f++) {
+                m_columns[f] = Arrays.copyOf(m_columns[f], capacity);
+            }
+        }
+    }
+
+    private int checkRow(final int row) {
+        if ((row < 0) || (row >= m_numRows)) {
+            throw new IndexOutOfBoundsException("Row " + row + " doesn't exist, the table has " + m_numRows + " rows.");
+        }
+        return row;
+    }
+}
@@ -0,0 +1,643 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Fused first order statistics of an {@link IterableInterval}. A single cursor pass collects count, min, max, sum, sum
+ * of squares, sum of logs, the (weighted) coordinate sums and the values itself. The values are either kept in a
+ * reusable primitive buffer or, for integer types with a small range, counted in a reusable histogram. Central moments,
+ * quantiles and the median absolute deviation are derived from there on demand: quantiles by O(n) selection (or a
+ * cumulative histogram scan) instead of sorting. Collecting the values and the positions can be switched off, if none
+ * of these derived statistics is needed.
+ * 
+ * The estimators are the ones of commons-math's
+ * {@link org.apache.commons.math3.stat.descriptive.DescriptiveStatistics} (bias corrected variance, sample skewness and
+ * kurtosis, percentiles estimated at position p(n+1)/100).
+ * 
+ * Instances are not thread-safe, but can be reused for many intervals.
+ */
+public class FirstOrderStatistics {
+
+    /**
+     * Integer types with at most this many distinct values are counted in a histogram.
+     */
+    public static final int MAX_HISTOGRAM_BINS = 1 << 16;
+
+    private long m_n;
+
+    private double m_min;
+
+    private double m_max;
+
+    private double m_sum;
+
+    private double m_sumSq;
+
+    private double m_sumLog;
+
+    private double[] m_centroid = new double[0];
+
+    private double[] m_weightedCentroid = new double[0];
+
+    /* values mode */
+    private double[] m_values = new double[0];
+
+    private double[] m_work = new double[0];
+
+    /* histogram mode */
+    private boolean m_histMode;
+
+    private long[] m_hist = new long[0];
+
+    private double m_histOffset;
+
+    private boolean m_histogramEnabled = true;
+
+    /* which intermediates are collected */
+    private boolean m_valuesEnabled = true;
+
+    private boolean m_positionsEnabled = true;
+
+    private boolean m_valuesKept;
+
+    private boolean m_positionsKept;
+
+    /* derived values */
+    private boolean m_momentsValid;
+
+    private double m_mean;
+
+    private double m_variance;
+
+    private double m_skewness;
+
+    private double m_kurtosis;
+
+    private boolean m_medianValid;
+
+    private double m_median;
+
+    /**
+     * @param enabled if <code>false</code> the values of integer types are always kept in the value buffer (default:
+     *            <code>true</code>)
+     */
+    public void setHistogramModeEnabled(final boolean enabled) {
+        m_histogramEnabled = enabled;
+    }
+
+    /**
+     * @param enabled if <code>false</code> the values are neither buffered nor counted, the moments, quantiles and the
+     *            median absolute deviation are not available then (default: <code>true</code>)
+     */
+    public void setValuesEnabled(final boolean enabled) {
+        m_valuesEnabled = enabled;
+    }
+
+    /**
+     * @param enabled if <code>false</code> the positions are not summed up, the (weighted) centroid and the mass
+     *            displacement are not available then (default: <code>true</code>)
+     */
+    public void setPositionsEnabled(final boolean enabled) {
+        m_positionsEnabled = enabled;
+    }
+
+    /**
+     * Computes the statistics of the given interval in one cursor pass.
+     * 
+     * @param ii
+     */
+    public <T extends RealType<T>> void compute(final IterableInterval<T> ii) {
+        final int numDims = ii.numDimensions();
+        final T type = ii.firstElement();
+        final long size = ii.size();
+
+        final double range = type.getMaxValue() - type.getMinValue();
+        final boolean keepValues = m_valuesEnabled;
+        final boolean positions = m_positionsEnabled;
+        m_histMode =
+                keepValues && m_histogramEnabled && (type instanceof IntegerType) && (range < MAX_HISTOGRAM_BINS)
+                        && ((range < 256) || (size >= range));
+
+        if (m_histMode) {
+            final int bins = (int)range + 1;
+            if (m_hist.length < bins) {
+                m_hist = new long[bins];
+            }
+            m_histOffset = type.getMinValue();
+        } else if (keepValues) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Interval too large to compute first order statistics.");
+            }
+            if (m_values.length < size) {
+                m_values = new double[(int)size];
+            }
+        }
+
+        if (m_centroid.length != numDims) {
+            m_centroid = new double[numDims];
+            m_weightedCentroid = new double[numDims];
+        }
+        final double[] posSum = m_centroid;
+        final double[] wPosSum = m_weightedCentroid;
+        for (int d = 0; d < numDims; d++) {
+            posSum[d] = 0;
+            wPosSum[d] = 0;
+        }
+
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0;
+        double sumSq = 0;
+        double sumLog = 0;
+        int n = 0;
+
+        final long[] hist = m_hist;
+        final int histOffset = (int)m_histOffset;
+        final double[] values = m_values;
+        final boolean histMode = m_histMode;
+
+        final Cursor<T> c = positions ? ii.localizingCursor() : ii.cursor();
+        while (c.hasNext()) {
+            final double val = c.next().getRealDouble();
+
+            if (histMode) {
+                // only the bins between min and max are cleared and read
+                final int bin = (int)val - histOffset;
+                if (n == 0) {
+                    hist[bin] = 0;
+                } else if (val < min) {
+                    clearHist(bin, (int)min - histOffset);
+                } else if (val > max) {
+                    clearHist(((int)max - histOffset) + 1, bin + 1);
+                }
+                hist[bin]++;
+            } else if (keepValues) {
+                values[n] = val;
+            }
+
+            if (val < min) {
+                min = val;
+            }
+            if (val > max) {
+                max = val;
+            }
+            sum += val;
+            sumSq += val * val;
+            sumLog += Math.log(val);
+
+            if (positions) {
+                for (int d = 0; d < numDims; d++) {
+                    final double pos = c.getDoublePosition(d);
+                    posSum[d] += pos;
+                    wPosSum[d] += pos * val;
+                }
+            }
+
+            n++;
+        }
+
+        for (int d = 0; d < numDims; d++) {
+            posSum[d] = positions ? posSum[d] / n : Double.NaN;
+            wPosSum[d] = positions ? wPosSum[d] / sum : Double.NaN;
+        }
+
+        m_n = n;
+        m_min = min;
+        m_max = max;
+        m_sum = sum;
+        m_sumSq = sumSq;
+        m_sumLog = sumLog;
+        m_momentsValid = false;
+        m_medianValid = false;
+        m_valuesKept = keepValues;
+        m_positionsKept = positions;
+    }
+
+    private void clearHist(final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            m_hist[i] = 0;
+        }
+    }
+
+    /**
+     * @return number of values
+     */
+    public long n() {
+        return m_n;
+    }
+
+    public double min() {
+        return m_n == 0 ? Double.NaN : m_min;
+    }
+
+    public double max() {
+        return m_n == 0 ? Double.NaN : m_max;
+    }
+
+    public double sum() {
+        return m_sum;
+    }
+
+    public double sumOfSquares() {
+        return m_sumSq;
+    }
+
+    public double geometricMean() {
+        return m_n == 0 ? Double.NaN : Math.exp(m_sumLog / m_n);
+    }
+
+    public double mean() {
+        computeMoments();
+        return m_mean;
+    }
+
+    public double variance() {
+        computeMoments();
+        return m_variance;
+    }
+
+    public double standardDeviation() {
+        computeMoments();
+        return Math.sqrt(m_variance);
+    }
+
+    public double skewness() {
+        computeMoments();
+        return m_skewness;
+    }
+
+    public double kurtosis() {
+        computeMoments();
+        return m_kurtosis;
+    }
+
+    /**
+     * @return the mean position, must not be modified
+     */
+    public double[] centroid() {
+        checkPositions();
+        return m_centroid;
+    }
+
+    /**
+     * @return the mean position weighted by the values, must not be modified
+     */
+    public double[] weightedCentroid() {
+        checkPositions();
+        return m_weightedCentroid;
+    }
+
+    /**
+     * @return the euclidean distance between the weighted and the unweighted centroid
+     */
+    public double massDisplacement() {
+        checkPositions();
+        double dist = 0;
+        for (int d = 0; d < m_centroid.length; d++) {
+            dist += (m_weightedCentroid[d] - m_centroid[d]) * (m_weightedCentroid[d] - m_centroid[d]);
+        }
+        return Math.sqrt(dist);
+    }
+
+    /**
+     * @param p the percentile in (0,100]
+     * @return the estimated percentile
+     */
+    public double percentile(final double p) {
+        if ((p > 100) || (p <= 0)) {
+            throw new IllegalArgumentException("Percentile must be in (0,100]: " + p);
+        }
+        checkValues();
+        if (m_n == 0) {
+            return Double.NaN;
+        }
+        if (m_histMode) {
+            return estimate(p, new HistogramSelector());
+        }
+        ensureWork();
+        System.arraycopy(m_values, 0, m_work, 0, (int)m_n);
+        return estimate(p, new ArraySelector(m_work, (int)m_n));
+    }
+
+    /**
+     * @return the median, see {@link #percentile(double)}
+     */
+    public double median() {
+        if (!m_medianValid) {
+            m_median = percentile(50);
+            m_medianValid = true;
+        }
+        return m_median;
+    }
+
+    /**
+     * @return the median of the absolute deviations from the median
+     */
+    public double medianAbsoluteDeviation() {
+        checkValues();
+        if (m_n == 0) {
+            return Double.NaN;
+        }
+        final double median = median();
+        if (m_histMode) {
+            return estimate(50, new DeviationHistogramSelector(median));
+        }
+        ensureWork();
+        for (int i = 0; i < m_n; i++) {
+            m_work[i] = Math.abs(median - m_values[i]);
+        }
+        return estimate(50, new ArraySelector(m_work, (int)m_n));
+    }
+
+    private void checkValues() {
+        if (!m_valuesKept) {
+            throw new IllegalStateException("The values were not collected, see setValuesEnabled(boolean).");
+        }
+    }
+
+    private void checkPositions() {
+        if (!m_positionsKept) {
+            throw new IllegalStateException("The positions were not collected, see setPositionsEnabled(boolean).");
+        }
+    }
+
+    private void ensureWork() {
+        if (m_work.length < m_n) {
+            m_work = new double[m_values.length];
+        }
+    }
+
+    /*
+     * selects the k-th smallest value (0-based)
+     */
+    private interface Selector {
+        double select(long k);
+    }
+
+    /*
+     * percentile estimation as in commons-math's Percentile
+     */
+    private double estimate(final double p, final Selector selector) {
+        final long n = m_n;
+        if (n == 1) {
+            return selector.select(0);
+        }
+        final double pos = (p * (n + 1)) / 100;
+        final double fpos = Math.floor(pos);
+        final long intPos = (long)fpos;
+        final double dif = pos - fpos;
+
+        if (pos < 1) {
+            return selector.select(0);
+        }
+        if (pos >= n) {
+            return selector.select(n - 1);
+        }
+        final double lower = selector.select(intPos - 1);
+        final double upper = selector.select(intPos);
+        return lower + (dif * (upper - lower));
+    }
+
+    private void computeMoments() {
+        if (m_momentsValid) {
+            return;
+        }
+        checkValues();
+        m_momentsValid = true;
+
+        final long n = m_n;
+        if (n == 0) {
+            m_mean = m_variance = m_skewness = m_kurtosis = Double.NaN;
+            return;
+        }
+
+        // mean with correction term, as in commons-math
+        final double xbar = m_sum / n;
+        double correction = 0;
+        double accum = 0;
+        double accum3 = 0;
+        double accum4 = 0;
+
+        if (m_histMode) {
+            final int from = (int)(m_min - m_histOffset);
+            final int to = (int)(m_max - m_histOffset);
+            for (int i = from; i <= to; i++) {
+                final long count = m_hist[i];
+                if (count != 0) {
+                    correction += count * ((i + m_histOffset) - xbar);
+                }
+            }
+            m_mean = xbar + (correction / n);
+            double accum2 = 0;
+            for (int i = from; i <= to; i++) {
+                final long count = m_hist[i];
+                if (count != 0) {
+                    final double dev = (i + m_histOffset) - m_mean;
+                    final double dev2 = dev * dev;
+                    accum += count * dev2;
+                    accum2 += count * dev;
+                    accum3 += count * dev2 * dev;
+                    accum4 += count * dev2 * dev2;
+                }
+            }
+            m_variance = n == 1 ? 0 : (accum - ((accum2 * accum2) / n)) / (n - 1);
+        } else {
+            final double[] values = m_values;
+            for (int i = 0; i < n; i++) {
+                correction += values[i] - xbar;
+            }
+            m_mean = xbar + (correction / n);
+            double accum2 = 0;
+            for (int i = 0; i < n; i++) {
+                final double dev = values[i] - m_mean;
+                final double dev2 = dev * dev;
+                accum += dev2;
+                accum2 += dev;
+                accum3 += dev2 * dev;
+                accum4 += dev2 * dev2;
+            }
+            m_variance = n == 1 ? 0 : (accum - ((accum2 * accum2) / n)) / (n - 1);
+        }
+
+        if (n < 3) {
+            m_skewness = Double.NaN;
+        } else {
+            final double dn = n;
+            m_skewness = (dn / ((dn - 1) * (dn - 2))) * (accum3 / (m_variance * Math.sqrt(m_variance)));
+        }
+
+        if (n <= 3) {
+            m_kurtosis = Double.NaN;
+        } else {
+            final double dn = n;
+            final double coefficientOne = (dn * (dn + 1)) / ((dn - 1) * (dn - 2) * (dn - 3));
+            final double termTwo = (3 * (dn - 1) * (dn - 1)) / ((dn - 2) * (dn - 3));
+            m_kurtosis = (coefficientOne * (accum4 / (m_variance * m_variance))) - termTwo;
+        }
+    }
+
+    /*
+     * quickselect on a working copy, which is partially ordered afterwards
+     */
+    private static class ArraySelector implements Selector {
+
+        private final double[] m_data;
+
+        private final int m_n;
+
+        ArraySelector(final double[] data, final int n) {
+            m_data = data;
+            m_n = n;
+        }
+
+        @Override
+        public double select(final long kl) {
+            final int k = (int)kl;
+            final double[] a = m_data;
+            int lo = 0;
+            int hi = m_n - 1;
+            while (hi > lo) {
+                final double pivot = medianOf3(a[lo], a[(lo + hi) >>> 1], a[hi]);
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (a[i] < pivot) {
+                        i++;
+                    }
+                    while (a[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        final double tmp = a[i];
+                        a[i] = a[j];
+                        a[j] = tmp;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    break;
+                }
+            }
+            return a[k];
+        }
+
+        private static double medianOf3(final double x, final double y, final double z) {
+            if (x < y) {
+                return y < z ? y : (x < z ? z : x);
+            }
+            return x < z ? x : (y < z ? z : y);
+        }
+    }
+
+    /*
+     * cumulative scan over the histogram
+     */
+    private class HistogramSelector implements Selector {
+        @Override
+        public double select(final long k) {
+            final int from = (int)(m_min - m_histOffset);
+            final int to = (int)(m_max - m_histOffset);
+            long count = 0;
+            for (int i = from; i <= to; i++) {
+                count += m_hist[i];
+                if (count > k) {
+                    return i + m_histOffset;
+                }
+            }
+            return m_max;
+        }
+    }
+
+    /*
+     * enumerates the absolute deviations from the median in increasing order by walking outwards from the median
+     */
+    private class DeviationHistogramSelector implements Selector {
+
+        private final double m_center;
+
+        DeviationHistogramSelector(final double center) {
+            m_center = center;
+        }
+
+        @Override
+        public double select(final long k) {
+            final int from = (int)(m_min - m_histOffset);
+            final int to = (int)(m_max - m_histOffset);
+            // first bin above the center, last bin at or below the center
+            int up = Math.max(from, (int)Math.floor(m_center - m_histOffset) + 1);
+            int down = up - 1;
+            long count = 0;
+            while ((down >= from) || (up <= to)) {
+                final double devDown = down >= from ? m_center - (down + m_histOffset) : Double.MAX_VALUE;
+                final double devUp = up <= to ? (up + m_histOffset) - m_center : Double.MAX_VALUE;
+                if (devDown <= devUp) {
+                    count += m_hist[down--];
+                    if (count > k) {
+                        return devDown;
+                    }
+                } else {
+                    count += m_hist[up++];
+                    if (count > k) {
+                        return devUp;
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -50,7 +50,11 @@
  */
 package org.knime.knip.core.features;
 
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
@@ -67,28 +71,140 @@ import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.knime.knip.core.data.labeling.Contour;
+import org.knime.knip.core.data.labeling.RunLengthMask;
 import org.knime.knip.core.data.labeling.Signature;
 
 /**
  * 
  * Utility class which calculates caches commonly used objects.
  * 
+ * The objects are kept in a memo table of bounded capacity (least recently used ones are dropped), keyed by the kind
+ * of object, the identity of the interval and the parameters. Regions of a labeling may overlap, hence two intervals
+ * are never assumed to cover the same pixels. The returned objects are never reused by the cache, they stay valid
+ * after they have been dropped.
+ * 
  * @author hornm, University of Konstanz
  */
-public class ObjectCalcAndCache {
+public class ObjectCalcAndCache implements PlansIntermediates {
+
+    /**
+     * The kinds of cached objects.
+     */
+    public enum CachedObject {
+        BINARY_MASK, BINARY_MASK_2D, DESCRIPTIVE_STATISTICS, CENTROID, FIRST_ORDER_STATISTICS, CONTOUR, SIGNATURE,
+        COOCCURRENCE_MATRIX, COOCCURRENCE_STATISTICS, RUN_LENGTH_MASK;
+    }
+
+    /** default number of cached objects */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Map<Key, Object> m_table;
+
+    private final long[] m_hits = new long[CachedObject.values().length];
+
+    private final long[] m_misses = new long[CachedObject.values().length];
+
+    /* the intermediates collected by the first order statistics */
+    private boolean m_keepValues = true;
+
+    private boolean m_keepPositions = true;
 
     public ObjectCalcAndCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of cached objects
+     */
+    public ObjectCalcAndCache(final int capacity) {
+        m_table = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void planIntermediates(final Set<Intermediate> required) {
+        m_keepValues = required.contains(Intermediate.SORTED_VALUES) || required.contains(Intermediate.MOMENTS);
+        m_keepPositions = required.contains(Intermediate.POSITIONS);
+    }
+
+    /**
+     * @param kind
+     * @return how often a cached object of the given kind was reused
+     */
+    public long hits(final CachedObject kind) {
+        return m_hits[kind.ordinal()];
+    }
+
+    /**
+     * @param kind
+     * @return how often an object of the given kind had to be computed
+     */
+    public long misses(final CachedObject kind) {
+        return m_misses[kind.ordinal()];
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetCounters() {
+        Arrays.fill(m_hits, 0);
+        Arrays.fill(m_misses, 0);
     }
 
-    private Img<BitType> m_binaryMask;
+    /**
+     * Removes all cached objects.
+     */
+    public void clear() {
+        m_table.clear();
+    }
+
+    /**
+     * @return the hits and misses of all kinds of objects requested so far
+     */
+    public String cacheStatistics() {
+        final StringBuilder sb = new StringBuilder();
+        for (final CachedObject kind : CachedObject.values()) {
+            if ((hits(kind) + misses(kind)) > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(kind).append(": ").append(hits(kind)).append(" hits / ").append(misses(kind))
+                        .append(" misses");
+            }
+        }
+        return sb.toString();
+    }
 
-    private IterableInterval<BitType> m_bmIterableInterval;
+    /*
+     * the cached object or null, counts the hit or miss
+     */
+    private Object lookup(final Key key) {
+        final Object res = m_table.get(key);
+        if (res != null) {
+            m_hits[key.m_kind.ordinal()]++;
+        } else {
+            m_misses[key.m_kind.ordinal()]++;
+        }
+        return res;
+    }
 
     public Img<BitType> binaryMask(final IterableInterval<BitType> ii) {
-        if (m_bmIterableInterval != ii) {
-            m_bmIterableInterval = ii;
-            m_binaryMask = new ArrayImgFactory<BitType>().create(ii, new BitType());
-            final RandomAccess<BitType> maskRA = m_binaryMask.randomAccess();
+        final Key key = new Key(CachedObject.BINARY_MASK, new Identity(ii));
+        @SuppressWarnings("unchecked")
+        Img<BitType> binaryMask = (Img<BitType>)lookup(key);
+        if (binaryMask == null) {
+            binaryMask = new ArrayImgFactory<BitType>().create(ii, new BitType());
+            final RandomAccess<BitType> maskRA = binaryMask.randomAccess();
 
             final Cursor<BitType> cur = ii.localizingCursor();
             while (cur.hasNext()) {
@@ -99,18 +215,17 @@ public class ObjectCalcAndCache {
                 maskRA.get().set(true);
 
             }
+            m_table.put(key, binaryMask);
         }
-        return m_binaryMask;
+        return binaryMask;
 
     }
 
-    private Img<BitType> m_binaryMask2D;
-
-    private IterableInterval<BitType> m_bm2dIterableInterval;
-
     public Img<BitType> binaryMask2D(final IterableInterval<BitType> ii) {
-        if (m_bm2dIterableInterval != ii) {
-            m_bm2dIterableInterval = ii;
+        final Key key = new Key(CachedObject.BINARY_MASK_2D, new Identity(ii));
+        @SuppressWarnings("unchecked")
+        Img<BitType> binaryMask2D = (Img<BitType>)lookup(key);
+        if (binaryMask2D == null) {
             final long[] dims = new long[ii.numDimensions()];
             ii.dimensions(dims);
             for (int i = 0; i < 2; i++) {
@@ -126,152 +241,255 @@ public class ObjectCalcAndCache {
                 }
                 maskRA.get().set(true);
             }
-            m_binaryMask2D =
+            binaryMask2D =
                     new ImgView<BitType>(SubsetOperations.subsetview(mask, new FinalInterval(dims)), mask.factory());
+            m_table.put(key, binaryMask2D);
         }
-        return m_binaryMask2D;
+        return binaryMask2D;
     }
 
-    private final DescriptiveStatistics m_descriptiveStatistics = new DescriptiveStatistics();
-
-    private IterableInterval<? extends RealType<?>> m_dsIterableInterval;
+    /**
+     * @param ii the region
+     * @param dimX the dimension of the runs
+     * @param dimY the dimension of the rows
+     * @return the run length encoded mask of the region
+     */
+    public RunLengthMask runLengthMask(final IterableInterval<?> ii, final int dimX, final int dimY) {
+        final Key key = new Key(CachedObject.RUN_LENGTH_MASK, new Identity(ii), dimX, dimY);
+        RunLengthMask mask = (RunLengthMask)lookup(key);
+        if (mask == null) {
+            mask = new RunLengthMask(ii, dimX, dimY);
+            m_table.put(key, mask);
+        }
+        return mask;
+    }
 
     public <T extends RealType<T>> DescriptiveStatistics descriptiveStatistics(final IterableInterval<T> ii) {
-
-        if (m_dsIterableInterval != ii) {
-            m_dsIterableInterval = ii;
-            m_descriptiveStatistics.clear();
+        final Key key = new Key(CachedObject.DESCRIPTIVE_STATISTICS, new Identity(ii));
+        DescriptiveStatistics ds = (DescriptiveStatistics)lookup(key);
+        if (ds == null) {
+            ds = new DescriptiveStatistics();
             final Cursor<T> c = ii.cursor();
 
             while (c.hasNext()) {
                 c.fwd();
 
-                m_descriptiveStatistics.addValue(c.get().getRealDouble());
+                ds.addValue(c.get().getRealDouble());
             }
+            m_table.put(key, ds);
         }
-        return m_descriptiveStatistics;
+        return ds;
 
     }
 
-    private double[] m_centroid;
-
-    private IterableInterval<? extends RealType<?>> m_cIterableInterval;
-
     public <T extends RealType<T>> double[] centroid(final IterableInterval<T> ii) {
-        if (m_cIterableInterval != ii) {
-            m_cIterableInterval = ii;
+        final Key key = new Key(CachedObject.CENTROID, new Identity(ii));
+        double[] centroid = (double[])lookup(key);
+        if (centroid == null) {
             final Cursor<T> c = ii.cursor();
-            m_centroid = new double[ii.numDimensions()];
+            centroid = new double[ii.numDimensions()];
 
             long count = 0;
             while (c.hasNext()) {
                 c.fwd();
-                for (int i = 0; i < m_centroid.length; i++) {
-                    m_centroid[i] += c.getDoublePosition(i);
+                for (int i = 0; i < centroid.length; i++) {
+                    centroid[i] += c.getDoublePosition(i);
                 }
                 count++;
             }
 
-            for (int i = 0; i < m_centroid.length; i++) {
-                m_centroid[i] /= count;
+            for (int i = 0; i < centroid.length; i++) {
+                centroid[i] /= count;
             }
+            m_table.put(key, centroid);
         }
-        return m_centroid;
+        return centroid;
     }
 
-    private double[] m_weightedCentroid;
-
-    private IterableInterval<? extends RealType<?>> m_wcIterableInterval;
+    /**
+     * @param ii
+     * @return the fused first order statistics (moments, quantiles, (weighted) centroid) of the given interval, the
+     *         values and positions are only collected if required (see {@link #planIntermediates(Set)})
+     */
+    public <T extends RealType<T>> FirstOrderStatistics firstOrderStatistics(final IterableInterval<T> ii) {
+        // statistics collected with other plans lack the values or positions required now
+        final Key key =
+                new Key(CachedObject.FIRST_ORDER_STATISTICS, new Identity(ii), m_keepValues, m_keepPositions);
+        FirstOrderStatistics stats = (FirstOrderStatistics)lookup(key);
+        if (stats == null) {
+            stats = new FirstOrderStatistics();
+            stats.setValuesEnabled(m_keepValues);
+            stats.setPositionsEnabled(m_keepPositions);
+            stats.compute(ii);
+            m_table.put(key, stats);
+        }
+        return stats;
+    }
 
+    /**
+     * @param ii
+     * @param ds not used anymore, the sum is taken from {@link #firstOrderStatistics(IterableInterval)}
+     * @param massDisplacement not used
+     * @return the centroid weighted by the intensities
+     * @deprecated use {@link #firstOrderStatistics(IterableInterval)}
+     */
+    @Deprecated
     public <T extends RealType<T>> double[] weightedCentroid(final IterableInterval<T> ii,
-                                                             final DescriptiveStatistics ds, int massDisplacement) {
-
-        if (m_wcIterableInterval != ii) {
-            m_wcIterableInterval = ii;
-            m_weightedCentroid = new double[ii.numDimensions()];
-            final double[] centroid = new double[ii.numDimensions()];
-
-            final Cursor<T> c = ii.localizingCursor();
+                                                             final DescriptiveStatistics ds, final int massDisplacement) {
+        return firstOrderStatistics(ii).weightedCentroid();
+    }
 
-            final long[] pos = new long[c.numDimensions()];
-            while (c.hasNext()) {
-                c.fwd();
-                c.localize(pos);
+    /**
+     * @param ii a two dimensional region (dimensions 0 and 1)
+     * @return the traced outer contour of the region
+     */
+    public Contour contour(final IterableInterval<BitType> ii) {
+        final Key key = new Key(CachedObject.CONTOUR, new Identity(ii));
+        Contour contour = (Contour)lookup(key);
+        if (contour == null) {
+            contour = new Contour(ii, 0, 1);
+            m_table.put(key, contour);
+        }
+        return contour;
+    }
 
-                final double val = c.get().getRealDouble();
+    /**
+     * @param ii a two dimensional region (dimensions 0 and 1)
+     * @param samplingRate the length of the signature
+     * @return the central distance signature of the contour of the region with respect to its centroid
+     */
+    public Signature signature(final IterableInterval<BitType> ii, final int samplingRate) {
+        final Key key = new Key(CachedObject.SIGNATURE, new Identity(ii), samplingRate);
+        Signature signature = (Signature)lookup(key);
+        if (signature == null) {
+            signature = new Signature(contour(ii), centroid(ii), samplingRate);
+            m_table.put(key, signature);
+        }
 
-                for (int d = 0; d < ii.numDimensions(); d++) {
-                    m_weightedCentroid[d] += pos[d] * (val / ds.getSum());
-                    centroid[d] += pos[d];
-                }
-            }
+        return signature;
 
-            massDisplacement = 0;
-            for (int d = 0; d < ii.numDimensions(); d++) {
-                centroid[d] /= ii.size();
-                massDisplacement += Math.pow(m_weightedCentroid[d] - centroid[d], 2);
-            }
+    }
 
+    /**
+     * @deprecated use {@link #cooccurrenceStatistics(IterableInterval, int, int, int...)}, which computes all
+     *             orientations in one pass
+     */
+    @Deprecated
+    public <T extends RealType<T>> CooccurrenceMatrix cooccurenceMatrix(final IterableInterval<T> ii, final int dimX,
+                                                                        final int dimY, final int distance,
+                                                                        final int nrGrayLevels,
+                                                                        final MatrixOrientation matrixOrientation,
+                                                                        final BitSet features) {
+        final Key key =
+                new Key(CachedObject.COOCCURRENCE_MATRIX, new Identity(ii), dimX, dimY, distance, nrGrayLevels,
+                        matrixOrientation, features.clone());
+        CooccurrenceMatrix matrix = (CooccurrenceMatrix)lookup(key);
+        if (matrix == null) {
+            final MakeCooccurrenceMatrix<T> matrixOp =
+                    new MakeCooccurrenceMatrix<T>(dimX, dimY, distance, nrGrayLevels, matrixOrientation, features);
+            matrix = new CooccurrenceMatrix(nrGrayLevels);
+            matrixOp.compute(ii, matrix);
+            m_table.put(key, matrix);
         }
-        return m_weightedCentroid;
-
+        return matrix;
     }
 
-    private IterableInterval<BitType> m_sIterableInterval;
-
-    private Signature m_signature;
+    /**
+     * @param ii
+     * @param distance
+     * @param nrGrayLevels
+     * @param dims the two or three dimensions spanning the co-occurrences
+     * @return the co-occurrence statistics of all directions
+     */
+    public <T extends RealType<T>> CooccurrenceStatistics cooccurrenceStatistics(final IterableInterval<T> ii,
+                                                                                 final int distance,
+                                                                                 final int nrGrayLevels,
+                                                                                 final int... dims) {
+        final Key key =
+                new Key(CachedObject.COOCCURRENCE_STATISTICS, new Identity(ii), distance, nrGrayLevels,
+                        Arrays.toString(dims));
+        CooccurrenceStatistics stats = (CooccurrenceStatistics)lookup(key);
+        if (stats == null) {
+            stats = new CooccurrenceStatistics(nrGrayLevels, distance);
+            stats.compute(ii, dims);
+            m_table.put(key, stats);
+        }
+        return stats;
+    }
 
-    public Signature signature(final IterableInterval<BitType> ii, final int samplingRate) {
+    /**
+     * @param ii
+     * @param distance
+     * @param nrGrayLevels
+     * @param orientation the only direction whose pairs are counted
+     * @param dims the two or three dimensions spanning the co-occurrences
+     * @return the co-occurrence statistics of the given direction
+     */
+    public <T extends RealType<T>> CooccurrenceStatistics cooccurrenceStatistics(final IterableInterval<T> ii,
+                                                                                 final int distance,
+                                                                                 final int nrGrayLevels,
+                                                                                 final MatrixOrientation orientation,
+                                                                                 final int... dims) {
+        final Key key =
+                new Key(CachedObject.COOCCURRENCE_STATISTICS, new Identity(ii), distance, nrGrayLevels,
+                        Arrays.toString(dims), orientation);
+        CooccurrenceStatistics stats = (CooccurrenceStatistics)lookup(key);
+        if (stats == null) {
+            stats = new CooccurrenceStatistics(nrGrayLevels, distance);
+            stats.computeDirection(ii, CooccurrenceStatistics.directionIndex(orientation), dims);
+            m_table.put(key, stats);
+        }
+        return stats;
+    }
 
-        if (m_sIterableInterval != ii) {
-            m_sIterableInterval = ii;
+    private static final class Identity {
 
-            final double[] centroid = centroid(ii);
-            final long[] pos = new long[centroid.length];
-            for (int i = 0; i < pos.length; i++) {
-                pos[i] = Math.round(centroid[i]);
-            }
+        private final Object m_object;
 
-            m_signature = new Signature(binaryMask(ii), pos, samplingRate);
+        Identity(final Object object) {
+            m_object = object;
         }
 
-        return m_signature;
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(m_object);
+        }
 
+        @Override
+        public boolean equals(final Object obj) {
+            return (obj instanceof Identity) && (((Identity)obj).m_object == m_object);
+        }
     }
 
-    private CooccurrenceMatrix m_coocMatrix;
+    private static final class Key {
+
+        private final CachedObject m_kind;
 
-    private IterableInterval<? extends RealType<?>> m_coocII;
+        private final Object m_source;
 
-    private int m_coocDist;
+        private final Object[] m_params;
 
-    private int m_coocGrayLevels;
+        private final int m_hash;
 
-    private MatrixOrientation m_coocOrientation;
+        Key(final CachedObject kind, final Object source, final Object... params) {
+            m_kind = kind;
+            m_source = source;
+            m_params = params;
+            m_hash = (31 * ((31 * kind.hashCode()) + source.hashCode())) + Arrays.hashCode(params);
+        }
 
-    private BitSet m_coocBitSet;
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
 
-    public <T extends RealType<T>> CooccurrenceMatrix cooccurenceMatrix(final IterableInterval<T> ii, final int dimX,
-                                                                        final int dimY, final int distance,
-                                                                        final int nrGrayLevels,
-                                                                        final MatrixOrientation matrixOrientation,
-                                                                        final BitSet features) {
-        if ((m_coocII != ii) || (m_coocDist != distance) || (m_coocGrayLevels != nrGrayLevels)
-                || (m_coocOrientation != matrixOrientation) || !features.equals(m_coocBitSet)) {
-            final MakeCooccurrenceMatrix<T> matrixOp =
-                    new MakeCooccurrenceMatrix<T>(dimX, dimY, distance, nrGrayLevels, matrixOrientation, features);
-            if ((m_coocMatrix == null) || (m_coocGrayLevels != nrGrayLevels)) {
-                // matrix still null or size must change
-                m_coocMatrix = new CooccurrenceMatrix(nrGrayLevels);
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
             }
-            matrixOp.compute(ii, m_coocMatrix);
-            m_coocII = ii;
-            m_coocDist = distance;
-            m_coocGrayLevels = nrGrayLevels;
-            m_coocOrientation = matrixOrientation;
-            m_coocBitSet = features;
+            final Key other = (Key)obj;
+            return (m_kind == other.m_kind) && m_source.equals(other.m_source) && Arrays.equals(m_params, other.m_params);
         }
-        return m_coocMatrix;
     }
-
 }
@@ -50,12 +50,17 @@
  */
 package org.knime.knip.core.features.fd;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import net.imglib2.IterableInterval;
 import net.imglib2.type.logic.BitType;
 
 import org.knime.knip.core.data.labeling.Signature;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
@@ -63,7 +68,7 @@ import org.knime.knip.core.features.SharesObjects;
  * 
  * @author dietzc, University of Konstanz
  */
-public class CentralDistanceFeatureSet implements FeatureSet, SharesObjects {
+public class CentralDistanceFeatureSet implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     private final int m_numAngles;
 
@@ -92,6 +97,14 @@ public class CentralDistanceFeatureSet implements FeatureSet, SharesObjects {
         return m_signature.getPosAt(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        return EnumSet.of(Intermediate.CONTOUR);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -50,14 +50,18 @@
  */
 package org.knime.knip.core.features.fd;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import net.imglib2.IterableInterval;
 import net.imglib2.type.logic.BitType;
 
-import org.knime.knip.core.algorithm.InplaceFFT;
-import org.knime.knip.core.data.algebra.Complex;
+import org.knime.knip.core.algorithm.FFT;
 import org.knime.knip.core.data.labeling.Signature;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
@@ -65,17 +69,14 @@ import org.knime.knip.core.features.SharesObjects;
  * 
  * @author dietzc, University of Konstanz
  */
-public class FDCentralDistanceFeatureSet implements FeatureSet, SharesObjects {
+public class FDCentralDistanceFeatureSet implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     /*
-     * Complex array containing the current signature as complex values
+     * The current signature as complex values, transformed in-place
      */
-    private final Complex[] m_complexSignature;
+    private final double[] m_re;
 
-    /*
-     * The Fourier Transformed Signature
-     */
-    private Complex[] m_transformed;
+    private final double[] m_im;
 
     private final int m_numAngles;
 
@@ -90,8 +91,8 @@ public class FDCentralDistanceFeatureSet implements FeatureSet, SharesObjects {
      */
     public FDCentralDistanceFeatureSet(final int numAngles) {
         m_numAngles = numAngles;
-        m_complexSignature = new Complex[numAngles];
-        m_transformed = new Complex[numAngles];
+        m_re = new double[numAngles];
+        m_im = new double[numAngles];
         m_descriptor = new double[numAngles];
 
     }
@@ -99,17 +100,23 @@ public class FDCentralDistanceFeatureSet implements FeatureSet, SharesObjects {
     @FeatureTargetListener
     public void iiUpdated(final IterableInterval<BitType> interval) {
         m_signature = m_ocac.signature(interval, m_numAngles);
-        for (int x = 0; x < m_signature.length(); x++) {
-            m_complexSignature[x] = new Complex(m_signature.getPosAt(x), 0);
+        final int length = m_signature.length();
+        for (int x = 0; x < length; x++) {
+            m_re[x] = m_signature.getPosAt(x);
+            m_im[x] = 0;
         }
 
-        m_transformed = InplaceFFT.fft(m_complexSignature);
-        final double dcMagnitude = m_transformed[0].getMagnitude();
-        for (int t = 1; t < (m_transformed.length / 2); t++) {
-            m_descriptor[t - 1] = (m_transformed[t].getMagnitude() / dcMagnitude);
+        FFT.forSize(length).transform(m_re, m_im);
+        final double dcMagnitude = magnitude(0);
+        for (int t = 1; t < (length / 2); t++) {
+            m_descriptor[t - 1] = (magnitude(t) / dcMagnitude);
         }
     }
 
+    private double magnitude(final int t) {
+        return Math.sqrt((m_re[t] * m_re[t]) + (m_im[t] * m_im[t]));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -118,6 +125,14 @@ public class FDCentralDistanceFeatureSet implements FeatureSet, SharesObjects {
         return m_descriptor[id];
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        return EnumSet.of(Intermediate.CONTOUR);
+    }
+
     /**
      * {@inheritDoc}
      */
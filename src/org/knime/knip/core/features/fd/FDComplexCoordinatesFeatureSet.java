@@ -50,14 +50,18 @@
  */
 package org.knime.knip.core.features.fd;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import net.imglib2.IterableInterval;
 import net.imglib2.type.logic.BitType;
 
-import org.knime.knip.core.algorithm.InplaceFFT;
-import org.knime.knip.core.data.algebra.Complex;
+import org.knime.knip.core.algorithm.FFT;
 import org.knime.knip.core.data.labeling.Signature;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
@@ -65,17 +69,14 @@ import org.knime.knip.core.features.SharesObjects;
  * 
  * @author dietzc, University of Konstanz
  */
-public class FDComplexCoordinatesFeatureSet implements FeatureSet, SharesObjects {
+public class FDComplexCoordinatesFeatureSet implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     /*
-     * Complex array containing the current signature as complex values
+     * The current signature as complex values, transformed in-place
      */
-    private final Complex[] m_complexSignature;
+    private final double[] m_re;
 
-    /*
-     * The Fourier Transformed Signature
-     */
-    private Complex[] m_transformed;
+    private final double[] m_im;
 
     private final int m_numAngles;
 
@@ -90,8 +91,8 @@ public class FDComplexCoordinatesFeatureSet implements FeatureSet, SharesObjects
      */
     public FDComplexCoordinatesFeatureSet(final int numAngles) {
         m_numAngles = numAngles;
-        m_complexSignature = new Complex[numAngles];
-        m_transformed = new Complex[numAngles];
+        m_re = new double[numAngles];
+        m_im = new double[numAngles];
         m_descriptor = new double[numAngles];
 
     }
@@ -99,17 +100,23 @@ public class FDComplexCoordinatesFeatureSet implements FeatureSet, SharesObjects
     @FeatureTargetListener
     public void iiUpdated(final IterableInterval<BitType> interval) {
         m_signature = m_ocac.signature(interval, m_numAngles);
-        for (int y = 0; y < m_signature.length(); y++) {
-            m_complexSignature[y] = new Complex(m_signature.getPosAt(y), y);
+        final int length = m_signature.length();
+        for (int y = 0; y < length; y++) {
+            m_re[y] = m_signature.getPosAt(y);
+            m_im[y] = y;
         }
 
-        m_transformed = InplaceFFT.fft(m_complexSignature);
-        final double magnitude = m_transformed[1].getMagnitude();
-        for (int t = 2; t < m_transformed.length; t++) {
-            m_descriptor[t - 2] = (m_transformed[t].getMagnitude() / magnitude);
+        FFT.forSize(length).transform(m_re, m_im);
+        final double magnitude = magnitude(1);
+        for (int t = 2; t < length; t++) {
+            m_descriptor[t - 2] = (magnitude(t) / magnitude);
         }
     }
 
+    private double magnitude(final int t) {
+        return Math.sqrt((m_re[t] * m_re[t]) + (m_im[t] * m_im[t]));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -118,6 +125,14 @@ public class FDComplexCoordinatesFeatureSet implements FeatureSet, SharesObjects
         return m_descriptor[id];
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        return EnumSet.of(Intermediate.CONTOUR);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -9,6 +9,11 @@ import net.imglib2.ops.operation.real.binary.RealXor;
 import net.imglib2.ops.types.ConnectedType;
 import net.imglib2.type.logic.BitType;
 
+import org.knime.knip.core.algorithm.FlatStencilEngine;
+import org.knime.knip.core.algorithm.FlatStencilEngine.Border;
+import org.knime.knip.core.algorithm.FlatStencilEngine.StencilKernel;
+import org.knime.knip.core.data.labeling.RunLengthMask;
+
 /**
  * Extracts the outline of a given connected component in an {@link Img} of {@link BitType}. The outline is here defined
  * as all pixels, which are next to the pixels which are on the border of the connected component. Please be aware that
@@ -41,11 +46,103 @@ public class ExtractOutlineImg implements UnaryOperation<Img<BitType>, Img<BitTy
             throw new IllegalArgumentException("Operation only permitted on two dimensions");
         }
 
-        m_op.compute(op, r);
-        m_imgManWith.compute(op, r, r);
+        if (!FlatStencilEngine.fits(op)) {
+            // too large for a flat buffer
+            m_op.compute(op, r);
+            m_imgManWith.compute(op, r, r);
+            return r;
+        }
+
+        // the erosion continues the segment beyond the border, the dilation does not
+        final FlatStencilEngine engine =
+                new FlatStencilEngine(op, m_outlineInsideSegment ? Border.MIRROR_DOUBLE : Border.ZERO, null);
+
+        // (eroded XOR segment) resp. (dilated XOR segment) in one pass
+        final StencilKernel kernel;
+        if (m_outlineInsideSegment) {
+            final int[] offsets = engine.neighborOffsets(true);
+            kernel = new StencilKernel() {
+                @Override
+                public double compute(final double[] src, final int center) {
+                    if (src[center] == 0) {
+                        return 0;
+                    }
+                    for (final int offset : offsets) {
+                        if (src[center + offset] == 0) {
+                            return 1;
+                        }
+                    }
+                    return 0;
+                }
+            };
+        } else {
+            final int[] offsets = engine.neighborOffsets(false);
+            kernel = new StencilKernel() {
+                @Override
+                public double compute(final double[] src, final int center) {
+                    if (src[center] != 0) {
+                        return 0;
+                    }
+                    for (final int offset : offsets) {
+                        if (src[center + offset] != 0) {
+                            return 1;
+                        }
+                    }
+                    return 0;
+                }
+            };
+        }
+
+        engine.write(engine.apply(engine.read(op), kernel), r);
         return r;
     }
 
+    /**
+     * Extracts the outline of a run length encoded region row by row, only three rows of the mask are expanded at a
+     * time. Everything outside of the region is background.
+     * 
+     * @param mask the region
+     * @return the outline
+     */
+    public RunLengthMask compute(final RunLengthMask mask) {
+        // one pixel margin for the outline outside, one for the neighbors
+        final long x0 = mask.minX() - 2;
+        final int width = (int)mask.width() + 4;
+        boolean[] above = new boolean[width];
+        boolean[] row = new boolean[width];
+        boolean[] below = new boolean[width];
+        final boolean[] outline = new boolean[width];
+
+        final long minY = m_outlineInsideSegment ? mask.minY() : mask.minY() - 1;
+        final long maxY = m_outlineInsideSegment ? mask.maxY() : mask.maxY() + 1;
+        mask.fillRow(minY - 1, above, x0);
+        mask.fillRow(minY, row, x0);
+
+        final RunLengthMask.Builder builder = new RunLengthMask.Builder();
+        for (long y = minY; y <= maxY; y++) {
+            mask.fillRow(y + 1, below, x0);
+            for (int x = 1; x < (width - 1); x++) {
+                if (m_outlineInsideSegment) {
+                    // set pixels with at least one unset pixel in the 8-neighborhood
+                    outline[x] =
+                            row[x]
+                                    && !(above[x - 1] && above[x] && above[x + 1] && row[x - 1] && row[x + 1]
+                                            && below[x - 1] && below[x] && below[x + 1]);
+                } else {
+                    // unset pixels with at least one set pixel in the 4-neighborhood
+                    outline[x] = !row[x] && (above[x] || below[x] || row[x - 1] || row[x + 1]);
+                }
+            }
+            builder.addRow(y, outline, x0);
+
+            final boolean[] tmp = above;
+            above = row;
+            row = below;
+            below = tmp;
+        }
+        return builder.build();
+    }
+
     @Override
     public UnaryOperation<Img<BitType>, Img<BitType>> copy() {
         return new ExtractOutlineImg(m_outlineInsideSegment);
@@ -50,13 +50,17 @@
  */
 package org.knime.knip.core.features.seg;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import net.imglib2.IterableInterval;
-import net.imglib2.ops.operation.iterableinterval.unary.Centroid;
 import net.imglib2.type.numeric.RealType;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.FirstOrderStatistics;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
@@ -65,7 +69,8 @@ import org.knime.knip.core.features.SharesObjects;
  * @author dietzc, hornm, schoenenbergerf University of Konstanz
  * @param <T> image type
  */
-public class FirstOrderMomentsFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects {
+public class FirstOrderMomentsFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects,
+        DeclaresIntermediates {
 
     /**
      * the feature names
@@ -75,14 +80,10 @@ public class FirstOrderMomentsFeatureSet<T extends RealType<T>> implements Featu
             "Median absolute deviation (MAD)", "WeightedCentroid Dim 1", "WeightedCentroid Dim 2",
             "WeightedCentroid Dim 3", "WeightedCentroid Dim 4", "WeightedCentroid Dim 5", "Mass Displacement",};
 
-    private DescriptiveStatistics m_statistics;
+    private FirstOrderStatistics m_statistics;
 
     private IterableInterval<T> m_interval;
 
-    private double[] m_weightedCentroid;
-
-    private int m_massDisplacement;
-
     private ObjectCalcAndCache m_ocac;
 
     @FeatureTargetListener
@@ -96,67 +97,46 @@ public class FirstOrderMomentsFeatureSet<T extends RealType<T>> implements Featu
     @Override
     public final double value(final int id) {
 
-        m_statistics = m_ocac.descriptiveStatistics(m_interval);
-
-        if ((id > 12) && (id <= 19)) {
-            // update weighted centroid
-            m_weightedCentroid = m_ocac.weightedCentroid(m_interval, m_statistics, m_massDisplacement);
-        }
+        m_statistics = m_ocac.firstOrderStatistics(m_interval);
 
         switch (id) {
             case 0:
-                return m_statistics.getMin();
+                return m_statistics.min();
             case 1:
-                return m_statistics.getMax();
+                return m_statistics.max();
             case 2:
-                return m_statistics.getMean();
+                return m_statistics.mean();
             case 3:
-                return m_statistics.getGeometricMean();
+                return m_statistics.geometricMean();
             case 4:
-                return m_statistics.getSum();
+                return m_statistics.sum();
             case 5:
-                return m_statistics.getSumsq();
+                return m_statistics.sumOfSquares();
             case 6:
-                return m_statistics.getStandardDeviation();
+                return m_statistics.standardDeviation();
             case 7:
-                return m_statistics.getVariance();
+                return m_statistics.variance();
             case 8:
-                return m_statistics.getSkewness();
+                return m_statistics.skewness();
             case 9:
-                return m_statistics.getKurtosis();
+                return m_statistics.kurtosis();
             case 10:
-                return m_statistics.getPercentile(25);
+                return m_statistics.percentile(25);
             case 11:
-                return m_statistics.getPercentile(50);
+                return m_statistics.median();
             case 12:
-                return m_statistics.getPercentile(75);
+                return m_statistics.percentile(75);
             case 13:
-                final double median = m_statistics.getPercentile(50);
-                final DescriptiveStatistics stats = new DescriptiveStatistics();
-                for (int i = 0; i < m_statistics.getN(); i++) {
-                    stats.addValue(Math.abs(median - m_statistics.getElement(i)));
-                }
-                return stats.getPercentile(50);
+                return m_statistics.medianAbsoluteDeviation();
             case 14:
-                return m_weightedCentroid.length > 0 ? m_weightedCentroid[0] : 0;
             case 15:
-                return m_weightedCentroid.length > 1 ? m_weightedCentroid[1] : 0;
             case 16:
-                return m_weightedCentroid.length > 2 ? m_weightedCentroid[2] : 0;
             case 17:
-                return m_weightedCentroid.length > 3 ? m_weightedCentroid[3] : 0;
             case 18:
-                return m_weightedCentroid.length > 4 ? m_weightedCentroid[4] : 0;
+                final double[] weightedCentroid = m_statistics.weightedCentroid();
+                return weightedCentroid.length > (id - 14) ? weightedCentroid[id - 14] : 0;
             case 19:
-                m_massDisplacement = 0;
-                final double[] centroid = new Centroid().compute(m_interval, new double[m_interval.numDimensions()]);
-                for (int d = 0; d < m_interval.numDimensions(); d++) {
-                    m_weightedCentroid[d] /= m_statistics.getSum();
-                    centroid[d] /= m_interval.size();
-                    m_massDisplacement += Math.pow(m_weightedCentroid[d] - centroid[d], 2);
-                }
-
-                return Math.sqrt(m_massDisplacement);
+                return m_statistics.massDisplacement();
 
             default:
                 return Double.NaN;
@@ -164,6 +144,24 @@ public class FirstOrderMomentsFeatureSet<T extends RealType<T>> implements Featu
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        if ((id == 2) || ((id >= 6) && (id <= 9))) {
+            return EnumSet.of(Intermediate.MOMENTS);
+        }
+        if ((id >= 10) && (id <= 13)) {
+            return EnumSet.of(Intermediate.SORTED_VALUES);
+        }
+        if (id >= 14) {
+            return EnumSet.of(Intermediate.POSITIONS);
+        }
+        // min, max, geometric mean, sum and sum of squares are collected in any case
+        return EnumSet.noneOf(Intermediate.class);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -51,24 +51,30 @@
 package org.knime.knip.core.features.seg;
 
 import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
 
 import net.imglib2.IterableInterval;
-import net.imglib2.ops.data.CooccurrenceMatrix;
 import net.imglib2.ops.data.CooccurrenceMatrix.MatrixOrientation;
 import net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix.HaralickFeature;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.ValuePair;
 
+import org.knime.knip.core.features.CooccurrenceStatistics;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
 /**
+ * Haralick texture features of two or three dimensional intervals. The co-occurrences of all directions are computed
+ * in one pass (see {@link CooccurrenceStatistics}), either the features of one orientation or their average over all
+ * directions are returned.
  * 
  * @author dietzc, hornm, University of Konstanz
  */
-public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects {
+public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     private final int m_distance;
 
@@ -82,18 +88,15 @@ public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, Sh
 
     private IterableInterval<T> m_interval;
 
-    private ValuePair<Integer, Integer> m_validDims;
-
-    private int m_dimX;
-
-    private int m_dimY;
+    private int[] m_validDims;
 
     private boolean m_isValid;
 
     /**
      * @param nrGrayLevels
      * @param distance
-     * @param target
+     * @param orientation the orientation (in the plane of the first two non-singleton dimensions), if
+     *            <code>null</code> the features are averaged over all directions
      */
     public HaralickFeatureSet(final int nrGrayLevels, final int distance, final MatrixOrientation orientation) {
         super();
@@ -103,6 +106,16 @@ public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, Sh
 
     }
 
+    /**
+     * Features averaged over all directions.
+     * 
+     * @param nrGrayLevels
+     * @param distance
+     */
+    public HaralickFeatureSet(final int nrGrayLevels, final int distance) {
+        this(nrGrayLevels, distance, null);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -113,11 +126,18 @@ public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, Sh
             return Double.NaN;
         }
 
-        final CooccurrenceMatrix coocMat =
-                m_ocac.cooccurenceMatrix(m_interval, m_dimX, m_dimY, m_distance, m_nrGrayLevels, m_matrixOrientation,
-                                         m_enabledFeatures);
+        if (!m_enabledFeatures.get(id)) {
+            // as the co-occurrence matrix, which only computes the enabled features
+            return 0;
+        }
 
-        return coocMat.getFeature(id);
+        if (m_matrixOrientation == null) {
+            return m_ocac.cooccurrenceStatistics(m_interval, m_distance, m_nrGrayLevels, m_validDims)
+                    .averageFeatures()[id];
+        }
+        // only the pairs of the requested orientation are counted
+        return m_ocac.cooccurrenceStatistics(m_interval, m_distance, m_nrGrayLevels, m_matrixOrientation, m_validDims)
+                .features(CooccurrenceStatistics.directionIndex(m_matrixOrientation))[id];
     }
 
     /**
@@ -152,6 +172,14 @@ public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, Sh
         m_enabledFeatures.set(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        return EnumSet.of(Intermediate.COOCCURRENCE_MATRIX);
+    }
+
     @FeatureTargetListener
     public final void iiUpdated(final IterableInterval<T> interval) {
 
@@ -160,36 +188,30 @@ public class HaralickFeatureSet<T extends RealType<T>> implements FeatureSet, Sh
         if (m_validDims != null) {
             m_isValid = true;
             m_interval = interval;
-            m_dimX = m_validDims.a;
-            m_dimY = m_validDims.b;
         } else {
             m_isValid = false;
         }
 
     }
 
-    private ValuePair<Integer, Integer> getValidDims(final IterableInterval<T> interval) {
-
-        int dimX = -1;
-        int dimY = -1;
+    private int[] getValidDims(final IterableInterval<T> interval) {
 
+        int numValid = 0;
+        final int[] dims = new int[3];
         for (int d = 0; d < interval.numDimensions(); d++) {
             if (interval.dimension(d) > 1) {
-                if (dimX < 0) {
-                    dimX = d;
-                } else if (dimY < 0) {
-                    dimY = d;
-                } else {
+                if (numValid == dims.length) {
                     return null;
                 }
+                dims[numValid++] = d;
             }
         }
 
-        if ((dimX < 0) || (dimY < 0)) {
+        if (numValid < 2) {
             return null;
         }
 
-        return new ValuePair<Integer, Integer>(dimX, dimY);
+        return numValid == 2 ? new int[]{dims[0], dims[1]} : dims;
     }
 
     /**
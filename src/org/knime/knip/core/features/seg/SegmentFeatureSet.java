@@ -52,13 +52,14 @@ package org.knime.knip.core.features.seg;
 
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.Set;
 
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
 import net.imglib2.img.Img;
 import net.imglib2.meta.AxisType;
 import net.imglib2.meta.CalibratedSpace;
-import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.SubsetOperations;
 import net.imglib2.ops.operation.iterableinterval.unary.CalculateDiameter;
 import net.imglib2.ops.operation.randomaccessibleinterval.unary.ConvexHull2D;
@@ -66,18 +67,19 @@ import net.imglib2.ops.operation.subset.views.ImgView;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.real.DoubleType;
 
-import org.knime.knip.core.features.CalculatePerimeter;
+import org.knime.knip.core.data.labeling.RunLengthMask;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
-import org.knime.knip.core.util.ImgUtils;
 
 /**
  * 
  * @author hornm, dietzc, University of Konstanz
  */
-public class SegmentFeatureSet implements FeatureSet, SharesObjects {
+public class SegmentFeatureSet implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     private final String[] m_features;
 
@@ -87,10 +89,6 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
 
     private IterableInterval<BitType> m_interval;
 
-    private Img<BitType> m_outline;
-
-    private final CalculatePerimeter m_calculatePerimeter;
-
     private final ConvexHull2D<Img<BitType>> m_convexityOp;
 
     private final CalculateDiameter m_calculateDiameter;
@@ -116,7 +114,6 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
      */
     public SegmentFeatureSet(final AxisType[] defaultAxes) {
         super();
-        m_calculatePerimeter = new CalculatePerimeter();
         m_outlineOp = new ExtractOutlineImg(false);
         m_convexityOp = new ConvexHull2D<Img<BitType>>(0, 1, false);
         m_calculateDiameter = new CalculateDiameter();
@@ -169,8 +166,12 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
             }
         }
 
-        if (m_enabled.get(m_defaultAxis.length + 1) || m_enabled.get(m_defaultAxis.length + 2)
-                || m_enabled.get(m_defaultAxis.length + 3) || m_enabled.get(m_defaultAxis.length + 5)) {
+        final boolean perimeter =
+                m_enabled.get(m_defaultAxis.length + 1) || m_enabled.get(m_defaultAxis.length + 2);
+        final boolean convexity = m_enabled.get(m_defaultAxis.length + 3);
+        final boolean diameter = m_enabled.get(m_defaultAxis.length + 5);
+
+        if (perimeter || convexity || diameter) {
             if (activeDims > 2) {
                 m_solidity = Double.NaN;
                 m_perimeter = Double.NaN;
@@ -182,27 +183,42 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
 
             } else {
 
-                final Img<BitType> bitMask = m_ocac.binaryMask2D(interval);
-                m_outline = m_outlineOp.compute(bitMask, ImgUtils.createEmptyImg(bitMask));
-                m_perimeter = Operations.compute(m_calculatePerimeter, m_outline).get();
+                // the plane spanned by the dimensions containing more than one pixel
+                final int[] plane = new int[]{0, 1};
+                int numPlaneDims = 0;
+                for (int d = 0; (d < interval.numDimensions()) && (numPlaneDims < 2); d++) {
+                    if (interval.dimension(d) > 1) {
+                        plane[numPlaneDims++] = d;
+                    }
+                }
+                if ((numPlaneDims == 1) && (plane[0] == 1)) {
+                    plane[1] = 0;
+                }
+
+                final RunLengthMask mask = m_ocac.runLengthMask(interval, plane[0], plane[1]);
+                m_perimeter = mask.perimeter();
 
-                if (m_enabled.get(1 + m_defaultAxis.length) || m_enabled.get(3 + m_defaultAxis.length)) {
+                if (m_enabled.get(1 + m_defaultAxis.length) || convexity) {
 
                     if (activeDims == 2) {
-                        m_convexityOp
-                                .compute(new ImgView<BitType>(SubsetOperations.subsetview(bitMask, bitMask), null),
-                                         new ImgView<BitType>(SubsetOperations.subsetview(bitMask, bitMask), null));
-                        final Cursor<BitType> convexBitMaskCursor = bitMask.cursor();
-
-                        double ctr = 0;
-                        while (convexBitMaskCursor.hasNext()) {
-                            convexBitMaskCursor.fwd();
-                            ctr += convexBitMaskCursor.get().get() ? 1 : 0;
+                        m_circularity = (4d * Math.PI * mask.area()) / Math.pow(m_perimeter, 2);
+
+                        if (convexity) {
+                            // the hull is drawn into a fresh mask, the cached objects stay untouched
+                            final Img<BitType> bitMask = mask.toImg(1);
+                            m_convexityOp
+                                    .compute(new ImgView<BitType>(SubsetOperations.subsetview(bitMask, bitMask), null),
+                                             new ImgView<BitType>(SubsetOperations.subsetview(bitMask, bitMask), null));
+                            final Cursor<BitType> convexBitMaskCursor = bitMask.cursor();
+
+                            double ctr = 0;
+                            while (convexBitMaskCursor.hasNext()) {
+                                convexBitMaskCursor.fwd();
+                                ctr += convexBitMaskCursor.get().get() ? 1 : 0;
+                            }
+                            m_solidity = mask.area() / ctr;
                         }
 
-                        m_circularity = (4d * Math.PI * m_interval.size()) / Math.pow(m_perimeter, 2);
-                        m_solidity = interval.size() / ctr;
-
                     } else {
                         m_circularity = Double.NaN;
                         m_solidity = Double.NaN;
@@ -213,8 +229,9 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
 
                 }
 
-                if (m_enabled.get(5 + m_defaultAxis.length)) {
-                    m_diameter = m_calculateDiameter.compute(m_outline, new DoubleType()).get();
+                if (diameter) {
+                    m_diameter =
+                            m_calculateDiameter.compute(m_outlineOp.compute(mask).toImg(0), new DoubleType()).get();
                 }
             }
         }
@@ -270,6 +287,19 @@ public class SegmentFeatureSet implements FeatureSet, SharesObjects {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        // circularity, perimeter, convexity and diameter
+        final int segId = id - m_defaultAxis.length;
+        if ((segId == 1) || (segId == 2) || (segId == 3) || (segId == 5)) {
+            return EnumSet.of(Intermediate.MASK);
+        }
+        return EnumSet.noneOf(Intermediate.class);
+    }
+
     /**
      * {@inheritDoc}
      */
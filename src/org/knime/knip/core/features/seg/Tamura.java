@@ -1,5 +1,7 @@
 package org.knime.knip.core.features.seg;
 
+import java.util.Arrays;
+
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
@@ -43,7 +45,47 @@ import net.imglib2.type.numeric.RealType;
  */
 public class Tamura<T extends RealType<T>> {
 
-    private int[][] m_greyValues;
+    /**
+     * The features computed by this class.
+     */
+    public enum Feature {
+        /** granularity */
+        COARSENESS,
+        /** picture quality */
+        CONTRAST,
+        /** histogram of the edge directions */
+        DIRECTIONALITY;
+    }
+
+    /* coarseness is evaluated for window sizes 4^k, k < MAX_K */
+    private static final int MAX_K = 3;
+
+    /* extent of the (replicated) border needed by the coarseness windows */
+    private static final int PAD_LOW;
+
+    private static final int PAD_HIGH;
+
+    static {
+        int low = 0;
+        int high = 0;
+        for (int k = 0; k < MAX_K; k++) {
+            // windows start at center +- h - h and end at center + h - h + 4^k - 1
+            low = Math.max(low, 2 * halfShift(k));
+            high = Math.max(high, windowSize(k) - 1);
+        }
+        PAD_LOW = low;
+        PAD_HIGH = high;
+    }
+
+    /* grey values of the bounding box, x fastest */
+    private int[] m_greyValues = new int[0];
+
+    /* integral image of the grey values padded by replicating the border */
+    private long[] m_integral = new long[0];
+
+    private int m_width;
+
+    private int m_height;
 
     private double[] m_directionality;
 
@@ -51,11 +93,11 @@ public class Tamura<T extends RealType<T>> {
 
     private double m_mean;
 
-    private final String[] m_enabledFeatureNames;
+    private final boolean[] m_enabled = new boolean[Feature.values().length];
 
-    private final int m_dimX;
+    private int m_dimX;
 
-    private final int m_dimY;
+    private int m_dimY;
 
     private static final double[][] filterH = {{-1, 0, 1}, {-1, 0, 1}, {-1, 0, 1}};
 
@@ -64,23 +106,67 @@ public class Tamura<T extends RealType<T>> {
     /**
      * @param dimX
      * @param dimY
-     * @param enabledFeatureNames
+     * @param enabledFeatureNames names of {@link TamuraFeatureSet#FEATURES}
      */
     public Tamura(final int dimX, final int dimY, final String[] enabledFeatureNames) {
-        m_enabledFeatureNames = enabledFeatureNames.clone();
         m_dimX = dimX;
         m_dimY = dimY;
+        for (final String name : enabledFeatureNames) {
+            final Feature feature = featureOf(name);
+            if (feature != null) {
+                m_enabled[feature.ordinal()] = true;
+            }
+        }
+    }
+
+    /**
+     * @param dimX
+     * @param dimY
+     * @param enabledFeatures
+     */
+    public Tamura(final int dimX, final int dimY, final Feature... enabledFeatures) {
+        m_dimX = dimX;
+        m_dimY = dimY;
+        for (final Feature feature : enabledFeatures) {
+            m_enabled[feature.ordinal()] = true;
+        }
+    }
+
+    /*
+     * the feature computed for the given name of TamuraFeatureSet.FEATURES
+     */
+    private static Feature featureOf(final String featureName) {
+        if (TamuraFeatureSet.FEATURES[0].equals(featureName)) {
+            return Feature.COARSENESS;
+        } else if (TamuraFeatureSet.FEATURES[1].equals(featureName)) {
+            return Feature.CONTRAST;
+        }
+        for (int i = 2; i < TamuraFeatureSet.FEATURES.length; i++) {
+            if (TamuraFeatureSet.FEATURES[i].equals(featureName)) {
+                return Feature.DIRECTIONALITY;
+            }
+        }
+        return null;
+    }
+
+    private static int halfShift(final int k) {
+        return k == 0 ? 0 : 1 << (k - 1);
+    }
+
+    private static int windowSize(final int k) {
+        return 1 << (2 * k);
     }
 
     /**
      * @return
      */
     private double coarseness() {
-        double result = 0;
+        buildIntegralImage();
 
-        for (int i = 1; i < (m_greyValues.length - 1); i++) {
-            for (int j = 1; j < (m_greyValues[i].length - 1); j++) {
-                result = result + Math.pow(2, this.sizeLeadDiffValue(i, j));
+        double result = 0;
+        for (int y = 1; y < (m_height - 1); y++) {
+            for (int x = 1; x < (m_width - 1); x++) {
+                result = result + (1 << this.sizeLeadDiffValue(x, y));
             }
         }
 
@@ -88,40 +174,54 @@ public class Tamura<T extends RealType<T>> {
         return result;
     }
 
+    /*
+     * integral image over the grey values padded by PAD_LOW/PAD_HIGH replicated border pixels, with an additional
+     * leading row and column of zeros
+     */
+    private void buildIntegralImage() {
+        final int pw = m_width + PAD_LOW + PAD_HIGH;
+        final int ph = m_height + PAD_LOW + PAD_HIGH;
+        final int stride = pw + 1;
+        final int size = stride * (ph + 1);
+        if (m_integral.length < size) {
+            m_integral = new long[size];
+        }
+        final long[] integral = m_integral;
+        for (int px = 0; px <= pw; px++) {
+            integral[px] = 0;
+        }
+        for (int py = 0; py < ph; py++) {
+            final int y = Math.min(Math.max(py - PAD_LOW, 0), m_height - 1);
+            final int row = y * m_width;
+            final int idx = (py + 1) * stride;
+            integral[idx] = 0;
+            long rowSum = 0;
+            for (int px = 0; px < pw; px++) {
+                final int x = Math.min(Math.max(px - PAD_LOW, 0), m_width - 1);
+                rowSum += m_greyValues[row + x];
+                integral[idx + px + 1] = integral[(idx - stride) + px + 1] + rowSum;
+            }
+        }
+    }
+
     /**
-     * 1. For every point(x, y) calculate the average over neighborhoods.
+     * 1. For every point(x, y) calculate the average over neighborhoods. Pixels outside of the bounding box are
+     * replaced by the nearest border pixel.
      * 
      * @param x
      * @param y
      * @return
      */
     private final double averageOverNeighborhoods(final int x, final int y, final int k) {
-        double result = 0, border;
-        border = Math.pow(2, 2 * k);
-        int x0 = 0, y0 = 0;
-
-        for (int i = 0; i < border; i++) {
-            for (int j = 0; j < border; j++) {
-                x0 = (x - (int)Math.pow(2, k - 1)) + i;
-                y0 = (y - (int)Math.pow(2, k - 1)) + j;
-                if (x0 < 0) {
-                    x0 = 0;
-                }
-                if (y0 < 0) {
-                    y0 = 0;
-                }
-                if (x0 >= m_greyValues.length) {
-                    x0 = m_greyValues.length - 1;
-                }
-                if (y0 >= m_greyValues[0].length) {
-                    y0 = m_greyValues[0].length - 1;
-                }
-
-                result = result + m_greyValues[x0][y0];
-            }
-        }
-        result = (1 / Math.pow(2, 2 * k)) * result;
-        return result;
+        final int size = windowSize(k);
+        final int stride = m_width + PAD_LOW + PAD_HIGH + 1;
+        final int x0 = (x - halfShift(k)) + PAD_LOW;
+        final int y0 = (y - halfShift(k)) + PAD_LOW;
+        final long[] integral = m_integral;
+        final long sum =
+                (integral[((y0 + size) * stride) + x0 + size] - integral[((y0 + size) * stride) + x0]
+                        - integral[(y0 * stride) + x0 + size]) + integral[(y0 * stride) + x0];
+        return sum / (double)(1 << (2 * k));
     }
 
     /**
@@ -133,11 +233,8 @@ public class Tamura<T extends RealType<T>> {
      * @return
      */
     private final double differencesBetweenNeighborhoodsHorizontal(final int x, final int y, final int k) {
-        double result = 0;
-        result =
-                Math.abs(this.averageOverNeighborhoods(x + (int)Math.pow(2, k - 1), y, k)
-                        - this.averageOverNeighborhoods(x - (int)Math.pow(2, k - 1), y, k));
-        return result;
+        return Math.abs(this.averageOverNeighborhoods(x + halfShift(k), y, k)
+                - this.averageOverNeighborhoods(x - halfShift(k), y, k));
     }
 
     /**
@@ -149,11 +246,8 @@ public class Tamura<T extends RealType<T>> {
      * @return
      */
     private final double differencesBetweenNeighborhoodsVertical(final int x, final int y, final int k) {
-        double result = 0;
-        result =
-                Math.abs(this.averageOverNeighborhoods(x, y + (int)Math.pow(2, k - 1), k)
-                        - this.averageOverNeighborhoods(x, y - (int)Math.pow(2, k - 1), k));
-        return result;
+        return Math.abs(this.averageOverNeighborhoods(x, y + halfShift(k), k)
+                - this.averageOverNeighborhoods(x, y - halfShift(k), k));
     }
 
     /**
@@ -167,7 +261,7 @@ public class Tamura<T extends RealType<T>> {
         double result = 0, tmp;
         int maxK = 1;
 
-        for (int k = 0; k < 3; k++) {
+        for (int k = 0; k < MAX_K; k++) {
             tmp =
                     Math.max(this.differencesBetweenNeighborhoodsHorizontal(x, y, k),
                              this.differencesBetweenNeighborhoodsVertical(x, y, k));
@@ -185,36 +279,19 @@ public class Tamura<T extends RealType<T>> {
      * @return
      */
     private final double contrast() {
-        double result = 0, sigma, my4 = 0, alpha4 = 0;
-
-        sigma = this.calculateSigma();
-
-        for (int x = 0; x < m_greyValues.length; x++) {
-            for (int y = 0; y < m_greyValues[x].length; y++) {
-                my4 = my4 + Math.pow(m_greyValues[x][y] - m_mean, 4);
-            }
+        double var = 0, my4 = 0;
+
+        final int size = m_width * m_height;
+        for (int i = 0; i < size; i++) {
+            final double diff = m_greyValues[i] - m_mean;
+            final double diffSq = diff * diff;
+            var += diffSq;
+            my4 += diffSq * diffSq;
         }
 
-        alpha4 = my4 / (Math.pow(sigma, 4));
-        result = sigma / (Math.pow(alpha4, 0.25));
-        return result;
-    }
-
-    /**
-     * @param mean
-     * @return
-     */
-    private final double calculateSigma() {
-        double result = 0;
-
-        for (int x = 0; x < m_greyValues.length; x++) {
-            for (int y = 0; y < m_greyValues[x].length; y++) {
-                result = result + Math.pow(m_greyValues[x][y] - m_mean, 2);
-
-            }
-        }
-        result = result / m_numPix;
-        return Math.sqrt(result);
+        final double sigma = Math.sqrt(var / m_numPix);
+        final double alpha4 = my4 / (Math.pow(sigma, 4));
+        return sigma / (Math.pow(alpha4, 0.25));
     }
 
     /**
@@ -225,8 +302,8 @@ public class Tamura<T extends RealType<T>> {
         final double maxResult = 3;
         final double binWindow = maxResult / (histogram.length - 1);
         int bin = -1;
-        for (int x = 1; x < (m_greyValues.length - 1); x++) {
-            for (int y = 1; y < (m_greyValues[x].length - 1); y++) {
+        for (int y = 1; y < (m_height - 1); y++) {
+            for (int x = 1; x < (m_width - 1); x++) {
                 bin =
                         (int)(((Math.PI / 2) + Math.atan(this.calculateDeltaV(x, y) / this.calculateDeltaH(x, y))) / binWindow);
                 histogram[bin]++;
@@ -243,7 +320,7 @@ public class Tamura<T extends RealType<T>> {
 
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
-                result = result + (m_greyValues[(x - 1) + i][(y - 1) + j] * filterH[i][j]);
+                result = result + (m_greyValues[(((y - 1) + j) * m_width) + ((x - 1) + i)] * filterH[i][j]);
             }
         }
 
@@ -260,50 +337,70 @@ public class Tamura<T extends RealType<T>> {
 
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
-                result = result + (m_greyValues[(x - 1) + i][(y - 1) + j] * filterV[i][j]);
+                result = result + (m_greyValues[(((y - 1) + j) * m_width) + ((x - 1) + i)] * filterV[i][j]);
             }
         }
         return result;
     }
 
     /**
-     * @param img
-     * @param s
-     * @return
+     * @param interval
+     * @param dimX
+     * @param dimY
+     * @return coarseness, contrast and the 16 bins of the directionality histogram (zero if not enabled)
+     */
+    public final double[] updateROI(final IterableInterval<T> interval, final int dimX, final int dimY) {
+        m_dimX = dimX;
+        m_dimY = dimY;
+        return updateROI(interval);
+    }
+
+    /**
+     * @param interval
+     * @return coarseness, contrast and the 16 bins of the directionality histogram (zero if not enabled)
      */
     public final double[] updateROI(final IterableInterval<T> interval) {
 
         final Cursor<T> cursor = interval.localizingCursor();
         final int minVal = (int)interval.firstElement().getMinValue();
 
-        m_greyValues = new int[(int)interval.dimension(m_dimX)][(int)interval.dimension(m_dimY)];
+        m_width = (int)interval.dimension(m_dimX);
+        m_height = (int)interval.dimension(m_dimY);
+        final int size = m_width * m_height;
+        if (m_greyValues.length < size) {
+            m_greyValues = new int[size];
+        } else {
+            Arrays.fill(m_greyValues, 0, size, 0);
+        }
         m_numPix = (int)interval.size();
+        m_mean = 0;
 
+        final long minX = interval.min(m_dimX);
+        final long minY = interval.min(m_dimY);
         while (cursor.hasNext()) {
             cursor.fwd();
 
-            final int x = (int)(cursor.getIntPosition(m_dimX) - interval.min(m_dimX));
-            final int y = (int)(cursor.getIntPosition(m_dimY) - interval.min(m_dimY));
-
-            m_greyValues[x][y] = (int)cursor.get().getRealDouble() - minVal;
+            final int x = (int)(cursor.getLongPosition(m_dimX) - minX);
+            final int y = (int)(cursor.getLongPosition(m_dimY) - minY);
+            final int grey = (int)cursor.get().getRealDouble() - minVal;
 
-            m_mean += m_greyValues[x][y];
+            m_greyValues[(y * m_width) + x] = grey;
+            m_mean += grey;
         }
 
         m_mean /= m_numPix;
 
         final double[] histogram = new double[18];
 
-        if (isEnabled(TamuraFeatureSet.FEATURES[0])) {
+        if (isEnabled(Feature.COARSENESS)) {
             histogram[0] = this.coarseness();
         }
 
-        if (isEnabled(TamuraFeatureSet.FEATURES[1])) {
+        if (isEnabled(Feature.CONTRAST)) {
             histogram[1] = this.contrast();
         }
 
-        if (isEnabled(TamuraFeatureSet.FEATURES[2]) || isEnabled(TamuraFeatureSet.FEATURES[3])
-                || isEnabled(TamuraFeatureSet.FEATURES[4]) || isEnabled(TamuraFeatureSet.FEATURES[5])) {
+        if (isEnabled(Feature.DIRECTIONALITY)) {
 
             m_directionality = this.directionality();
 
@@ -315,12 +412,20 @@ public class Tamura<T extends RealType<T>> {
         return histogram;
     }
 
+    /**
+     * @param feature
+     * @return whether the feature is computed
+     */
+    public boolean isEnabled(final Feature feature) {
+        return m_enabled[feature.ordinal()];
+    }
+
+    /**
+     * @param featureName name of {@link TamuraFeatureSet#FEATURES}
+     * @return whether the feature is computed
+     */
     public boolean isEnabled(final String featureName) {
-        for (final String s : m_enabledFeatureNames) {
-            if (s.equals(featureName)) {
-                return true;
-            }
-        }
-        return false;
+        final Feature feature = featureOf(featureName);
+        return (feature != null) && isEnabled(feature);
     }
 }
@@ -50,16 +50,18 @@
  */
 package org.knime.knip.core.features.seg;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
+import java.util.Set;
 
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.ValuePair;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.FirstOrderStatistics;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.ObjectCalcAndCache;
 import org.knime.knip.core.features.SharesObjects;
 
@@ -68,7 +70,7 @@ import org.knime.knip.core.features.SharesObjects;
  * @author Christian Dietz, University of Konstanz
  * @param <T>
  */
-public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects {
+public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, SharesObjects, DeclaresIntermediates {
 
     public static final String[] FEATURES =
             new String[]{"TamuraGranularity", "TamuraContrast", "TamuraKurtosisOfDirectionality",
@@ -76,16 +78,19 @@ public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, Shar
 
     private Tamura<T> m_tamura;
 
-    private DescriptiveStatistics m_stats;
+    private FirstOrderStatistics m_stats;
 
     private double[] m_hist;
 
-    private final List<String> m_enabledFeatures = new ArrayList<String>(FEATURES.length);
+    private final EnumSet<Tamura.Feature> m_enabledFeatures = EnumSet.noneOf(Tamura.Feature.class);
 
     private ObjectCalcAndCache m_ocac;
 
     private boolean m_valid;
 
+    /* if any of the features derived from the first order statistics is enabled */
+    private boolean m_statsEnabled;
+
     @FeatureTargetListener
     public final void iiUpdated(final IterableInterval<T> interval) {
 
@@ -95,11 +100,16 @@ public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, Shar
             m_valid = false;
         } else {
             m_valid = true;
-            m_tamura =
-                    new Tamura<T>(validDims.a, validDims.b, m_enabledFeatures.toArray(new String[m_enabledFeatures
-                            .size()]));
-            m_stats = m_ocac.descriptiveStatistics(interval);
-            m_hist = m_tamura.updateROI(interval);
+            if (m_tamura == null) {
+                // reused for all intervals to keep its buffers
+                m_tamura =
+                        new Tamura<T>(validDims.a, validDims.b, m_enabledFeatures
+                                .toArray(new Tamura.Feature[m_enabledFeatures.size()]));
+            }
+            if (m_statsEnabled) {
+                m_stats = m_ocac.firstOrderStatistics(interval);
+            }
+            m_hist = m_tamura.updateROI(interval, validDims.a, validDims.b);
         }
     }
 
@@ -143,18 +153,30 @@ public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, Shar
             case 1:
                 return m_hist[1];
             case 2:
-                return m_stats.getKurtosis();
+                return m_stats.kurtosis();
             case 3:
-                return m_stats.getStandardDeviation();
+                return m_stats.standardDeviation();
             case 4:
-                return m_stats.getMax();
+                return m_stats.max();
             case 5:
-                return m_stats.getSkewness();
+                return m_stats.skewness();
         }
 
         throw new IllegalStateException("Feature doesn't exist in Tamura Feature Factory");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        // coarseness and contrast are computed on their own, the maximum is collected in any case
+        if ((id == 2) || (id == 3) || (id == 5)) {
+            return EnumSet.of(Intermediate.MOMENTS);
+        }
+        return EnumSet.noneOf(Intermediate.class);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -168,7 +190,14 @@ public class TamuraFeatureSet<T extends RealType<T>> implements FeatureSet, Shar
      */
     @Override
     public void enable(final int id) {
-        m_enabledFeatures.add(FEATURES[id]);
+        // the remaining features are derived from the first order statistics
+        if (id == 0) {
+            m_enabledFeatures.add(Tamura.Feature.COARSENESS);
+        } else if (id == 1) {
+            m_enabledFeatures.add(Tamura.Feature.CONTRAST);
+        } else {
+            m_statsEnabled = true;
+        }
 
     }
 
@@ -50,11 +50,16 @@
  */
 package org.knime.knip.core.features.seg;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 
+import org.knime.knip.core.features.DeclaresIntermediates;
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.core.features.Intermediate;
 import org.knime.knip.core.features.zernike.ZernikeFeatureComputer;
 
 /**
@@ -62,9 +67,9 @@ import org.knime.knip.core.features.zernike.ZernikeFeatureComputer;
  * @author hornm, University of Konstanz
  * @param <T> image type
  */
-public class ZernikeFeatureSet<T extends RealType<T>> implements FeatureSet {
+public class ZernikeFeatureSet<T extends RealType<T>> implements FeatureSet, DeclaresIntermediates {
 
-    private ZernikeFeatureComputer<T> m_comp = null;
+    private ZernikeFeatureComputer.Complex[] m_moments = null;
 
     private final String[] m_names;
 
@@ -104,7 +109,7 @@ public class ZernikeFeatureSet<T extends RealType<T>> implements FeatureSet {
     @FeatureTargetListener
     public final void iiUpdated(final IterableInterval<T> interval) {
         m_interval = interval;
-        m_comp = null;
+        m_moments = null;
     }
 
     /**
@@ -118,7 +123,6 @@ public class ZernikeFeatureSet<T extends RealType<T>> implements FeatureSet {
             final ZernikeFeatureComputer.Complex res = getComplexFeatureValue(id);
             return Math.sqrt((res.getImaginary() * res.getImaginary()) + (res.getReal() * res.getReal()));
         } else {
-            // TODO: cache the complex result!!
             final ZernikeFeatureComputer.Complex res = getComplexFeatureValue(id / 2);
             if ((id % 2) == 0) {
                 return res.getReal();
@@ -129,16 +133,22 @@ public class ZernikeFeatureSet<T extends RealType<T>> implements FeatureSet {
     }
 
     /**
-     * @return the complex feature value
+     * @return the complex feature value, all moments are computed at once on the first request for an interval
      */
     public ZernikeFeatureComputer.Complex getComplexFeatureValue(final int id) {
-        if (m_comp == null) {
-            m_comp = new ZernikeFeatureComputer<T>(m_interval);
+        if (m_moments == null) {
+            m_moments = new ZernikeFeatureComputer<T>(m_interval).computeZernikeMoments(m_order);
         }
-        final ZernikeFeatureComputer.Complex result =
-                m_comp.computeZernikeMoment(ZernikeFeatureComputer.giveZernikeOrder(m_order, id),
-                                            ZernikeFeatureComputer.giveZernikeRepetition(m_order, id));
-        return result;
+        return m_moments[id];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Intermediate> getIntermediates(final int id) {
+        // the moments are computed directly from the interval
+        return EnumSet.noneOf(Intermediate.class);
     }
 
     /**
@@ -0,0 +1,342 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features.zernike;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The Zernike basis functions V_mn of all orders m <= orderMax and repetitions n >= 0 evaluated on a width x height
+ * grid. Radius and angle of each pixel are computed once, the radial polynomials of all orders are evaluated by the
+ * q-recursive method (Chong et al., 2003) and the angular terms cos(n*theta), sin(n*theta) by the Chebyshev recurrence.
+ * 
+ * Tables are cached per (width, height, orderMax), such that equally sized ROIs share them. The cache holds a few MB of
+ * tables at most and evicts the least recently used ones. Grids too large to be tabulated within this limit are
+ * evaluated on the fly, pixel by pixel.
+ */
+public final class ZernikeBasis {
+
+    /** maximum number of bytes of all cached tables */
+    private static final long CACHE_BYTES = 8L << 20;
+
+    /** maximum number of entries of a tabulated basis, such that its two tables fit into the cache */
+    private static final long MAX_TABLE_SIZE = CACHE_BYTES / 16;
+
+    /** maximum number of cached bases, also limits the bases evaluated on the fly */
+    private static final int CACHE_SIZE = 16;
+
+    private static final LinkedHashMap<String, ZernikeBasis> CACHE = new LinkedHashMap<String, ZernikeBasis>(
+            CACHE_SIZE, 0.75f, true);
+
+    /** bytes of the tables in the cache, guarded by CACHE */
+    private static long s_cachedBytes = 0;
+
+    /**
+     * @param width
+     * @param height
+     * @param orderMax
+     * @return the (possibly cached) basis
+     */
+    public static ZernikeBasis get(final int width, final int height, final int orderMax) {
+        final String key = width + "x" + height + "x" + orderMax;
+        synchronized (CACHE) {
+            ZernikeBasis basis = CACHE.get(key);
+            if (basis == null) {
+                basis = new ZernikeBasis(width, height, orderMax);
+                CACHE.put(key, basis);
+                s_cachedBytes += basis.tableBytes();
+
+                // least recently used first, the new basis always stays
+                final Iterator<ZernikeBasis> it = CACHE.values().iterator();
+                while (((s_cachedBytes > CACHE_BYTES) || (CACHE.size() > CACHE_SIZE)) && (CACHE.size() > 1)) {
+                    s_cachedBytes -= it.next().tableBytes();
+                    it.remove();
+                }
+            }
+            return basis;
+        }
+    }
+
+    private final int m_width;
+
+    private final int m_height;
+
+    private final int m_orderMax;
+
+    private final int m_centerX;
+
+    private final int m_centerY;
+
+    private final double m_radius;
+
+    /* order and repetition of the k-th basis function (only n >= 0) */
+    private final int[] m_orders;
+
+    private final int[] m_reps;
+
+    /* [pixel * numFunctions + k], null if not tabulated */
+    private final double[] m_real;
+
+    private final double[] m_imag;
+
+    private ZernikeBasis(final int width, final int height, final int orderMax) {
+        if (orderMax < 0) {
+            throw new IllegalArgumentException("Order must not be negative.");
+        }
+        m_width = width;
+        m_height = height;
+        m_orderMax = orderMax;
+        m_centerX = width / 2;
+        m_centerY = height / 2;
+        final int max = Math.max(m_centerX, m_centerY);
+        m_radius = Math.sqrt(2 * max * max);
+
+        int num = 0;
+        for (int m = 0; m <= orderMax; m++) {
+            num += (m / 2) + 1;
+        }
+        m_orders = new int[num];
+        m_reps = new int[num];
+        int k = 0;
+        for (int m = 0; m <= orderMax; m++) {
+            for (int n = m % 2; n <= m; n += 2) {
+                m_orders[k] = m;
+                m_reps[k] = n;
+                k++;
+            }
+        }
+
+        if (((long)width * height * num) <= MAX_TABLE_SIZE) {
+            m_real = new double[width * height * num];
+            m_imag = new double[width * height * num];
+            final Workspace ws = new Workspace();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    evaluate(x, y, ws);
+                    final int offset = ((y * width) + x) * num;
+                    System.arraycopy(ws.m_real, 0, m_real, offset, num);
+                    System.arraycopy(ws.m_imag, 0, m_imag, offset, num);
+                }
+            }
+        } else {
+            m_real = null;
+            m_imag = null;
+        }
+    }
+
+    /*
+     * memory held by the tables
+     */
+    private long tableBytes() {
+        return m_real == null ? 0 : 16L * m_real.length;
+    }
+
+    /**
+     * @return the number of basis functions, i.e. of (order, repetition) pairs with a non-negative repetition
+     */
+    public int numFunctions() {
+        return m_orders.length;
+    }
+
+    /**
+     * @param k
+     * @return the order of the k-th basis function
+     */
+    public int order(final int k) {
+        return m_orders[k];
+    }
+
+    /**
+     * @param k
+     * @return the (non-negative) repetition of the k-th basis function
+     */
+    public int repetition(final int k) {
+        return m_reps[k];
+    }
+
+    /**
+     * @return the maximum order
+     */
+    public int orderMax() {
+        return m_orderMax;
+    }
+
+    /**
+     * @param m order
+     * @param n repetition (>= 0)
+     * @return the index of the basis function
+     */
+    public int index(final int m, final int n) {
+        // all orders below m contribute (o / 2) + 1 functions
+        int k = 0;
+        for (int o = 0; o < m; o++) {
+            k += (o / 2) + 1;
+        }
+        return k + ((n - (m % 2)) / 2);
+    }
+
+    /**
+     * Buffers to evaluate the basis functions for one pixel.
+     */
+    public final class Workspace {
+
+        private final double[] m_real = new double[m_orders.length];
+
+        private final double[] m_imag = new double[m_orders.length];
+
+        private final double[][] m_radial = new double[m_orderMax + 1][m_orderMax + 1];
+
+        private final double[] m_cos = new double[m_orderMax + 1];
+
+        private final double[] m_sin = new double[m_orderMax + 1];
+
+        /**
+         * @return R_mn(r) * cos(n * theta) of the last evaluated pixel for all basis functions
+         */
+        public double[] real() {
+            return m_real;
+        }
+
+        /**
+         * @return R_mn(r) * sin(n * theta) of the last evaluated pixel for all basis functions
+         */
+        public double[] imag() {
+            return m_imag;
+        }
+    }
+
+    /**
+     * @return a new workspace for {@link #accumulate(int, int, double, double[], double[], Workspace)}
+     */
+    public Workspace createWorkspace() {
+        return new Workspace();
+    }
+
+    /**
+     * Adds pixel * V_mn(x,y) of all basis functions to the given sums.
+     * 
+     * @param x position relative to the grid origin
+     * @param y position relative to the grid origin
+     * @param pixel the (normalized) pixel value
+     * @param real the sums of pixel * R_mn * cos(n * theta)
+     * @param imag the sums of pixel * R_mn * sin(n * theta)
+     * @param ws workspace, only used if the basis is not tabulated
+     */
+    public void accumulate(final int x, final int y, final double pixel, final double[] real, final double[] imag,
+                           final Workspace ws) {
+        final int num = m_orders.length;
+        if (m_real != null) {
+            final int offset = ((y * m_width) + x) * num;
+            for (int k = 0; k < num; k++) {
+                real[k] += pixel * m_real[offset + k];
+                imag[k] += pixel * m_imag[offset + k];
+            }
+        } else {
+            evaluate(x, y, ws);
+            for (int k = 0; k < num; k++) {
+                real[k] += pixel * ws.m_real[k];
+                imag[k] += pixel * ws.m_imag[k];
+            }
+        }
+    }
+
+    /*
+     * evaluates all basis functions at the given grid position
+     */
+    private void evaluate(final int gx, final int gy, final Workspace ws) {
+        final int x = gx - m_centerX;
+        final int y = gy - m_centerY;
+        final double dist = Math.sqrt((x * x) + (y * y));
+        final double r = dist / m_radius;
+
+        // angular terms by the Chebyshev recurrence
+        final double cos1 = dist == 0 ? 1 : x / dist;
+        final double sin1 = dist == 0 ? 0 : y / dist;
+        final double[] cos = ws.m_cos;
+        final double[] sin = ws.m_sin;
+        cos[0] = 1;
+        sin[0] = 0;
+        for (int n = 1; n <= m_orderMax; n++) {
+            cos[n] = (cos[n - 1] * cos1) - (sin[n - 1] * sin1);
+            sin[n] = (sin[n - 1] * cos1) + (cos[n - 1] * sin1);
+        }
+
+        // radial polynomials by the q-recursive method
+        final double[][] rad = ws.m_radial;
+        if (r == 0) {
+            for (int m = 0; m <= m_orderMax; m++) {
+                for (int n = m % 2; n <= m; n += 2) {
+                    rad[m][n] = n != 0 ? 0 : ((m / 2) % 2 == 0 ? 1 : -1);
+                }
+            }
+        } else {
+            final double rSq = r * r;
+            double rPow = 1;
+            for (int m = 0; m <= m_orderMax; m++) {
+                rad[m][m] = rPow;
+                rPow *= r;
+                if (m >= 2) {
+                    rad[m][m - 2] = (m * rad[m][m]) - ((m - 1) * rad[m - 2][m - 2]);
+                }
+                for (int n = m - 4; n >= 0; n -= 2) {
+                    final double h3 = (-4.0 * (n + 2) * (n + 1)) / ((double)(m + n + 2) * (m - n));
+                    final double h2 = ((h3 * (m + n + 4) * (m - n - 2)) / (4.0 * (n + 3))) + (n + 2);
+                    final double h1 =
+                            ((((n + 4) * (n + 3)) / 2.0) - ((n + 4) * h2)) + ((h3 * (m + n + 6) * (m - n - 4)) / 8.0);
+                    rad[m][n] = (h1 * rad[m][n + 4]) + ((h2 + (h3 / rSq)) * rad[m][n + 2]);
+                }
+            }
+        }
+
+        for (int k = 0; k < m_orders.length; k++) {
+            final double radial = rad[m_orders[k]][m_reps[k]];
+            ws.m_real[k] = radial * cos[m_reps[k]];
+            ws.m_imag[k] = radial * sin[m_reps[k]];
+        }
+    }
+}
@@ -149,6 +149,45 @@ public class ZernikeFeatureComputer<T extends RealType<T>> {
         return new Complex(real, imag);
     }
 
+    /**
+     * Computes all moments up to the given order in a single pass over the interval, evaluating the basis functions by
+     * the (cached) {@link ZernikeBasis}. Other than {@link #computeZernikeMoment(int, int)} the positions are taken
+     * relative to the minimum of the interval, such that the moments of a segment do not depend on its location.
+     * 
+     * @param orderMax the maximal order
+     * @return the moments in the order given by {@link #giveZernikeOrder(int, int)} and
+     *         {@link #giveZernikeRepetition(int, int)}
+     */
+    public Complex[] computeZernikeMoments(final int orderMax) {
+        final ZernikeBasis basis = ZernikeBasis.get(m_width, m_height, orderMax);
+        final ZernikeBasis.Workspace ws = basis.createWorkspace();
+        final double[] real = new double[basis.numFunctions()];
+        final double[] imag = new double[basis.numFunctions()];
+
+        final long minX = m_interval.min(0);
+        final long minY = m_interval.min(1);
+        final Cursor<T> cur = m_interval.localizingCursor();
+        while (cur.hasNext()) {
+            cur.fwd();
+            final double pixel = cur.get().getRealDouble() / MAX_PIXEL_VALUE;
+            if (pixel != 0) {
+                basis.accumulate((int)(cur.getLongPosition(0) - minX), (int)(cur.getLongPosition(1) - minY), pixel,
+                                 real, imag, ws);
+            }
+        }
+
+        final Complex[] res = new Complex[countZernikeMoments(orderMax)];
+        for (int i = 0; i < res.length; i++) {
+            final int m = giveZernikeOrder(orderMax, i);
+            final int n = giveZernikeRepetition(orderMax, i);
+            final int k = basis.index(m, Math.abs(n));
+            final double scale = (m + 1) / Math.PI;
+            // V_m(-n) is the complex conjugate of V_mn
+            res[i] = new Complex(real[k] * scale, (n < 0 ? imag[k] : -imag[k]) * scale);
+        }
+        return res;
+    }
+
     /**
      * return the number of zernike moment types that exist and have the order smaller than or equal to the parameter.
      * 
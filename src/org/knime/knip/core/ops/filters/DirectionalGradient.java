@@ -1,12 +1,25 @@
 package org.knime.knip.core.ops.filters;
 
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.algorithm.FlatStencilEngine;
+import org.knime.knip.core.algorithm.FlatStencilEngine.Border;
+import org.knime.knip.core.algorithm.FlatStencilEngine.StencilKernel;
+
+/**
+ * Central difference along one dimension (mirrored at the borders), shifted by the minimum of the type and clipped to
+ * the range of the type. For integer types of up to 16 bit the shifted and clipped result of each possible difference
+ * is looked up in a table.
+ */
 public class DirectionalGradient<T extends RealType<T>, K extends RandomAccessibleInterval<T> & IterableInterval<T>>
         implements UnaryOperation<K, K> {
 
@@ -15,78 +28,113 @@ public class DirectionalGradient<T extends RealType<T>, K extends RandomAccessib
         HORIZONTAL, VERTICAL;
     }
 
-    private final int[] m_dims;
+    /*
+     * types with a larger range are not worth a lookup table
+     */
+    private static final int MAX_LUT_RANGE = 0xffff;
+
+    private final int m_dim;
 
     private final boolean m_invert;
 
+    private final ExecutorService m_executor;
+
     /**
      * @param direction
      * @param invert inverts the gradient calculation, if false, the difference is calculated as left-right, else
      *            right-left
      */
     public DirectionalGradient(final GradientDirection direction, final boolean invert) {
-        m_invert = invert;
-
-        m_dims = new int[2];
-
-        switch (direction) {
-            case HORIZONTAL:
-                m_dims[0] = 1;
-                m_dims[1] = 0;
-                break;
-            case VERTICAL:
-                m_dims[1] = 1;
-                m_dims[0] = 0;
-                break;
-            default:
-                break;
-        }
+        this(direction == GradientDirection.VERTICAL ? 1 : 0, invert, null);
+    }
 
+    /**
+     * @param dim the dimension along which the gradient is calculated
+     * @param invert inverts the gradient calculation, if false, the difference is calculated as left-right, else
+     *            right-left
+     * @param executor to distribute the calculation, may be <code>null</code>
+     */
+    public DirectionalGradient(final int dim, final boolean invert, final ExecutorService executor) {
+        m_dim = dim;
+        m_invert = invert;
+        m_executor = executor;
     }
 
     @Override
     public K compute(final K op, final K r) {
-        if (op.numDimensions() != 2) {
-            throw new IllegalArgumentException("Operation can only be performed on 2 dimensional images");
+        if (m_dim >= op.numDimensions()) {
+            throw new IllegalArgumentException("Gradient dimension " + m_dim + " does not exist in a "
+                    + op.numDimensions() + " dimensional image");
         }
 
         final double max = op.firstElement().getMaxValue();
         final double min = op.firstElement().getMinValue();
 
-        final RandomAccess<T> opLeftRndAccess = Views.extendMirrorDouble(op).randomAccess();
-        final RandomAccess<T> opRightRndAccess = Views.extendMirrorDouble(op).randomAccess();
-        final RandomAccess<T> resAccess = r.randomAccess();
-
-        double diff;
-        for (int y = 0; y < op.dimension(m_dims[0]); y++) {
-            opLeftRndAccess.setPosition(y, m_dims[0]);
-            opRightRndAccess.setPosition(y, m_dims[0]);
-            resAccess.setPosition(y, m_dims[0]);
-
-            opLeftRndAccess.setPosition(-1, m_dims[1]);
-            opRightRndAccess.setPosition(1, m_dims[1]);
-            resAccess.setPosition(0, m_dims[1]);
+        final int sign = m_invert ? -1 : 1;
+        if (!FlatStencilEngine.fits(op)) {
+            // too large for a flat buffer
+            computeGeneric(op, r, sign, min, max);
+            return r;
+        }
 
-            for (int x = 0; x < op.dimension(m_dims[1]); x++) {
+        final FlatStencilEngine engine = new FlatStencilEngine(op, Border.MIRROR_DOUBLE, m_executor);
+        final int stride = engine.stride(m_dim);
 
-                if (m_invert) {
-                    diff = (opRightRndAccess.get().getRealDouble() - opLeftRndAccess.get().getRealDouble()) + min;
-                } else {
-                    diff = (opLeftRndAccess.get().getRealDouble() - opRightRndAccess.get().getRealDouble()) + min;
+        final StencilKernel kernel;
+        if ((op.firstElement() instanceof IntegerType) && ((max - min) <= MAX_LUT_RANGE)) {
+            // the difference of two values of the type is an integer in [-range, range]
+            final int range = (int)(max - min);
+            final double[] lut = new double[(2 * range) + 1];
+            for (int i = 0; i < lut.length; i++) {
+                lut[i] = clip((sign * (i - range)) + min, min, max);
+            }
+            kernel = new StencilKernel() {
+                @Override
+                public double compute(final double[] src, final int center) {
+                    return lut[(int)(src[center - stride] - src[center + stride]) + range];
+                }
+            };
+        } else {
+            kernel = new StencilKernel() {
+                @Override
+                public double compute(final double[] src, final int center) {
+                    return clip((sign * (src[center - stride] - src[center + stride])) + min, min, max);
                 }
+            };
+        }
+        engine.write(engine.apply(engine.read(op), kernel), r);
 
-                resAccess.get().setReal(Math.max(min, Math.min(max, diff)));
+        return r;
+    }
 
-                opLeftRndAccess.fwd(m_dims[1]);
-                opRightRndAccess.fwd(m_dims[1]);
-                resAccess.fwd(m_dims[1]);
+    /*
+     * pixel by pixel with two mirrored random accesses
+     */
+    private void computeGeneric(final K op, final K r, final int sign, final double min, final double max) {
+        final RandomAccess<T> left = Views.extendMirrorDouble(op).randomAccess();
+        final RandomAccess<T> right = Views.extendMirrorDouble(op).randomAccess();
+        final Cursor<T> c = Views.flatIterable(r).localizingCursor();
+        final long[] pos = new long[op.numDimensions()];
+        while (c.hasNext()) {
+            c.fwd();
+            c.localize(pos);
+            for (int d = 0; d < pos.length; d++) {
+                pos[d] += op.min(d) - r.min(d);
             }
+            left.setPosition(pos);
+            left.move(-1, m_dim);
+            right.setPosition(pos);
+            right.move(1, m_dim);
+            c.get().setReal(clip((sign * (left.get().getRealDouble() - right.get().getRealDouble())) + min, min, max));
         }
-        return r;
+    }
+
+    private static double clip(final double diff, final double min, final double max) {
+        return diff < min ? min : (diff > max ? max : diff);
     }
 
     @Override
     public UnaryOperation<K, K> copy() {
-        return new DirectionalGradient<T, K>(GradientDirection.HORIZONTAL, m_invert);
+        return new DirectionalGradient<T, K>(m_dim, m_invert, m_executor);
     }
 }
@@ -50,15 +50,21 @@
  */
 package org.knime.knip.core.ops.img;
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.img.Img;
 import net.imglib2.ops.img.UnaryObjectFactory;
-import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.UnaryOutputOperation;
-import net.imglib2.ops.operation.iterableinterval.unary.MinMax;
-import net.imglib2.ops.operation.real.unary.Normalize;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.ValuePair;
 
+import org.knime.knip.core.algorithm.HistogramNormalizer;
+
+/**
+ * Normalizes an image to the target range (by default the range of the type). The source range is either given or
+ * determined from the image, ignoring the given percentage of saturated pixels. Values outside of the source range
+ * are clipped.
+ */
 public class ImgNormalize<T extends RealType<T>> implements UnaryOutputOperation<Img<T>, Img<T>> {
 
     private final double m_saturation;
@@ -71,7 +77,25 @@ public class ImgNormalize<T extends RealType<T>> implements UnaryOutputOperation
 
     private final boolean m_isTarget;
 
+    private final ExecutorService m_executor;
+
+    private final HistogramNormalizer m_normalizer;
+
     public ImgNormalize(final double saturation, final T val, final ValuePair<T, T> minmax, final boolean isTarget) {
+        this(saturation, val, minmax, isTarget, null);
+    }
+
+    /**
+     * @param saturation
+     * @param val
+     * @param minmax
+     * @param isTarget
+     * @param executor used to compute the histogram and to normalize in parallel, may be <code>null</code>
+     */
+    public ImgNormalize(final double saturation, final T val, final ValuePair<T, T> minmax, final boolean isTarget,
+                        final ExecutorService executor) {
+        m_executor = executor;
+        m_normalizer = new HistogramNormalizer(executor);
         m_saturation = saturation;
         m_val = val;
         m_isTarget = isTarget;
@@ -98,11 +122,17 @@ public class ImgNormalize<T extends RealType<T>> implements UnaryOutputOperation
         }
 
         if (m_minmaxsource == null) {
-            m_minmaxsource = Operations.compute(new MinMax<T>(m_saturation, m_val), input);
+            final HistogramNormalizer.Statistics stats = m_normalizer.analyze(input, m_saturation);
+            final T min = m_val.createVariable();
+            final T max = m_val.createVariable();
+            min.setReal(stats.saturatedMin());
+            max.setReal(stats.saturatedMax());
+
+            m_minmaxsource = new ValuePair<T, T>(min, max);
         }
 
-        Operations.map(new Normalize<T>(m_minmaxsource.a, m_minmaxsource.b, m_minmaxtarget.a, m_minmaxtarget.b))
-                .compute(input, output);
+        m_normalizer.normalize(input, output, m_minmaxsource.a.getRealDouble(), m_minmaxsource.b.getRealDouble(),
+                               m_minmaxtarget.a.getRealDouble(), m_minmaxtarget.b.getRealDouble());
 
         if (!m_isManual) {
             m_minmaxsource = null;
@@ -129,6 +159,6 @@ public class ImgNormalize<T extends RealType<T>> implements UnaryOutputOperation
     @Override
     public UnaryOutputOperation<Img<T>, Img<T>> copy() {
         return new ImgNormalize<T>(m_saturation, m_val.createVariable(), m_isTarget ? m_minmaxtarget : m_minmaxsource,
-                m_isTarget);
+                m_isTarget, m_executor);
     }
 }
\ No newline at end of file
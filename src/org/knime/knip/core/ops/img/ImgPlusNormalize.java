@@ -50,6 +50,8 @@
  */
 package org.knime.knip.core.ops.img;
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.img.ImgPlus;
 import net.imglib2.ops.img.UnaryObjectFactory;
 import net.imglib2.ops.operation.UnaryOutputOperation;
@@ -69,6 +71,12 @@ public class ImgPlusNormalize<T extends RealType<T>> implements UnaryOutputOpera
         m_op = new ImgNormalize<T>(saturation, val, minmax, isTarget);
     }
 
+    public ImgPlusNormalize(final double saturation, final T val, final ValuePair<T, T> minmax,
+                            final boolean isTarget, final ExecutorService executor) {
+        m_val = val;
+        m_op = new ImgNormalize<T>(saturation, val, minmax, isTarget, executor);
+    }
+
     protected ImgPlusNormalize(final ImgNormalize<T> op, final T val) {
         m_op = op;
         m_val = val;
@@ -0,0 +1,501 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.img;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.algorithm.FlatMinMaxFilter;
+import org.knime.knip.core.algorithm.types.LocalThresholderType;
+import org.knime.knip.core.ops.integralimage.FlatIntegralImg;
+import org.knime.knip.core.ops.integralimage.FlatIntegralImgSumAgent;
+import org.knime.knip.core.ops.integralimage.StreamingIntegralImg;
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Local thresholding within a rectangular window of 2 * span + 1 pixels in each dimension. The statistics of all
+ * windows are computed at once: mean and standard deviation from the integral images of the values and the squared
+ * values (MEAN, NIBLACK, SAUVOLA, PHANSALKAR), minimum and maximum by separable running extrema (MIDGREY, CONTRAST,
+ * BERNSEN). Hence the costs per pixel don't depend on the window size. The rows are thresholded in parallel. For the
+ * methods based on mean and standard deviation, cell images (and images too large for one integral image) are
+ * processed cell by cell with a {@link StreamingIntegralImg}, the tiles in parallel. Images too large for these
+ * arrays are thresholded by scanning the whole window of each pixel.
+ * <p>
+ * A pixel is set to foreground if
+ * <ul>
+ * <li>MEAN: value &gt; mean - c</li>
+ * <li>NIBLACK: value &gt; mean + k * std - c</li>
+ * <li>SAUVOLA: value &gt; mean * (1 + k * (std / r - 1))</li>
+ * <li>PHANSALKAR: value &gt; mean * (1 + 2 * exp(-10 * mean) + k * (std / r - 1)), on values normalized to [0,1] by the
+ * range of integer types (real types are expected to be normalized already)</li>
+ * <li>MIDGREY: value &gt; (min + max) / 2 - c</li>
+ * <li>CONTRAST: value is closer to max than to min</li>
+ * <li>BERNSEN: value &gt;= (min + max) / 2, if the local contrast max - min is at least c, else if (min + max) / 2 lies
+ * in the upper half of the value range</li>
+ * </ul>
+ * The window is extended beyond the image borders according to the given out of bounds strategy.
+ */
+public class LocalThreshold<T extends RealType<T>, I extends RandomAccessibleInterval<T>, K extends RandomAccessibleInterval<BitType>>
+        implements UnaryOperation<I, K> {
+
+    private final LocalThresholderType m_type;
+
+    private final int m_span;
+
+    private final double m_k;
+
+    private final double m_c;
+
+    private final double m_r;
+
+    private final OutOfBoundsFactory<T, I> m_outOfBounds;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param type the thresholding method, all but SIMNACHER are supported
+     * @param span radius of the window
+     * @param k weight of the standard deviation (NIBLACK, SAUVOLA, PHANSALKAR)
+     * @param c constant subtracted from the threshold (MEAN, NIBLACK, MIDGREY), contrast threshold (BERNSEN)
+     * @param r dynamic range of the standard deviation (SAUVOLA, PHANSALKAR)
+     * @param outOfBounds
+     * @param executor to distribute the rows, may be <code>null</code>
+     */
+    public LocalThreshold(final LocalThresholderType type, final int span, final double k, final double c,
+                          final double r, final OutOfBoundsFactory<T, I> outOfBounds, final ExecutorService executor) {
+        if (type == LocalThresholderType.SIMNACHER) {
+            throw new IllegalArgumentException("Local thresholding method " + type + " not supported.");
+        }
+        m_type = type;
+        m_span = span;
+        m_k = k;
+        m_c = c;
+        m_r = r;
+        m_outOfBounds = outOfBounds;
+        m_executor = executor;
+    }
+
+    @Override
+    public K compute(final I input, final K output) {
+        final int n = input.numDimensions();
+        final int[] spans = new int[n];
+        Arrays.fill(spans, m_span);
+        final RandomAccessible<T> extended = Views.extend(input, m_outOfBounds);
+
+        final T type = input.randomAccess().get().createVariable();
+        final double typeMin = type instanceof IntegerType ? type.getMinValue() : 0;
+        final double typeMax = type instanceof IntegerType ? type.getMaxValue() : 1;
+
+        final RowThresholder thresholder;
+        switch (m_type) {
+            case MIDGREY:
+            case CONTRAST:
+            case BERNSEN:
+                if (!FlatMinMaxFilter.fits(input, spans)) {
+                    thresholder =
+                            new WindowThresholder(input, extended,
+                                    new MinMaxThresholder(null, null, (typeMin + typeMax) / 2));
+                    break;
+                }
+                final FlatMinMaxFilter filter = new FlatMinMaxFilter(input, spans, m_executor);
+                final double[] padded = filter.read(extended);
+                thresholder =
+                        new MinMaxThresholder(filter.filter(padded, false), filter.filter(padded, true),
+                                (typeMin + typeMax) / 2);
+                break;
+            default:
+                final long[] min = new long[n];
+                final long[] max = new long[n];
+                for (int d = 0; d < n; d++) {
+                    min[d] = input.min(d) - m_span;
+                    max[d] = input.max(d) + m_span;
+                }
+                final RandomAccessibleInterval<T> paddedInput = Views.interval(extended, new FinalInterval(min, max));
+                final int[] boxSize = new int[n];
+                Arrays.fill(boxSize, (2 * m_span) + 1);
+                if ((input instanceof AbstractCellImg) || !FlatIntegralImg.fits(paddedInput)) {
+                    final MeanStdThresholder meanStd = new MeanStdThresholder(null, boxSize, typeMin, typeMax);
+                    final List<Interval> tiles =
+                            StreamingIntegralImg.tiles(input, StreamingIntegralImg.tileSize(input));
+                    if (StreamingIntegralImg.fit(tiles, spans)) {
+                        return computeStreaming(input, extended, tiles, spans, type instanceof IntegerType, meanStd,
+                                                output);
+                    }
+                    thresholder = new WindowThresholder(input, extended, meanStd);
+                    break;
+                }
+                final FlatIntegralImg ii =
+                        new FlatIntegralImg(paddedInput, type instanceof IntegerType, true, m_executor);
+                ii.compute(paddedInput);
+                thresholder =
+                        new MeanStdThresholder(new FlatIntegralImgSumAgent(ii, boxSize), boxSize, typeMin, typeMax);
+                break;
+        }
+
+        final int rowLength = (int)input.dimension(0);
+        final long numRows = Views.iterable(input).size() / rowLength;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numRows, m_executor,
+                                                                Math.max(1, 4096 / rowLength))) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final RandomAccess<T> inRA = input.randomAccess();
+                    final RandomAccess<BitType> outRA = output.randomAccess();
+                    final long[] pos = new long[n];
+                    final double[] values = new double[rowLength];
+                    final boolean[] res = new boolean[rowLength];
+                    final double[] buf1 = new double[rowLength];
+                    final double[] buf2 = new double[rowLength];
+
+                    final long start = chunk.getStartPosition();
+                    for (long r = start; r < (start + chunk.getLoopSize()); r++) {
+                        // position of the row relative to the minimum of the input
+                        long tmp = r;
+                        pos[0] = 0;
+                        for (int d = 1; d < n; d++) {
+                            pos[d] = tmp % input.dimension(d);
+                            tmp /= input.dimension(d);
+                        }
+
+                        for (int d = 0; d < n; d++) {
+                            inRA.setPosition(input.min(d) + pos[d], d);
+                            outRA.setPosition(output.min(d) + pos[d], d);
+                        }
+                        for (int x = 0; x < rowLength; x++) {
+                            values[x] = inRA.get().getRealDouble();
+                            inRA.fwd(0);
+                        }
+
+                        thresholder.threshold(pos, (int)r * rowLength, values, res, buf1, buf2);
+
+                        for (int x = 0; x < rowLength; x++) {
+                            outRA.get().set(res[x]);
+                            outRA.fwd(0);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return output;
+    }
+
+    /*
+     * tile by tile, only the box sums of a band of slices of each tile are held in memory
+     */
+    private K computeStreaming(final I input, final RandomAccessible<T> extended, final List<Interval> tiles,
+                               final int[] spans, final boolean integer, final MeanStdThresholder thresholder,
+                               final K output) {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(tiles.size(), m_executor, 1)) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final RandomAccess<T> inRA = input.randomAccess();
+                    final RandomAccess<BitType> outRA = output.randomAccess();
+                    final int start = (int)chunk.getStartPosition();
+                    for (int t = start; t < (start + chunk.getLoopSize()); t++) {
+                        final StreamingIntegralImg ii =
+                                new StreamingIntegralImg(tiles.get(t), spans, integer,
+                                        m_type != LocalThresholderType.MEAN);
+                        final int rowLength = ii.rowLength();
+                        final double[] values = new double[rowLength];
+                        final boolean[] res = new boolean[rowLength];
+                        ii.sweep(extended, new StreamingIntegralImg.RowConsumer() {
+                            @Override
+                            public void row(final long[] pos, final double[] sums, final double[] squaredSums) {
+                                inRA.setPosition(pos);
+                                for (int x = 0; x < rowLength; x++) {
+                                    values[x] = inRA.get().getRealDouble();
+                                    inRA.fwd(0);
+                                }
+
+                                thresholder.threshold(values, sums, squaredSums, res);
+
+                                for (int d = 0; d < pos.length; d++) {
+                                    outRA.setPosition((pos[d] - input.min(d)) + output.min(d), d);
+                                }
+                                for (int x = 0; x < rowLength; x++) {
+                                    outRA.get().set(res[x]);
+                                    outRA.fwd(0);
+                                }
+                            }
+                        });
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return output;
+    }
+
+    @Override
+    public UnaryOperation<I, K> copy() {
+        return new LocalThreshold<T, I, K>(m_type, m_span, m_k, m_c, m_r, m_outOfBounds, m_executor);
+    }
+
+    /*
+     * thresholds a row given its position and the (flat) index of its first pixel
+     */
+    private interface RowThresholder {
+        void threshold(long[] pos, int index, double[] values, boolean[] res, double[] buf1, double[] buf2);
+    }
+
+    private class MeanStdThresholder implements RowThresholder {
+
+        private final FlatIntegralImgSumAgent m_sumAgent;
+
+        private final double m_windowSize;
+
+        private final double m_typeMin;
+
+        private final double m_range;
+
+        MeanStdThresholder(final FlatIntegralImgSumAgent sumAgent, final int[] boxSize, final double typeMin,
+                           final double typeMax) {
+            m_sumAgent = sumAgent;
+            double windowSize = 1;
+            for (final int s : boxSize) {
+                windowSize *= s;
+            }
+            m_windowSize = windowSize;
+            m_typeMin = typeMin;
+            m_range = typeMax - typeMin;
+        }
+
+        @Override
+        public void threshold(final long[] pos, final int index, final double[] values, final boolean[] res,
+                              final double[] sums, final double[] squaredSums) {
+            // the window of the first pixel starts at the same position in the padded input
+            final int boxIndex = m_sumAgent.index(pos);
+            m_sumAgent.getSums(boxIndex, values.length, sums, 0);
+            if (m_type != LocalThresholderType.MEAN) {
+                m_sumAgent.getSquaredSums(boxIndex, values.length, squaredSums, 0);
+            }
+            threshold(values, sums, squaredSums, res);
+        }
+
+        /*
+         * thresholds a row given the box sums of its pixels
+         */
+        void threshold(final double[] values, final double[] sums, final double[] squaredSums, final boolean[] res) {
+            for (int x = 0; x < values.length; x++) {
+                final double mean = sums[x] / m_windowSize;
+                double std = 0;
+                if (m_type != LocalThresholderType.MEAN) {
+                    std = Math.sqrt(Math.max(0, (squaredSums[x] / m_windowSize) - (mean * mean)));
+                }
+                switch (m_type) {
+                    case MEAN:
+                        res[x] = values[x] > (mean - m_c);
+                        break;
+                    case NIBLACK:
+                        res[x] = values[x] > ((mean + (m_k * std)) - m_c);
+                        break;
+                    case SAUVOLA:
+                        res[x] = values[x] > (mean * (1 + (m_k * ((std / m_r) - 1))));
+                        break;
+                    case PHANSALKAR:
+                        final double m = (mean - m_typeMin) / m_range;
+                        final double s = std / m_range;
+                        final double t = m * (1 + (2 * Math.exp(-10 * m)) + (m_k * ((s / m_r) - 1)));
+                        res[x] = ((values[x] - m_typeMin) / m_range) > t;
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected thresholding method " + m_type + ".");
+                }
+            }
+        }
+    }
+
+    private class MinMaxThresholder implements RowThresholder {
+
+        private final double[] m_min;
+
+        private final double[] m_max;
+
+        private final double m_midRange;
+
+        MinMaxThresholder(final double[] min, final double[] max, final double midRange) {
+            m_min = min;
+            m_max = max;
+            m_midRange = midRange;
+        }
+
+        @Override
+        public void threshold(final long[] pos, final int index, final double[] values, final boolean[] res,
+                              final double[] buf1, final double[] buf2) {
+            threshold(values, m_min, m_max, index, res);
+        }
+
+        /*
+         * thresholds a row given the window extrema of its pixels, starting at the given offset
+         */
+        void threshold(final double[] values, final double[] mins, final double[] maxs, final int offset,
+                       final boolean[] res) {
+            for (int x = 0; x < values.length; x++) {
+                final double min = mins[offset + x];
+                final double max = maxs[offset + x];
+                final double mid = (min + max) / 2;
+                switch (m_type) {
+                    case MIDGREY:
+                        res[x] = values[x] > (mid - m_c);
+                        break;
+                    case CONTRAST:
+                        res[x] = Math.abs(max - values[x]) <= Math.abs(values[x] - min);
+                        break;
+                    case BERNSEN:
+                        res[x] = (max - min) < m_c ? mid >= m_midRange : values[x] >= mid;
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected thresholding method " + m_type + ".");
+                }
+            }
+        }
+    }
+
+    /*
+     * fallback for images too large for the flat arrays: scans the whole window of each pixel
+     */
+    private class WindowThresholder implements RowThresholder {
+
+        private final Interval m_input;
+
+        private final RandomAccessible<T> m_extended;
+
+        private final MinMaxThresholder m_minMax;
+
+        private final MeanStdThresholder m_meanStd;
+
+        WindowThresholder(final Interval input, final RandomAccessible<T> extended, final MinMaxThresholder minMax) {
+            m_input = input;
+            m_extended = extended;
+            m_minMax = minMax;
+            m_meanStd = null;
+        }
+
+        WindowThresholder(final Interval input, final RandomAccessible<T> extended, final MeanStdThresholder meanStd) {
+            m_input = input;
+            m_extended = extended;
+            m_minMax = null;
+            m_meanStd = meanStd;
+        }
+
+        @Override
+        public void threshold(final long[] pos, final int index, final double[] values, final boolean[] res,
+                              final double[] buf1, final double[] buf2) {
+            final int n = pos.length;
+            final RandomAccess<T> ra = m_extended.randomAccess();
+            final long[] windowMin = new long[n];
+            final long[] windowPos = new long[n];
+            for (int d = 0; d < n; d++) {
+                windowMin[d] = (m_input.min(d) + pos[d]) - m_span;
+            }
+            for (int x = 0; x < values.length; x++) {
+                double a = m_minMax != null ? Double.POSITIVE_INFINITY : 0;
+                double b = m_minMax != null ? Double.NEGATIVE_INFINITY : 0;
+                System.arraycopy(windowMin, 0, windowPos, 0, n);
+                ra.setPosition(windowPos);
+                while (true) {
+                    final double v = ra.get().getRealDouble();
+                    if (m_minMax != null) {
+                        a = Math.min(a, v);
+                        b = Math.max(b, v);
+                    } else {
+                        a += v;
+                        b += v * v;
+                    }
+
+                    // next position of the window
+                    int d = 0;
+                    while ((d < n) && (windowPos[d] == (windowMin[d] + (2 * m_span)))) {
+                        windowPos[d] = windowMin[d];
+                        ra.setPosition(windowPos[d], d);
+                        d++;
+                    }
+                    if (d == n) {
+                        break;
+                    }
+                    windowPos[d]++;
+                    ra.fwd(d);
+                }
+                buf1[x] = a;
+                buf2[x] = b;
+                windowMin[0]++;
+            }
+
+            if (m_minMax != null) {
+                m_minMax.threshold(values, buf1, buf2, 0, res);
+            } else {
+                m_meanStd.threshold(values, buf1, buf2, res);
+            }
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Integral image held in flat primitive arrays. The sums are accumulated in a <code>long[]</code> for integer inputs
+ * and in a <code>double[]</code> otherwise, optionally together with the integral image of the squared values. The
+ * layout is the one of {@link IntegralImgND}, i.e. each dimension is one larger than the input and all entries with a
+ * zero coordinate are zero.
+ * <p>
+ * The input is read row by row, computing the prefix sums along the first dimension on the fly. The remaining
+ * dimensions are integrated in place, the independent lines of each dimension being distributed over the given
+ * executor. The minimum and maximum of the integral image (needed to check whether it fits into the output type) are
+ * tracked during the last pass.
+ */
+public class FlatIntegralImg {
+
+    private final int[] m_dims;
+
+    private final int[] m_iiDims;
+
+    private final int[] m_iiStrides;
+
+    private final int m_iiSize;
+
+    private final boolean m_integer;
+
+    private final boolean m_squares;
+
+    private final ExecutorService m_executor;
+
+    private long[] m_sums;
+
+    private double[] m_realSums;
+
+    private double[] m_squaredSums;
+
+    private double m_min;
+
+    private double m_max;
+
+    /**
+     * @param input the dimensions of the images to be integrated
+     * @param integer if <code>true</code> the values are summed up as <code>long</code>s, else as <code>double</code>
+     *            s
+     * @param squares if <code>true</code> also the integral image of the squared values is computed
+     * @param executor to distribute the lines, may be <code>null</code>
+     * @throws IllegalArgumentException if the integral image doesn't {@link #fits(Interval) fit} into a flat array,
+     *             callers are expected to check this and fall back to {@link IntegralImgND} or
+     *             {@link StreamingIntegralImg}
+     */
+    public FlatIntegralImg(final Interval input, final boolean integer, final boolean squares,
+                           final ExecutorService executor) {
+        if (!fits(input)) {
+            throw new IllegalArgumentException("Image too large to be integrated in a flat array.");
+        }
+        final int n = input.numDimensions();
+        m_integer = integer;
+        m_squares = squares;
+        m_executor = executor;
+        m_dims = new int[n];
+        m_iiDims = new int[n];
+        m_iiStrides = new int[n];
+
+        int size = 1;
+        for (int d = 0; d < n; d++) {
+            m_dims[d] = (int)input.dimension(d);
+            m_iiDims[d] = m_dims[d] + 1;
+            m_iiStrides[d] = size;
+            size *= m_iiDims[d];
+        }
+        m_iiSize = size;
+    }
+
+    /**
+     * @param input
+     * @return <code>true</code> if the integral image of the given interval can be held in a flat array
+     */
+    public static boolean fits(final Interval input) {
+        long size = 1;
+        for (int d = 0; d < input.numDimensions(); d++) {
+            size *= input.dimension(d) + 1;
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Integrates the input into newly allocated arrays.
+     *
+     * @param input must have the dimensions the integral image was created with
+     */
+    public <R extends RealType<R>> void compute(final RandomAccessibleInterval<R> input) {
+        compute(input, m_integer ? new long[m_iiSize] : null, m_integer ? null : new double[m_iiSize]);
+    }
+
+    /**
+     * Integrates the input into the given array (e.g. the storage of an array image), only allowed if the values are
+     * summed up as <code>long</code>s.
+     *
+     * @param input must have the dimensions the integral image was created with
+     * @param sums array of length {@link #size()}
+     */
+    public <R extends RealType<R>> void compute(final RandomAccessibleInterval<R> input, final long[] sums) {
+        if (!m_integer) {
+            throw new IllegalStateException("Values are summed up as doubles.");
+        }
+        compute(input, sums, null);
+    }
+
+    /**
+     * Integrates the input into the given array (e.g. the storage of an array image), only allowed if the values are
+     * summed up as <code>double</code>s.
+     *
+     * @param input must have the dimensions the integral image was created with
+     * @param sums array of length {@link #size()}
+     */
+    public <R extends RealType<R>> void compute(final RandomAccessibleInterval<R> input, final double[] sums) {
+        if (m_integer) {
+            throw new IllegalStateException("Values are summed up as longs.");
+        }
+        compute(input, null, sums);
+    }
+
+    private <R extends RealType<R>> void compute(final RandomAccessibleInterval<R> input, final long[] sums,
+                                                 final double[] realSums) {
+        final int len = sums != null ? sums.length : realSums.length;
+        if (len != m_iiSize) {
+            throw new IllegalArgumentException("Array of size " + len + " doesn't match the integral image of size "
+                    + m_iiSize + ".");
+        }
+        for (int d = 0; d < m_dims.length; d++) {
+            if (input.dimension(d) != m_dims[d]) {
+                throw new IllegalArgumentException("Input doesn't match the dimensions of the integral image.");
+            }
+        }
+
+        m_sums = sums;
+        m_realSums = realSums;
+        m_squaredSums = m_squares ? new double[m_iiSize] : null;
+        m_min = 0;
+        m_max = 0;
+
+        // zero lines in case a reused array is given
+        clearZeroLines();
+
+        integrateRows(input, m_dims.length == 1);
+        for (int d = 1; d < m_dims.length; d++) {
+            integrateDimension(d, d == (m_dims.length - 1));
+        }
+    }
+
+    /**
+     * @return the number of dimensions
+     */
+    public int numDimensions() {
+        return m_dims.length;
+    }
+
+    /**
+     * @param d
+     * @return the size of the integral image in dimension d, i.e. one more than the input
+     */
+    public int dimension(final int d) {
+        return m_iiDims[d];
+    }
+
+    /**
+     * @param d
+     * @return the offset of the next entry along dimension d
+     */
+    public int stride(final int d) {
+        return m_iiStrides[d];
+    }
+
+    /**
+     * @return the number of entries of the integral image
+     */
+    public int size() {
+        return m_iiSize;
+    }
+
+    /**
+     * @return <code>true</code> if the sums are accumulated as <code>long</code>s, see {@link #longSums()}
+     */
+    public boolean isInteger() {
+        return m_integer;
+    }
+
+    /**
+     * @return <code>true</code> if the integral image of the squared values is computed
+     */
+    public boolean hasSquaredSums() {
+        return m_squares;
+    }
+
+    /**
+     * @return the sums, if summed up as <code>long</code>s, else <code>null</code>
+     */
+    public long[] longSums() {
+        return m_sums;
+    }
+
+    /**
+     * @return the sums, if summed up as <code>double</code>s, else <code>null</code>
+     */
+    public double[] doubleSums() {
+        return m_realSums;
+    }
+
+    /**
+     * @return the sums of the squared values, <code>null</code> if not requested
+     */
+    public double[] squaredSums() {
+        return m_squaredSums;
+    }
+
+    /**
+     * @param index
+     * @return the entry of the integral image at the given flat index
+     */
+    public double get(final int index) {
+        return m_integer ? m_sums[index] : m_realSums[index];
+    }
+
+    /**
+     * @return the smallest entry of the integral image
+     */
+    public double min() {
+        return m_min;
+    }
+
+    /**
+     * @return the largest entry of the integral image
+     */
+    public double max() {
+        return m_max;
+    }
+
+    /**
+     * Writes the integral image to the output in flat iteration order.
+     *
+     * @param output of the size of the integral image
+     */
+    public <T extends RealType<T>> void write(final RandomAccessibleInterval<T> output) {
+        final Cursor<T> c = Views.flatIterable(output).cursor();
+        if (m_integer && (output.randomAccess().get() instanceof IntegerType)) {
+            // exact also for sums beyond the precision of double
+            for (int i = 0; i < m_iiSize; i++) {
+                ((IntegerType<?>)c.next()).setInteger(m_sums[i]);
+            }
+        } else if (m_integer) {
+            for (int i = 0; i < m_iiSize; i++) {
+                // the cast avoids the float overload
+                c.next().setReal((double)m_sums[i]);
+            }
+        } else {
+            for (int i = 0; i < m_iiSize; i++) {
+                c.next().setReal(m_realSums[i]);
+            }
+        }
+    }
+
+    /*
+     * sets all entries with a zero coordinate in some dimension > 0 to zero, those with x = 0 are written while
+     * reading the rows
+     */
+    private void clearZeroLines() {
+        for (int d = 1; d < m_dims.length; d++) {
+            final int stride = m_iiStrides[d];
+            final int lineStride = stride * m_iiDims[d];
+            for (int base = 0; base < m_iiSize; base += lineStride) {
+                if (m_integer) {
+                    Arrays.fill(m_sums, base, base + stride, 0);
+                } else {
+                    Arrays.fill(m_realSums, base, base + stride, 0);
+                }
+            }
+        }
+    }
+
+    /*
+     * reads the input rows and computes the prefix sums along the first dimension
+     */
+    private <R extends RealType<R>> void integrateRows(final RandomAccessibleInterval<R> input, final boolean last) {
+        final int rowLength = m_dims[0];
+        int numRows = 1;
+        for (int d = 1; d < m_dims.length; d++) {
+            numRows *= m_dims[d];
+        }
+
+        final List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numRows, m_executor,
+                                                                Math.max(1, 4096 / Math.max(1, rowLength)))) {
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    final Cursor<R> c = Views.flatIterable(input).cursor();
+                    c.jumpFwd((long)start * rowLength);
+
+                    final long[] sums = m_sums;
+                    final double[] realSums = m_realSums;
+                    final double[] squaredSums = m_squaredSums;
+                    final boolean integer = m_integer;
+                    double min = 0;
+                    double max = 0;
+                    for (int r = start; r < end; r++) {
+                        final int rowStart = iiRowStart(r);
+                        int idx = rowStart;
+                        long sum = 0;
+                        double realSum = 0;
+                        double squaredSum = 0;
+                        if (integer) {
+                            sums[idx - 1] = 0;
+                        } else {
+                            realSums[idx - 1] = 0;
+                        }
+                        if (squaredSums != null) {
+                            squaredSums[idx - 1] = 0;
+                        }
+                        for (int x = 0; x < rowLength; x++) {
+                            final double v = c.next().getRealDouble();
+                            if (integer) {
+                                sum += (long)v;
+                                sums[idx] = sum;
+                            } else {
+                                realSum += v;
+                                realSums[idx] = realSum;
+                            }
+                            if (squaredSums != null) {
+                                squaredSum += v * v;
+                                squaredSums[idx] = squaredSum;
+                            }
+                            idx++;
+                        }
+                        if (last) {
+                            for (int i = rowStart; i < idx; i++) {
+                                final double v = integer ? sums[i] : realSums[i];
+                                min = Math.min(min, v);
+                                max = Math.max(max, v);
+                            }
+                        }
+                    }
+                    return new double[]{min, max};
+                }
+            });
+        }
+        reduceMinMax(ParallelTools.invokeAll(tasks, m_executor));
+    }
+
+    /*
+     * computes the prefix sums along dimension d > 0 in place
+     */
+    private void integrateDimension(final int d, final boolean last) {
+        final int stride = m_iiStrides[d];
+        final int lineStride = stride * m_iiDims[d];
+        final int numBlocks = m_iiSize / lineStride;
+        final int numLines = numBlocks * stride;
+
+        final List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numLines, m_executor,
+                                                                Math.max(1, 4096 / m_iiDims[d]))) {
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    final double[] minMax = new double[]{0, 0};
+
+                    // the lines of one block are processed together, such that the inner loop runs over
+                    // consecutive memory
+                    int line = start;
+                    while (line < end) {
+                        final int block = line / stride;
+                        final int from = line - (block * stride);
+                        final int to = Math.min(stride, from + (end - line));
+                        final int base = block * lineStride;
+                        for (int k = 2; k < m_iiDims[d]; k++) {
+                            final int cur = base + (k * stride);
+                            final int prev = cur - stride;
+                            if (m_integer) {
+                                integrateLines(m_sums, cur, prev, from, to, last, minMax);
+                            } else {
+                                integrateLines(m_realSums, cur, prev, from, to, last, minMax);
+                            }
+                            if (m_squaredSums != null) {
+                                integrateLines(m_squaredSums, cur, prev, from, to, false, null);
+                            }
+                        }
+                        if (last) {
+                            // the first line is not altered, but part of the result as well
+                            updateMinMax(base + stride, from, to, minMax);
+                        }
+                        line += to - from;
+                    }
+                    return minMax;
+                }
+            });
+        }
+        reduceMinMax(ParallelTools.invokeAll(tasks, m_executor));
+    }
+
+    private static void integrateLines(final long[] buf, final int cur, final int prev, final int from,
+                                       final int to, final boolean track, final double[] minMax) {
+        long min = (long)minMax[0];
+        long max = (long)minMax[1];
+        for (int l = from; l < to; l++) {
+            final long v = buf[cur + l] + buf[prev + l];
+            buf[cur + l] = v;
+            if (track) {
+                if (v < min) {
+                    min = v;
+                } else if (v > max) {
+                    max = v;
+                }
+            }
+        }
+        if (track) {
+            minMax[0] = min;
+            minMax[1] = max;
+        }
+    }
+
+    private static void integrateLines(final double[] buf, final int cur, final int prev, final int from,
+                                       final int to, final boolean track, final double[] minMax) {
+        double min = track ? minMax[0] : 0;
+        double max = track ? minMax[1] : 0;
+        for (int l = from; l < to; l++) {
+            final double v = buf[cur + l] + buf[prev + l];
+            buf[cur + l] = v;
+            if (track) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        if (track) {
+            minMax[0] = min;
+            minMax[1] = max;
+        }
+    }
+
+    private void updateMinMax(final int rowStart, final int from, final int to, final double[] minMax) {
+        for (int l = from; l < to; l++) {
+            final double v = get(rowStart + l);
+            minMax[0] = Math.min(minMax[0], v);
+            minMax[1] = Math.max(minMax[1], v);
+        }
+    }
+
+    private void reduceMinMax(final List<double[]> minMax) {
+        for (final double[] mm : minMax) {
+            m_min = Math.min(m_min, mm[0]);
+            m_max = Math.max(m_max, mm[1]);
+        }
+    }
+
+    /*
+     * index of the first (non zero) entry of the given input row in the integral image
+     */
+    private int iiRowStart(final int row) {
+        int idx = 1;
+        int tmp = row;
+        for (int d = 1; d < m_dims.length; d++) {
+            idx += ((tmp % m_dims[d]) + 1) * m_iiStrides[d];
+            tmp /= m_dims[d];
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+/**
+ * Executes region sum queries on a {@link FlatIntegralImg}. The linear offsets of the 2^d corners of a box of fixed
+ * size, and their signs, are computed once, such that the sum of a box is obtained by 2^d array reads relative to the
+ * index of its left upper corner (see {@link #index(long[])}). Sums of consecutive boxes along the first dimension are
+ * computed row-wise by {@link #getSums(int, int, double[], int)}.
+ */
+public class FlatIntegralImgSumAgent {
+
+    private final FlatIntegralImg m_ii;
+
+    private final int m_numDims;
+
+    private final int m_numCorners;
+
+    private final int[] m_offsets;
+
+    private final int[] m_signs;
+
+    private final int[] m_boxSize;
+
+    /**
+     * @param ii the integral image
+     * @param boxSize the size of the boxes to be summed up in each dimension
+     */
+    public FlatIntegralImgSumAgent(final FlatIntegralImg ii, final int... boxSize) {
+        if (boxSize.length != ii.numDimensions()) {
+            throw new IllegalArgumentException("Box must have " + ii.numDimensions() + " dimensions.");
+        }
+        m_ii = ii;
+        m_numDims = ii.numDimensions();
+        m_numCorners = 1 << m_numDims;
+        m_boxSize = boxSize.clone();
+        m_offsets = new int[m_numCorners];
+        m_signs = new int[m_numCorners];
+
+        // corner i takes the right lower position in dimension d, if bit d of i is set
+        for (int i = 0; i < m_numCorners; i++) {
+            int offset = 0;
+            int ones = 0;
+            for (int d = 0; d < m_numDims; d++) {
+                if (((i >> d) & 1) != 0) {
+                    if ((boxSize[d] < 1) || (boxSize[d] >= ii.dimension(d))) {
+                        throw new IllegalArgumentException("Box size " + boxSize[d] + " in dimension " + d
+                                + " out of bounds.");
+                    }
+                    offset += boxSize[d] * ii.stride(d);
+                    ones++;
+                }
+            }
+            m_offsets[i] = offset;
+            m_signs[i] = ((m_numDims - ones) % 2) == 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * @return the size of the boxes in each dimension
+     */
+    public int[] boxSize() {
+        return m_boxSize.clone();
+    }
+
+    /**
+     * @param leftUpper left upper corner of a box with respect to the input of the integral image
+     * @return the index of the box, to be passed to {@link #getSum(int)}
+     */
+    public int index(final long[] leftUpper) {
+        int index = 0;
+        for (int d = 0; d < m_numDims; d++) {
+            index += (int)leftUpper[d] * m_ii.stride(d);
+        }
+        return index;
+    }
+
+    /**
+     * @param index index of the box, see {@link #index(long[])}; the box must lie completely inside the input
+     * @return the sum of the box
+     */
+    public double getSum(final int index) {
+        if (m_ii.isInteger()) {
+            final long[] sums = m_ii.longSums();
+            long sum = 0;
+            for (int i = 0; i < m_numCorners; i++) {
+                sum += m_signs[i] * sums[index + m_offsets[i]];
+            }
+            return sum;
+        }
+        return getSum(m_ii.doubleSums(), index);
+    }
+
+    /**
+     * @param index index of the box, see {@link #index(long[])}; the box must lie completely inside the input
+     * @return the sum of the squared values of the box
+     */
+    public double getSquaredSum(final int index) {
+        return getSum(squaredSums(), index);
+    }
+
+    /**
+     * Sums up consecutive boxes along the first dimension.
+     *
+     * @param index index of the first box, see {@link #index(long[])}
+     * @param length the number of boxes, all must lie completely inside the input
+     * @param res the sums
+     * @param offset where to put the first sum into res
+     */
+    public void getSums(final int index, final int length, final double[] res, final int offset) {
+        if (m_ii.isInteger()) {
+            final long[] sums = m_ii.longSums();
+            for (int x = 0; x < length; x++) {
+                final int base = index + x;
+                long sum = 0;
+                for (int i = 0; i < m_numCorners; i++) {
+                    sum += m_signs[i] * sums[base + m_offsets[i]];
+                }
+                res[offset + x] = sum;
+            }
+        } else {
+            getSums(m_ii.doubleSums(), index, length, res, offset);
+        }
+    }
+
+    /**
+     * Sums up the squared values of consecutive boxes along the first dimension.
+     *
+     * @param index index of the first box, see {@link #index(long[])}
+     * @param length the number of boxes, all must lie completely inside the input
+     * @param res the sums
+     * @param offset where to put the first sum into res
+     */
+    public void getSquaredSums(final int index, final int length, final double[] res, final int offset) {
+        getSums(squaredSums(), index, length, res, offset);
+    }
+
+    /**
+     * Get the sum of an arbitrary box including leftUpper and rightLower corner, with respect to the input of the
+     * integral image.
+     *
+     * @param leftUpper
+     * @param rightLower
+     * @return the sum
+     */
+    public double getSum(final long[] leftUpper, final long[] rightLower) {
+        double sum = 0;
+        for (int i = 0; i < m_numCorners; i++) {
+            int index = 0;
+            for (int d = 0; d < m_numDims; d++) {
+                // +1 because the integral image contains a zero line, no +1 for the left upper corner because
+                // integrating from 3..5 inc. 3 & 5 means [5] - [2]
+                final long pos = ((i >> d) & 1) != 0 ? rightLower[d] + 1 : leftUpper[d];
+                index += (int)pos * m_ii.stride(d);
+            }
+            sum += m_signs[i] * m_ii.get(index);
+        }
+        return sum;
+    }
+
+    private double getSum(final double[] sums, final int index) {
+        double sum = 0;
+        for (int i = 0; i < m_numCorners; i++) {
+            sum += m_signs[i] * sums[index + m_offsets[i]];
+        }
+        return sum;
+    }
+
+    private void getSums(final double[] sums, final int index, final int length, final double[] res,
+                         final int offset) {
+        for (int x = 0; x < length; x++) {
+            res[offset + x] = 0;
+        }
+        // corner by corner, such that the inner loop runs over consecutive memory
+        for (int i = 0; i < m_numCorners; i++) {
+            final int from = index + m_offsets[i];
+            final int sign = m_signs[i];
+            for (int x = 0; x < length; x++) {
+                res[offset + x] += sign * sums[from + x];
+            }
+        }
+    }
+
+    private double[] squaredSums() {
+        final double[] squaredSums = m_ii.squaredSums();
+        if (squaredSums == null) {
+            throw new IllegalStateException("Integral image of the squared values has not been computed.");
+        }
+        return squaredSums;
+    }
+}
@@ -36,11 +36,16 @@ package org.knime.knip.core.ops.integralimage;
  * #L%
  */
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
 import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
 import net.imglib2.ops.img.UnaryObjectFactory;
 import net.imglib2.ops.operation.UnaryOutputOperation;
@@ -83,14 +88,26 @@ public class IntegralImgND<R extends RealType<R>, T extends RealType<T> & Native
 
     private T m_type;
 
+    private final ExecutorService m_executor;
+
     public IntegralImgND(final ImgFactory<T> factory, final T type) {
-        m_factory = factory;
-        m_type = type;
+        this(factory, type, null);
     }
 
     public IntegralImgND(final ImgFactory<T> factory) {
+        this(factory, null, null);
+    }
+
+    /**
+     * @param factory
+     * @param type the type of the integral image, if <code>null</code> it is chosen according to the input type
+     * @param executor to distribute the lines of the flat integration (see {@link FlatIntegralImg}), may be
+     *            <code>null</code>
+     */
+    public IntegralImgND(final ImgFactory<T> factory, final T type, final ExecutorService executor) {
         m_factory = factory;
-        m_type = null;
+        m_type = type;
+        m_executor = executor;
     }
 
     @Override
@@ -127,13 +144,41 @@ public class IntegralImgND<R extends RealType<R>, T extends RealType<T> & Native
 
     @Override
     public UnaryOutputOperation<RandomAccessibleInterval<R>, RandomAccessibleInterval<T>> copy() {
-        return new IntegralImgND<R, T>(m_factory, m_type);
+        return new IntegralImgND<R, T>(m_factory, m_type, m_executor);
     }
 
     @Override
     public RandomAccessibleInterval<T> compute(final RandomAccessibleInterval<R> input,
                                                final RandomAccessibleInterval<T> output) {
 
+        final T type = output.randomAccess().get().createVariable();
+        final boolean integerInput = input.randomAccess().get() instanceof IntegerType;
+
+        // the flat integration yields the same values as the generic implementation only if the sums are exact
+        // (integer inputs into integer or double outputs) or accumulated in double precision anyway. Everything else
+        // is left to the generic implementation, e.g. integer outputs of real inputs round each value before summing
+        // up and float outputs round each partial sum.
+        final boolean sameValues =
+                integerInput ? (type instanceof IntegerType) || (type instanceof DoubleType) : type instanceof DoubleType;
+        if (FlatIntegralImg.fits(input) && sameValues) {
+            final FlatIntegralImg ii = new FlatIntegralImg(input, integerInput, false, m_executor);
+
+            // integrate directly into the storage of array images of the matching primitive type
+            final Object storage = output instanceof ArrayImg ? ((ArrayImg<?, ?>)output).update(null) : null;
+            if (integerInput && (storage instanceof LongArray)) {
+                ii.compute(input, ((LongArray)storage).getCurrentStorageArray());
+            } else if (!integerInput && (storage instanceof DoubleArray)) {
+                ii.compute(input, ((DoubleArray)storage).getCurrentStorageArray());
+            } else {
+                ii.compute(input);
+                ii.write(output);
+            }
+
+            // the extrema have been tracked while integrating
+            checkBounds(ii.max(), ii.min(), type, output);
+            return output;
+        }
+
         // the following methods alter output
         if (output.numDimensions() == 1) {
             process_1D(input, output);
@@ -153,15 +198,21 @@ public class IntegralImgND<R extends RealType<R>, T extends RealType<T> & Native
             errorSum += inputCursor.next().getRealDouble();
         }
 
-        if ((errorSum > output.randomAccess().get().createVariable().getMaxValue()) || Double.isInfinite(errorSum)) {
-            throw new RuntimeException(new IncompatibleTypeException(output,
-                    "Integral image breaks type boundaries of the output image. (max value of " + errorSum
-                            + " is too much)"));
-        }
+        checkBounds(errorSum, 0, type, output);
 
         return output;
     }
 
+    private void checkBounds(final double max, final double min, final T type,
+                             final RandomAccessibleInterval<T> output) {
+        if ((max > type.getMaxValue()) || (min < type.getMinValue()) || Double.isInfinite(max)
+                || Double.isInfinite(min)) {
+            throw new RuntimeException(new IncompatibleTypeException(output,
+                    "Integral image breaks type boundaries of the output image. (max value of "
+                            + (max > type.getMaxValue() ? max : min) + " is too much)"));
+        }
+    }
+
     public void process_1D(final RandomAccessibleInterval<R> input, final RandomAccessibleInterval<T> output) {
         final T tmpVar = output.randomAccess().get().createVariable();
         final T sum = output.randomAccess().get().createVariable();
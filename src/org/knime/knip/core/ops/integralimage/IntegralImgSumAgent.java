@@ -23,6 +23,8 @@ public class IntegralImgSumAgent<T extends RealType<T>> {
 
     private final int m_points;
 
+    private final long[] m_position;
+
     /**
      * Initializes member variables that are needed for the nd sum calculation.
      * 
@@ -37,6 +39,7 @@ public class IntegralImgSumAgent<T extends RealType<T>> {
 
         m_dims = ii.numDimensions();
         m_points = (int)Math.pow(2, m_dims);
+        m_position = new long[m_dims];
 
         m_binaryRep = new boolean[m_points][m_dims];
         m_signs = new int[m_points];
@@ -70,7 +73,7 @@ public class IntegralImgSumAgent<T extends RealType<T>> {
         // http://en.wikipedia.org/wiki/Summed_area_table high
         // dimensional variant
 
-        final long[] position = new long[m_dims];
+        final long[] position = m_position;
         double sum = 0;
 
         for (int i = 0; i < m_points; i++) {
@@ -0,0 +1,453 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Box sums of one tile of an image, computed without the integral image of the whole image. The tile is swept along
+ * the last dimension: for each slice of the (halo extended) tile the integral image of the slice is accumulated onto
+ * the one of the previous slice, only the last 2 * span + 2 of these cumulative slabs are kept. The box sums of an
+ * output slice are the difference of two slabs, evaluated at the corners of the box within the slab. Hence the memory
+ * is proportional to the tile cross section times the span instead of the size of the image.
+ * <p>
+ * The rows of the tile are passed to a {@link RowConsumer} in order of the last dimension, so each output cell of a
+ * cell image is complete as soon as the sweep has passed its last slice. The tiles of an image (see
+ * {@link #tiles(Interval, int[])}) are independent and can be processed in parallel.
+ */
+public class StreamingIntegralImg {
+
+    /**
+     * Default size of the tiles in the dimensions other than the last one, if the image isn't a cell image.
+     */
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    /**
+     * Receives the box sums of the rows of a tile.
+     */
+    public interface RowConsumer {
+        /**
+         * @param pos the position of the first pixel of the row, the array is reused
+         * @param sums the sums of the boxes centered at the pixels of the row
+         * @param squaredSums the sums of the squared values, <code>null</code> if not computed
+         */
+        void row(long[] pos, double[] sums, double[] squaredSums);
+    }
+
+    private final int m_numDims;
+
+    private final long[] m_tileMin;
+
+    private final int[] m_tileDims;
+
+    private final int[] m_spans;
+
+    private final boolean m_integer;
+
+    private final boolean m_squares;
+
+    // dimensions and strides of the integral image of one (halo extended) slice, the last dimension is unused
+    private final int[] m_slabDims;
+
+    private final int[] m_slabStrides;
+
+    private final int m_slabSize;
+
+    private final int[] m_cornerOffsets;
+
+    private final int[] m_cornerSigns;
+
+    /**
+     * @param tile the interval the box sums are computed for
+     * @param spans the box spans 2 * span + 1 pixels in each dimension
+     * @param integer if <code>true</code> the sums are accumulated exactly in <code>long</code>s, only valid for
+     *            integer inputs
+     * @param squares if <code>true</code> also the sums of the squared values are computed
+     */
+    public StreamingIntegralImg(final Interval tile, final int[] spans, final boolean integer, final boolean squares) {
+        if (!fits(tile, spans)) {
+            throw new IllegalArgumentException("Tile too large to be processed in a flat array.");
+        }
+        m_numDims = tile.numDimensions();
+        m_tileMin = new long[m_numDims];
+        m_tileDims = new int[m_numDims];
+        m_spans = spans.clone();
+        m_integer = integer;
+        m_squares = squares;
+        tile.min(m_tileMin);
+        for (int d = 0; d < m_numDims; d++) {
+            m_tileDims[d] = (int)tile.dimension(d);
+        }
+
+        final int last = m_numDims - 1;
+        m_slabDims = new int[m_numDims];
+        m_slabStrides = new int[m_numDims];
+        int size = 1;
+        for (int d = 0; d < last; d++) {
+            m_slabDims[d] = m_tileDims[d] + (2 * m_spans[d]) + 1;
+            m_slabStrides[d] = size;
+            size *= m_slabDims[d];
+        }
+        m_slabSize = size;
+
+        // corners of a box within a slab, the upper corner (all coordinates + box size) is added
+        final int numCorners = 1 << last;
+        m_cornerOffsets = new int[numCorners];
+        m_cornerSigns = new int[numCorners];
+        for (int c = 0; c < numCorners; c++) {
+            int offset = 0;
+            int numLower = 0;
+            for (int d = 0; d < last; d++) {
+                if ((c & (1 << d)) != 0) {
+                    offset += ((2 * m_spans[d]) + 1) * m_slabStrides[d];
+                } else {
+                    numLower++;
+                }
+            }
+            m_cornerOffsets[c] = offset;
+            m_cornerSigns[c] = (numLower % 2) == 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * @param tile
+     * @param spans
+     * @return <code>true</code> if the slabs of the given tile can be held in flat arrays
+     */
+    public static boolean fits(final Interval tile, final int[] spans) {
+        long size = 1;
+        for (int d = 0; d < (tile.numDimensions() - 1); d++) {
+            size *= tile.dimension(d) + (2 * spans[d]) + 1;
+        }
+        return size <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param tiles
+     * @param spans
+     * @return <code>true</code> if the slabs of all given tiles can be held in flat arrays
+     */
+    public static boolean fit(final List<Interval> tiles, final int[] spans) {
+        for (final Interval tile : tiles) {
+            if (!fits(tile, spans)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param img
+     * @return the cell dimensions if the image is a cell image, else {@link #DEFAULT_TILE_SIZE} in each dimension
+     */
+    public static int[] tileSize(final Interval img) {
+        final int[] res = new int[img.numDimensions()];
+        if (img instanceof AbstractCellImg) {
+            ((AbstractCellImg<?, ?, ?, ?>)img).getCells().cellDimensions(res);
+        } else {
+            Arrays.fill(res, DEFAULT_TILE_SIZE);
+        }
+        return res;
+    }
+
+    /**
+     * Splits the interval into tiles of the given size in all but the last dimension. The tiles span the whole
+     * interval in the last dimension, which is swept.
+     *
+     * @param interval
+     * @param tileSize
+     * @return the tiles
+     */
+    public static List<Interval> tiles(final Interval interval, final int[] tileSize) {
+        final int n = interval.numDimensions();
+        final long[] numTiles = new long[n];
+        long total = 1;
+        for (int d = 0; d < (n - 1); d++) {
+            numTiles[d] = ((interval.dimension(d) + tileSize[d]) - 1) / tileSize[d];
+            total *= numTiles[d];
+        }
+
+        final List<Interval> res = new ArrayList<Interval>();
+        final long[] min = new long[n];
+        final long[] max = new long[n];
+        for (long t = 0; t < total; t++) {
+            long tmp = t;
+            for (int d = 0; d < (n - 1); d++) {
+                min[d] = interval.min(d) + ((tmp % numTiles[d]) * tileSize[d]);
+                max[d] = Math.min(interval.max(d), (min[d] + tileSize[d]) - 1);
+                tmp /= numTiles[d];
+            }
+            min[n - 1] = interval.min(n - 1);
+            max[n - 1] = interval.max(n - 1);
+            res.add(new FinalInterval(min, max));
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of pixels of the rows passed to the {@link RowConsumer}, the tile width in the first
+     *         dimension (one for one dimensional tiles, which are swept pixel by pixel)
+     */
+    public int rowLength() {
+        return m_numDims == 1 ? 1 : m_tileDims[0];
+    }
+
+    /**
+     * @return the number of pixels per box
+     */
+    public long boxSize() {
+        long size = 1;
+        for (final int span : m_spans) {
+            size *= (2 * span) + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Sweeps the tile and passes the box sums of each row to the consumer.
+     *
+     * @param extended the input, must be defined at least span pixels around the tile
+     * @param consumer
+     */
+    public <T extends RealType<T>> void sweep(final RandomAccessible<T> extended, final RowConsumer consumer) {
+        final int last = m_numDims - 1;
+        final int lastSpan = m_spans[last];
+        final int ringSize = (2 * lastSpan) + 2;
+
+        // ring of cumulative slabs, slot (k + 1) % ringSize holds the sum of the integral images of slices 0..k
+        final long[][] longRing = m_integer ? new long[ringSize][m_slabSize] : null;
+        final double[][] doubleRing = m_integer ? null : new double[ringSize][m_slabSize];
+        final double[][] squaredRing = m_squares ? new double[ringSize][m_slabSize] : null;
+
+        final int rowLength = rowLength();
+        final int paddedRowLength = last == 0 ? 1 : m_slabDims[0] - 1;
+        final double[] values = new double[paddedRowLength];
+        final double[] sums = new double[rowLength];
+        final double[] squaredSums = m_squares ? new double[rowLength] : null;
+
+        // rows of a slice of the output tile and of the halo extended tile
+        int numRows = 1;
+        int numPaddedRows = 1;
+        for (int d = 1; d < last; d++) {
+            numRows *= m_tileDims[d];
+            numPaddedRows *= m_slabDims[d] - 1;
+        }
+
+        final RandomAccess<T> ra = extended.randomAccess();
+        final long[] pos = new long[m_numDims];
+        final int numSlices = m_tileDims[last] + (2 * lastSpan);
+        for (int k = 0; k < numSlices; k++) {
+            final int prev = k % ringSize;
+            final int slot = (k + 1) % ringSize;
+
+            // integral image of slice k, prefix sums along the first dimension on the fly
+            for (int r = 0; r < numPaddedRows; r++) {
+                int idx = 0;
+                int tmp = r;
+                for (int d = 1; d < last; d++) {
+                    final int p = tmp % (m_slabDims[d] - 1);
+                    tmp /= m_slabDims[d] - 1;
+                    ra.setPosition((m_tileMin[d] - m_spans[d]) + p, d);
+                    idx += (p + 1) * m_slabStrides[d];
+                }
+                ra.setPosition((m_tileMin[last] - lastSpan) + k, last);
+                if (last > 0) {
+                    ra.setPosition(m_tileMin[0] - m_spans[0], 0);
+                    idx += 1;
+                }
+                for (int x = 0; x < paddedRowLength; x++) {
+                    values[x] = ra.get().getRealDouble();
+                    if (last > 0) {
+                        ra.fwd(0);
+                    }
+                }
+
+                if (m_integer) {
+                    final long[] s = longRing[slot];
+                    long sum = 0;
+                    for (int x = 0; x < paddedRowLength; x++) {
+                        sum += (long)values[x];
+                        s[idx + x] = sum;
+                    }
+                } else {
+                    final double[] s = doubleRing[slot];
+                    double sum = 0;
+                    for (int x = 0; x < paddedRowLength; x++) {
+                        sum += values[x];
+                        s[idx + x] = sum;
+                    }
+                }
+                if (m_squares) {
+                    final double[] s = squaredRing[slot];
+                    double sum = 0;
+                    for (int x = 0; x < paddedRowLength; x++) {
+                        sum += values[x] * values[x];
+                        s[idx + x] = sum;
+                    }
+                }
+            }
+            for (int d = 1; d < last; d++) {
+                if (m_integer) {
+                    integrate(longRing[slot], d);
+                } else {
+                    integrate(doubleRing[slot], d);
+                }
+                if (m_squares) {
+                    integrate(squaredRing[slot], d);
+                }
+            }
+
+            // accumulate onto the slices before
+            if (m_integer) {
+                final long[] s = longRing[slot];
+                final long[] p = longRing[prev];
+                for (int i = 0; i < m_slabSize; i++) {
+                    s[i] += p[i];
+                }
+            } else {
+                final double[] s = doubleRing[slot];
+                final double[] p = doubleRing[prev];
+                for (int i = 0; i < m_slabSize; i++) {
+                    s[i] += p[i];
+                }
+            }
+            if (m_squares) {
+                final double[] s = squaredRing[slot];
+                final double[] p = squaredRing[prev];
+                for (int i = 0; i < m_slabSize; i++) {
+                    s[i] += p[i];
+                }
+            }
+
+            // the boxes of output slice z span the slices z..k
+            final int z = k - (2 * lastSpan);
+            if (z < 0) {
+                continue;
+            }
+            final int lower = (z % ringSize);
+            pos[last] = m_tileMin[last] + z;
+            for (int r = 0; r < numRows; r++) {
+                int base = 0;
+                int tmp = r;
+                for (int d = 1; d < last; d++) {
+                    final int p = tmp % m_tileDims[d];
+                    tmp /= m_tileDims[d];
+                    pos[d] = m_tileMin[d] + p;
+                    base += p * m_slabStrides[d];
+                }
+                if (last > 0) {
+                    pos[0] = m_tileMin[0];
+                }
+
+                if (m_integer) {
+                    boxSums(longRing[slot], longRing[lower], base, sums);
+                } else {
+                    boxSums(doubleRing[slot], doubleRing[lower], base, sums);
+                }
+                if (m_squares) {
+                    boxSums(squaredRing[slot], squaredRing[lower], base, squaredSums);
+                }
+                consumer.row(pos, sums, squaredSums);
+            }
+        }
+    }
+
+    /*
+     * in place prefix sums along dimension d of a slab
+     */
+    private void integrate(final long[] slab, final int d) {
+        final int stride = m_slabStrides[d];
+        final int lineStride = stride * m_slabDims[d];
+        for (int o = 0; o < m_slabSize; o += lineStride) {
+            for (int i = o + (2 * stride); i < (o + lineStride); i++) {
+                slab[i] += slab[i - stride];
+            }
+        }
+    }
+
+    private void integrate(final double[] slab, final int d) {
+        final int stride = m_slabStrides[d];
+        final int lineStride = stride * m_slabDims[d];
+        for (int o = 0; o < m_slabSize; o += lineStride) {
+            for (int i = o + (2 * stride); i < (o + lineStride); i++) {
+                slab[i] += slab[i - stride];
+            }
+        }
+    }
+
+    private void boxSums(final long[] upper, final long[] lower, final int base, final double[] res) {
+        for (int x = 0; x < res.length; x++) {
+            long sum = 0;
+            for (int c = 0; c < m_cornerOffsets.length; c++) {
+                final int i = base + x + m_cornerOffsets[c];
+                sum += m_cornerSigns[c] * (upper[i] - lower[i]);
+            }
+            res[x] = sum;
+        }
+    }
+
+    private void boxSums(final double[] upper, final double[] lower, final int base, final double[] res) {
+        for (int x = 0; x < res.length; x++) {
+            double sum = 0;
+            for (int c = 0; c < m_cornerOffsets.length; c++) {
+                final int i = base + x + m_cornerOffsets[c];
+                sum += m_cornerSigns[c] * (upper[i] - lower[i]);
+            }
+            res[x] = sum;
+        }
+    }
+}
@@ -1,16 +1,15 @@
 package org.knime.knip.core.ops.interval;
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.IterableInterval;
-import net.imglib2.histogram.Histogram1d;
 import net.imglib2.ops.img.UnaryRelationAssigment;
-import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.UnaryOperation;
-import net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram;
 import net.imglib2.ops.relation.real.unary.RealGreaterThanConstant;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.DoubleType;
 
+import org.knime.knip.core.algorithm.IntegerHistogramBuilder;
 import org.knime.knip.core.algorithm.types.ThresholdingType;
 import org.knime.knip.core.ops.misc.FindThreshold;
 
@@ -19,23 +18,36 @@ public final class AutoThreshold<T extends RealType<T>, I extends IterableInterv
 
     private final ThresholdingType m_thresholdType;
 
+    private final ExecutorService m_executor;
+
     public AutoThreshold(final ThresholdingType thresholdType) {
+        this(thresholdType, null);
+    }
+
+    /**
+     * @param thresholdType
+     * @param executor to distribute the computation of the histogram, may be <code>null</code>
+     */
+    public AutoThreshold(final ThresholdingType thresholdType, final ExecutorService executor) {
         m_thresholdType = thresholdType;
+        m_executor = executor;
     }
 
     //might throw a runtime exception (see FindThreshold)
     @Override
     public K compute(final I op, final K r) {
 
-        final Histogram1d<T> hist = Operations.compute(new MakeHistogram<T>(), op);
+        final long[] hist =
+                new IntegerHistogramBuilder(m_executor).histogram(op, IntegerHistogramBuilder.DEFAULT_BINS);
         final T thresh = op.firstElement().createVariable();
-        thresh.setReal(new FindThreshold<T>(m_thresholdType, thresh.createVariable()).compute(hist, new DoubleType()).getRealDouble());
+        final int bin = new FindThreshold<T>(m_thresholdType, thresh.createVariable()).bin(hist);
+        IntegerHistogramBuilder.createBinMapper(thresh, hist.length).getCenterValue(bin, thresh);
         new UnaryRelationAssigment<T>(new RealGreaterThanConstant<T>(thresh)).compute(op, r);
         return r;
     }
 
     @Override
     public UnaryOperation<I, K> copy() {
-        return new AutoThreshold<T, I, K>(m_thresholdType);
+        return new AutoThreshold<T, I, K>(m_thresholdType, m_executor);
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.histogram.Real1dBinMapper;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.algorithm.IntegerHistogramBuilder;
+import org.knime.knip.core.algorithm.types.ThresholdingType;
+import org.knime.knip.core.ops.misc.FindThreshold;
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Determines the thresholds of several {@link ThresholdingType}s at once, all evaluated on the same histogram (256
+ * bins over the range of the type, as for {@link AutoThreshold}). The histograms of whole stacks can be computed plane
+ * by plane, the planes being distributed over the given executor, each task reusing a single histogram array. The
+ * histograms of 8, 12 and 16 bit images are counted by the {@link IntegerHistogramBuilder}.
+ */
+public class MultiAutoThreshold<T extends RealType<T>> {
+
+    private static final int NUM_BINS = 256;
+
+    private final ThresholdingType[] m_types;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param types the thresholding methods, all but MANUAL are supported
+     * @param executor to distribute the histogram computation, may be <code>null</code>
+     */
+    public MultiAutoThreshold(final ThresholdingType[] types, final ExecutorService executor) {
+        for (final ThresholdingType type : types) {
+            if (type == ThresholdingType.MANUAL) {
+                throw new IllegalArgumentException("Thresholding method " + type
+                        + " can't be determined automatically.");
+            }
+        }
+        m_types = types.clone();
+        m_executor = executor;
+    }
+
+    /**
+     * @param op
+     * @return the thresholds in the order of the thresholding methods
+     */
+    public double[] compute(final IterableInterval<T> op) {
+        final T type = op.firstElement().createVariable();
+        final Real1dBinMapper<T> mapper = IntegerHistogramBuilder.createBinMapper(type, NUM_BINS);
+
+        final long[] hist = new IntegerHistogramBuilder(m_executor).histogram(op, NUM_BINS);
+
+        final double[] res = new double[m_types.length];
+        thresholds(hist, mapper, type, res);
+        return res;
+    }
+
+    /**
+     * Determines the thresholds of each plane spanned by the two given dimensions.
+     *
+     * @param img
+     * @param dimX first dimension of the planes
+     * @param dimY second dimension of the planes
+     * @return the thresholds for each plane (in flat iteration order of the remaining dimensions) in the order of
+     *         the thresholding methods
+     */
+    public double[][] computePlanes(final RandomAccessibleInterval<T> img, final int dimX, final int dimY) {
+        final int n = img.numDimensions();
+        long numPlanes = 1;
+        for (int d = 0; d < n; d++) {
+            if ((d != dimX) && (d != dimY)) {
+                numPlanes *= img.dimension(d);
+            }
+        }
+
+        final T type = img.randomAccess().get().createVariable();
+        final Real1dBinMapper<T> mapper = IntegerHistogramBuilder.createBinMapper(type, NUM_BINS);
+        final double[][] res = new double[(int)numPlanes][m_types.length];
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numPlanes, m_executor, 1)) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Real1dBinMapper<T> taskMapper = mapper.copy();
+                    final IntegerHistogramBuilder builder = new IntegerHistogramBuilder();
+                    final T var = type.createVariable();
+                    final long[] hist = new long[NUM_BINS];
+                    final long[] min = new long[n];
+                    final long[] max = new long[n];
+
+                    final long start = chunk.getStartPosition();
+                    for (long p = start; p < (start + chunk.getLoopSize()); p++) {
+                        long tmp = p;
+                        for (int d = 0; d < n; d++) {
+                            if ((d == dimX) || (d == dimY)) {
+                                min[d] = img.min(d);
+                                max[d] = img.max(d);
+                            } else {
+                                min[d] = img.min(d) + (tmp % img.dimension(d));
+                                max[d] = min[d];
+                                tmp /= img.dimension(d);
+                            }
+                        }
+
+                        final IterableInterval<T> plane = Views.iterable(Views.interval(img, min, max));
+                        if (IntegerHistogramBuilder.isDirect(plane)) {
+                            builder.histogram(plane, hist);
+                        } else {
+                            Arrays.fill(hist, 0);
+                            count(plane.cursor(), plane.size(), taskMapper, hist);
+                        }
+                        thresholds(hist, taskMapper, var, res[(int)p]);
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return res;
+    }
+
+    private void thresholds(final long[] hist, final Real1dBinMapper<T> mapper, final T var, final double[] res) {
+        for (int i = 0; i < m_types.length; i++) {
+            mapper.getCenterValue(new FindThreshold<T>(m_types[i], var).bin(hist), var);
+            res[i] = var.getRealDouble();
+        }
+    }
+
+    private static <T extends RealType<T>> void count(final Cursor<T> c, final long num,
+                                                      final Real1dBinMapper<T> mapper, final long[] hist) {
+        for (long i = 0; i < num; i++) {
+            final long bin = mapper.map(c.next());
+            if ((bin >= 0) && (bin < hist.length)) {
+                hist[(int)bin]++;
+            }
+        }
+    }
+}
@@ -1,24 +1,35 @@
 package org.knime.knip.core.ops.iterable;
 
+import java.util.Arrays;
+import java.util.List;
+
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
 import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.AbstractCellImg;
 import net.imglib2.ops.operation.BinaryOperation;
 import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.UnaryOperation;
 import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.ops.integralimage.FlatIntegralImg;
+import org.knime.knip.core.ops.integralimage.FlatIntegralImgSumAgent;
 import org.knime.knip.core.ops.integralimage.IntegralImgND;
 import org.knime.knip.core.ops.integralimage.IntegralImgSumAgent;
+import org.knime.knip.core.ops.integralimage.StreamingIntegralImg;
 
 public class SlidingMeanIntegralImgBinaryOp<T extends RealType<T>, V extends RealType<V>, IN extends RandomAccessibleInterval<T>, OUT extends IterableInterval<V>>
         extends SlidingShapeOp<T, V, IN, OUT> {
@@ -65,6 +76,21 @@ public class SlidingMeanIntegralImgBinaryOp<T extends RealType<T>, V extends Rea
         final IntervalView<T> extended =
                 Views.offset(Views.interval(Views.extend(input, m_outOfBounds), new FinalInterval(min, max)), min);
 
+        if (((input instanceof AbstractCellImg) || !FlatIntegralImg.fits(extended))
+                && (output instanceof RandomAccessibleInterval)) {
+            final int[] spans = new int[input.numDimensions()];
+            Arrays.fill(spans, m_span);
+            final List<Interval> tiles = StreamingIntegralImg.tiles(input, StreamingIntegralImg.tileSize(input));
+            if (StreamingIntegralImg.fit(tiles, spans)) {
+                return computeStreaming(neighborhoods, input, tiles, spans, (RandomAccessibleInterval<V>)output,
+                                        output);
+            }
+        }
+
+        if (FlatIntegralImg.fits(extended)) {
+            return computeFlat(neighborhoods, input, extended, output);
+        }
+
         final RandomAccessibleInterval<IntType> ii = Operations.compute(m_iiOp, extended);
 
         final DoubleType mean = new DoubleType();
@@ -91,4 +117,85 @@ public class SlidingMeanIntegralImgBinaryOp<T extends RealType<T>, V extends Rea
         return output;
     }
 
+    /*
+     * sums up the boxes row by row on a flat integral image
+     */
+    private OUT computeFlat(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input,
+                            final IntervalView<T> extended, final OUT output) {
+        final int numDims = input.numDimensions();
+        final FlatIntegralImg ii =
+                new FlatIntegralImg(extended, extended.firstElement() instanceof IntegerType, false, null);
+        ii.compute(extended);
+
+        final int[] boxSize = new int[numDims];
+        Arrays.fill(boxSize, (2 * m_span) + 1);
+        final FlatIntegralImgSumAgent sumAgent = new FlatIntegralImgSumAgent(ii, boxSize);
+
+        // all neighborhoods of a rectangle have the same size
+        final double size = neighborhoods.firstElement().size();
+
+        final Cursor<T> inCursor = Views.flatIterable(input).cursor();
+        final Cursor<V> outCursor = output.cursor();
+
+        final int rowLength = (int)input.dimension(0);
+        final double[] sums = new double[rowLength];
+        final long[] pos = new long[numDims];
+        final DoubleType mean = new DoubleType();
+
+        while (inCursor.hasNext()) {
+            // the box of the first pixel of the row starts at the same position in the extended image
+            inCursor.fwd();
+            inCursor.localize(pos);
+            sumAgent.getSums(sumAgent.index(pos), rowLength, sums, 0);
+
+            for (int x = 0; x < rowLength; x++) {
+                if (x > 0) {
+                    inCursor.fwd();
+                }
+                outCursor.fwd();
+                mean.setReal(sums[x] / size);
+                m_binaryOp.compute(mean, inCursor.get(), outCursor.get());
+            }
+        }
+
+        return output;
+    }
+
+    /*
+     * tile by tile, only the box sums of a band of slices of each tile are held in memory
+     */
+    private OUT computeStreaming(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input,
+                                 final List<Interval> tiles, final int[] spans,
+                                 final RandomAccessibleInterval<V> outputAccess, final OUT output) {
+        final int numDims = input.numDimensions();
+        final boolean integer = input.randomAccess().get() instanceof IntegerType;
+        final RandomAccessible<T> extended = Views.extend(input, m_outOfBounds);
+
+        // all neighborhoods of a rectangle have the same size
+        final double size = neighborhoods.firstElement().size();
+
+        final RandomAccess<T> inRA = input.randomAccess();
+        final RandomAccess<V> outRA = outputAccess.randomAccess();
+        final DoubleType mean = new DoubleType();
+        for (final Interval tile : tiles) {
+            new StreamingIntegralImg(tile, spans, integer, false).sweep(extended,
+                                                                        new StreamingIntegralImg.RowConsumer() {
+                @Override
+                public void row(final long[] pos, final double[] sums, final double[] squaredSums) {
+                    inRA.setPosition(pos);
+                    for (int d = 0; d < numDims; d++) {
+                        outRA.setPosition((pos[d] - input.min(d)) + outputAccess.min(d), d);
+                    }
+                    for (int x = 0; x < sums.length; x++) {
+                        mean.setReal(sums[x] / size);
+                        m_binaryOp.compute(mean, inRA.get(), outRA.get());
+                        inRA.fwd(0);
+                        outRA.fwd(0);
+                    }
+                }
+            });
+        }
+
+        return output;
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.Shape;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Evaluates a {@link NeighborhoodKernel} for all neighborhoods of a shape. The input is copied once into a flat buffer
+ * padded by the out of bounds values, the offsets of the neighbors are derived once from the shape. The kernel is
+ * called once per row of center pixels, hence neither neighborhood cursors nor per pixel calls are involved. The rows
+ * are distributed over the given executor. Images too large for a flat buffer are processed neighborhood by
+ * neighborhood, each neighborhood copied into a small buffer.
+ */
+public class SlidingNeighborhoodKernelOp<T extends RealType<T>, V extends RealType<V>, IN extends RandomAccessibleInterval<T>, OUT extends IterableInterval<V>>
+        extends SlidingShapeOp<T, V, IN, OUT> {
+
+    private final NeighborhoodKernel m_kernel;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param shape
+     * @param kernel
+     * @param outOfBounds
+     * @param executor to distribute the rows, may be <code>null</code>
+     */
+    public SlidingNeighborhoodKernelOp(final Shape shape, final NeighborhoodKernel kernel,
+                                       final OutOfBoundsFactory<T, IN> outOfBounds, final ExecutorService executor) {
+        super(shape, outOfBounds);
+        m_kernel = kernel;
+        m_executor = executor;
+    }
+
+    @Override
+    protected OUT compute(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input, final OUT output) {
+        final int n = input.numDimensions();
+
+        // positions of the neighbors relative to the center, in iteration order
+        final Neighborhood<T> first = neighborhoods.firstElement();
+        final int numNeighbors = (int)first.size();
+        final long[][] relPos = new long[numNeighbors][n];
+        final long[] pad = new long[n];
+        final Cursor<T> c = first.localizingCursor();
+        for (int j = 0; j < numNeighbors; j++) {
+            c.fwd();
+            for (int d = 0; d < n; d++) {
+                relPos[j][d] = c.getLongPosition(d) - first.getLongPosition(d);
+                pad[d] = Math.max(pad[d], Math.abs(relPos[j][d]));
+            }
+        }
+
+        final long[] min = new long[n];
+        final long[] max = new long[n];
+        long paddedSize = 1;
+        for (int d = 0; d < n; d++) {
+            min[d] = input.min(d) - pad[d];
+            max[d] = input.max(d) + pad[d];
+            paddedSize *= (max[d] - min[d]) + 1;
+        }
+        if (paddedSize > Integer.MAX_VALUE) {
+            return computeNeighborhoods(neighborhoods, input, output);
+        }
+
+        final int[] strides = new int[n];
+        int stride = 1;
+        for (int d = 0; d < n; d++) {
+            strides[d] = stride;
+            stride *= (int)((max[d] - min[d]) + 1);
+        }
+
+        final int[] offsets = new int[numNeighbors];
+        for (int j = 0; j < numNeighbors; j++) {
+            for (int d = 0; d < n; d++) {
+                offsets[j] += (int)relPos[j][d] * strides[d];
+            }
+        }
+
+        final double[] window = new double[(int)paddedSize];
+        final Cursor<T> inCursor =
+                Views.flatIterable(Views.interval(Views.extend(input, m_outOfBounds), new FinalInterval(min, max)))
+                        .cursor();
+        for (int i = 0; i < window.length; i++) {
+            window[i] = inCursor.next().getRealDouble();
+        }
+
+        final int rowLength = (int)input.dimension(0);
+        final long numRows = output.size() / rowLength;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(numRows, m_executor,
+                                                                Math.max(1, 4096 / rowLength))) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final double[] res = new double[rowLength];
+                    final Cursor<V> outCursor = output.cursor();
+                    outCursor.jumpFwd(chunk.getStartPosition() * rowLength);
+
+                    final long start = chunk.getStartPosition();
+                    for (long r = start; r < (start + chunk.getLoopSize()); r++) {
+                        // index of the first center of the row in the padded buffer
+                        int center = (int)pad[0];
+                        long tmp = r;
+                        for (int d = 1; d < n; d++) {
+                            center += (int)((tmp % input.dimension(d)) + pad[d]) * strides[d];
+                            tmp /= input.dimension(d);
+                        }
+
+                        m_kernel.compute(window, offsets, center, res);
+
+                        for (int x = 0; x < rowLength; x++) {
+                            outCursor.next().setReal(res[x]);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return output;
+    }
+
+    /*
+     * each neighborhood is copied into a buffer holding the center at position 0 followed by the neighbors
+     */
+    private OUT computeNeighborhoods(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input,
+                                     final OUT output) {
+        final int numNeighbors = (int)neighborhoods.firstElement().size();
+        final double[] window = new double[numNeighbors + 1];
+        final int[] offsets = new int[numNeighbors];
+        for (int j = 0; j < numNeighbors; j++) {
+            offsets[j] = j + 1;
+        }
+        final double[] res = new double[1];
+
+        final RandomAccess<T> centerAccess = input.randomAccess();
+        final Cursor<V> outCursor = output.cursor();
+        for (final Neighborhood<T> neighborhood : neighborhoods) {
+            centerAccess.setPosition(neighborhood);
+            window[0] = centerAccess.get().getRealDouble();
+            int j = 1;
+            for (final T t : neighborhood) {
+                window[j++] = t.getRealDouble();
+            }
+            m_kernel.compute(window, offsets, 0, res);
+            outCursor.next().setReal(res[0]);
+        }
+        return output;
+    }
+
+    @Override
+    public UnaryOperation<IN, OUT> copy() {
+        return new SlidingNeighborhoodKernelOp<T, V, IN, OUT>(m_shape, m_kernel, m_outOfBounds, m_executor);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.algorithm.FlatMinMaxFilter;
+
+/**
+ * Minimum, maximum (i.e. erosion and dilation of gray values) or range within the neighborhoods of a
+ * {@link RectangleShape}, computed by the separable van Herk/Gil-Werman algorithm of {@link FlatMinMaxFilter}. Hence
+ * the costs per pixel don't depend on the size of the rectangle. {@link SlidingShapeOpUnaryInside} switches to this
+ * implementation automatically for the {@link net.imglib2.ops.operation.iterable.unary.Min} and
+ * {@link net.imglib2.ops.operation.iterable.unary.Max} operations. Rectangles skipping the center and images too
+ * large for flat arrays are processed neighborhood by neighborhood.
+ */
+public class SlidingRectangleMinMaxOp<T extends RealType<T>, V extends RealType<V>, IN extends RandomAccessibleInterval<T>, OUT extends IterableInterval<V>>
+        extends SlidingShapeOp<T, V, IN, OUT> {
+
+    /**
+     * The value computed for each neighborhood.
+     */
+    public enum Mode {
+        /**
+         * the minimum (erosion)
+         */
+        MIN,
+        /**
+         * the maximum (dilation)
+         */
+        MAX,
+        /**
+         * the difference between maximum and minimum
+         */
+        RANGE;
+    }
+
+    private final Mode m_mode;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param shape
+     * @param mode
+     * @param outOfBounds
+     * @param executor to distribute the lines, may be <code>null</code>
+     */
+    public SlidingRectangleMinMaxOp(final RectangleShape shape, final Mode mode,
+                                    final OutOfBoundsFactory<T, IN> outOfBounds, final ExecutorService executor) {
+        super(shape, outOfBounds);
+        m_mode = mode;
+        m_executor = executor;
+    }
+
+    @Override
+    protected OUT compute(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input, final OUT output) {
+        // the span is not accessible from the shape, but from the bounding box of its neighborhoods
+        final Neighborhood<T> first = neighborhoods.firstElement();
+        final int[] spans = new int[input.numDimensions()];
+        long boxSize = 1;
+        for (int d = 0; d < spans.length; d++) {
+            spans[d] = (int)(first.dimension(d) / 2);
+            boxSize *= first.dimension(d);
+        }
+
+        if ((first.size() != boxSize) || !FlatMinMaxFilter.fits(input, spans)) {
+            return computeNeighborhoods(neighborhoods, output);
+        }
+
+        final FlatMinMaxFilter filter = new FlatMinMaxFilter(input, spans, m_executor);
+        final double[] padded = filter.read(Views.extend(input, m_outOfBounds));
+        final double[] res;
+        switch (m_mode) {
+            case MIN:
+                res = filter.filter(padded, false);
+                break;
+            case MAX:
+                res = filter.filter(padded, true);
+                break;
+            default:
+                res = filter.filter(padded, true);
+                final double[] min = filter.filter(padded, false);
+                for (int i = 0; i < res.length; i++) {
+                    res[i] -= min[i];
+                }
+                break;
+        }
+
+        final Cursor<V> outCursor = output.cursor();
+        for (int i = 0; i < res.length; i++) {
+            outCursor.next().setReal(res[i]);
+        }
+
+        return output;
+    }
+
+    private OUT computeNeighborhoods(final IterableInterval<Neighborhood<T>> neighborhoods, final OUT output) {
+        final Cursor<V> outCursor = output.cursor();
+        for (final Neighborhood<T> neighborhood : neighborhoods) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (final T t : neighborhood) {
+                final double v = t.getRealDouble();
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            outCursor.next().setReal(m_mode == Mode.MIN ? min : (m_mode == Mode.MAX ? max : max - min));
+        }
+        return output;
+    }
+
+    @Override
+    public UnaryOperation<IN, OUT> copy() {
+        return new SlidingRectangleMinMaxOp<T, V, IN, OUT>((RectangleShape)m_shape, m_mode, m_outOfBounds,
+                m_executor);
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.util.ParallelTools;
+
+/**
+ * Percentile (e.g. median) within the neighborhoods of a {@link RectangleShape} on two dimensional images. The value
+ * of rank min(n - 1, percentile * n) of the n sorted neighborhood values is taken, i.e. the percentile 0.5 yields the
+ * same median as {@link net.imglib2.ops.operation.iterable.unary.MedianOp}, to which
+ * {@link SlidingShapeOpUnaryInside} switches automatically.
+ * <p>
+ * Integer types of at most 256 values are filtered in constant time per pixel with the column histograms of
+ * Perreault and Hébert (Median Filtering in Constant Time, 2007). Integer types of up to 65536 values (e.g. 12 and 16
+ * bit) keep a single window histogram updated column by column (Huang), as column histograms of that many bins don't
+ * fit into memory. In both cases the rank is searched on a coarse and a fine level. All other types merge the sorted
+ * columns into a sorted window. The rows are distributed in horizontal stripes over the given executor. Images of
+ * other dimensionality and rectangles skipping the center are processed neighborhood by neighborhood.
+ */
+public class SlidingRectanglePercentileOp<T extends RealType<T>, V extends RealType<V>, IN extends RandomAccessibleInterval<T>, OUT extends IterableInterval<V>>
+        extends SlidingShapeOp<T, V, IN, OUT> {
+
+    /*
+     * number of values up to which column histograms are used
+     */
+    private static final int MAX_COLUMN_HISTOGRAM_BINS = 256;
+
+    /*
+     * number of values up to which a window histogram is used
+     */
+    private static final int MAX_HISTOGRAM_BINS = 65536;
+
+    private final double m_percentile;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * @param shape
+     * @param percentile in [0,1], 0.5 for the median
+     * @param outOfBounds
+     * @param executor to distribute the stripes, may be <code>null</code>
+     */
+    public SlidingRectanglePercentileOp(final RectangleShape shape, final double percentile,
+                                        final OutOfBoundsFactory<T, IN> outOfBounds, final ExecutorService executor) {
+        super(shape, outOfBounds);
+        if ((percentile < 0) || (percentile > 1)) {
+            throw new IllegalArgumentException("Percentile must be within [0,1].");
+        }
+        m_percentile = percentile;
+        m_executor = executor;
+    }
+
+    @Override
+    protected OUT compute(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input, final OUT output) {
+        // the span is not accessible from the shape, but from the bounding box of its neighborhoods
+        final Neighborhood<T> first = neighborhoods.firstElement();
+        if ((input.numDimensions() != 2) || (first.size() != (first.dimension(0) * first.dimension(1)))) {
+            return computeNeighborhoods(neighborhoods, output);
+        }
+        final long paddedSize = (input.dimension(0) + first.dimension(0)) * (input.dimension(1) + first.dimension(1));
+        if (paddedSize > Integer.MAX_VALUE) {
+            return computeNeighborhoods(neighborhoods, output);
+        }
+
+        final int width = (int)input.dimension(0);
+        final int height = (int)input.dimension(1);
+        final int spanX = (int)(first.dimension(0) / 2);
+        final int spanY = (int)(first.dimension(1) / 2);
+        final int paddedWidth = width + (2 * spanX);
+        final int rank = rank((int)first.size());
+
+        // read the input padded by the spans
+        final long[] min = new long[]{input.min(0) - spanX, input.min(1) - spanY};
+        final long[] max = new long[]{input.max(0) + spanX, input.max(1) + spanY};
+        final IterableInterval<T> padded =
+                Views.flatIterable(Views.interval(Views.extend(input, m_outOfBounds), new FinalInterval(min, max)));
+        final T type = padded.firstElement();
+
+        final double offset;
+        final int[] bins;
+        final double[] values;
+        if ((type instanceof IntegerType) && (((type.getMaxValue() - type.getMinValue()) + 1) <= MAX_HISTOGRAM_BINS)) {
+            offset = type.getMinValue();
+            bins = new int[(int)padded.size()];
+            values = null;
+            int i = 0;
+            for (final T t : padded) {
+                bins[i++] = (int)(t.getRealDouble() - offset);
+            }
+        } else {
+            offset = 0;
+            bins = null;
+            values = new double[(int)padded.size()];
+            int i = 0;
+            for (final T t : padded) {
+                values[i++] = t.getRealDouble();
+            }
+        }
+        final int numBins = bins == null ? 0 : (int)((type.getMaxValue() - type.getMinValue()) + 1);
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Chunk chunk : ParallelTools.divideIntoChunks(height, m_executor, Math.max(64, (2 * spanY) + 1))) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final int start = (int)chunk.getStartPosition();
+                    final int end = start + (int)chunk.getLoopSize();
+                    final Cursor<V> outCursor = output.cursor();
+                    outCursor.jumpFwd((long)start * width);
+
+                    final Stripe stripe = new Stripe(width, paddedWidth, spanX, spanY, rank, outCursor, offset);
+                    if (bins == null) {
+                        stripe.sortedWindow(values, start, end);
+                    } else if (numBins <= MAX_COLUMN_HISTOGRAM_BINS) {
+                        stripe.columnHistograms(bins, numBins, start, end);
+                    } else {
+                        stripe.windowHistogram(bins, numBins, start, end);
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelTools.invokeAll(tasks, m_executor);
+
+        return output;
+    }
+
+    private int rank(final int n) {
+        return Math.min(n - 1, (int)(m_percentile * n));
+    }
+
+    private OUT computeNeighborhoods(final IterableInterval<Neighborhood<T>> neighborhoods, final OUT output) {
+        final Cursor<V> outCursor = output.cursor();
+        double[] buf = new double[0];
+        for (final Neighborhood<T> neighborhood : neighborhoods) {
+            final int n = (int)neighborhood.size();
+            if (buf.length < n) {
+                buf = new double[n];
+            }
+            int i = 0;
+            for (final T t : neighborhood) {
+                buf[i++] = t.getRealDouble();
+            }
+            Arrays.sort(buf, 0, n);
+            outCursor.next().setReal(buf[rank(n)]);
+        }
+        return output;
+    }
+
+    @Override
+    public UnaryOperation<IN, OUT> copy() {
+        return new SlidingRectanglePercentileOp<T, V, IN, OUT>((RectangleShape)m_shape, m_percentile, m_outOfBounds,
+                m_executor);
+    }
+
+    /*
+     * computes the rows of one horizontal stripe, the rows of the padded input are indexed such that the window of
+     * the output row y spans the rows y..y+2*spanY
+     */
+    private class Stripe {
+
+        private final int m_width;
+
+        private final int m_paddedWidth;
+
+        private final int m_spanX;
+
+        private final int m_spanY;
+
+        private final int m_rank;
+
+        private final Cursor<V> m_outCursor;
+
+        private final double m_offset;
+
+        Stripe(final int width, final int paddedWidth, final int spanX, final int spanY, final int rank,
+               final Cursor<V> outCursor, final double offset) {
+            m_width = width;
+            m_paddedWidth = paddedWidth;
+            m_spanX = spanX;
+            m_spanY = spanY;
+            m_rank = rank;
+            m_outCursor = outCursor;
+            m_offset = offset;
+        }
+
+        /*
+         * Perreault-Hebert: one histogram per column of the padded input covering the rows of the window, the window
+         * histogram is updated by subtracting the leaving and adding the entering column histogram
+         */
+        void columnHistograms(final int[] bins, final int numBins, final int start, final int end) {
+            final int shift = coarseShift(numBins);
+            final int numCoarse = (numBins >> shift) + 1;
+            final int windowHeight = (2 * m_spanY) + 1;
+            final int windowWidth = (2 * m_spanX) + 1;
+            final int[] columns = new int[m_paddedWidth * numBins];
+            final int[] coarseColumns = new int[m_paddedWidth * numCoarse];
+            final int[] fine = new int[numBins];
+            final int[] coarse = new int[numCoarse];
+
+            for (int py = start; py < (start + windowHeight); py++) {
+                for (int px = 0; px < m_paddedWidth; px++) {
+                    final int b = bins[(py * m_paddedWidth) + px];
+                    columns[(px * numBins) + b]++;
+                    coarseColumns[(px * numCoarse) + (b >> shift)]++;
+                }
+            }
+
+            for (int y = start; y < end; y++) {
+                if (y > start) {
+                    final int leaving = (y - 1) * m_paddedWidth;
+                    final int entering = ((y + windowHeight) - 1) * m_paddedWidth;
+                    for (int px = 0; px < m_paddedWidth; px++) {
+                        final int out = bins[leaving + px];
+                        final int in = bins[entering + px];
+                        columns[(px * numBins) + out]--;
+                        coarseColumns[(px * numCoarse) + (out >> shift)]--;
+                        columns[(px * numBins) + in]++;
+                        coarseColumns[(px * numCoarse) + (in >> shift)]++;
+                    }
+                }
+
+                Arrays.fill(fine, 0);
+                Arrays.fill(coarse, 0);
+                for (int px = 0; px < windowWidth; px++) {
+                    add(columns, px * numBins, fine);
+                    add(coarseColumns, px * numCoarse, coarse);
+                }
+                set(search(fine, coarse, shift));
+                for (int x = 1; x < m_width; x++) {
+                    slide(columns, (x - 1) * numBins, ((x + windowWidth) - 1) * numBins, fine);
+                    slide(coarseColumns, (x - 1) * numCoarse, ((x + windowWidth) - 1) * numCoarse, coarse);
+                    set(search(fine, coarse, shift));
+                }
+            }
+        }
+
+        /*
+         * Huang: the window histogram is updated by the values of the leaving and entering column
+         */
+        void windowHistogram(final int[] bins, final int numBins, final int start, final int end) {
+            final int shift = coarseShift(numBins);
+            final int windowHeight = (2 * m_spanY) + 1;
+            final int windowWidth = (2 * m_spanX) + 1;
+            final int[] fine = new int[numBins];
+            final int[] coarse = new int[(numBins >> shift) + 1];
+
+            for (int y = start; y < end; y++) {
+                Arrays.fill(fine, 0);
+                Arrays.fill(coarse, 0);
+                for (int py = y; py < (y + windowHeight); py++) {
+                    for (int px = 0; px < windowWidth; px++) {
+                        final int b = bins[(py * m_paddedWidth) + px];
+                        fine[b]++;
+                        coarse[b >> shift]++;
+                    }
+                }
+                set(search(fine, coarse, shift));
+                for (int x = 1; x < m_width; x++) {
+                    for (int py = y; py < (y + windowHeight); py++) {
+                        final int row = py * m_paddedWidth;
+                        final int out = bins[(row + x) - 1];
+                        final int in = bins[((row + x) + windowWidth) - 1];
+                        fine[out]--;
+                        coarse[out >> shift]--;
+                        fine[in]++;
+                        coarse[in >> shift]++;
+                    }
+                    set(search(fine, coarse, shift));
+                }
+            }
+        }
+
+        /*
+         * keeps the values of the window sorted, merging it with the sorted entering column while dropping the
+         * sorted leaving column
+         */
+        void sortedWindow(final double[] values, final int start, final int end) {
+            final int windowHeight = (2 * m_spanY) + 1;
+            final int windowWidth = (2 * m_spanX) + 1;
+            final int n = windowHeight * windowWidth;
+            final double[] columns = new double[m_paddedWidth * windowHeight];
+            double[] window = new double[n];
+            double[] merged = new double[n];
+
+            for (int y = start; y < end; y++) {
+                for (int px = 0; px < m_paddedWidth; px++) {
+                    final int from = px * windowHeight;
+                    for (int py = 0; py < windowHeight; py++) {
+                        columns[from + py] = values[((y + py) * m_paddedWidth) + px];
+                    }
+                    Arrays.sort(columns, from, from + windowHeight);
+                }
+
+                System.arraycopy(columns, 0, window, 0, n);
+                Arrays.sort(window);
+                set(window[m_rank]);
+                for (int x = 1; x < m_width; x++) {
+                    final int leaving = (x - 1) * windowHeight;
+                    final int leavingEnd = leaving + windowHeight;
+                    final int entering = ((x + windowWidth) - 1) * windowHeight;
+                    final int enteringEnd = entering + windowHeight;
+                    int l = leaving;
+                    int e = entering;
+                    int m = 0;
+                    for (int i = 0; i < n; i++) {
+                        final double v = window[i];
+                        if ((l < leavingEnd) && (Double.compare(v, columns[l]) == 0)) {
+                            l++;
+                            continue;
+                        }
+                        while ((e < enteringEnd) && (Double.compare(columns[e], v) < 0)) {
+                            merged[m++] = columns[e++];
+                        }
+                        merged[m++] = v;
+                    }
+                    while (e < enteringEnd) {
+                        merged[m++] = columns[e++];
+                    }
+                    final double[] tmp = window;
+                    window = merged;
+                    merged = tmp;
+                    set(window[m_rank]);
+                }
+            }
+        }
+
+        private int search(final int[] fine, final int[] coarse, final int shift) {
+            int count = 0;
+            int c = 0;
+            while ((count + coarse[c]) <= m_rank) {
+                count += coarse[c++];
+            }
+            int b = c << shift;
+            while ((count + fine[b]) <= m_rank) {
+                count += fine[b++];
+            }
+            return b;
+        }
+
+        private void set(final double value) {
+            m_outCursor.next().setReal(value + m_offset);
+        }
+    }
+
+    /*
+     * about the square root of the number of bins, such that both levels are searched equally fast
+     */
+    private static int coarseShift(final int numBins) {
+        int bits = 0;
+        while ((1 << bits) < numBins) {
+            bits++;
+        }
+        return (bits + 1) / 2;
+    }
+
+    private static void add(final int[] src, final int from, final int[] dst) {
+        for (int b = 0; b < dst.length; b++) {
+            dst[b] += src[from + b];
+        }
+    }
+
+    /*
+     * subtracts the histogram starting at leaving and adds the one starting at entering
+     */
+    private static void slide(final int[] src, final int leaving, final int entering, final int[] dst) {
+        for (int b = 0; b < dst.length; b++) {
+            dst[b] += src[entering + b] - src[leaving + b];
+        }
+    }
+}
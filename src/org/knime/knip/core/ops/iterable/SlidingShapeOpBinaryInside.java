@@ -1,6 +1,7 @@
 package org.knime.knip.core.ops.iterable;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
@@ -14,24 +15,49 @@ import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.Type;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.ops.iterator.SigmaFilter;
+
 public class SlidingShapeOpBinaryInside<T extends Type<T>, V extends Type<V>, IN extends RandomAccessibleInterval<T>, OUT extends IterableInterval<V>>
         extends SlidingShapeOp<T, V, IN, OUT> {
 
     private BinaryOperation<Iterator<T>, T, V> m_op;
 
+    private final ExecutorService m_executor;
+
     public SlidingShapeOpBinaryInside(final Shape neighborhood, final BinaryOperation<Iterator<T>, T, V> op,
                                       final OutOfBoundsFactory<T, IN> outofbounds) {
+        this(neighborhood, op, outofbounds, null);
+    }
+
+    /**
+     * @param neighborhood
+     * @param op
+     * @param outofbounds
+     * @param executor to distribute the rows if the operation is computed by {@link SlidingNeighborhoodKernelOp}, may
+     *            be <code>null</code>
+     */
+    public SlidingShapeOpBinaryInside(final Shape neighborhood, final BinaryOperation<Iterator<T>, T, V> op,
+                                      final OutOfBoundsFactory<T, IN> outofbounds, final ExecutorService executor) {
         super(neighborhood, outofbounds);
         this.m_op = op;
+        m_executor = executor;
     }
 
     @Override
     public UnaryOperation<IN, OUT> copy() {
-        return new SlidingShapeOpBinaryInside<T, V, IN, OUT>(m_shape, m_op != null ? m_op.copy() : null, m_outOfBounds);
+        return new SlidingShapeOpBinaryInside<T, V, IN, OUT>(m_shape, m_op != null ? m_op.copy() : null, m_outOfBounds,
+                m_executor);
     }
 
+    @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     protected OUT compute(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input, final OUT output) {
+        // operations with a kernel are evaluated row by row on a primitive buffer
+        if (m_op instanceof SigmaFilter) {
+            return (OUT)new SlidingNeighborhoodKernelOp(m_shape, ((SigmaFilter)m_op).kernel(), m_outOfBounds, m_executor)
+                    .compute((IterableInterval)neighborhoods, (RandomAccessibleInterval)input,
+                             (IterableInterval)output);
+        }
 
         final Cursor<T> inCursor = Views.iterable(SubsetOperations.subsetview(input, input)).cursor();
         final Cursor<V> outCursor = output.cursor();
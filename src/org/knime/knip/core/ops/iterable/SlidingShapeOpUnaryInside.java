@@ -1,13 +1,18 @@
 package org.knime.knip.core.ops.iterable;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
 import net.imglib2.algorithm.region.localneighborhood.Shape;
 import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.ops.operation.iterable.unary.Max;
+import net.imglib2.ops.operation.iterable.unary.MedianOp;
+import net.imglib2.ops.operation.iterable.unary.Min;
 import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.Type;
 
@@ -16,14 +21,44 @@ public class SlidingShapeOpUnaryInside<T extends Type<T>, V extends Type<V>, IN
 
     private UnaryOperation<Iterator<T>, V> m_op;
 
+    private final ExecutorService m_executor;
+
     public SlidingShapeOpUnaryInside(final Shape neighborhood, final UnaryOperation<Iterator<T>, V> op,
                                      final OutOfBoundsFactory<T, IN> outofbounds) {
+        this(neighborhood, op, outofbounds, null);
+    }
+
+    /**
+     * @param neighborhood
+     * @param op
+     * @param outofbounds
+     * @param executor to distribute the rows if the operation is computed by {@link SlidingRectangleMinMaxOp} or
+     *            {@link SlidingRectanglePercentileOp}, may be <code>null</code>
+     */
+    public SlidingShapeOpUnaryInside(final Shape neighborhood, final UnaryOperation<Iterator<T>, V> op,
+                                     final OutOfBoundsFactory<T, IN> outofbounds, final ExecutorService executor) {
         super(neighborhood, outofbounds);
         this.m_op = op;
+        m_executor = executor;
     }
 
+    @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     protected OUT compute(final IterableInterval<Neighborhood<T>> neighborhoods, final IN input, final OUT output) {
+        // minimum, maximum and median within rectangles don't depend on the size of the rectangle
+        if ((m_shape instanceof RectangleShape) && ((m_op instanceof Min) || (m_op instanceof Max))) {
+            final SlidingRectangleMinMaxOp.Mode mode =
+                    m_op instanceof Min ? SlidingRectangleMinMaxOp.Mode.MIN : SlidingRectangleMinMaxOp.Mode.MAX;
+            return (OUT)new SlidingRectangleMinMaxOp((RectangleShape)m_shape, mode, m_outOfBounds, m_executor)
+                    .compute((IterableInterval)neighborhoods, (RandomAccessibleInterval)input,
+                             (IterableInterval)output);
+        }
+        if ((m_shape instanceof RectangleShape) && (m_op instanceof MedianOp)) {
+            return (OUT)new SlidingRectanglePercentileOp((RectangleShape)m_shape, 0.5, m_outOfBounds, m_executor)
+                    .compute((IterableInterval)neighborhoods, (RandomAccessibleInterval)input,
+                             (IterableInterval)output);
+        }
+
         final Cursor<V> outCursor = output.cursor();
         for (final Neighborhood<T> neighborhood : neighborhoods) {
             m_op.compute(neighborhood.cursor(), outCursor.next());
@@ -38,7 +73,8 @@ public class SlidingShapeOpUnaryInside<T extends Type<T>, V extends Type<V>, IN
 
     @Override
     public UnaryOperation<IN, OUT> copy() {
-        return new SlidingShapeOpUnaryInside<T, V, IN, OUT>(m_shape, m_op != null ? m_op.copy() : null, m_outOfBounds);
+        return new SlidingShapeOpUnaryInside<T, V, IN, OUT>(m_shape, m_op != null ? m_op.copy() : null, m_outOfBounds,
+                m_executor);
     }
 
 }
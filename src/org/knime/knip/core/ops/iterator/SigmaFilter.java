@@ -76,6 +76,13 @@ public class SigmaFilter<T extends RealType<T>, V extends RealType<V>, TYPE exte
 
     }
 
+    /**
+     * @return this filter as kernel computing whole rows of neighborhoods at once
+     */
+    public SigmaFilterKernel kernel() {
+        return new SigmaFilterKernel(m_sigma, m_sigmaFactor, m_pixelFraction, m_outlierDetection);
+    }
+
     @Override
     public BinaryOperation<TYPE, T, V> copy() {
         return new SigmaFilter<T, V, TYPE>(m_sigma, m_sigmaFactor, m_pixelFraction, m_outlierDetection);
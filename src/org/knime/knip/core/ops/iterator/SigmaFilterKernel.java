@@ -0,0 +1,110 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterator;
+
+import org.knime.knip.core.ops.iterable.NeighborhoodKernel;
+
+/**
+ * The {@link SigmaFilter} as {@link NeighborhoodKernel}, computing the same results on a whole row of neighborhoods.
+ *
+ * @author wilderm, University of Konstanz
+ */
+public class SigmaFilterKernel implements NeighborhoodKernel {
+
+    private final double m_sigmaMultiplied;
+
+    private final double m_pixelFraction;
+
+    private final boolean m_outlierDetection;
+
+    /**
+     * @param sigma
+     * @param sigmaFactor
+     * @param pixelFraction
+     * @param outlierDetection
+     */
+    public SigmaFilterKernel(final double sigma, final double sigmaFactor, final double pixelFraction,
+                             final boolean outlierDetection) {
+        m_sigmaMultiplied = sigmaFactor * sigma;
+        m_pixelFraction = pixelFraction;
+        m_outlierDetection = outlierDetection;
+    }
+
+    @Override
+    public void compute(final double[] window, final int[] offsets, final int center, final double[] res) {
+        final int ctrAll = offsets.length;
+        final int minPixels = (int)Math.floor(ctrAll * m_pixelFraction);
+
+        for (int x = 0; x < res.length; x++) {
+            final int c = center + x;
+            final double centerValue = window[c];
+            final double lower = centerValue - m_sigmaMultiplied;
+            final double upper = centerValue + m_sigmaMultiplied;
+
+            double sumAll = 0;
+            double sumInRange = 0;
+            int ctrInRange = 0;
+            for (int j = 0; j < ctrAll; j++) {
+                final double pixel = window[c + offsets[j]];
+                sumAll += pixel;
+                if ((lower < pixel) && (pixel < upper)) {
+                    sumInRange += pixel;
+                    ctrInRange++;
+                }
+            }
+
+            if (ctrInRange >= minPixels) {
+                res[x] = sumInRange / ctrInRange;
+            } else if (m_outlierDetection) {
+                res[x] = (sumAll - centerValue) / (ctrAll - 1);
+            } else {
+                res[x] = sumAll / ctrAll;
+            }
+        }
+    }
+}
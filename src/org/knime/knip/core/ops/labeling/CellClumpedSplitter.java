@@ -64,11 +64,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
 
 import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.converter.Converter;
-import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgPlus;
 import net.imglib2.img.array.ArrayImgFactory;
@@ -77,22 +73,21 @@ import net.imglib2.labeling.Labeling;
 import net.imglib2.labeling.LabelingType;
 import net.imglib2.labeling.NativeImgLabeling;
 import net.imglib2.ops.operation.UnaryOperation;
-import net.imglib2.ops.operation.iterableinterval.unary.Centroid;
-import net.imglib2.ops.operation.randomaccessibleinterval.unary.DistanceMap;
 import net.imglib2.ops.operation.randomaccessibleinterval.unary.LocalMaximaForDistanceMap;
 import net.imglib2.ops.operation.randomaccessibleinterval.unary.LocalMaximaForDistanceMap.NeighborhoodType;
 import net.imglib2.ops.operation.randomaccessibleinterval.unary.regiongrowing.AbstractRegionGrowing;
 import net.imglib2.ops.operation.randomaccessibleinterval.unary.regiongrowing.CCA;
 import net.imglib2.roi.IterableRegionOfInterest;
-import net.imglib2.sampler.special.ConstantRandomAccessible;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
 
+import org.knime.knip.core.algorithm.FlatDistanceTransform;
 import org.knime.knip.core.algorithm.extendedem.AttributeTmp;
 import org.knime.knip.core.algorithm.extendedem.ExtendedEM;
 import org.knime.knip.core.algorithm.extendedem.InstanceTmp;
 import org.knime.knip.core.algorithm.extendedem.InstancesTmp;
+import org.knime.knip.core.data.labeling.LabelStatistics;
 import org.knime.knip.core.ops.bittype.PositionsToBitTypeImage;
 
 /**
@@ -100,6 +95,9 @@ import org.knime.knip.core.ops.bittype.PositionsToBitTypeImage;
  * final CellClumpedSplitter<T, L> op = new CellClumpedSplitter<T, L>(NeighborhoodType.SIXTEEN, m_executor, ...);<br>
  * m_executor.shutdown();<br>
  * </code>
+ * <p>
+ * The distance map of the labeling is computed in one flat array (in pixel units), hence the labeling must not have
+ * more than {@link Integer#MAX_VALUE} pixels (see {@link FlatDistanceTransform#fits(net.imglib2.Interval)}).
  * 
  * @author metznerj, University of Konstanz
  */
@@ -119,10 +117,6 @@ public class CellClumpedSplitter<L extends Comparable<L>> implements UnaryOperat
 
     private final int m_maxInterations;
 
-    private final Converter<LabelingType<L>, BitType> m_converter;
-
-    private final DistanceMap<BitType, RandomAccessibleInterval<BitType>, Img<FloatType>> m_distanceMap;
-
     /**
      * @param neighborhood
      * @param executor
@@ -140,15 +134,6 @@ public class CellClumpedSplitter<L extends Comparable<L>> implements UnaryOperat
         m_neighborhood = neighborhood;
         m_localMaximaOp = new LocalMaximaForDistanceMap<FloatType, Img<FloatType>>(neighborhood);
 
-        m_converter = new Converter<LabelingType<L>, BitType>() {
-
-            @Override
-            public void convert(final LabelingType<L> input, final BitType output) {
-                output.set(!input.getLabeling().isEmpty());
-
-            }
-        };
-        m_distanceMap = new DistanceMap<BitType, RandomAccessibleInterval<BitType>, Img<FloatType>>();
         m_executor = executor;
         m_minMaximaSize = minMaximaSize;
         m_maxInterations = maxInterations;
@@ -171,6 +156,11 @@ public class CellClumpedSplitter<L extends Comparable<L>> implements UnaryOperat
      */
     private Integer m_label = 0;
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalArgumentException if the labeling does not fit into one array
+     */
     @Override
     public Labeling<Integer> compute(final Labeling<L> cellLabeling, final Labeling<Integer> res) {
 
@@ -185,17 +175,17 @@ public class CellClumpedSplitter<L extends Comparable<L>> implements UnaryOperat
             throw new IllegalArgumentException("Two dimensions have to be selected.");
         }
 
-        final RandomAccessibleInterval<BitType> bitMask =
-                new ConvertedRandomAccessibleInterval<LabelingType<L>, BitType>(cellLabeling, m_converter,
-                        new BitType());
-
         /*
          * label queue
          */
         final Queue<L> cellsQueue = new LinkedList<L>(cellLabeling.getLabels());
 
-        final Img<FloatType> distanceMap =
-                m_distanceMap.compute(bitMask, new ArrayImgFactory<FloatType>().create(bitMask, new FloatType()));
+        /*
+         * distance of the labeled pixels to the background, in pixels as the minimal maxima size
+         */
+        final FlatDistanceTransform distanceTransform = new FlatDistanceTransform(cellLabeling, null, m_executor);
+        final Img<FloatType> distanceMap = new ArrayImgFactory<FloatType>().create(cellLabeling, new FloatType());
+        distanceTransform.write(distanceTransform.distances(distanceTransform.readMask(cellLabeling)), distanceMap);
 
         /*
          * compute centroids for m prediction
@@ -214,13 +204,13 @@ public class CellClumpedSplitter<L extends Comparable<L>> implements UnaryOperat
                 .numDimensions()), new BitType()).compute(maxima, lab);
 
         final Collection<Integer> labels = lab.firstElement().getMapping().getLabels();
+        final LabelStatistics<Integer> stats = new LabelStatistics<Integer>(lab);
         final ArrayList<long[]> centroidsList = new ArrayList<long[]>();
         for (final Integer i : labels) {
-            final IterableInterval<BitType> ii =
-                    lab.getIterableRegionOfInterest(i)
-                            .getIterableIntervalOverROI(new ConstantRandomAccessible<BitType>(new BitType(), lab
-                                                                .numDimensions()));
-            final double[] centroidD = new Centroid().compute(ii, new double[ii.numDimensions()]);
+            if (!stats.contains(i)) {
+                continue;
+            }
+            final double[] centroidD = stats.centroid(i);
 
             final long[] centroidL = new long[numDim];
             for (int d = 0; d < numDim; ++d) {
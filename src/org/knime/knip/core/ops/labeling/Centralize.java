@@ -4,18 +4,17 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import net.imglib2.Interval;
-import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.labeling.Labeling;
 import net.imglib2.labeling.LabelingType;
 import net.imglib2.ops.operation.BinaryObjectFactory;
 import net.imglib2.ops.operation.BinaryOutputOperation;
-import net.imglib2.ops.operation.iterableinterval.unary.Centroid;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
 import org.knime.knip.core.algorithm.PolarImageFactory;
+import org.knime.knip.core.data.labeling.LabelStatistics;
 import org.knime.knip.core.ui.imgviewer.events.RulebasedLabelFilter;
 
 public class Centralize<T extends RealType<T>, L extends Comparable<L>> implements
@@ -46,7 +45,6 @@ public class Centralize<T extends RealType<T>, L extends Comparable<L>> implemen
         final T val = img.firstElement().createVariable();
         val.setReal(val.getMinValue());
 
-        final Centroid centroidOp = new Centroid();
         final CentralizeOnePoint<T> centralizeOnePointOp =
                 new CentralizeOnePoint<T>(new PolarImageFactory<T>(Views.extendMirrorDouble(img)), m_maxIterations,
                         m_radius, m_numAngles);
@@ -56,16 +54,16 @@ public class Centralize<T extends RealType<T>, L extends Comparable<L>> implemen
 
         final long[] posBuffer = new long[resAccess.numDimensions()];
 
+        // the centroids of all labels in one pass
+        final LabelStatistics<L> stats = new LabelStatistics<L>(labeling);
+
         final Collection<L> labels = labeling.getLabels();
         for (final L label : labels) {
-            if (!m_filter.isValid(label)) {
+            if (!m_filter.isValid(label) || !stats.contains(label)) {
                 continue;
             }
 
-            final IterableInterval<T> labelRoi =
-                    labeling.getIterableRegionOfInterest(label).getIterableIntervalOverROI(img);
-
-            final double[] centroid = centroidOp.compute(labelRoi, new double[labelRoi.numDimensions()]);
+            final double[] centroid = stats.centroid(label);
 
             final long[] centroidAsLong = new long[centroid.length];
             for (int d = 0; d < centroid.length; d++) {
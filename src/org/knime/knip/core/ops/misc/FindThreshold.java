@@ -82,38 +82,54 @@ public class FindThreshold<T extends RealType<T>> implements UnaryOperation<Hist
         if (hist.getBinCount()  > Integer.MAX_VALUE) {
             throw new RuntimeException("to many histogram bins can't allocate a big enought array.");
         }
-        m_maxValue = (int)hist.getBinCount() - 1;
-        int bin = 0;
+        final int bin = bin(hist.toLongArray());
+
+        hist.getCenterValue(bin, m_type);
+        r.setReal(m_type.getRealDouble());
+
+        return r;
+    }
+
+    /**
+     * Determines the threshold bin of a histogram. The histogram is not altered, hence the same array can be passed
+     * for several thresholding methods.
+     *
+     * @param data the counts of the histogram bins
+     * @return the bin of the threshold
+     */
+    public int bin(final long[] data) {
+        m_maxValue = data.length - 1;
+        final int bin;
         if (m_ttype == ThresholdingType.HUANG) {
-            bin = Huang(hist.toLongArray());
+            bin = Huang(data);
         } else if (m_ttype == ThresholdingType.INTERMODES) {
-            bin = Intermodes(hist.toLongArray());
+            bin = Intermodes(data);
         } else if (m_ttype == ThresholdingType.ISODATA) {
-            bin = IsoData(hist.toLongArray());
+            bin = IsoData(data);
         } else if (m_ttype == ThresholdingType.LI) {
-            bin = Li(hist.toLongArray());
+            bin = Li(data);
         } else if (m_ttype == ThresholdingType.MAXENTROPY) {
-            bin = MaxEntropy(hist.toLongArray());
+            bin = MaxEntropy(data);
         } else if (m_ttype == ThresholdingType.MEAN) {
-            bin = Mean(hist.toLongArray());
+            bin = Mean(data);
         } else if (m_ttype == ThresholdingType.MINERROR) {
-            bin = MinErrorI(hist.toLongArray());
+            bin = MinErrorI(data);
         } else if (m_ttype == ThresholdingType.MINIMUM) {
-            bin = Minimum(hist.toLongArray());
+            bin = Minimum(data);
         } else if (m_ttype == ThresholdingType.MOMENTS) {
-            bin = Moments(hist.toLongArray());
+            bin = Moments(data);
         } else if (m_ttype == ThresholdingType.OTSU) {
-            bin = Otsu(hist.toLongArray());
+            bin = Otsu(data);
         } else if (m_ttype == ThresholdingType.PERCENTILE) {
-            bin = Percentile(hist.toLongArray());
+            bin = Percentile(data);
         } else if (m_ttype == ThresholdingType.RENYIENTROPY) {
-            bin = RenyiEntropy(hist.toLongArray());
+            bin = RenyiEntropy(data);
         } else if ((m_ttype == ThresholdingType.SHANBAG)) {
-            bin = Shanbhag(hist.toLongArray());
+            bin = Shanbhag(data);
         } else if (m_ttype == ThresholdingType.TRIANGLE) {
-            bin = Triangle(hist.toLongArray());
+            bin = Triangle(data);
         } else if (m_ttype == ThresholdingType.YEN) {
-            bin = Yen(hist.toLongArray());
+            bin = Yen(data);
         } else {
             bin = -Integer.MAX_VALUE;
         }
@@ -122,11 +138,7 @@ public class FindThreshold<T extends RealType<T>> implements UnaryOperation<Hist
             //an error occurred e.g. signaled by returning -1
             throw new RuntimeException("thresholding method " + m_ttype + " failed.");
         }
-
-        hist.getCenterValue(bin, m_type);
-        r.setReal(m_type.getRealDouble());
-
-        return r;
+        return bin;
     }
 
     /**
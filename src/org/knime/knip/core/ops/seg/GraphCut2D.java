@@ -60,15 +60,15 @@ import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.ops.img.UnaryObjectFactory;
-import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.SubsetOperations;
 import net.imglib2.ops.operation.UnaryOutputOperation;
-import net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.IntervalIndexer;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.algorithm.IntegerHistogramBuilder;
+
 /**
  * GraphCut. The values of sink and source are specified directly.
  *
@@ -158,7 +158,7 @@ public class GraphCut2D<T extends RealType<T>, I extends RandomAccessibleInterva
         src.min(min);
         src.max(max);
 
-        final MakeHistogram<T> hist = new MakeHistogram<T>();
+        final IntegerHistogramBuilder hist = new IntegerHistogramBuilder();
 
         for (int i = 0; i < numFeat; i++) {
 
@@ -168,13 +168,11 @@ public class GraphCut2D<T extends RealType<T>, I extends RandomAccessibleInterva
                 max[m_dimFeat] = i;
 
                 bins =
-                        Operations
-                                .compute(hist,
-                                         Views.iterable(SubsetOperations.subsetview(src, new FinalInterval(min, max))))
-                                .toLongArray();
+                        hist.histogram(Views.iterable(SubsetOperations.subsetview(src, new FinalInterval(min, max))),
+                                       IntegerHistogramBuilder.DEFAULT_BINS);
             } else {
 
-                bins = hist.compute(Views.iterable(src), hist.bufferFactory().instantiate(Views.iterable(src))).toLongArray();
+                bins = hist.histogram(Views.iterable(src), IntegerHistogramBuilder.DEFAULT_BINS);
             }
 
             long noPixels = 0;
@@ -65,13 +65,13 @@ import net.imglib2.labeling.Labeling;
 import net.imglib2.ops.operation.BinaryObjectFactory;
 import net.imglib2.ops.operation.BinaryOutputOperation;
 import net.imglib2.ops.operation.SubsetOperations;
-import net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram;
-import net.imglib2.ops.operation.subset.views.ImgView;
 import net.imglib2.sampler.special.ConstantRandomAccessible;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
 
+import org.knime.knip.core.algorithm.IntegerHistogramBuilder;
 import org.knime.knip.core.ui.imgviewer.events.RulebasedLabelFilter;
 
 /**
@@ -240,7 +240,7 @@ public class GraphCut2DLab<T extends RealType<T>, L extends Comparable<L>> imple
         final long[] max = new long[src.numDimensions()];
         src.min(min);
         src.max(max);
-        final MakeHistogram<T> histOp = new MakeHistogram<T>();
+        final IntegerHistogramBuilder histOp = new IntegerHistogramBuilder();
 
         for (int i = 0; i < numFeat; i++) {
 
@@ -248,11 +248,11 @@ public class GraphCut2DLab<T extends RealType<T>, L extends Comparable<L>> imple
             if (m_dimFeat != -1) {
                 min[m_dimFeat] = i;
                 max[m_dimFeat] = i;
-                final ImgView<T> subImg =
-                        new ImgView<T>(SubsetOperations.subsetview(src, new FinalInterval(min, max)), src.factory());
-                bins = histOp.compute(subImg, histOp.bufferFactory().instantiate(subImg)).toLongArray();
+                bins =
+                        histOp.histogram(Views.iterable(SubsetOperations.subsetview(src, new FinalInterval(min, max))),
+                                         IntegerHistogramBuilder.DEFAULT_BINS);
             } else {
-                bins = histOp.compute(src, histOp.bufferFactory().instantiate(src)).toLongArray();
+                bins = histOp.histogram(src, IntegerHistogramBuilder.DEFAULT_BINS);
             }
 
             long noPixels = 0;
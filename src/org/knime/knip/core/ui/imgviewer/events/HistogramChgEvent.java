@@ -62,19 +62,30 @@ public class HistogramChgEvent implements KNIPEvent {
 
     private final Histogram1d m_histogram;
 
+    private final long[] m_bins;
+
     /**
      * @param histogram
      */
     public HistogramChgEvent(final Histogram1d histogram) {
         m_histogram = histogram;
+        m_bins = null;
+    }
 
+    /**
+     * @param histogram the bin counts, e.g. as computed by
+     *            {@link org.knime.knip.core.algorithm.HistogramNormalizer.Statistics#histogram()}
+     */
+    public HistogramChgEvent(final long[] histogram) {
+        m_histogram = null;
+        m_bins = histogram;
     }
 
     /**
      * @return the histogram
      */
     public long[] getHistogram() {
-        return m_histogram.toLongArray();
+        return m_bins != null ? m_bins : m_histogram.toLongArray();
     }
 
     @Override
@@ -5,13 +5,11 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
-import net.imglib2.histogram.Histogram1d;
-import net.imglib2.ops.operation.Operations;
 import net.imglib2.ops.operation.SubsetOperations;
-import net.imglib2.ops.operation.iterableinterval.unary.MakeHistogram;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
+import org.knime.knip.core.algorithm.IntegerHistogramBuilder;
 import org.knime.knip.core.awt.AWTImageTools;
 import org.knime.knip.core.ui.imgviewer.events.HistogramChgEvent;
 
@@ -37,11 +35,11 @@ public class HistogramBufferedImageProvider<T extends RealType<T>> extends AWTIm
 
     @Override
     protected Image createImage() {
-        final Histogram1d<T> hist =
-                Operations.compute(new MakeHistogram<T>(),
-                                   Views.iterable(SubsetOperations.subsetview(m_src, m_sel.getInterval(m_src))));
+        final long[] hist =
+                new IntegerHistogramBuilder().histogram(Views.iterable(SubsetOperations.subsetview(m_src, m_sel
+                        .getInterval(m_src))), IntegerHistogramBuilder.DEFAULT_BINS);
         m_eventService.publish(new HistogramChgEvent(hist));
-        return AWTImageTools.drawHistogram(hist.toLongArray(), m_histHeight);
+        return AWTImageTools.drawHistogram(hist, m_histHeight);
 
     }
 
@@ -1,10 +1,11 @@
 package org.knime.knip.core.util;
 
+import java.util.concurrent.ExecutorService;
+
 import net.imglib2.IterableInterval;
-import net.imglib2.ops.operation.Operations;
-import net.imglib2.ops.operation.iterableinterval.unary.MinMax;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.ValuePair;
+
+import org.knime.knip.core.algorithm.HistogramNormalizer;
 
 public class NormalizationUtils {
 
@@ -16,15 +17,26 @@ public class NormalizationUtils {
      * @param saturation the percentage of pixels in the lower and upper domain to be ignored in the normalization
      * @return with the normalization factor at position 0, minimum of the image at position 1
      */
-    public static synchronized <T extends RealType<T>, I extends IterableInterval<T>> double[]
+    public static <T extends RealType<T>, I extends IterableInterval<T>> double[]
             getNormalizationProperties(final I interval, final double saturation) {
+        return getNormalizationProperties(interval, saturation, null);
+    }
 
-        final T type = interval.firstElement().createVariable();
-        final MinMax<T> minMax = new MinMax<T>(saturation, type);
+    /**
+     * Determines the minimum and factory for scaling according to the given saturation. The histogram is computed in
+     * parallel using the given executor.
+     * 
+     * @param <T>
+     * @param interval
+     * @param saturation the percentage of pixels in the lower and upper domain to be ignored in the normalization
+     * @param executor may be <code>null</code>
+     * @return with the normalization factor at position 0, minimum of the image at position 1
+     */
+    public static <T extends RealType<T>, I extends IterableInterval<T>> double[]
+            getNormalizationProperties(final I interval, final double saturation, final ExecutorService executor) {
 
-        final ValuePair<T, T> ValuePair = Operations.compute(minMax, interval);
-        return new double[]{
-                (1 / (ValuePair.b.getRealDouble() - ValuePair.a.getRealDouble()))
-                        * (type.getMaxValue() - type.getMinValue()), ValuePair.a.getRealDouble()};
+        final T type = interval.firstElement();
+        return new HistogramNormalizer(executor).analyze(interval, saturation)
+                .normalizationProperties(type.getMinValue(), type.getMaxValue());
     }
 }
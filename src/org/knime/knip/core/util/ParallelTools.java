@@ -0,0 +1,173 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * Helpers to distribute independent chunks of work over an (optional) {@link ExecutorService}. If no executor is
+ * given, all tasks are executed one after another in the calling thread.
+ */
+public final class ParallelTools {
+
+    /*
+     * chunks smaller than this are not worth a task of their own
+     */
+    private static final long MIN_CHUNK_SIZE = 4096;
+
+    private ParallelTools() {
+        // utility class
+    }
+
+    /**
+     * @return the number of available processors
+     */
+    public static int numProcessors() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Divides the given number of elements into chunks, at most one per available processor and none smaller than a
+     * few thousand elements (except for the last one).
+     *
+     * @param size the number of elements to distribute
+     * @param executor the executor the chunks will be processed by, may be <code>null</code>
+     * @return the chunks
+     */
+    public static List<Chunk> divideIntoChunks(final long size, final ExecutorService executor) {
+        return divideIntoChunks(size, executor, MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * @param size the number of elements to distribute
+     * @param executor the executor the chunks will be processed by, may be <code>null</code>
+     * @param minChunkSize minimum number of elements per chunk
+     * @return the chunks
+     */
+    public static List<Chunk> divideIntoChunks(final long size, final ExecutorService executor,
+                                               final long minChunkSize) {
+        final int numTasks =
+                executor == null ? 1 : (int)Math.max(1, Math.min(numProcessors(), size / Math.max(1, minChunkSize)));
+        if (numTasks == 1) {
+            final List<Chunk> res = new ArrayList<Chunk>(1);
+            res.add(new Chunk(0, size));
+            return res;
+        }
+        return SimpleMultiThreading.divideIntoChunks(size, numTasks);
+    }
+
+    /**
+     * Executes all tasks and waits for them to finish. The last task is run in the calling thread, the others are
+     * submitted to the executor. Tasks not yet started by the executor when the calling thread gets to them are run in
+     * the calling thread as well. Hence this method may be nested, i.e. called from within a task running on the same
+     * executor, without all threads of a bounded pool waiting for tasks which are never started.
+     *
+     * @param tasks the tasks to be executed
+     * @param executor the executor to run the tasks, if <code>null</code> the tasks are run in the calling thread
+     * @return the results in the order of the tasks
+     */
+    public static <V> List<V> invokeAll(final List<? extends Callable<V>> tasks, final ExecutorService executor) {
+        final List<V> res = new ArrayList<V>(tasks.size());
+        if (tasks.isEmpty()) {
+            return res;
+        }
+        try {
+            if ((executor == null) || (tasks.size() == 1)) {
+                for (final Callable<V> task : tasks) {
+                    res.add(task.call());
+                }
+            } else {
+                final int last = tasks.size() - 1;
+                final List<FutureTask<V>> futures = new ArrayList<FutureTask<V>>(last);
+                for (int i = 0; i < last; i++) {
+                    final FutureTask<V> future = new FutureTask<V>(tasks.get(i));
+                    futures.add(future);
+                    executor.execute(future);
+                }
+                boolean done = false;
+                try {
+                    final V lastResult = tasks.get(last).call();
+                    for (final FutureTask<V> future : futures) {
+                        // no-op if the executor has already started the task
+                        future.run();
+                        res.add(future.get());
+                    }
+                    res.add(lastResult);
+                    done = true;
+                } finally {
+                    if (!done) {
+                        for (final FutureTask<V> future : futures) {
+                            future.cancel(true);
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for parallel tasks.", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.algorithm;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.randomaccessibleinterval.unary.DistanceMap;
+import net.imglib2.ops.util.metadata.CalibratedSpaceImpl;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Compares the distances of {@link FlatDistanceTransform} with the distances to all pixels and with
+ * {@link DistanceMap}.
+ */
+public class FlatDistanceTransformTest extends TestCase {
+
+    private ExecutorService m_executor;
+
+    @Override
+    protected void setUp() {
+        m_executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() {
+        m_executor.shutdown();
+    }
+
+    public void testExactDistances() {
+        final Random rnd = new Random(16);
+        for (int i = 0; i < 40; i++) {
+            final int n = 1 + (i % 3);
+            final int[] dims = new int[n];
+            final long[] longDims = new long[n];
+            final double[] calibration = new double[n];
+            int size = 1;
+            for (int d = 0; d < n; d++) {
+                dims[d] = 1 + rnd.nextInt(n == 3 ? 9 : 20);
+                longDims[d] = dims[d];
+                size *= dims[d];
+                calibration[d] = (i % 2) == 0 ? 1 : 0.3 + (2 * rnd.nextDouble());
+            }
+
+            // regions 1 to 3 and background 0
+            final int[] labels = new int[size];
+            final boolean[] mask = new boolean[size];
+            final double p = rnd.nextDouble();
+            for (int j = 0; j < size; j++) {
+                labels[j] = rnd.nextDouble() < p ? 1 + rnd.nextInt(3) : 0;
+                mask[j] = labels[j] != 0;
+            }
+
+            final FlatDistanceTransform transform =
+                    new FlatDistanceTransform(new FinalInterval(longDims), calibration, (i % 4) < 2 ? m_executor
+                            : null);
+            assertDistances(bruteForce(labels, dims, calibration, false, false), transform.distances(mask));
+            assertDistances(bruteForce(labels, dims, calibration, true, false), transform.signedDistances(mask));
+            assertDistances(bruteForce(labels, dims, calibration, false, true), transform.labelDistances(labels));
+        }
+    }
+
+    public void testSameAsDistanceMap() {
+        final Random rnd = new Random(17);
+        final Img<BitType> img = new ArrayImgFactory<BitType>().create(new long[]{120, 80}, new BitType());
+        for (final BitType b : img) {
+            b.set(rnd.nextDouble() < 0.8);
+        }
+        final Img<FloatType> expected =
+                new DistanceMap<BitType, RandomAccessibleInterval<BitType>, Img<FloatType>>()
+                        .compute(img, new ArrayImgFactory<FloatType>().create(img, new FloatType()));
+
+        final FlatDistanceTransform transform = new FlatDistanceTransform(img, null, m_executor);
+        final Img<FloatType> res = new ArrayImgFactory<FloatType>().create(img, new FloatType());
+        transform.write(transform.distances(transform.readMask(img)), res);
+
+        final Cursor<FloatType> c = res.cursor();
+        for (final FloatType t : expected) {
+            assertEquals(t.get(), c.next().get(), 1e-4);
+        }
+    }
+
+    public void testFits() {
+        assertTrue(FlatDistanceTransform.fits(new FinalInterval(1000, 1000)));
+        assertFalse(FlatDistanceTransform.fits(new FinalInterval(100000, 100000)));
+    }
+
+    public void testCalibration() {
+        assertDistances(new double[]{0.5, 2, 1}, FlatDistanceTransform
+                .calibration(new CalibratedSpaceImpl(new String[]{"X", "Y"}, new double[]{0.5, 2}), 3));
+    }
+
+    private static void assertDistances(final double[] expected, final double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (Double.isInfinite(expected[i])) {
+                assertEquals(expected[i], actual[i]);
+            } else {
+                assertEquals(expected[i], actual[i], 1e-9);
+            }
+        }
+    }
+
+    /*
+     * the distance of each pixel to the nearest pixel of the background (or the foreground for signed distances of
+     * background pixels), or to the nearest pixel not in the same region
+     */
+    private static double[] bruteForce(final int[] labels, final int[] dims, final double[] calibration,
+                                       final boolean signed, final boolean perRegion) {
+        final int size = labels.length;
+        final int[][] pos = new int[size][dims.length];
+        for (int i = 0; i < size; i++) {
+            int tmp = i;
+            for (int d = 0; d < dims.length; d++) {
+                pos[i][d] = tmp % dims[d];
+                tmp /= dims[d];
+            }
+        }
+
+        final double[] res = new double[size];
+        for (int i = 0; i < size; i++) {
+            final boolean foreground = labels[i] != 0;
+            if (!foreground && (perRegion || !signed)) {
+                continue;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < size; j++) {
+                final boolean other = perRegion ? labels[j] != labels[i] : (labels[j] != 0) != foreground;
+                if (other) {
+                    double dist = 0;
+                    for (int d = 0; d < dims.length; d++) {
+                        final double delta = (pos[i][d] - pos[j][d]) * calibration[d];
+                        dist += delta * delta;
+                    }
+                    min = Math.min(min, dist);
+                }
+            }
+            res[i] = foreground ? Math.sqrt(min) : -Math.sqrt(min);
+        }
+        return res;
+    }
+}
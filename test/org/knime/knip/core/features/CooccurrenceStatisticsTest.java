@@ -0,0 +1,154 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.data.CooccurrenceMatrix;
+import net.imglib2.ops.data.CooccurrenceMatrix.MatrixOrientation;
+import net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix;
+import net.imglib2.ops.operation.iterableinterval.unary.MakeCooccurrenceMatrix.HaralickFeature;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+/**
+ * Compares the co-occurrences and Haralick features of {@link CooccurrenceStatistics} with the ones of
+ * {@link MakeCooccurrenceMatrix}.
+ */
+public class CooccurrenceStatisticsTest extends TestCase {
+
+    private static final int[] GRAY_LEVELS = {8, 32, 100};
+
+    public void testSameAsMakeCooccurrenceMatrix() {
+        final Random rnd = new Random(7);
+        final BitSet allFeatures = new BitSet();
+        allFeatures.set(0, HaralickFeature.values().length);
+        for (int i = 0; i < 20; i++) {
+            final Img<UnsignedByteType> img = randomImg(rnd);
+            final int nrGrayLevels = GRAY_LEVELS[i % GRAY_LEVELS.length];
+            final int distance = 1 + (i % 2);
+            final CooccurrenceStatistics stats = new CooccurrenceStatistics(nrGrayLevels, distance);
+            stats.compute(img, 0, 1);
+            assertEquals(MatrixOrientation.values().length, stats.numDirections());
+
+            for (final MatrixOrientation orientation : MatrixOrientation.values()) {
+                final CooccurrenceMatrix matrix = new CooccurrenceMatrix(nrGrayLevels);
+                new MakeCooccurrenceMatrix<UnsignedByteType>(0, 1, distance, nrGrayLevels, orientation, allFeatures)
+                        .compute(img, matrix);
+                final int direction = CooccurrenceStatistics.directionIndex(orientation);
+
+                for (int g1 = 0; g1 < nrGrayLevels; g1++) {
+                    for (int g2 = 0; g2 < nrGrayLevels; g2++) {
+                        assertEquals(matrix.getValueAt(g1, g2), stats.probability(direction, g1, g2), 1e-12);
+                    }
+                }
+                final double[] features = stats.features(direction);
+                for (int f = 0; f < features.length; f++) {
+                    final double expected = matrix.getFeature(f);
+                    assertEquals(HaralickFeature.values()[f].toString(), expected, features[f],
+                                 1e-9 * Math.max(1, Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    public void testSingleDirection() {
+        final Random rnd = new Random(8);
+        final Img<UnsignedByteType> img = randomImg(rnd);
+        final CooccurrenceStatistics all = new CooccurrenceStatistics(16, 1);
+        all.compute(img, 0, 1);
+        final CooccurrenceStatistics single = new CooccurrenceStatistics(16, 1);
+        for (int direction = 0; direction < all.numDirections(); direction++) {
+            single.computeDirection(img, direction, 0, 1);
+            final double[] expected = all.features(direction);
+            final double[] features = single.features(direction);
+            for (int f = 0; f < features.length; f++) {
+                assertEquals(expected[f], features[f], 0);
+            }
+        }
+    }
+
+    public void testTextbookDefinitions() {
+        final Random rnd = new Random(9);
+        final Img<UnsignedByteType> img = randomImg(rnd);
+        final CooccurrenceStatistics stats = new CooccurrenceStatistics(32, 1);
+        stats.compute(img, 0, 1);
+        final CooccurrenceStatistics textbook = new CooccurrenceStatistics(32, 1, true);
+        textbook.compute(img, 0, 1);
+
+        // only the three features with different definitions differ
+        final BitSet differing = new BitSet();
+        differing.set(HaralickFeature.DifferenceVariance.ordinal());
+        differing.set(HaralickFeature.ClusterShade.ordinal());
+        differing.set(HaralickFeature.ClusterProminence.ordinal());
+        for (int direction = 0; direction < stats.numDirections(); direction++) {
+            final double[] expected = stats.features(direction);
+            final double[] features = textbook.features(direction);
+            for (int f = 0; f < features.length; f++) {
+                if (differing.get(f)) {
+                    assertTrue(expected[f] != features[f]);
+                } else {
+                    assertEquals(expected[f], features[f], 0);
+                }
+            }
+        }
+    }
+
+    private static Img<UnsignedByteType> randomImg(final Random rnd) {
+        final Img<UnsignedByteType> img =
+                new ArrayImgFactory<UnsignedByteType>().create(new long[]{10 + rnd.nextInt(30), 10 + rnd.nextInt(30)},
+                                                               new UnsignedByteType());
+        for (final UnsignedByteType t : img) {
+            t.set(rnd.nextInt(256));
+        }
+        return img;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.features;
+
+import java.util.EnumSet;
+
+import junit.framework.TestCase;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+/**
+ * Tests the caching of {@link ObjectCalcAndCache}.
+ */
+public class ObjectCalcAndCacheTest extends TestCase {
+
+    public void testFirstOrderStatisticsFollowPlan() {
+        final Img<UnsignedByteType> img =
+                new ArrayImgFactory<UnsignedByteType>().create(new long[]{3, 3}, new UnsignedByteType());
+        int v = 0;
+        for (final UnsignedByteType t : img) {
+            t.set(v++);
+        }
+        final ObjectCalcAndCache cache = new ObjectCalcAndCache();
+        cache.planIntermediates(EnumSet.noneOf(Intermediate.class));
+        cache.firstOrderStatistics(img);
+
+        // statistics cached without values and positions must not be returned once they are required
+        cache.planIntermediates(EnumSet.of(Intermediate.SORTED_VALUES, Intermediate.POSITIONS));
+        final FirstOrderStatistics stats = cache.firstOrderStatistics(img);
+        assertEquals(4.0, stats.median(), 0);
+        assertEquals(2, stats.weightedCentroid().length);
+        assertSame(stats, cache.firstOrderStatistics(img));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.img;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+import org.knime.knip.core.algorithm.types.LocalThresholderType;
+
+/**
+ * Compares the masks of {@link LocalThreshold} on cell images (box sums streamed tile by tile), array images (flat
+ * integral images) and images with a non-zero minimum, and the MEAN method with the means of the windows.
+ */
+public class LocalThresholdTest extends TestCase {
+
+    private static final OutOfBoundsMirrorFactory<UnsignedByteType, RandomAccessibleInterval<UnsignedByteType>>
+            OUT_OF_BOUNDS = new OutOfBoundsMirrorFactory<UnsignedByteType, RandomAccessibleInterval<UnsignedByteType>>(
+                    Boundary.DOUBLE);
+
+    private ExecutorService m_executor;
+
+    @Override
+    protected void setUp() {
+        m_executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() {
+        m_executor.shutdown();
+    }
+
+    public void testSameMasksForAllImages() {
+        final Random rnd = new Random(20);
+        for (int i = 0; i < 9; i++) {
+            final long[] dims = new long[1 + (i % 3)];
+            for (int d = 0; d < dims.length; d++) {
+                dims[d] = 2 + rnd.nextInt(dims.length == 1 ? 60 : 14);
+            }
+            final Img<UnsignedByteType> array =
+                    new ArrayImgFactory<UnsignedByteType>().create(dims, new UnsignedByteType());
+            final Img<UnsignedByteType> cells =
+                    new CellImgFactory<UnsignedByteType>(1 + rnd.nextInt(5)).create(dims, new UnsignedByteType());
+            final Cursor<UnsignedByteType> cellCursor = Views.flatIterable(cells).cursor();
+            for (final UnsignedByteType t : array) {
+                t.set(rnd.nextInt(256));
+                cellCursor.next().set(t);
+            }
+            final long[] offset = new long[dims.length];
+            for (int d = 0; d < dims.length; d++) {
+                offset[d] = rnd.nextInt(21) - 10;
+            }
+            final RandomAccessibleInterval<UnsignedByteType> translated = Views.translate(array, offset);
+
+            final int span = 1 + rnd.nextInt(3);
+            for (final LocalThresholderType type : LocalThresholderType.values()) {
+                if (type == LocalThresholderType.SIMNACHER) {
+                    continue;
+                }
+                final Img<BitType> expected = threshold(type, span, array, null);
+                assertEquals(type.toString(), expected, threshold(type, span, cells, m_executor));
+                assertEquals(type.toString(), expected, threshold(type, span, translated, m_executor));
+            }
+        }
+    }
+
+    public void testMeanOfWindow() {
+        final Random rnd = new Random(21);
+        final Img<UnsignedByteType> img =
+                new CellImgFactory<UnsignedByteType>(5).create(new long[]{17, 13}, new UnsignedByteType());
+        for (final UnsignedByteType t : img) {
+            t.set(rnd.nextInt(256));
+        }
+        final int span = 2;
+        final double c = 3;
+        final Img<BitType> res = threshold(LocalThresholderType.MEAN, span, img, m_executor);
+
+        final Cursor<UnsignedByteType> in = Views.flatIterable(img).cursor();
+        final Cursor<BitType> out = res.cursor();
+        for (final Neighborhood<UnsignedByteType> window : new RectangleShape(span, false).neighborhoods(Views
+                .interval(Views.extend(img, OUT_OF_BOUNDS), img))) {
+            double sum = 0;
+            for (final UnsignedByteType t : window) {
+                sum += t.getRealDouble();
+            }
+            assertEquals(in.next().getRealDouble() > ((sum / window.size()) - c), out.next().get());
+        }
+    }
+
+    private static Img<BitType> threshold(final LocalThresholderType type, final int span,
+                                          final RandomAccessibleInterval<UnsignedByteType> input,
+                                          final ExecutorService executor) {
+        final Img<BitType> res = new ArrayImgFactory<BitType>().create(input, new BitType());
+        new LocalThreshold<UnsignedByteType, RandomAccessibleInterval<UnsignedByteType>, Img<BitType>>(type, span,
+                0.2, 3, 128, OUT_OF_BOUNDS, executor).compute(input, res);
+        return res;
+    }
+
+    private static void assertEquals(final String message, final Img<BitType> expected, final Img<BitType> actual) {
+        final Cursor<BitType> c = actual.cursor();
+        for (final BitType b : expected) {
+            assertEquals(message, b.get(), c.next().get());
+        }
+    }
+}
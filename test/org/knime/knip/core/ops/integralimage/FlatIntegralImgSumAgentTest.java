@@ -0,0 +1,144 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.Operations;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Compares the box sums of {@link FlatIntegralImgSumAgent} with the ones of {@link IntegralImgSumAgent}.
+ */
+public class FlatIntegralImgSumAgentTest extends TestCase {
+
+    public void testIntegerBoxSums() {
+        final Random rnd = new Random(4);
+        for (int i = 0; i < 30; i++) {
+            final Img<IntType> img = FlatIntegralImgTest.randomIntImg(rnd, (i % 2) == 0);
+            final FlatIntegralImg ii = new FlatIntegralImg(img, true, true, null);
+            ii.compute(img);
+            final RandomAccessibleInterval<DoubleType> reference =
+                    Operations.compute(new IntegralImgND<IntType, DoubleType>(new ArrayImgFactory<DoubleType>(),
+                            new DoubleType()), img);
+            assertBoxSums(rnd, ii, new IntegralImgSumAgent<DoubleType>(reference), 0);
+        }
+    }
+
+    public void testRealBoxSums() {
+        final Random rnd = new Random(5);
+        for (int i = 0; i < 30; i++) {
+            final Img<FloatType> img =
+                    new ArrayImgFactory<FloatType>().create(FlatIntegralImgTest.randomDims(rnd), new FloatType());
+            for (final FloatType t : img) {
+                t.set(rnd.nextFloat() - 0.5f);
+            }
+            final FlatIntegralImg ii = new FlatIntegralImg(img, false, true, null);
+            ii.compute(img);
+            final RandomAccessibleInterval<DoubleType> reference =
+                    Operations.compute(new IntegralImgND<FloatType, DoubleType>(new ArrayImgFactory<DoubleType>(),
+                            new DoubleType()), img);
+            assertBoxSums(rnd, ii, new IntegralImgSumAgent<DoubleType>(reference), 1e-9);
+        }
+    }
+
+    public void testSquaredSums() {
+        final Img<IntType> img = new ArrayImgFactory<IntType>().create(new long[]{5, 4}, new IntType());
+        int v = 0;
+        for (final IntType t : img) {
+            t.set(v++);
+        }
+        final FlatIntegralImg ii = new FlatIntegralImg(img, true, true, null);
+        ii.compute(img);
+        final FlatIntegralImgSumAgent agent = new FlatIntegralImgSumAgent(ii, 2, 2);
+
+        // the box of 6, 7, 11 and 12
+        final int index = agent.index(new long[]{1, 1});
+        assertEquals(36.0, agent.getSum(index), 0);
+        assertEquals((6 * 6) + (7 * 7) + (11 * 11) + (12 * 12), agent.getSquaredSum(index), 0);
+    }
+
+    /*
+     * compares the sums of random boxes, box by box and row by row
+     */
+    private static void assertBoxSums(final Random rnd, final FlatIntegralImg ii,
+                                      final IntegralImgSumAgent<DoubleType> reference, final double delta) {
+        final int n = ii.numDimensions();
+        final int[] boxSize = new int[n];
+        final long[] leftUpper = new long[n];
+        final long[] rightLower = new long[n];
+        for (int b = 0; b < 20; b++) {
+            for (int d = 0; d < n; d++) {
+                final int dim = ii.dimension(d) - 1;
+                boxSize[d] = 1 + rnd.nextInt(dim);
+                leftUpper[d] = rnd.nextInt((dim - boxSize[d]) + 1);
+                rightLower[d] = (leftUpper[d] + boxSize[d]) - 1;
+            }
+            final FlatIntegralImgSumAgent agent = new FlatIntegralImgSumAgent(ii, boxSize);
+            final double expected = reference.getSum(leftUpper, rightLower);
+            assertEquals(expected, agent.getSum(agent.index(leftUpper)), delta);
+            assertEquals(expected, agent.getSum(leftUpper, rightLower), delta);
+
+            // all boxes of the row starting at the left upper corner
+            final int length = ii.dimension(0) - (int)leftUpper[0] - boxSize[0];
+            final double[] sums = new double[length + 1];
+            agent.getSums(agent.index(leftUpper), length, sums, 1);
+            for (int x = 0; x < length; x++) {
+                assertEquals(reference.getSum(leftUpper, rightLower), sums[x + 1], delta);
+                leftUpper[0]++;
+                rightLower[0]++;
+            }
+        }
+    }
+}
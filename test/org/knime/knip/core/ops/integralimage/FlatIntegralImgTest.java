@@ -0,0 +1,210 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.ops.operation.Operations;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the flat integral images with sums computed pixel by pixel.
+ */
+public class FlatIntegralImgTest extends TestCase {
+
+    private ExecutorService m_executor;
+
+    @Override
+    protected void setUp() {
+        m_executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() {
+        m_executor.shutdown();
+    }
+
+    public void testIntegerSums() {
+        final Random rnd = new Random(1);
+        for (int i = 0; i < 40; i++) {
+            final Img<IntType> img = randomIntImg(rnd, (i % 2) == 0);
+            final FlatIntegralImg ii = new FlatIntegralImg(img, true, true, (i % 3) == 0 ? m_executor : null);
+            ii.compute(img);
+            assertSums(img, ii, 0);
+        }
+    }
+
+    public void testRealSums() {
+        final Random rnd = new Random(2);
+        for (int i = 0; i < 40; i++) {
+            final Img<FloatType> img =
+                    new ArrayImgFactory<FloatType>().create(randomDims(rnd), new FloatType());
+            for (final FloatType t : img) {
+                t.set((rnd.nextFloat() * 10) - 3);
+            }
+            final FlatIntegralImg ii = new FlatIntegralImg(img, false, true, (i % 3) == 0 ? m_executor : null);
+            ii.compute(img);
+            assertSums(img, ii, 1e-3);
+        }
+    }
+
+    public void testIntegralImgND() {
+        final Random rnd = new Random(3);
+        for (int i = 0; i < 20; i++) {
+            final Img<IntType> img = randomIntImg(rnd, (i % 2) == 0);
+            final FlatIntegralImg ii = new FlatIntegralImg(img, true, false, null);
+            ii.compute(img);
+
+            assertEquals(ii, Operations.compute(new IntegralImgND<IntType, LongType>(new ArrayImgFactory<LongType>(),
+                    new LongType(), m_executor), img));
+            assertEquals(ii, Operations.compute(new IntegralImgND<IntType, IntType>(new PlanarImgFactory<IntType>(),
+                    new IntType()), img));
+            assertEquals(ii, Operations.compute(new IntegralImgND<IntType, DoubleType>(
+                    new ArrayImgFactory<DoubleType>(), new DoubleType()), img));
+        }
+    }
+
+    public void testTypeBoundsAreChecked() {
+        final Img<IntType> img = new ArrayImgFactory<IntType>().create(new long[]{4, 4}, new IntType());
+        for (final IntType t : img) {
+            t.set(Integer.MAX_VALUE / 4);
+        }
+        try {
+            Operations.compute(new IntegralImgND<IntType, IntType>(new ArrayImgFactory<IntType>(), new IntType()), img);
+            fail("Overflow of the integral image not detected.");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+    }
+
+    private static void assertEquals(final FlatIntegralImg expected,
+                                     final RandomAccessibleInterval<? extends RealType<?>> actual) {
+        final Cursor<? extends RealType<?>> c = Views.flatIterable(actual).cursor();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), c.next().getRealDouble(), 0);
+        }
+    }
+
+    /*
+     * checks the sums and squared sums of all prefixes of the image and the tracked extrema
+     */
+    private static <T extends RealType<T>> void assertSums(final Img<T> img, final FlatIntegralImg ii,
+                                                           final double delta) {
+        final int n = img.numDimensions();
+        final long[] pos = new long[n];
+        double min = 0;
+        double max = 0;
+        for (int index = 0; index < ii.size(); index++) {
+            int tmp = index;
+            for (int d = 0; d < n; d++) {
+                pos[d] = tmp % ii.dimension(d);
+                tmp /= ii.dimension(d);
+            }
+            final double[] sums = prefixSums(img, pos);
+            assertEquals(sums[0], ii.get(index), delta);
+            assertEquals(sums[1], ii.squaredSums()[index], delta * 10);
+            min = Math.min(min, sums[0]);
+            max = Math.max(max, sums[0]);
+        }
+        assertEquals(min, ii.min(), delta);
+        assertEquals(max, ii.max(), delta);
+    }
+
+    /*
+     * the sum and the squared sum of all pixels at positions smaller than end
+     */
+    private static <T extends RealType<T>> double[] prefixSums(final Img<T> img, final long[] end) {
+        final double[] res = new double[2];
+        final Cursor<T> c = img.localizingCursor();
+        while (c.hasNext()) {
+            final double v = c.next().getRealDouble();
+            boolean inside = true;
+            for (int d = 0; d < end.length; d++) {
+                inside &= c.getLongPosition(d) < end[d];
+            }
+            if (inside) {
+                res[0] += v;
+                res[1] += v * v;
+            }
+        }
+        return res;
+    }
+
+    static long[] randomDims(final Random rnd) {
+        final long[] dims = new long[1 + rnd.nextInt(3)];
+        for (int d = 0; d < dims.length; d++) {
+            dims[d] = 1 + rnd.nextInt(7);
+        }
+        return dims;
+    }
+
+    static Img<IntType> randomIntImg(final Random rnd, final boolean planar) {
+        final long[] dims = randomDims(rnd);
+        final Img<IntType> img =
+                planar ? new PlanarImgFactory<IntType>().create(dims, new IntType()) : new ArrayImgFactory<IntType>()
+                        .create(dims, new IntType());
+        for (final IntType t : img) {
+            t.set(rnd.nextInt(200) - 50);
+        }
+        return img;
+    }
+}
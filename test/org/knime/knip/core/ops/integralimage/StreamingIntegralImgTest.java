@@ -0,0 +1,205 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.integralimage;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the box sums of {@link StreamingIntegralImg} with sums computed pixel by pixel, on cell images and on
+ * images with a non-zero minimum.
+ */
+public class StreamingIntegralImgTest extends TestCase {
+
+    public void testIntegerBoxSums() {
+        final Random rnd = new Random(18);
+        for (int i = 0; i < 40; i++) {
+            final long[] dims = randomDims(rnd, 1 + (i % 3));
+            final Img<IntType> img =
+                    (i % 2) == 0 ? new CellImgFactory<IntType>(1 + rnd.nextInt(6)).create(dims, new IntType())
+                            : new ArrayImgFactory<IntType>().create(dims, new IntType());
+            for (final IntType t : img) {
+                t.set(rnd.nextInt(200) - 50);
+            }
+            assertBoxSums(rnd, translate(rnd, img), true, 0);
+        }
+    }
+
+    public void testRealBoxSums() {
+        final Random rnd = new Random(19);
+        for (int i = 0; i < 40; i++) {
+            final Img<FloatType> img =
+                    new CellImgFactory<FloatType>(1 + rnd.nextInt(6)).create(randomDims(rnd, 1 + (i % 3)),
+                                                                            new FloatType());
+            for (final FloatType t : img) {
+                t.set(rnd.nextFloat() - 0.5f);
+            }
+            assertBoxSums(rnd, translate(rnd, img), false, 1e-4);
+        }
+    }
+
+    public void testCellTiles() {
+        final Img<IntType> img = new CellImgFactory<IntType>(4).create(new long[]{10, 7, 5}, new IntType());
+        final int[] tileSize = StreamingIntegralImg.tileSize(img);
+        assertEquals(4, tileSize[0]);
+        assertEquals(4, tileSize[1]);
+
+        // 3 * 2 tiles spanning the whole last dimension
+        final List<Interval> tiles = StreamingIntegralImg.tiles(img, tileSize);
+        assertEquals(6, tiles.size());
+        long size = 0;
+        for (final Interval tile : tiles) {
+            assertEquals(5, tile.dimension(2));
+            size += tile.dimension(0) * tile.dimension(1) * tile.dimension(2);
+        }
+        assertEquals(10 * 7 * 5, size);
+    }
+
+    /*
+     * sweeps all tiles and checks that each pixel is visited once with the sums of its box
+     */
+    private static <T extends RealType<T>> void assertBoxSums(final Random rnd, final RandomAccessibleInterval<T> img,
+                                                              final boolean integer, final double delta) {
+        final int n = img.numDimensions();
+        final int[] spans = new int[n];
+        for (int d = 0; d < n; d++) {
+            spans[d] = rnd.nextInt(4);
+        }
+        final RandomAccessible<T> extended =
+                Views.extend(img, new OutOfBoundsMirrorFactory<T, RandomAccessibleInterval<T>>(Boundary.DOUBLE));
+        final int[] tileSize = new int[n];
+        for (int d = 0; d < n; d++) {
+            tileSize[d] = 1 + rnd.nextInt(5);
+        }
+        final List<Interval> tiles =
+                StreamingIntegralImg.tiles(img, rnd.nextBoolean() ? StreamingIntegralImg.tileSize(img) : tileSize);
+
+        final Img<IntType> visits = new ArrayImgFactory<IntType>().create(img, new IntType());
+        final RandomAccess<IntType> visitsRA = visits.randomAccess();
+        final RandomAccess<T> ra = extended.randomAccess();
+        for (final Interval tile : tiles) {
+            final StreamingIntegralImg ii = new StreamingIntegralImg(tile, spans, integer, true);
+            final int rowLength = ii.rowLength();
+            ii.sweep(extended, new StreamingIntegralImg.RowConsumer() {
+                @Override
+                public void row(final long[] pos, final double[] sums, final double[] squaredSums) {
+                    assertEquals(rowLength, sums.length);
+                    final long[] p = pos.clone();
+                    for (int x = 0; x < rowLength; x++) {
+                        final double[] expected = boxSums(ra, p, spans);
+                        assertEquals(expected[0], sums[x], delta);
+                        assertEquals(expected[1], squaredSums[x], delta);
+
+                        for (int d = 0; d < n; d++) {
+                            visitsRA.setPosition(p[d] - img.min(d), d);
+                        }
+                        visitsRA.get().inc();
+                        p[0]++;
+                    }
+                }
+            });
+        }
+        for (final IntType v : visits) {
+            assertEquals(1, v.get());
+        }
+    }
+
+    private static <T extends RealType<T>> double[] boxSums(final RandomAccess<T> ra, final long[] center,
+                                                            final int[] spans) {
+        final int n = center.length;
+        final long[] offset = new long[n];
+        long size = 1;
+        for (int d = 0; d < n; d++) {
+            size *= (2 * spans[d]) + 1;
+        }
+        final double[] res = new double[2];
+        for (long i = 0; i < size; i++) {
+            long tmp = i;
+            for (int d = 0; d < n; d++) {
+                offset[d] = (tmp % ((2 * spans[d]) + 1)) - spans[d];
+                tmp /= (2 * spans[d]) + 1;
+                ra.setPosition(center[d] + offset[d], d);
+            }
+            final double v = ra.get().getRealDouble();
+            res[0] += v;
+            res[1] += v * v;
+        }
+        return res;
+    }
+
+    private static long[] randomDims(final Random rnd, final int n) {
+        final long[] dims = new long[n];
+        for (int d = 0; d < n; d++) {
+            dims[d] = 2 + rnd.nextInt(n == 1 ? 30 : 9);
+        }
+        return dims;
+    }
+
+    private static <T extends RealType<T>> RandomAccessibleInterval<T> translate(final Random rnd, final Img<T> img) {
+        final long[] offset = new long[img.numDimensions()];
+        for (int d = 0; d < offset.length; d++) {
+            offset[d] = rnd.nextInt(21) - 10;
+        }
+        return Views.translate(img, offset);
+    }
+}
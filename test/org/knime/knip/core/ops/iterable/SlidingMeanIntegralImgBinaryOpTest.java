@@ -0,0 +1,120 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.BinaryOperation;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the means of {@link SlidingMeanIntegralImgBinaryOp} with the means of the neighborhoods.
+ */
+public class SlidingMeanIntegralImgBinaryOpTest extends TestCase {
+
+    public void testMeans() {
+        final Random rnd = new Random(6);
+        for (int i = 0; i < 20; i++) {
+            // at least two pixels per dimension, the mirror strategy doesn't support single pixels
+            final long[] dims = new long[2 + (i % 2)];
+            for (int d = 0; d < dims.length; d++) {
+                dims[d] = 2 + rnd.nextInt(11);
+            }
+            final Img<UnsignedByteType> img =
+                    new ArrayImgFactory<UnsignedByteType>().create(dims, new UnsignedByteType());
+            for (final UnsignedByteType t : img) {
+                t.set(rnd.nextInt(256));
+            }
+            final int span = 1 + rnd.nextInt(3);
+            final RectangleShape shape = new RectangleShape(span, false);
+            final OutOfBoundsMirrorFactory<UnsignedByteType, Img<UnsignedByteType>> outOfBounds =
+                    new OutOfBoundsMirrorFactory<UnsignedByteType, Img<UnsignedByteType>>(Boundary.SINGLE);
+
+            final Img<DoubleType> means = new ArrayImgFactory<DoubleType>().create(dims, new DoubleType());
+            new SlidingMeanIntegralImgBinaryOp<UnsignedByteType, DoubleType, Img<UnsignedByteType>, Img<DoubleType>>(
+                    new MeanOnly(), shape, span, outOfBounds).compute(img, means);
+
+            final Cursor<DoubleType> c = means.cursor();
+            for (final Neighborhood<UnsignedByteType> neighborhood : shape.neighborhoods(Views.interval(Views
+                    .extend(img, outOfBounds), img))) {
+                double sum = 0;
+                for (final UnsignedByteType t : neighborhood) {
+                    sum += t.getRealDouble();
+                }
+                assertEquals(sum / neighborhood.size(), c.next().get(), 1e-9);
+            }
+        }
+    }
+
+    /*
+     * passes the mean through
+     */
+    private static class MeanOnly implements BinaryOperation<DoubleType, UnsignedByteType, DoubleType> {
+
+        @Override
+        public DoubleType compute(final DoubleType mean, final UnsignedByteType value, final DoubleType output) {
+            output.set(mean.get());
+            return output;
+        }
+
+        @Override
+        public BinaryOperation<DoubleType, UnsignedByteType, DoubleType> copy() {
+            return new MeanOnly();
+        }
+    }
+}
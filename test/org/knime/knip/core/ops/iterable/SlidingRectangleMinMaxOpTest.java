@@ -0,0 +1,156 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.ops.operation.iterable.unary.Max;
+import net.imglib2.ops.operation.iterable.unary.Min;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the rectangle filters of {@link SlidingRectangleMinMaxOp} with the minima and maxima of the neighborhoods.
+ */
+public class SlidingRectangleMinMaxOpTest extends TestCase {
+
+    private final OutOfBoundsMirrorFactory<FloatType, Img<FloatType>> m_outOfBounds =
+            new OutOfBoundsMirrorFactory<FloatType, Img<FloatType>>(Boundary.DOUBLE);
+
+    private ExecutorService m_executor;
+
+    @Override
+    protected void setUp() {
+        m_executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() {
+        m_executor.shutdown();
+    }
+
+    public void testMinMax() {
+        final Random rnd = new Random(10);
+        for (int i = 0; i < 30; i++) {
+            final Img<FloatType> img = randomImg(rnd);
+            final RectangleShape shape = new RectangleShape(1 + rnd.nextInt(4), (i % 5) == 0);
+            final ExecutorService executor = (i % 2) == 0 ? m_executor : null;
+
+            final Img<FloatType> min = img.factory().create(img, new FloatType());
+            new SlidingShapeOpUnaryInside<FloatType, FloatType, Img<FloatType>, Img<FloatType>>(shape,
+                    new Min<FloatType, FloatType>(), m_outOfBounds, executor).compute(img, min);
+            assertEquals(neighborhoodwise(img, shape, new Min<FloatType, FloatType>()), min);
+
+            final Img<FloatType> max = img.factory().create(img, new FloatType());
+            new SlidingShapeOpUnaryInside<FloatType, FloatType, Img<FloatType>, Img<FloatType>>(shape,
+                    new Max<FloatType, FloatType>(), m_outOfBounds, executor).compute(img, max);
+            assertEquals(neighborhoodwise(img, shape, new Max<FloatType, FloatType>()), max);
+        }
+    }
+
+    public void testRange() {
+        final Random rnd = new Random(11);
+        for (int i = 0; i < 10; i++) {
+            final Img<FloatType> img = randomImg(rnd);
+            final RectangleShape shape = new RectangleShape(1 + rnd.nextInt(4), false);
+            final Img<FloatType> range = img.factory().create(img, new FloatType());
+            new SlidingRectangleMinMaxOp<FloatType, FloatType, Img<FloatType>, Img<FloatType>>(shape,
+                    SlidingRectangleMinMaxOp.Mode.RANGE, m_outOfBounds, m_executor).compute(img, range);
+
+            final Img<FloatType> min = neighborhoodwise(img, shape, new Min<FloatType, FloatType>());
+            final Img<FloatType> max = neighborhoodwise(img, shape, new Max<FloatType, FloatType>());
+            final Cursor<FloatType> minCursor = min.cursor();
+            final Cursor<FloatType> maxCursor = max.cursor();
+            for (final FloatType t : range) {
+                assertEquals(maxCursor.next().get() - minCursor.next().get(), t.get(), 0);
+            }
+        }
+    }
+
+    private Img<FloatType> neighborhoodwise(final Img<FloatType> img, final RectangleShape shape,
+                                            final UnaryOperation<Iterator<FloatType>, FloatType> op) {
+        final Img<FloatType> res = img.factory().create(img, new FloatType());
+        final Cursor<FloatType> c = res.cursor();
+        for (final Neighborhood<FloatType> neighborhood : shape.neighborhoods(Views.interval(Views
+                .extend(img, m_outOfBounds), img))) {
+            op.compute(neighborhood.cursor(), c.next());
+        }
+        return res;
+    }
+
+    private static void assertEquals(final Img<FloatType> expected, final Img<FloatType> actual) {
+        final Cursor<FloatType> c = actual.cursor();
+        for (final FloatType t : expected) {
+            assertEquals(t.get(), c.next().get(), 0);
+        }
+    }
+
+    private static Img<FloatType> randomImg(final Random rnd) {
+        final long[] dims = new long[1 + rnd.nextInt(3)];
+        for (int d = 0; d < dims.length; d++) {
+            dims[d] = 1 + rnd.nextInt(dims.length == 1 ? 200 : 20);
+        }
+        final Img<FloatType> img = new ArrayImgFactory<FloatType>().create(dims, new FloatType());
+        for (final FloatType t : img) {
+            t.set(rnd.nextFloat());
+        }
+        return img;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.ops.iterable;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.region.localneighborhood.Neighborhood;
+import net.imglib2.algorithm.region.localneighborhood.RectangleShape;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.operation.iterable.unary.MedianOp;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the rectangle filters of {@link SlidingRectanglePercentileOp} with the ranks of the sorted neighborhoods,
+ * for all three implementations (column histograms, window histogram and sorted windows).
+ */
+public class SlidingRectanglePercentileOpTest extends TestCase {
+
+    private ExecutorService m_executor;
+
+    @Override
+    protected void setUp() {
+        m_executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() {
+        m_executor.shutdown();
+    }
+
+    public void testMedian8Bit() {
+        assertMedian(new UnsignedByteType(), 256, new Random(12));
+    }
+
+    public void testMedian16Bit() {
+        assertMedian(new UnsignedShortType(), 65536, new Random(13));
+    }
+
+    public void testMedianReal() {
+        assertMedian(new FloatType(), 1000, new Random(14));
+    }
+
+    public void testPercentiles() {
+        final Random rnd = new Random(15);
+        final double[] percentiles = {0, 0.1, 0.75, 1};
+        for (int i = 0; i < 12; i++) {
+            final Img<UnsignedByteType> img = randomImg(new UnsignedByteType(), 256, rnd);
+            final RectangleShape shape = new RectangleShape(1 + rnd.nextInt(3), false);
+            final double percentile = percentiles[i % percentiles.length];
+            final OutOfBoundsMirrorFactory<UnsignedByteType, Img<UnsignedByteType>> outOfBounds = outOfBounds();
+
+            final Img<UnsignedByteType> res = img.factory().create(img, new UnsignedByteType());
+            new SlidingRectanglePercentileOp<UnsignedByteType, UnsignedByteType, Img<UnsignedByteType>, Img<UnsignedByteType>>(
+                    shape, percentile, outOfBounds, m_executor).compute(img, res);
+
+            final Cursor<UnsignedByteType> c = res.cursor();
+            for (final Neighborhood<UnsignedByteType> neighborhood : shape.neighborhoods(Views.interval(Views
+                    .extend(img, outOfBounds), img))) {
+                final double[] values = new double[(int)neighborhood.size()];
+                int j = 0;
+                for (final UnsignedByteType t : neighborhood) {
+                    values[j++] = t.getRealDouble();
+                }
+                Arrays.sort(values);
+                final int rank = Math.min(values.length - 1, (int)(percentile * values.length));
+                assertEquals(values[rank], c.next().getRealDouble(), 0);
+            }
+        }
+    }
+
+    /*
+     * the median chosen automatically by SlidingShapeOpUnaryInside compared with MedianOp applied to each
+     * neighborhood
+     */
+    private <T extends RealType<T> & NativeType<T>> void assertMedian(final T type, final int numValues,
+                                                                     final Random rnd) {
+        for (int i = 0; i < 8; i++) {
+            final Img<T> img = randomImg(type, numValues, rnd);
+            final RectangleShape shape = new RectangleShape(1 + rnd.nextInt(4), (i % 4) == 0);
+            final OutOfBoundsMirrorFactory<T, Img<T>> outOfBounds = outOfBounds();
+
+            final Img<T> res = img.factory().create(img, type.createVariable());
+            new SlidingShapeOpUnaryInside<T, T, Img<T>, Img<T>>(shape, new MedianOp<T, T>(), outOfBounds,
+                    (i % 2) == 0 ? m_executor : null).compute(img, res);
+
+            final MedianOp<T, T> median = new MedianOp<T, T>();
+            final T expected = type.createVariable();
+            final Cursor<T> c = res.cursor();
+            final RandomAccessibleInterval<T> extended = Views.interval(Views.extend(img, outOfBounds), img);
+            for (final Neighborhood<T> neighborhood : shape.neighborhoods(extended)) {
+                median.compute(neighborhood.cursor(), expected);
+                assertEquals(expected.getRealDouble(), c.next().getRealDouble(), 0);
+            }
+        }
+    }
+
+    private static <T extends RealType<T>> OutOfBoundsMirrorFactory<T, Img<T>> outOfBounds() {
+        return new OutOfBoundsMirrorFactory<T, Img<T>>(Boundary.DOUBLE);
+    }
+
+    /*
+     * two dimensional, high enough to be split into several stripes
+     */
+    private static <T extends RealType<T> & NativeType<T>> Img<T> randomImg(final T type, final int numValues,
+                                                                          final Random rnd) {
+        final Img<T> img =
+                new ArrayImgFactory<T>().create(new long[]{1 + rnd.nextInt(40), 1 + rnd.nextInt(200)},
+                                                type.createVariable());
+        for (final T t : img) {
+            t.setReal(type instanceof FloatType ? rnd.nextInt(numValues) / 7.0 : rnd.nextInt(numValues));
+        }
+        return img;
+    }
+}
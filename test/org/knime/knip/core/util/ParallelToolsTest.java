@@ -0,0 +1,137 @@
+/*
+ * ------------------------------------------------------------------------
+ *
+ *  Copyright (C) 2003 - 2013
+ *  University of Konstanz, Germany and
+ *  KNIME GmbH, Konstanz, Germany
+ *  Website: http://www.knime.org; Email: contact@knime.org
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License, Version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses>.
+ *
+ *  Additional permission under GNU GPL version 3 section 7:
+ *
+ *  KNIME interoperates with ECLIPSE solely via ECLIPSE's plug-in APIs.
+ *  Hence, KNIME and ECLIPSE are both independent programs and are not
+ *  derived from each other. Should, however, the interpretation of the
+ *  GNU GPL Version 3 ("License") under any applicable laws result in
+ *  KNIME and ECLIPSE being a combined program, KNIME GMBH herewith grants
+ *  you the additional permission to use and propagate KNIME together with
+ *  ECLIPSE with only the license terms in place for ECLIPSE applying to
+ *  ECLIPSE and the GNU GPL Version 3 applying for KNIME, provided the
+ *  license terms of ECLIPSE themselves allow for the respective use and
+ *  propagation of ECLIPSE together with KNIME.
+ *
+ *  Additional permission relating to nodes for KNIME that extend the Node
+ *  Extension (and in particular that are based on subclasses of NodeModel,
+ *  NodeDialog, and NodeView) and that only interoperate with KNIME through
+ *  standard APIs ("Nodes"):
+ *  Nodes are deemed to be separate and independent programs and to not be
+ *  covered works.  Notwithstanding anything to the contrary in the
+ *  License, the License does not apply to Nodes, you are not required to
+ *  license Nodes under the License, and you are granted a license to
+ *  prepare and propagate Nodes, in each case even if such Nodes are
+ *  propagated with or for interoperation with KNIME. The owner of a Node
+ *  may freely choose the license terms applicable to such Node, including
+ *  when such Node is propagated with or for interoperation with KNIME.
+ * ------------------------------------------------------------------------
+ */
+package org.knime.knip.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ParallelTools#invokeAll(List, ExecutorService)}.
+ */
+public class ParallelToolsTest extends TestCase {
+
+    public void testEmpty() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Callable<Integer>> tasks = Collections.emptyList();
+            assertTrue(ParallelTools.invokeAll(tasks, executor).isEmpty());
+            assertTrue(ParallelTools.invokeAll(tasks, null).isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testResultsInOrder() {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final List<Integer> res = ParallelTools.invokeAll(squares(10), executor);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i * i, res.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testNestedOnSingleThreadPool() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            // the only thread of the pool waits for the inner tasks
+            final Future<List<Integer>> outer = executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    return ParallelTools.invokeAll(squares(4), executor);
+                }
+            });
+            assertEquals(9, outer.get(10, TimeUnit.SECONDS).get(3).intValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testExceptionIsRethrown() {
+        final List<Callable<Integer>> tasks = squares(4);
+        tasks.set(1, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelTools.invokeAll(tasks, executor);
+            fail("Exception of a task not rethrown.");
+        } catch (final IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<Callable<Integer>> squares(final int n) {
+        final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < n; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return value * value;
+                }
+            });
+        }
+        return tasks;
+    }
+}